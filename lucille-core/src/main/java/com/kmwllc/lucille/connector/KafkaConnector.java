@@ -11,15 +11,27 @@ import com.kmwllc.lucille.message.KafkaDocumentDeserializer;
 import com.kmwllc.lucille.message.KafkaUtils;
 import com.typesafe.config.Config;
 import java.time.Duration;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +49,14 @@ import org.slf4j.LoggerFactory;
  *   <li>maxMessages (Long, Optional) : The maximum number of messages to process before stopping.</li>
  *   <li>messageTimeout (Long, Optional) : The timeout in milliseconds to use when polling Kafka. Defaults to 100ms.</li>
  *   <li>continueOnTimeout (Boolean, Optional) : Whether to continue polling after a timeout. Defaults to true.</li>
+ *   <li>consumerThreads (Integer, Optional) : The number of consumers to run, each on its own thread and in the same consumer
+ *   group, so that Kafka divides the topic's partitions between them. With more than one, each consumer commits the
+ *   offsets of its partitions itself, after the documents it polled have been published, and handleMessage is called from
+ *   several threads at once. Defaults to 1.</li>
+ *   <li>pauseOnMaxPendingDocs (Boolean, Optional) : While the publisher holds publisher.maxPendingDocs pending documents,
+ *   pause the consumers' partitions and keep polling, instead of blocking in publish(). This keeps the consumers in the
+ *   consumer group however long the pipeline takes to catch up. Partitions assigned to a paused consumer in a rebalance
+ *   are paused too. Defaults to false.</li>
  * </ul>
  */
 public class KafkaConnector extends AbstractConnector {
@@ -49,8 +69,8 @@ public class KafkaConnector extends AbstractConnector {
       .optionalString("idField", "kafka.documentDeserializer")
       .optionalParent("offsets", new TypeReference<Map<Integer, Long>>() {
       })
-      .optionalNumber("maxMessages", "messageTimeout")
-      .optionalBoolean("continueOnTimeout")
+      .optionalNumber("maxMessages", "messageTimeout", "consumerThreads")
+      .optionalBoolean("continueOnTimeout", "pauseOnMaxPendingDocs")
       .build();
 
   private final String topic;
@@ -60,7 +80,13 @@ public class KafkaConnector extends AbstractConnector {
   private final Long maxMessages;
   private final Long messageTimeout;
   private final boolean continueOnTimeout;
+  private final int consumerThreads;
+  private final boolean pauseOnMaxPendingDocs;
   private KafkaConsumer<String, Document> consumer;
+  private PauseState pauseState;
+
+  // the consumers started when consumerThreads is more than 1; each is only used by its own thread, except for wakeup()
+  private final List<KafkaConsumer<String, Document>> threadConsumers = new CopyOnWriteArrayList<>();
 
   // running is volatile to ensure visibility to the polling thread.
   // It is used to ensure that the polling thread exits when the connector is closed.
@@ -74,7 +100,13 @@ public class KafkaConnector extends AbstractConnector {
     this.maxMessages = ConfigUtils.getOrDefault(config, "maxMessages", null);
     this.messageTimeout = ConfigUtils.getOrDefault(config, "messageTimeout", 100L);
     this.continueOnTimeout = ConfigUtils.getOrDefault(config, "continueOnTimeout", true);
+    this.consumerThreads = ConfigUtils.getOrDefault(config, "consumerThreads", 1);
+    this.pauseOnMaxPendingDocs = ConfigUtils.getOrDefault(config, "pauseOnMaxPendingDocs", false);
     this.offsets = parseOffsets(config);
+
+    if (consumerThreads < 1) {
+      throw new IllegalArgumentException("consumerThreads must be at least 1.");
+    }
   }
 
   private Map<Integer, Long> parseOffsets(Config config) {
@@ -89,6 +121,10 @@ public class KafkaConnector extends AbstractConnector {
 
   @Override
   public void execute(Publisher publisher) throws ConnectorException {
+    if (consumerThreads > 1) {
+      executeInParallel(publisher);
+      return;
+    }
 
     Properties props = KafkaUtils.createConsumerProps(config, clientId);
     // The Kafka connector implementation will poll for new messages after the current batch is fully processed either by
@@ -97,25 +133,182 @@ public class KafkaConnector extends AbstractConnector {
     enhanceConsumerProperties(props, config);
 
     consumer = createConsumer(props);
+    pauseState = new PauseState(consumer);
+
+    try {
+      consumer.subscribe(Collections.singletonList(topic), pauseState);
+      seekToOffsets(consumer);
+      startPollingLoop(publisher);
+    } catch (Exception e) {
+      throw new ConnectorException("Error reading from Kafka", e);
+    }
+  }
+
+  /**
+   * Runs consumerThreads consumers in the same consumer group, each polling the partitions Kafka assigns to it and
+   * publishing from its own thread. Returns once every consumer has stopped; if one fails, the others are stopped and the
+   * failure is thrown.
+   */
+  private void executeInParallel(Publisher publisher) throws ConnectorException {
+    log.info("Starting {} consumers for topic {}", consumerThreads, topic);
+    AtomicLong count = new AtomicLong();
+    ExecutorService executor = Executors.newFixedThreadPool(consumerThreads);
+    ExecutorCompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+
+    for (int i = 0; i < consumerThreads; i++) {
+      Properties props = KafkaUtils.createConsumerProps(config, clientId + "-" + i);
+      enhanceConsumerProperties(props, config);
+      // offsets are committed explicitly, per partition, once the polled documents have been published
+      props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+      KafkaConsumer<String, Document> threadConsumer = createConsumer(props);
+      threadConsumers.add(threadConsumer);
+
+      completionService.submit(() -> {
+        try {
+          PauseState threadPauseState = new PauseState(threadConsumer);
+          threadConsumer.subscribe(Collections.singletonList(topic), threadPauseState);
+          seekToOffsets(threadConsumer);
+          pollAndCommit(threadConsumer, threadPauseState, publisher, count);
+        } catch (WakeupException e) {
+          if (running) {
+            throw e;
+          }
+        } finally {
+          threadConsumer.close();
+        }
+        return null;
+      });
+    }
 
+    Throwable failure = null;
     try {
-      consumer.subscribe(Collections.singletonList(topic));
-
-      if (offsets != null) {
-        log.info("Seeking to specified offsets: {}", offsets);
-        consumer.poll(Duration.ZERO);
-        for (TopicPartition partition : consumer.assignment()) {
-          if (offsets.containsKey(partition.partition())) {
-            Long offset = offsets.get(partition.partition());
-            log.info("Seeking partition {} to offset {}", partition.partition(), offset);
-            consumer.seek(partition, offset);
+      for (int i = 0; i < consumerThreads; i++) {
+        try {
+          completionService.take().get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+            // stop the other consumers
+            running = false;
+            threadConsumers.forEach(KafkaConsumer::wakeup);
           }
         }
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      running = false;
+      threadConsumers.forEach(KafkaConsumer::wakeup);
+      throw new ConnectorException("Interrupted while reading from Kafka", e);
+    } finally {
+      executor.shutdown();
+      threadConsumers.clear();
+    }
 
-      startPollingLoop(publisher);
-    } catch (Exception e) {
-      throw new ConnectorException("Error reading from Kafka", e);
+    if (failure != null) {
+      throw new ConnectorException("Error reading from Kafka", failure);
+    }
+  }
+
+  /**
+   * Polls the given consumer until the connector stops or the consumers have read maxMessages records between them,
+   * publishing each record and then committing the offsets of the records that were published.
+   */
+  private void pollAndCommit(KafkaConsumer<String, Document> threadConsumer, PauseState threadPauseState,
+      Publisher publisher, AtomicLong count) throws ConnectorException {
+    // the count is shared, so a consumer whose partitions are idle also stops once the others have reached maxMessages
+    while (running && !Thread.currentThread().isInterrupted() && (maxMessages == null || count.get() < maxMessages)) {
+      if (pauseOnMaxPendingDocs) {
+        pauseOrResume(threadPauseState, publisher);
+      }
+
+      ConsumerRecords<String, Document> records = threadConsumer.poll(Duration.ofMillis(messageTimeout));
+
+      if (records.isEmpty()) {
+        if (continueOnTimeout || threadPauseState.paused) {
+          continue;
+        } else {
+          return;
+        }
+      }
+
+      Map<TopicPartition, OffsetAndMetadata> published = new HashMap<>();
+      try {
+        for (ConsumerRecord<String, Document> record : records) {
+          if (maxMessages != null && count.getAndIncrement() >= maxMessages) {
+            return;
+          }
+          handleMessage(record, publisher);
+          published.put(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1));
+        }
+      } finally {
+        if (!published.isEmpty()) {
+          threadConsumer.commitSync(published);
+        }
+      }
+    }
+  }
+
+  /**
+   * Pauses the consumer's partitions while the publisher is at its maximum number of pending documents, and resumes them
+   * once it is below it again. A paused consumer keeps polling, so it stays in the consumer group.
+   */
+  private void pauseOrResume(PauseState state, Publisher publisher) {
+    Integer maxPendingDocs = publisher.getMaxPendingDocs();
+    if (maxPendingDocs == null) {
+      return;
+    }
+    KafkaConsumer<String, Document> kafkaConsumer = state.consumer;
+    long pending = publisher.numPending();
+    boolean full = pending >= maxPendingDocs;
+    if (full && !state.paused) {
+      log.debug("Pausing partitions {}: {} documents pending.", kafkaConsumer.assignment(), pending);
+      state.paused = true;
+      kafkaConsumer.pause(kafkaConsumer.assignment());
+    } else if (!full && state.paused) {
+      log.debug("Resuming partitions {}.", kafkaConsumer.paused());
+      state.paused = false;
+      kafkaConsumer.resume(kafkaConsumer.paused());
+    }
+  }
+
+  /**
+   * Whether a consumer is paused by pauseOrResume. Partitions assigned to the consumer in a rebalance while it is paused
+   * are paused as they are assigned, during poll(), so none of their records are returned until it resumes.
+   */
+  private static class PauseState implements ConsumerRebalanceListener {
+
+    private final KafkaConsumer<String, Document> consumer;
+    private boolean paused = false;
+
+    private PauseState(KafkaConsumer<String, Document> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+      if (paused && !partitions.isEmpty()) {
+        log.debug("Pausing newly assigned partitions {}.", partitions);
+        consumer.pause(partitions);
+      }
+    }
+  }
+
+  private void seekToOffsets(KafkaConsumer<String, Document> kafkaConsumer) {
+    if (offsets == null) {
+      return;
+    }
+    log.info("Seeking to specified offsets: {}", offsets);
+    kafkaConsumer.poll(Duration.ZERO);
+    for (TopicPartition partition : kafkaConsumer.assignment()) {
+      if (offsets.containsKey(partition.partition())) {
+        Long offset = offsets.get(partition.partition());
+        log.info("Seeking partition {} to offset {}", partition.partition(), offset);
+        kafkaConsumer.seek(partition, offset);
+      }
     }
   }
 
@@ -144,10 +337,14 @@ public class KafkaConnector extends AbstractConnector {
   private void startPollingLoop(Publisher publisher) throws ConnectorException {
     long count = 0;
     while (running && !Thread.currentThread().isInterrupted() && (maxMessages == null || count < maxMessages)) {
+      if (pauseOnMaxPendingDocs) {
+        pauseOrResume(pauseState, publisher);
+      }
+
       ConsumerRecords<String, Document> records = consumer.poll(Duration.ofMillis(messageTimeout));
 
       if (records.isEmpty()) {
-        if (continueOnTimeout) {
+        if (continueOnTimeout || pauseState.paused) {
           continue;
         } else {
           return;
@@ -169,6 +366,9 @@ public class KafkaConnector extends AbstractConnector {
     log.info("Closing KafkaConnector and consumer");
     running = false;
 
+    // the consumers started for consumerThreads are closed by their own threads
+    threadConsumers.forEach(KafkaConsumer::wakeup);
+
     if (consumer != null) {
       consumer.wakeup();
       consumer.close();
@@ -187,6 +387,7 @@ public class KafkaConnector extends AbstractConnector {
    * <p>
    * Subclasses may choose to handle messages in a different way and may or may not publish the
    * document depending on the message and the implementation of the subclassed KafkaConnector.
+   * When consumerThreads is more than 1, this method is called from several threads at once.
    *
    * @param record the Kafka consumer record to process
    * @param publisher the publisher to use for publishing the document
@@ -1,6 +1,7 @@
 package com.kmwllc.lucille.connector;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kmwllc.lucille.core.*;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
@@ -10,17 +11,29 @@ import com.typesafe.config.ConfigValue;
 import com.typesafe.config.ConfigValueType;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.impl.CloudSolrClient;
 import org.apache.solr.client.solrj.request.GenericSolrRequest;
 import org.apache.solr.client.solrj.request.RequestWriter;
 import org.apache.solr.client.solrj.request.SolrQuery;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.cloud.Slice;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.util.NamedList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 // TODO : Honor and return children documents
@@ -38,11 +51,29 @@ import java.util.stream.Collectors;
  *   <li>solrParams (Map&lt;String, Object&gt;, Optional) : Query parameters to use when a pipeline is configured.</li>
  *   <li>useXml (Boolean, Optional) : Send XML requests instead of JSON. Defaults to false.</li>
  *   <li>idField (String, Optional) : Field to use for document IDs when publishing. Defaults to "id".</li>
+ *   <li>parallelShards (Boolean, Optional) : Page through each shard of solr.defaultCollection with its own cursorMark, on
+ *   its own thread, instead of through the whole collection on one thread. Requires solr.useCloudClient, which is used to
+ *   look up the collection's active shards. Defaults to false.</li>
+ *   <li>shards (List&lt;String&gt;, Optional) : The shards to page through in parallel, passed to Solr as the
+ *   <code>shards</code> parameter. Takes precedence over the shards looked up by parallelShards.</li>
+ *   <li>checkpointFile (String, Optional) : A file in which the cursorMark of each shard (or of the whole collection) is
+ *   saved after each page of results has been published. If the file exists when the connector runs, each shard resumes
+ *   from its saved cursorMark; documents published after the last save will be published again. The file is deleted once
+ *   all results have been published. If the file holds cursorMarks for shards other than the ones being exported, for
+ *   example because parallelShards has changed since it was saved, the connector fails rather than starting over.</li>
  * </ul>
+ * When shards are paged through in parallel, the threads hand their pages to the connector's thread, which publishes them.
+ * At most one page per shard waits to be published, so the memory used is bounded by the number of shards and the rows
+ * parameter.
  */
 public class SolrConnector extends AbstractConnector {
 
   private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  // the checkpoint key used when the whole collection is paged through at once, and the value of a finished shard
+  private static final String ALL_SHARDS = "*";
+  private static final String DONE = "DONE";
 
   private final SolrClient client;
   private final GenericSolrRequest request;
@@ -55,14 +86,18 @@ public class SolrConnector extends AbstractConnector {
   private final Map<String, List<String>> solrParams;
   private final String idField;
   private final String actionFormat;
+  private final boolean parallelShards;
+  private final List<String> shards;
+  private final Path checkpointFile;
 
   public static final Spec SPEC = SpecBuilder.connector()
       .requiredParent(SolrUtils.SOLR_PARENT_SPEC)
       .optionalParent("solrParams", new TypeReference<Map<String, Object>>(){})
       .optionalList("preActions", new TypeReference<List<String>>(){})
       .optionalList("postActions", new TypeReference<List<String>>(){})
-      .optionalBoolean("useXml")
-      .optionalString("idField").build();
+      .optionalBoolean("useXml", "parallelShards")
+      .optionalList("shards", new TypeReference<List<String>>(){})
+      .optionalString("idField", "checkpointFile").build();
 
   public SolrConnector(Config config) {
     this(config, SolrUtils.getSolrClient(config));
@@ -75,6 +110,9 @@ public class SolrConnector extends AbstractConnector {
     this.preActions = ConfigUtils.getOrDefault(config, "preActions", new ArrayList<>());
     this.postActions = ConfigUtils.getOrDefault(config, "postActions", new ArrayList<>());
     this.actionFormat = config.hasPath("useXml") && config.getBoolean("useXml") ? "text/xml" : "text/json";
+    this.parallelShards = ConfigUtils.getOrDefault(config, "parallelShards", false);
+    this.shards = ConfigUtils.getOrDefault(config, "shards", null);
+    this.checkpointFile = config.hasPath("checkpointFile") ? Paths.get(config.getString("checkpointFile")) : null;
 
     this.request = new GenericSolrRequest(SolrRequest.METHOD.POST, "/update");
     this.solrParams = new HashMap<>();
@@ -112,57 +150,226 @@ public class SolrConnector extends AbstractConnector {
       return;
     }
 
+    Map<String, String> cursorMarks = readCheckpoint();
+    List<String> shardsToExport = getShardsToExport();
+    checkCheckpointMatches(cursorMarks, shardsToExport);
+
+    if (shardsToExport.isEmpty()) {
+      String cursorMark = cursorMarks.getOrDefault(ALL_SHARDS, CursorMarkParams.CURSOR_MARK_START);
+      if (!DONE.equals(cursorMark)) {
+        try {
+          exportShard(null, cursorMark, page -> {
+            publishPage(publisher, page);
+            saveCheckpoint(cursorMarks, ALL_SHARDS, page);
+          });
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ConnectorException("Interrupted while exporting from Solr.", e);
+        }
+      }
+    } else {
+      exportShardsInParallel(publisher, shardsToExport, cursorMarks);
+    }
+
+    deleteCheckpoint();
+  }
+
+  /**
+   * Pages through each shard on its own thread and publishes the pages from this thread as they arrive.
+   */
+  private void exportShardsInParallel(Publisher publisher, List<String> shardsToExport, Map<String, String> cursorMarks)
+      throws ConnectorException {
+    List<String> remaining = shardsToExport.stream()
+        .filter(shard -> !DONE.equals(cursorMarks.get(shard)))
+        .collect(Collectors.toList());
+    if (remaining.isEmpty()) {
+      return;
+    }
+
+    log.info("Exporting {} shards in parallel: {}", remaining.size(), remaining);
+    BlockingQueue<Page> pages = new ArrayBlockingQueue<>(remaining.size());
+    ExecutorService executor = Executors.newFixedThreadPool(remaining.size());
+
+    try {
+      for (String shard : remaining) {
+        String cursorMark = cursorMarks.getOrDefault(shard, CursorMarkParams.CURSOR_MARK_START);
+        executor.submit(() -> {
+          try {
+            exportShard(shard, cursorMark, pages::put);
+          } catch (Exception e) {
+            pages.put(new Page(shard, e));
+          }
+          return null;
+        });
+      }
+
+      int running = remaining.size();
+      while (running > 0) {
+        Page page = pages.take();
+        if (page.failure != null) {
+          throw new ConnectorException("Unable to export shard " + page.shard + " from Solr.", page.failure);
+        }
+        publishPage(publisher, page);
+        saveCheckpoint(cursorMarks, page.shard, page);
+        if (page.last) {
+          running--;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConnectorException("Interrupted while exporting shards from Solr.", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Pages through the results of the configured query on the given shard, or on the whole collection if the shard is
+   * null, starting from the given cursorMark, and hands each page to the given handler.
+   */
+  private void exportShard(String shard, String cursorMark, PageHandler handler)
+      throws ConnectorException, InterruptedException {
     SolrQuery q = new SolrQuery();
     for (Map.Entry<String, List<String>> e : solrParams.entrySet()) {
       String[] vals = e.getValue().toArray(new String[0]);
       q.add(e.getKey(), vals);
     }
     q.add("sort", idField + " asc");
-    q.set("cursorMark", "\\*");
-
-    QueryResponse resp;
-    try {
-      resp = client.query(q);
-    } catch (Exception e) {
-      throw new ConnectorException("Unable to query Solr.", e);
+    if (shard != null) {
+      q.set("shards", shard);
     }
+    q.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
 
     while (true) {
+      QueryResponse resp;
+      try {
+        resp = client.query(q);
+      } catch (Exception e) {
+        throw new ConnectorException("Unable to query Solr.", e);
+      }
+
+      List<Document> docs = new ArrayList<>();
       for (SolrDocument solrDoc : resp.getResults()) {
-        String id = createDocId((String) solrDoc.get(idField));
-        Document doc = Document.create(id);
-
-        for (String fieldName : solrDoc.getFieldNames()) {
-          // TODO : we might want an option to preserve the id under its original field name
-          // TODO : Add configurable field blacklist (not necessarily here)
-          fieldName = fieldName.toLowerCase();
-          if (fieldName.equals(idField) || fieldName.equals(Document.ID_FIELD)) {
-            continue;
-          }
+        docs.add(toDocument(solrDoc));
+      }
 
-          doc.update(fieldName, UpdateMode.DEFAULT, solrDoc.getFieldValues(fieldName).toArray(new String[0]));
-        }
+      String nextCursorMark = resp.getNextCursorMark();
+      boolean last = q.get(CursorMarkParams.CURSOR_MARK_PARAM).equals(nextCursorMark);
+      handler.handle(new Page(shard, docs, nextCursorMark, last));
 
-        try {
-          publisher.publish(doc);
-        } catch (Exception e) {
-          throw new ConnectorException("Unable to publish document", e);
-        }
+      if (last) {
+        break;
       }
 
-      if (q.get("cursorMark").equals(resp.getNextCursorMark())) {
-        break;
+      q.set(CursorMarkParams.CURSOR_MARK_PARAM, nextCursorMark);
+    }
+  }
+
+  private Document toDocument(SolrDocument solrDoc) {
+    String id = createDocId((String) solrDoc.get(idField));
+    Document doc = Document.create(id);
+
+    for (String fieldName : solrDoc.getFieldNames()) {
+      // TODO : we might want an option to preserve the id under its original field name
+      // TODO : Add configurable field blacklist (not necessarily here)
+      fieldName = fieldName.toLowerCase();
+      if (fieldName.equals(idField) || fieldName.equals(Document.ID_FIELD)) {
+        continue;
       }
 
-      q.set("cursorMark", resp.getNextCursorMark());
+      doc.update(fieldName, UpdateMode.DEFAULT, solrDoc.getFieldValues(fieldName).toArray(new String[0]));
+    }
+    return doc;
+  }
+
+  private static void publishPage(Publisher publisher, Page page) throws ConnectorException {
+    for (Document doc : page.docs) {
       try {
-        resp = client.query(q);
+        publisher.publish(doc);
       } catch (Exception e) {
-        throw new ConnectorException("Unable to query Solr", e);
+        throw new ConnectorException("Unable to publish document", e);
       }
     }
   }
 
+  private List<String> getShardsToExport() throws ConnectorException {
+    if (shards != null) {
+      return shards;
+    }
+    if (!parallelShards) {
+      return List.of();
+    }
+    if (!(client instanceof CloudSolrClient) || !config.hasPath("solr.defaultCollection")) {
+      throw new ConnectorException("parallelShards requires solr.useCloudClient and solr.defaultCollection to be set.");
+    }
+
+    String collection = config.getString("solr.defaultCollection");
+    try {
+      return ((CloudSolrClient) client).getClusterStateProvider().getCollection(collection).getActiveSlices().stream()
+          .map(Slice::getName)
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (Exception e) {
+      throw new ConnectorException("Unable to look up the shards of collection " + collection + ".", e);
+    }
+  }
+
+  /**
+   * Throws if the checkpoint was saved for shards other than the ones being exported, for example because parallelShards
+   * or shards has changed since, or the collection's shards have been split. Otherwise the checkpoint would be ignored
+   * and then deleted, so the export would start over without saying so.
+   */
+  private void checkCheckpointMatches(Map<String, String> cursorMarks, List<String> shardsToExport)
+      throws ConnectorException {
+    Set<String> expected = shardsToExport.isEmpty() ? Set.of(ALL_SHARDS) : Set.copyOf(shardsToExport);
+    Set<String> unexpected = new TreeSet<>(cursorMarks.keySet());
+    unexpected.removeAll(expected);
+    if (!unexpected.isEmpty()) {
+      throw new ConnectorException("Checkpoint file " + checkpointFile + " has cursorMarks for " + unexpected
+          + ", which are not being exported (exporting " + new TreeSet<>(expected) + "). Rerun with the settings the "
+          + "checkpoint was saved with, or delete it to start the export over.");
+    }
+  }
+
+  private Map<String, String> readCheckpoint() throws ConnectorException {
+    if (checkpointFile == null || !Files.exists(checkpointFile)) {
+      return new HashMap<>();
+    }
+    try {
+      Map<String, String> cursorMarks = MAPPER.readValue(checkpointFile.toFile(), new TypeReference<Map<String, String>>(){});
+      log.info("Resuming export from checkpoint {}: {}", checkpointFile, cursorMarks);
+      return cursorMarks;
+    } catch (IOException e) {
+      throw new ConnectorException("Unable to read checkpoint file " + checkpointFile + ".", e);
+    }
+  }
+
+  private void saveCheckpoint(Map<String, String> cursorMarks, String shard, Page page) throws ConnectorException {
+    if (checkpointFile == null) {
+      return;
+    }
+    cursorMarks.put(shard == null ? ALL_SHARDS : shard, page.last ? DONE : page.nextCursorMark);
+    // write to a temporary file first so a crash never leaves a partially written checkpoint
+    Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+    try {
+      MAPPER.writeValue(temp.toFile(), cursorMarks);
+      Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new ConnectorException("Unable to write checkpoint file " + checkpointFile + ".", e);
+    }
+  }
+
+  private void deleteCheckpoint() throws ConnectorException {
+    if (checkpointFile == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(checkpointFile);
+    } catch (IOException e) {
+      throw new ConnectorException("Unable to delete checkpoint file " + checkpointFile + ".", e);
+    }
+  }
+
   @Override
   public void postExecute(String runId) throws ConnectorException {
     replacedPostActions =
@@ -200,4 +407,37 @@ public class SolrConnector extends AbstractConnector {
       }
     }
   }
+
+  /**
+   * A page of results from one shard, or the failure that ended the shard's export.
+   */
+  private static class Page {
+
+    private final String shard;
+    private final List<Document> docs;
+    private final String nextCursorMark;
+    private final boolean last;
+    private final Exception failure;
+
+    private Page(String shard, List<Document> docs, String nextCursorMark, boolean last) {
+      this.shard = shard;
+      this.docs = docs;
+      this.nextCursorMark = nextCursorMark;
+      this.last = last;
+      this.failure = null;
+    }
+
+    private Page(String shard, Exception failure) {
+      this.shard = shard;
+      this.docs = List.of();
+      this.nextCursorMark = null;
+      this.last = true;
+      this.failure = failure;
+    }
+  }
+
+  @FunctionalInterface
+  private interface PageHandler {
+    void handle(Page page) throws ConnectorException, InterruptedException;
+  }
 }
@@ -0,0 +1,118 @@
+package com.kmwllc.lucille.core;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.SlidingWindowReservoir;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the Indexer's batch size with an additive-increase, multiplicative-decrease (AIMD) policy, so the size follows
+ * the capacity of the destination as it changes instead of staying at a fixed value.
+ * <p>
+ * After each batch is sent, the controller is given the number of documents sent, how long the send took, and how many
+ * documents the destination rejected because it was overloaded (HTTP 429 or 503). The batch size is:
+ * <ul>
+ *   <li>multiplied by {@value #DECREASE_FACTOR} when any document is rejected, when the batch took more than twice the
+ *   target latency, or when the median latency of the last {@value #WINDOW} batches, once at least
+ *   {@value #MIN_SAMPLES} have been sent, is above the target;</li>
+ *   <li>increased by a fixed step when a full batch was sent without rejections and the 95th percentile latency of the
+ *   last {@value #WINDOW} batches is below the target;</li>
+ *   <li>left unchanged otherwise, for example after a batch that was flushed by the timeout before it filled.</li>
+ * </ul>
+ * The latency window is cleared after every change, so each decision only considers batches of the current size. The
+ * batch size always stays between the configured minimum and maximum.
+ */
+class AdaptiveBatchController {
+
+  static final int DEFAULT_MIN_BATCH_SIZE = 10;
+  static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+  static final int DEFAULT_TARGET_BATCH_LATENCY_MS = 1000;
+
+  static final double DECREASE_FACTOR = 0.5;
+  static final int WINDOW = 5;
+  static final int MIN_SAMPLES = 3;
+
+  /** Status codes with which a destination signals that it is overloaded and the client should slow down. */
+  static final List<Integer> OVERLOAD_STATUS_CODES = List.of(429, 503);
+
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final long targetLatencyNanos;
+  private final int increment;
+
+  private Histogram latencies;
+  private int batchSize;
+
+  /**
+   * @param initialBatchSize the batch size to start with, clamped to the minimum and maximum
+   * @param minBatchSize the smallest batch size that will be chosen
+   * @param maxBatchSize the largest batch size that will be chosen
+   * @param targetLatencyMs the time, in milliseconds, that sending a batch should take
+   */
+  AdaptiveBatchController(int initialBatchSize, int minBatchSize, int maxBatchSize, int targetLatencyMs) {
+    if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+      throw new IllegalArgumentException("indexer.minBatchSize must be at least 1 and no larger than indexer.maxBatchSize.");
+    }
+    if (targetLatencyMs <= 0) {
+      throw new IllegalArgumentException("indexer.targetBatchLatencyMs must be greater than 0.");
+    }
+
+    this.minBatchSize = minBatchSize;
+    this.maxBatchSize = maxBatchSize;
+    this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+    this.batchSize = Math.max(minBatchSize, Math.min(maxBatchSize, initialBatchSize));
+    this.increment = Math.max(1, this.batchSize / 10);
+    this.latencies = newWindow();
+  }
+
+  int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Records the outcome of sending a batch and returns the batch size to use from now on.
+   *
+   * @param sent the number of documents in the batch
+   * @param latencyNanos how long sending the batch took, including any retries
+   * @param rejected the number of documents rejected because the destination was overloaded
+   */
+  int onBatchSent(int sent, long latencyNanos, int rejected) {
+    if (rejected > 0 || latencyNanos > 2 * targetLatencyNanos) {
+      return resize((int) (batchSize * DECREASE_FACTOR));
+    }
+
+    latencies.update(latencyNanos);
+    Snapshot snapshot = latencies.getSnapshot();
+
+    if (snapshot.size() >= MIN_SAMPLES && snapshot.getMedian() > targetLatencyNanos) {
+      return resize((int) (batchSize * DECREASE_FACTOR));
+    }
+    if (sent >= batchSize && snapshot.get95thPercentile() < targetLatencyNanos) {
+      return resize(batchSize + increment);
+    }
+    return batchSize;
+  }
+
+  /**
+   * Returns whether the given failure means the destination was overloaded, as opposed to a problem with the documents
+   * themselves.
+   */
+  static boolean isOverloaded(Throwable failure) {
+    return failure instanceof IndexerRetryableException
+        && OVERLOAD_STATUS_CODES.contains(((IndexerRetryableException) failure).getStatusCode());
+  }
+
+  private int resize(int size) {
+    int resized = Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    if (resized != batchSize) {
+      batchSize = resized;
+      latencies = newWindow();
+    }
+    return batchSize;
+  }
+
+  private static Histogram newWindow() {
+    return new Histogram(new SlidingWindowReservoir(WINDOW));
+  }
+}
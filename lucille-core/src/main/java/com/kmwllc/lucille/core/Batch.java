@@ -48,4 +48,12 @@ public interface Batch {
    * Retrieves the capacity of a batch.
    */
   public int getCapacity();
+
+  /**
+   * Changes the capacity of the batch. Documents already in the batch are kept; if the batch holds more documents than
+   * the new capacity, it will be flushed during the next call to add().
+   *
+   * @param capacity the number of documents above which the batch will be flushed
+   */
+  public void setCapacity(int capacity);
 }
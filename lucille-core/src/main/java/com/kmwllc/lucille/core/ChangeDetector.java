@@ -0,0 +1,146 @@
+package com.kmwllc.lucille.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides whether a document is unchanged since it was last indexed, by comparing a hash of the fields that would be
+ * sent to the destination against the hash stored for the document's key in a {@link ContentHashStore}.
+ * <p>
+ * The content hash is a 128-bit murmur3 hash of the document's indexer fields serialized as JSON with keys sorted, so it
+ * does not depend on the order fields were added in. {@link Document#RUNID_FIELD} is left out, including from children,
+ * since it changes on every run. Hashes are only stored once the Indexer reports that a document was indexed, so a
+ * document that failed is sent again on the next run.
+ */
+class ChangeDetector implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(ChangeDetector.class);
+
+  private static final ObjectMapper MAPPER = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private final ContentHashStore store;
+
+  // the hashes computed for documents that are being sent, stored once they are known to have been indexed
+  private final Map<Document, PendingHash> pending = new IdentityHashMap<>();
+
+  ChangeDetector(Path file) throws IOException {
+    this.store = new ContentHashStore(file);
+  }
+
+  /**
+   * Returns whether the given fields match what was last indexed under the given key. When they don't, the new hash is
+   * remembered so it can be stored if the document is indexed.
+   *
+   * @param doc the document being sent
+   * @param key the document's key in the destination, combining its id and, if it has one, its index
+   * @param indexerDoc the fields of the document that would be sent, which may be modified
+   */
+  boolean isUnchanged(Document doc, String key, Map<String, Object> indexerDoc) {
+    long keyHash = keyHash(key);
+    byte[] contentHash;
+    try {
+      contentHash = contentHash(indexerDoc);
+    } catch (IOException e) {
+      log.warn("Couldn't hash document {}, sending it as changed.", doc.getId(), e);
+      return false;
+    }
+
+    if (Arrays.equals(contentHash, store.get(keyHash))) {
+      return true;
+    }
+    pending.put(doc, new PendingHash(keyHash, contentHash));
+    return false;
+  }
+
+  /**
+   * Remembers that the given document is a deletion, so its stored hash is removed if it is sent successfully.
+   */
+  void deleting(Document doc, String key) {
+    pending.put(doc, new PendingHash(keyHash(key), null));
+  }
+
+  /**
+   * Stores the hashes of the given documents, which have been indexed or deleted successfully.
+   */
+  void indexed(Collection<Document> docs) throws IOException {
+    for (Document doc : docs) {
+      PendingHash hash = pending.remove(doc);
+      if (hash == null) {
+        continue;
+      }
+      if (hash.contentHash == null) {
+        store.remove(hash.keyHash);
+      } else {
+        store.put(hash.keyHash, hash.contentHash);
+      }
+    }
+  }
+
+  /**
+   * Forgets any hashes computed for the given documents that were not stored.
+   */
+  void finished(Collection<Document> docs) {
+    for (Document doc : docs) {
+      pending.remove(doc);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    store.close();
+  }
+
+  static long keyHash(String key) {
+    return HASH_FUNCTION.hashString(key, StandardCharsets.UTF_8).asLong();
+  }
+
+  static byte[] contentHash(Map<String, Object> indexerDoc) throws IOException {
+    removeRunIds(indexerDoc);
+
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    // the serialized document is fed to the hasher as it is written, so it is never held in memory as a whole
+    try (OutputStream out = Funnels.asOutputStream(hasher)) {
+      MAPPER.writeValue(out, indexerDoc);
+    }
+    return hasher.hash().asBytes();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void removeRunIds(Map<String, Object> doc) {
+    doc.remove(Document.RUNID_FIELD);
+    if (doc.get(Document.CHILDREN_FIELD) instanceof List) {
+      for (Object child : (List<Object>) doc.get(Document.CHILDREN_FIELD)) {
+        if (child instanceof Map) {
+          removeRunIds((Map<String, Object>) child);
+        }
+      }
+    }
+  }
+
+  private static class PendingHash {
+
+    private final long keyHash;
+    private final byte[] contentHash;
+
+    private PendingHash(long keyHash, byte[] contentHash) {
+      this.keyHash = keyHash;
+      this.contentHash = contentHash;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package com.kmwllc.lucille.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A persistent map from 64-bit key hashes to 128-bit content hashes, stored as an open-addressing hash table in a
+ * memory-mapped file. Used by the Indexer to remember what it last sent for each document, so unchanged documents can be
+ * skipped on the next run.
+ * <p>
+ * The file starts with a header holding a magic number, the number of slots, and the number of entries, followed by the
+ * slots. Each slot holds a key hash, which is 0 when the slot is empty, and a content hash. Collisions are resolved by
+ * linear probing, and removals shift later entries back so no tombstones are needed. When the table is more than
+ * {@value #MAX_LOAD_FACTOR} full, it is rewritten to a temporary file with twice as many slots and moved over the
+ * original. The slots are mapped in chunks so tables larger than 2GB can be addressed.
+ * <p>
+ * Writes go straight to the mapped file and reach disk when the operating system flushes them, or on {@link #close()}.
+ * The file is locked while it is open, so only one store can use it at a time. Instances are not thread-safe.
+ */
+class ContentHashStore implements AutoCloseable {
+
+  static final int INITIAL_SLOTS = 1 << 16;
+  static final double MAX_LOAD_FACTOR = 0.7;
+
+  private static final int MAGIC = 0x4c434853; // "LCHS"
+  private static final int HEADER_BYTES = 32;
+  private static final int SLOT_BYTES = 24;
+  private static final int SLOTS_PER_CHUNK_BITS = 20;
+  private static final int SLOTS_PER_CHUNK = 1 << SLOTS_PER_CHUNK_BITS;
+
+  private final Path path;
+
+  private FileChannel channel;
+  private FileLock lock;
+  private MappedByteBuffer header;
+  private MappedByteBuffer[] chunks;
+  private long slots;
+  private long size;
+
+  /**
+   * Opens the store in the given file, creating it if it does not exist.
+   *
+   * @throws IllegalStateException if the file is not a content hash store, or is locked by another store
+   */
+  ContentHashStore(Path path) throws IOException {
+    this.path = path;
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+    if (!Files.exists(path)) {
+      create(path, INITIAL_SLOTS).close();
+    }
+    open();
+  }
+
+  /**
+   * Returns the number of entries in the store.
+   */
+  long size() {
+    return size;
+  }
+
+  /**
+   * Returns the content hash stored for the given key hash, or null if there is none.
+   */
+  byte[] get(long key) {
+    long slot = find(normalize(key));
+    if (slot < 0) {
+      return null;
+    }
+    byte[] hash = new byte[16];
+    buffer(slot).get(offset(slot) + 8, hash);
+    return hash;
+  }
+
+  /**
+   * Stores the content hash, which must be 16 bytes, for the given key hash, replacing any previous one.
+   */
+  void put(long key, byte[] hash) throws IOException {
+    if (hash.length != 16) {
+      throw new IllegalArgumentException("Content hashes must be 16 bytes.");
+    }
+    key = normalize(key);
+
+    long slot = find(key);
+    if (slot < 0) {
+      if (size + 1 > slots * MAX_LOAD_FACTOR) {
+        grow();
+      }
+      slot = insertionSlot(key);
+      setSize(size + 1);
+    }
+
+    write(slot, key, hash);
+  }
+
+  /**
+   * Removes the entry for the given key hash, if there is one.
+   */
+  void remove(long key) {
+    long slot = find(normalize(key));
+    if (slot < 0) {
+      return;
+    }
+
+    // shift back any later entries in the same probe sequence that could otherwise no longer be found
+    long mask = slots - 1;
+    long empty = slot;
+    long next = (slot + 1) & mask;
+    while (true) {
+      long nextKey = keyAt(next);
+      if (nextKey == 0) {
+        break;
+      }
+      long home = nextKey & mask;
+      // the entry at next may move to empty only if its home slot is not cyclically within (empty, next]
+      boolean movable = empty <= next ? (home <= empty || home > next) : (home <= empty && home > next);
+      if (movable) {
+        byte[] hash = new byte[16];
+        buffer(next).get(offset(next) + 8, hash);
+        write(empty, nextKey, hash);
+        empty = next;
+      }
+      next = (next + 1) & mask;
+    }
+    buffer(empty).putLong(offset(empty), 0);
+    setSize(size - 1);
+  }
+
+  /**
+   * Writes any changes to disk and releases the file.
+   */
+  @Override
+  public void close() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    force();
+    release();
+  }
+
+  private void open() throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock == null) {
+      channel.close();
+      throw new IllegalStateException("Change detection file " + path + " is already in use by another indexer.");
+    }
+
+    if (channel.size() < HEADER_BYTES) {
+      release();
+      throw new IllegalStateException(path + " is not a change detection file.");
+    }
+    header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+    slots = header.getLong(8);
+    size = header.getLong(16);
+    if (header.getInt(0) != MAGIC || Long.bitCount(slots) != 1 || channel.size() != HEADER_BYTES + slots * SLOT_BYTES) {
+      release();
+      throw new IllegalStateException(path + " is not a change detection file.");
+    }
+    chunks = map(channel, slots);
+  }
+
+  private void release() throws IOException {
+    try {
+      if (lock != null) {
+        lock.release();
+      }
+      channel.close();
+    } finally {
+      channel = null;
+      lock = null;
+      header = null;
+      chunks = null;
+    }
+  }
+
+  private void force() {
+    header.force();
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+  }
+
+  private void grow() throws IOException {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.deleteIfExists(temp);
+
+    try (ContentHashStore grown = create(temp, slots * 2)) {
+      for (long slot = 0; slot < slots; slot++) {
+        long key = keyAt(slot);
+        if (key != 0) {
+          byte[] hash = new byte[16];
+          buffer(slot).get(offset(slot) + 8, hash);
+          grown.write(grown.insertionSlot(key), key, hash);
+        }
+      }
+      grown.setSize(size);
+    }
+
+    release();
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    open();
+  }
+
+  /**
+   * Creates an empty store with the given number of slots in a new file and returns it, open.
+   */
+  private static ContentHashStore create(Path path, long slots) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(0, MAGIC);
+      header.putLong(8, slots);
+      header.putLong(16, 0);
+      channel.write(header, 0);
+      // extending the file leaves every slot zeroed, which marks it empty
+      channel.write(ByteBuffer.allocate(1), HEADER_BYTES + slots * SLOT_BYTES - 1);
+    }
+    return new ContentHashStore(path);
+  }
+
+  private static MappedByteBuffer[] map(FileChannel channel, long slots) throws IOException {
+    int count = (int) Math.max(1, slots >>> SLOTS_PER_CHUNK_BITS);
+    long chunkSlots = Math.min(slots, SLOTS_PER_CHUNK);
+    MappedByteBuffer[] chunks = new MappedByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + i * chunkSlots * SLOT_BYTES,
+          chunkSlots * SLOT_BYTES);
+    }
+    return chunks;
+  }
+
+  /**
+   * Returns the slot holding the given key, or -1 if it is not present.
+   */
+  private long find(long key) {
+    long mask = slots - 1;
+    for (long slot = key & mask; ; slot = (slot + 1) & mask) {
+      long current = keyAt(slot);
+      if (current == key) {
+        return slot;
+      }
+      if (current == 0) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Returns the first empty slot in the given key's probe sequence.
+   */
+  private long insertionSlot(long key) {
+    long mask = slots - 1;
+    long slot = key & mask;
+    while (keyAt(slot) != 0) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void write(long slot, long key, byte[] hash) {
+    MappedByteBuffer buffer = buffer(slot);
+    int offset = offset(slot);
+    buffer.put(offset + 8, hash);
+    buffer.putLong(offset, key);
+  }
+
+  private void setSize(long size) {
+    this.size = size;
+    header.putLong(16, size);
+  }
+
+  private long keyAt(long slot) {
+    return buffer(slot).getLong(offset(slot));
+  }
+
+  private MappedByteBuffer buffer(long slot) {
+    return chunks[(int) (slot >>> SLOTS_PER_CHUNK_BITS)];
+  }
+
+  private static int offset(long slot) {
+    return (int) (slot & (SLOTS_PER_CHUNK - 1)) * SLOT_BYTES;
+  }
+
+  // 0 marks an empty slot, so a key hash of 0 is stored as 1
+  private static long normalize(long key) {
+    return key == 0 ? 1 : key;
+  }
+}
@@ -153,11 +153,36 @@ public interface Document {
 
   void setField(String name, JsonNode value);
 
+  /* --- VECTORS --- */
+
+  /**
+   * Sets the designated field to the given dense vector (for example, an embedding), overwriting any value(s) that
+   * existed previously. The vector is stored as a primitive array, not as a list of boxed values, and is serialized
+   * as a JSON array of numbers. The array is not copied, so it must not be modified after it is set.
+   *
+   * A vector field can still be read with getFloatList() or getDoubleList(), but those methods box every value;
+   * use getVector() instead.
+   *
+   * @param name the name of the field you want to set.
+   * @param vector the vector you want to set the field to have.
+   */
+  void setVector(String name, float[] vector);
+
+  /**
+   * Returns the value of the designated field as a dense vector. If the field was set with setVector(), the stored
+   * array is returned without copying, and it must not be modified. Otherwise the field's numeric value(s) are
+   * converted to a new array, as is the case for a vector Document that has been serialized and deserialized.
+   *
+   * Returns null if the field is absent or contains a null.
+   */
+  float[] getVector(String name);
+
   /**
    * Sets the designated field to the given value, overwriting any value
    * that existed previously, and making the field single-valued.
    * The provided Object value must be one of:
-   * String, Long, Double, Boolean, Integer, Float, Instant, byte[], JsonNode, Timestamp, or Date.
+   * String, Long, Double, Boolean, Integer, Float, Instant, byte[], float[], JsonNode, Timestamp, or Date.
+   * A float[] is set as a vector via setVector().
    *
    * @param name the name of the field you want to set.
    * @param value the value you want to set the field to have.
@@ -180,6 +205,8 @@ public interface Document {
       setField(name, (Instant) value);
     } else if (value instanceof byte[]) {
       setField(name, (byte[]) value);
+    } else if (value instanceof float[]) {
+      setVector(name, (float[]) value);
     } else if (value instanceof JsonNode) {
       setField(name, (JsonNode) value);
     } else if (value instanceof Timestamp) {
@@ -557,6 +584,9 @@ public interface Document {
    */
   Set<String> getFieldNames();
 
+  /**
+   * Returns the Document's fields as a Map. Vector fields, set with setVector(), are returned as a List of Floats.
+   */
   Map<String, Object> asMap();
 
   /**
@@ -630,7 +660,7 @@ public interface Document {
 
     public static List<Segment> parse(String name) {
       List<Segment> segments = new ArrayList();
-      StringBuffer current = new StringBuffer();
+      StringBuilder current = new StringBuilder();
       boolean insideBrackets = false;
       for (int i = 0; i < name.length(); i++) {
         char ch = name.charAt(i);
@@ -642,7 +672,7 @@ public interface Document {
           }
           if (!current.isEmpty()) {
             segments.add(new Segment(current.toString()));
-            current = new StringBuffer();
+            current = new StringBuilder();
           }
           insideBrackets = true;
         } else if (ch == ']') {
@@ -650,7 +680,7 @@ public interface Document {
             throw new IllegalArgumentException();
           }
           segments.add(new Segment(Integer.parseInt(current.toString())));
-          current = new StringBuffer();
+          current = new StringBuilder();
           insideBrackets = false;
         } else if (ch == '.') {
           if (insideBrackets) {
@@ -658,7 +688,7 @@ public interface Document {
           }
           if (!current.isEmpty()) {
             segments.add(new Segment(current.toString()));
-            current = new StringBuffer();
+            current = new StringBuilder();
           }
         } else {
           current.append(ch);
@@ -680,7 +710,7 @@ public interface Document {
       if (segments.size() == 1) {
         return segments.get(0).name;
       }
-      StringBuffer result = new StringBuffer();
+      StringBuilder result = new StringBuilder();
       boolean first = true;
       for (Segment segment : segments) {
         if (segment.isIndex()) {
@@ -702,12 +732,23 @@ public interface Document {
   /**
    * Gets a nested JsonNode at a path like "a.b.c.d" where the path is split on '.' and each part is treated as a level of nesting.
    * This also works for nested values that contain a list, such as "a.b[2].c" where 'b' is an ArrayNode. The indices are 0 based.
+   * The path is compiled through {@link FieldPath#of(String)}, so repeated paths are only parsed once.
    *
    * @param name the nested field path to get the JsonNode from
    * @return the JsonNode at the nested path or null if not found
    */
   default JsonNode getNestedJson(String name) {
-    return getNestedJson(Segment.parse(name));
+    return getNestedJson(FieldPath.of(name));
+  }
+
+  /**
+   * Gets a nested JsonNode at the given compiled path. See {@link #getNestedJson(String)}.
+   *
+   * @param path the compiled nested field path to get the JsonNode from
+   * @return the JsonNode at the nested path or null if not found
+   */
+  default JsonNode getNestedJson(FieldPath path) {
+    return getNestedJson(path.getSegments());
   }
 
   /**
@@ -718,12 +759,18 @@ public interface Document {
    * @return the JsonNode at the nested path or null if not found
    */
   default JsonNode getNestedJson(List<Segment> segments) {
-    if (segments.isEmpty() || !has(segments.get(0).name)) {
+    return getNestedJson(segments, segments.size());
+  }
+
+  // gets the nested JsonNode at the first length segments of the given path
+  private JsonNode getNestedJson(List<Segment> segments, int length) {
+    if (length == 0 || !has(segments.get(0).name)) {
       return null;
     }
     JsonNode node = getJson(segments.get(0).name);
 
-    for (Segment segment : segments.subList(1, segments.size())) {
+    for (int i = 1; i < length; i++) {
+      Segment segment = segments.get(i);
       if (!hasFieldSegment(node, segment)) {
         return null;
       } else {
@@ -737,12 +784,23 @@ public interface Document {
   /**
    * Sets a nested JsonNode at a path like "a.b.c.d" where the path is split on '.' and each part is treated as a level of nesting.
    * This also works for nested values that contain a list, such as "a.b[2].c" where 'b' is an ArrayNode. The indices are 0 based.
+   * The path is compiled through {@link FieldPath#of(String)}, so repeated paths are only parsed once.
    *
    * @param name the nested field path to set the JsonNode at
    * @param value the JsonNode to set at the nested path
    */
   default void setNestedJson(String name, JsonNode value) {
-    setNestedJson(Segment.parse(name), value);
+    setNestedJson(FieldPath.of(name), value);
+  }
+
+  /**
+   * Sets a nested JsonNode at the given compiled path. See {@link #setNestedJson(String, JsonNode)}.
+   *
+   * @param path the compiled nested field path to set the JsonNode at
+   * @param value the JsonNode to set at the nested path
+   */
+  default void setNestedJson(FieldPath path, JsonNode value) {
+    setNestedJson(path.getSegments(), value);
   }
 
   /**
@@ -783,7 +841,11 @@ public interface Document {
   }
 
   default void removeNestedJson(String name) {
-    removeNestedJson(Segment.parse(name));
+    removeNestedJson(FieldPath.of(name));
+  }
+
+  default void removeNestedJson(FieldPath path) {
+    removeNestedJson(path.getSegments());
   }
 
   default void removeNestedJson(List<Segment> segments) {
@@ -796,7 +858,7 @@ public interface Document {
       return;
     }
 
-    JsonNode parent = getNestedJson(segments.subList(0, segments.size() - 1));
+    JsonNode parent = getNestedJson(segments, segments.size() - 1);
     if (parent == null) {
       return;
     }
@@ -0,0 +1,160 @@
+package com.kmwllc.lucille.core;
+
+import com.kmwllc.lucille.core.Document.Segment;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A compiled path to a nested value within a Document, such as <code>a.b[2].c</code>.
+ *
+ * Parsing a path string on every access is wasteful when the same path is used for every Document. Stages should
+ * compile the paths they know about once, typically in their constructor or in start(), and pass the FieldPath to
+ * {@link Document#getNestedJson(FieldPath)}, {@link Document#setNestedJson(FieldPath, com.fasterxml.jackson.databind.JsonNode)}
+ * and {@link Document#removeNestedJson(FieldPath)}. Those accessors walk the path's segments without allocating.
+ *
+ * Paths that are only known at runtime can be obtained with {@link #of(String)}. It returns the same FieldPath for
+ * the same string from a cache of up to {@link #MAX_CACHED_PATHS} paths. Once the cache is full, the paths that were
+ * used least recently are evicted to make room for new ones.
+ *
+ * FieldPaths are immutable and can be shared between threads.
+ */
+public final class FieldPath {
+
+  public static final int MAX_CACHED_PATHS = 4096;
+
+  /** The empty path, which can be extended with {@link #child(String)} or {@link #child(int)}. */
+  public static final FieldPath ROOT = new FieldPath(new Segment[0]);
+
+  private static final Cache<String, FieldPath> CACHE = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PATHS).build();
+
+  private final Segment[] segments;
+  private final List<Segment> segmentList;
+  private String path;
+
+  private FieldPath(Segment[] segments) {
+    this.segments = segments;
+    this.segmentList = List.of(segments);
+  }
+
+  /**
+   * Parses the given path. Segments are separated by '.' and array indices are written in brackets, as in
+   * <code>a.b[2].c</code>.
+   *
+   * @throws IllegalArgumentException if the path is malformed.
+   */
+  public static FieldPath compile(String path) {
+    FieldPath compiled = new FieldPath(Segment.parse(path).toArray(new Segment[0]));
+    compiled.path = path;
+    return compiled;
+  }
+
+  /**
+   * Returns the compiled form of the given path, from the cache if it has been compiled before.
+   *
+   * @throws IllegalArgumentException if the path is malformed.
+   */
+  public static FieldPath of(String path) {
+    FieldPath cached = CACHE.getIfPresent(path);
+    if (cached != null) {
+      return cached;
+    }
+
+    FieldPath compiled = compile(path);
+    CACHE.put(path, compiled);
+    return compiled;
+  }
+
+  /**
+   * Returns a FieldPath made up of the given segments.
+   */
+  public static FieldPath of(List<Segment> segments) {
+    return new FieldPath(segments.toArray(new Segment[0]));
+  }
+
+  /**
+   * Returns a new path that extends this one with the given field name. The name is used as is and is not parsed, so
+   * it may contain '.' or brackets.
+   */
+  public FieldPath child(String name) {
+    return append(new Segment(name));
+  }
+
+  /**
+   * Returns a new path that extends this one with the given array index.
+   */
+  public FieldPath child(int index) {
+    return append(new Segment(index));
+  }
+
+  private FieldPath append(Segment segment) {
+    Segment[] extended = Arrays.copyOf(segments, segments.length + 1);
+    extended[segments.length] = segment;
+    return new FieldPath(extended);
+  }
+
+  /**
+   * Returns the segments of this path as an unmodifiable List.
+   */
+  public List<Segment> getSegments() {
+    return segmentList;
+  }
+
+  public Segment getSegment(int i) {
+    return segments[i];
+  }
+
+  public int size() {
+    return segments.length;
+  }
+
+  public boolean isEmpty() {
+    return segments.length == 0;
+  }
+
+  /**
+   * Returns the name of the top-level Document field this path starts at, or null if the path is empty.
+   */
+  public String getField() {
+    return segments.length == 0 ? null : segments[0].name;
+  }
+
+  @Override
+  public String toString() {
+    if (path == null) {
+      path = Segment.stringify(segmentList);
+    }
+    return path;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof FieldPath)) {
+      return false;
+    }
+    Segment[] other = ((FieldPath) o).segments;
+    if (other.length != segments.length) {
+      return false;
+    }
+    for (int i = 0; i < segments.length; i++) {
+      if (!Objects.equals(segments[i].name, other[i].name) || !Objects.equals(segments[i].index, other[i].index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (Segment segment : segments) {
+      hash = 31 * hash + Objects.hash(segment.name, segment.index);
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,106 @@
+package com.kmwllc.lucille.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.FloatNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An ArrayNode backed by a primitive float[], used by {@link JsonDocument} to store dense vectors.
+ *
+ * Elements are exposed to ArrayNode's read methods as FloatNodes created on access, so code that reads the field as
+ * an ordinary array keeps working, but the vector itself is held as 4 bytes per dimension instead of one boxed node
+ * per dimension. The node serializes directly from the array.
+ *
+ * The node is read-only. JsonDocument replaces it with an ordinary ArrayNode before any operation that would modify
+ * the field in place.
+ */
+final class FloatVectorNode extends ArrayNode {
+
+  private final float[] vector;
+
+  FloatVectorNode(float[] vector) {
+    super(JsonNodeFactory.instance, new FloatListView(vector));
+    this.vector = vector;
+  }
+
+  float[] getVector() {
+    return vector;
+  }
+
+  /**
+   * Returns a new, mutable List holding the values of the vector.
+   */
+  List<Float> toList() {
+    List<Float> list = new ArrayList<>(vector.length);
+    for (float value : vector) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  /**
+   * Returns an ordinary, mutable ArrayNode with the same values.
+   */
+  ArrayNode toArrayNode() {
+    ArrayNode array = JsonNodeFactory.instance.arrayNode(vector.length);
+    for (float value : vector) {
+      array.add(value);
+    }
+    return array;
+  }
+
+  @Override
+  public ArrayNode deepCopy() {
+    return new FloatVectorNode(vector.clone());
+  }
+
+  @Override
+  public void serialize(JsonGenerator g, SerializerProvider provider) throws IOException {
+    g.writeStartArray(this, vector.length);
+    for (float value : vector) {
+      g.writeNumber(value);
+    }
+    g.writeEndArray();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof FloatVectorNode) {
+      return Arrays.equals(vector, ((FloatVectorNode) o).vector);
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+
+  private static final class FloatListView extends AbstractList<JsonNode> implements RandomAccess {
+
+    private final float[] vector;
+
+    private FloatListView(float[] vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public JsonNode get(int index) {
+      return FloatNode.valueOf(vector[index]);
+    }
+
+    @Override
+    public int size() {
+      return vector.length;
+    }
+  }
+}
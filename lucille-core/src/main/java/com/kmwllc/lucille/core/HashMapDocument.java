@@ -254,6 +254,11 @@ public class HashMapDocument implements Document, Serializable {
     setFieldGeneric(name, value);
   }
 
+  @Override
+  public void setVector(String name, float[] vector) {
+    setFieldGeneric(name, vector);
+  }
+
   @Override
   public void setField(String name, Date value) {
     setFieldGeneric(name, value);
@@ -337,6 +342,14 @@ public class HashMapDocument implements Document, Serializable {
 
   @Override
   public List<Double> getDoubleList(String name) {
+    if (getOneValue(name) instanceof float[]) {
+      float[] vector = (float[]) getOneValue(name);
+      List<Double> result = new ArrayList<>(vector.length);
+      for (float value : vector) {
+        result.add((double) value);
+      }
+      return result;
+    }
     return getValues(name, value -> ((Number) value).doubleValue());
   }
 
@@ -347,9 +360,45 @@ public class HashMapDocument implements Document, Serializable {
 
   @Override
   public List<Float> getFloatList(String name) {
+    if (getOneValue(name) instanceof float[]) {
+      float[] vector = (float[]) getOneValue(name);
+      List<Float> result = new ArrayList<>(vector.length);
+      for (float value : vector) {
+        result.add(value);
+      }
+      return result;
+    }
     return getValues(name, value -> ((Number) value).floatValue());
   }
 
+  @Override
+  public float[] getVector(String name) {
+    if (!has(name)) {
+      return null;
+    }
+
+    Object value = getOneValue(name);
+    if (value instanceof float[]) {
+      return (float[]) value;
+    }
+
+    List<Float> values = getValues(name, v -> ((Number) v).floatValue());
+    if (values.size() == 1 && values.get(0) == null) {
+      return null;
+    }
+
+    float[] vector = new float[values.size()];
+    for (int i = 0; i < vector.length; i++) {
+      vector[i] = values.get(i);
+    }
+    return vector;
+  }
+
+  // returns the single value of a field that is present and single-valued, otherwise null
+  private Object getOneValue(String name) {
+    return has(name) && !data.isMultiValued(name) ? data.getOne(name) : null;
+  }
+
   @Override
   public Boolean getBoolean(String name) {
     return getValue(name, value -> (Boolean) value);
@@ -382,6 +431,8 @@ public class HashMapDocument implements Document, Serializable {
 
   @Override
   public JsonNode getJson(String name) {
+    // the caller may modify the node, so it must not be shared with a copy of this document
+    data.detach(name);
     return getValue(name, value -> (JsonNode) value);
   }
 
@@ -407,6 +458,7 @@ public class HashMapDocument implements Document, Serializable {
 
   @Override
   public List<JsonNode> getJsonList(String name) {
+    data.detach(name);
     return getValues(name, value -> (JsonNode) value);
   }
 
@@ -609,7 +661,18 @@ public class HashMapDocument implements Document, Serializable {
     // adding, replacing, or removing entries in the returned map will not affect the original document
     // however, updates made to an object inside the map (for example, changing the contents of an array value) will
     // be evident when that same object is retrieved from the original document
-    return (Map<String, Object>)data.getData().clone();
+    Map<String, Object> map = (Map<String, Object>)data.getData().clone();
+    // vectors are returned as lists, as they are by JsonDocument
+    map.replaceAll((name, value) -> value instanceof float[] ? toFloatList((float[]) value) : value);
+    return map;
+  }
+
+  private static List<Float> toFloatList(float[] vector) {
+    List<Float> list = new ArrayList<>(vector.length);
+    for (float value : vector) {
+      list.add(value);
+    }
+    return list;
   }
 
   @Override
@@ -641,7 +704,7 @@ public class HashMapDocument implements Document, Serializable {
       return Collections.emptyList();
     }
     return (List<Document>) data.getMany(CHILDREN_FIELD).stream()
-        .map(child -> new HashMapDocument(new LinkedMultiMap((LinkedHashMap) child)))
+        .map(child -> new HashMapDocument(new LinkedMultiMap((LinkedHashMap) child).deepCopy()))
         .collect(Collectors.toList());
   }
 
@@ -20,6 +20,9 @@ import com.typesafe.config.ConfigFactory;
 import io.github.resilience4j.core.IntervalFunction;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -68,6 +71,17 @@ import sun.misc.Signal;
  *   either limit is reached.</li>
  *   <li>indexer.batchByteSize (Long, Optional) : Total size of documents accumulated before sending to the destination. Defaults to
  *   {@value #NO_BATCH_SIZE_BYTES}.</li>
+ *   <li>indexer.adaptiveBatchSize (Boolean, Optional) : Adjust the batch size while running, starting from indexer.batchSize, to
+ *   follow the capacity of the destination. The size grows while full batches are sent within indexer.targetBatchLatencyMs and
+ *   is halved when the destination rejects documents with HTTP 429 or 503 or responds slowly. The chosen size is reported in
+ *   the <code>indexer.batchSize</code> histogram metric. Cannot be used when only indexer.batchByteSize is set. Defaults to
+ *   false.</li>
+ *   <li>indexer.minBatchSize (Integer, Optional) : Smallest batch size chosen when indexer.adaptiveBatchSize is enabled. Defaults
+ *   to 10.</li>
+ *   <li>indexer.maxBatchSize (Integer, Optional) : Largest batch size chosen when indexer.adaptiveBatchSize is enabled. Defaults
+ *   to 1000.</li>
+ *   <li>indexer.targetBatchLatencyMs (Integer, Optional) : How long sending a batch should take when indexer.adaptiveBatchSize is
+ *   enabled. Defaults to 1000.</li>
  *   <li>indexer.batchTimeout (Integer, Optional) : the number of milliseconds (since the previous add or flush) beyond which the batch
  *   will be considered as expired. Defaults to {@value #DEFAULT_BATCH_TIMEOUT}.</li>
  *   <li>indexer.deletionMarkerField (String, Optional) : Field that, when set to indexer.deletionMarkerFieldValue, marks a document
@@ -96,6 +110,13 @@ import sun.misc.Signal;
  *   failures, will not be retried. Include the sentinel value {@code -1} to also retry failures where no HTTP status code
  *   is available (e.g. network timeouts). When this parameter is omitted, the default {@code [429, 503, -1]} is used.
  *   An empty list is rejected as invalid configuration. Only allowed when maxRetries is also set.</li>
+ *   <li>indexer.changeDetectionFile (String, Optional) : Path to a file in which the Indexer keeps a hash of each document
+ *   it has sent, keyed by the document's destination id and index. When set, a document whose fields (after applying the
+ *   whitelist and blacklist, and ignoring {@link Document#RUNID_FIELD}) hash the same as when it was last indexed is not
+ *   sent again, and a DROP event is sent for it instead. Documents that delete from the destination are always sent. The
+ *   file is created if it does not exist and can only be used by one Indexer at a time. Not used when sending is
+ *   disabled. Rejected by Indexers that can't tell which documents have reached the destination when a batch is sent;
+ *   see {@link #supportsChangeDetection()}.</li>
  *   <li>indexer.versionType (String, Optional) : The type of versioning to use for indexing documents. Specific indexer implementations may support different version types. The default version type is implementation-specific.</li>
  *   <li>indexer.versionField (String, Optional) : The field name to use for versioning. This field must be present in the document and must be of a type that supports versioning with that specific indexer implementation (e.g., numeric, string).</li>
  * </ul>
@@ -126,6 +147,10 @@ public abstract class Indexer implements Runnable {
   private final Meter meter;
   private final Histogram histogram;
 
+  // Non-null only when indexer.adaptiveBatchSize is enabled.
+  private final AdaptiveBatchController batchController;
+  private final Histogram batchSizeHistogram;
+
   protected final String idOverrideField;
   protected final String indexOverrideField;
 
@@ -136,6 +161,10 @@ public abstract class Indexer implements Runnable {
 
   protected final FieldFilter fieldFilter;
 
+  // Non-null only when indexer.changeDetectionFile is set and sending is enabled.
+  private final ChangeDetector changeDetector;
+  private final Meter unchangedMeter;
+
   private Instant lastLog = Instant.now();
 
   // A runID for a local (local / test) run. Null if not in one of those modes / started independently.
@@ -211,6 +240,25 @@ public abstract class Indexer implements Runnable {
         (indexOverrideField == null)
             ? new SingleBatch(batchSize, batchByteSize, batchTimeout)
             : new MultiBatch(batchSize, batchByteSize, batchTimeout, indexOverrideField);
+
+    if (ConfigUtils.getOrDefault(config, "indexer.adaptiveBatchSize", false)) {
+      if (batchSize == NO_BATCH_SIZE) {
+        throw new IllegalArgumentException(
+            "indexer.adaptiveBatchSize adjusts the document count of batches and cannot be used when only indexer.batchByteSize is set.");
+      }
+      this.batchController = new AdaptiveBatchController(batchSize,
+          ConfigUtils.getOrDefault(config, "indexer.minBatchSize", AdaptiveBatchController.DEFAULT_MIN_BATCH_SIZE),
+          ConfigUtils.getOrDefault(config, "indexer.maxBatchSize", AdaptiveBatchController.DEFAULT_MAX_BATCH_SIZE),
+          ConfigUtils.getOrDefault(config, "indexer.targetBatchLatencyMs", AdaptiveBatchController.DEFAULT_TARGET_BATCH_LATENCY_MS));
+      this.batch.setCapacity(batchController.getBatchSize());
+    } else {
+      if (config.hasPath("indexer.minBatchSize") || config.hasPath("indexer.maxBatchSize")
+          || config.hasPath("indexer.targetBatchLatencyMs")) {
+        throw new IllegalArgumentException(
+            "indexer.minBatchSize, indexer.maxBatchSize, and indexer.targetBatchLatencyMs require indexer.adaptiveBatchSize to be enabled.");
+      }
+      this.batchController = null;
+    }
     // validate config deletionFields that must be present together
     if ((deleteByFieldField != null && deleteByFieldValue == null)
         || (deleteByFieldField == null && deleteByFieldValue != null)) {
@@ -228,6 +276,7 @@ public abstract class Indexer implements Runnable {
     this.stopWatch = new StopWatch();
     this.meter = metrics.meter(metricsPrefix + ".indexer.docsIndexed");
     this.histogram = metrics.histogram(metricsPrefix + ".indexer.batchTimeOverSize");
+    this.batchSizeHistogram = batchController != null ? metrics.histogram(metricsPrefix + ".indexer.batchSize") : null;
     this.localRunId = localRunId;
 
     this.fieldFilter = new FieldFilter(config.getConfig("indexer"));
@@ -294,6 +343,24 @@ public abstract class Indexer implements Runnable {
 
     // Validate the "indexer" entry and the specific implementation entry (using the spec) in the Config, if present.
     validateIndexerConfigs(config);
+
+    if (config.hasPath("indexer.changeDetectionFile") && !supportsChangeDetection()) {
+      throw new IllegalArgumentException(
+          "Cannot create " + getClass().getSimpleName() + ". Config setting 'indexer.changeDetectionFile' is not supported.");
+    }
+
+    // opened last, so the file isn't left locked when the config is invalid
+    if (config.hasPath("indexer.changeDetectionFile") && !bypass) {
+      try {
+        this.changeDetector = new ChangeDetector(Paths.get(config.getString("indexer.changeDetectionFile")));
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Couldn't open indexer.changeDetectionFile.", e);
+      }
+      this.unchangedMeter = metrics.meter(metricsPrefix + ".indexer.docsUnchanged");
+    } else {
+      this.changeDetector = null;
+      this.unchangedMeter = null;
+    }
   }
 
   /**
@@ -303,6 +370,16 @@ public abstract class Indexer implements Runnable {
    */
   protected abstract String getIndexerConfigKey();
 
+  /**
+   * Returns whether the documents that {@link #sendToIndex(List)} does not report as failed have reached the
+   * destination by the time it returns. Change detection stores a document's hash once it is reported as indexed, so it
+   * is rejected for Indexers that return false, which would otherwise store hashes for documents that are later lost.
+   * Called from the constructor. Defaults to true.
+   */
+  protected boolean supportsChangeDetection() {
+    return true;
+  }
+
   /**
    * Return true if connection to the destination search engine is valid and the relevant index or
    * collection exists; false otherwise.
@@ -338,6 +415,13 @@ public abstract class Indexer implements Runnable {
         log.error("Error closing messenger", e);
       }
     }
+    if (changeDetector != null) {
+      try {
+        changeDetector.close();
+      } catch (Exception e) {
+        log.error("Error closing change detection file", e);
+      }
+    }
     closeConnection();
   }
 
@@ -405,7 +489,9 @@ public abstract class Indexer implements Runnable {
               "%d docs indexed. One minute rate: %.2f docs/sec. Mean backend latency: %.2f ms/doc.",
               meter.getCount(),
               meter.getOneMinuteRate(),
-              histogram.getSnapshot().getMean() / 1000000));
+              histogram.getSnapshot().getMean() / 1000000)
+              + (batchController != null ? " Batch size: " + batchController.getBatchSize() + "." : "")
+              + (changeDetector != null ? " " + unchangedMeter.getCount() + " unchanged docs skipped." : ""));
       lastLog = Instant.now();
     }
 
@@ -413,7 +499,14 @@ public abstract class Indexer implements Runnable {
       return;
     }
 
+    // unchanged documents are not sent, but they are still marked complete along with the rest of the batch
+    List<Document> docsToSend = changeDetector != null ? dropUnchanged(batchedDocs) : batchedDocs;
+
     try {
+      if (docsToSend.isEmpty()) {
+        return;
+      }
+
       stopWatch.reset();
       stopWatch.start();
       // Note: the retry wraps the entire sendToIndex() call. If sendToIndex() partially succeeds
@@ -424,16 +517,21 @@ public abstract class Indexer implements Runnable {
       // retryable status code. When retries are exhausted, the last result is returned directly —
       // preserving per-document detail for the FAIL event path below.
       Set<Pair<Document, Exception>> failedDocPairs = retry != null
-          ? Retry.decorateCheckedSupplier(retry, () -> sendToIndex(batchedDocs)).get()
-          : sendToIndex(batchedDocs);
+          ? Retry.decorateCheckedSupplier(retry, () -> sendToIndex(docsToSend)).get()
+          : sendToIndex(docsToSend);
       stopWatch.stop();
-      histogram.update(stopWatch.getNanoTime() / batchedDocs.size());
-      meter.mark(batchedDocs.size());
+      histogram.update(stopWatch.getNanoTime() / docsToSend.size());
+      meter.mark(docsToSend.size());
 
       if (!failedDocPairs.isEmpty()) {
         log.warn("{} Documents were not indexed successfully.", failedDocPairs.size());
       }
 
+      if (batchController != null) {
+        int rejected = (int) failedDocPairs.stream().filter(p -> AdaptiveBatchController.isOverloaded(p.getRight())).count();
+        adjustBatchSize(docsToSend.size(), stopWatch.getNanoTime(), rejected);
+      }
+
       // Mark all the documents in failedDoc as failed
       for (Pair<Document, Exception> pair : failedDocPairs) {
         sendFailEvent(pair.getLeft(), pair.getRight().getMessage());
@@ -441,10 +539,18 @@ public abstract class Indexer implements Runnable {
 
       Set<Document> failedDocs = failedDocPairs.stream().map(Pair::getLeft).collect(Collectors.toSet());
 
-      List<Document> succeededDocs = batchedDocs.stream()
+      List<Document> succeededDocs = docsToSend.stream()
           .filter(d -> !failedDocs.contains(d))
           .collect(Collectors.toList());
 
+      if (changeDetector != null) {
+        try {
+          changeDetector.indexed(succeededDocs);
+        } catch (Exception e) {
+          log.error("Error recording hashes of indexed docs. They will be sent again on the next run.", e);
+        }
+      }
+
       try {
         messenger.sendEvents(succeededDocs, "SUCCEEDED", Event.Type.FINISH);
         for (Document d : succeededDocs) {
@@ -466,10 +572,17 @@ public abstract class Indexer implements Runnable {
       // So everything is considered to have failed - we won't even look at failedDocs.
       log.error("Error sending documents to index: {}", e.getMessage(), e);
 
-      for (Document d : batchedDocs) {
+      if (batchController != null && AdaptiveBatchController.isOverloaded(e)) {
+        adjustBatchSize(docsToSend.size(), stopWatch.getNanoTime(), docsToSend.size());
+      }
+
+      for (Document d : docsToSend) {
         sendFailEvent(d, e.getMessage());
       }
     } finally {
+      if (changeDetector != null) {
+        changeDetector.finished(docsToSend);
+      }
       // We always mark batches as completed, regardless of whether the whole batch failed, some docs failed, etc.
       try {
         messenger.batchComplete(batchedDocs);
@@ -479,6 +592,60 @@ public abstract class Indexer implements Runnable {
     }
   }
 
+  /**
+   * Returns the documents in the batch that have changed since they were last indexed, sending a DROP event for each of
+   * the others. Documents that delete from the destination are always returned.
+   */
+  private List<Document> dropUnchanged(List<Document> batchedDocs) {
+    List<Document> changedDocs = new ArrayList<>(batchedDocs.size());
+    for (Document d : batchedDocs) {
+      String key = getChangeDetectionKey(d);
+      if (isMarkedForDeletion(d)) {
+        changeDetector.deleting(d, key);
+        changedDocs.add(d);
+      } else if (deleteByFieldField != null && d.has(deleteByFieldField)) {
+        changedDocs.add(d);
+      } else if (changeDetector.isUnchanged(d, key, getIndexerDoc(d))) {
+        unchangedMeter.mark();
+        try (MDCCloseable docIdMDC = MDC.putCloseable(ID_FIELD, d.getId())) {
+          messenger.sendEvent(d, "UNCHANGED", Event.Type.DROP);
+          docLogger.info("Doc {} is unchanged since it was last indexed, not sending it.", d.getId());
+        } catch (Exception e) {
+          docLogger.error("Couldn't send drop event for unchanged doc {}. RUN WILL HANG.", d.getId(), e);
+        }
+      } else {
+        changedDocs.add(d);
+      }
+    }
+    return changedDocs;
+  }
+
+  /**
+   * Returns the key under which the hash of the given document is stored, combining the id and index it is sent with.
+   */
+  private String getChangeDetectionKey(Document doc) {
+    String id = getDocIdOverride(doc) != null ? getDocIdOverride(doc) : doc.getId();
+    String index = getIndexOverride(doc);
+    return index != null ? index + "/" + id : id;
+  }
+
+  private boolean isMarkedForDeletion(Document doc) {
+    return deletionMarkerField != null
+        && doc.has(deletionMarkerField)
+        && deletionMarkerFieldValue.equals(doc.getString(deletionMarkerField));
+  }
+
+  private void adjustBatchSize(int sent, long latencyNanos, int rejected) {
+    int previous = batchController.getBatchSize();
+    int next = batchController.onBatchSent(sent, latencyNanos, rejected);
+    if (next != previous) {
+      log.debug("Changing batch size from {} to {} (batch of {} took {} ms, {} rejected).", previous, next, sent,
+          latencyNanos / 1000000, rejected);
+      batch.setCapacity(next);
+    }
+    batchSizeHistogram.update(next);
+  }
+
   /**
    * Sends a FAIL event for the given document with the specified reason, setting up MDC context
    * for structured logging.
@@ -524,6 +691,11 @@ public abstract class Indexer implements Runnable {
   }
 
   protected Map<String, Object> getIndexerDoc(Document doc) {
+    if (doc instanceof JsonDocument) {
+      // only the fields that will be sent are converted
+      return ((JsonDocument) doc).asMap(fieldFilter::shouldInclude);
+    }
+
     Map<String, Object> indexerDoc = doc.asMap();
     if (fieldFilter.isActive()) {
       indexerDoc.keySet().removeIf(key -> !fieldFilter.shouldInclude(key));
@@ -531,6 +703,33 @@ public abstract class Indexer implements Runnable {
     return indexerDoc;
   }
 
+  /**
+   * Like {@link #getIndexerDoc(Document)}, but also leaves out {@link Document#CHILDREN_FIELD}, so the children of the
+   * document are not converted when the implementation sends them some other way or not at all.
+   */
+  protected Map<String, Object> getIndexerDocWithoutChildren(Document doc) {
+    if (doc instanceof JsonDocument) {
+      return ((JsonDocument) doc).asMap(key -> !Document.CHILDREN_FIELD.equals(key) && fieldFilter.shouldInclude(key));
+    }
+
+    Map<String, Object> indexerDoc = getIndexerDoc(doc);
+    indexerDoc.remove(Document.CHILDREN_FIELD);
+    return indexerDoc;
+  }
+
+  /**
+   * Returns the given document as it should be sent to the destination, in a form that is serialized by writing the
+   * document's fields directly to the request body. Fields are filtered by the indexer's whitelist and blacklist during
+   * the write, and {@link Document#CHILDREN_FIELD} is never written.
+   *
+   * @param doc the document to send
+   * @param id the id to write in place of the document's own id, or null to leave the id out
+   * @param childrenField the field to write the document's filtered children to, or null to leave the children out
+   */
+  protected StreamedIndexerDoc getStreamedIndexerDoc(Document doc, String id, String childrenField) {
+    return new StreamedIndexerDoc(doc, fieldFilter::shouldInclude, id, childrenField);
+  }
+
   public static void main(String[] args) throws Exception {
     Config config = ConfigFactory.load();
     String pipelineName = args.length > 0 ? args[0] : config.getString("indexer.pipeline");
@@ -573,10 +772,10 @@ public abstract class Indexer implements Runnable {
     Config indexerConfig = config.getConfig("indexer");
     SpecBuilder.withoutDefaults()
         .optionalString("type", "class", "idOverrideField", "indexOverrideField", "deletionMarkerField", "deletionMarkerFieldValue",
-            "deleteByFieldField", "deleteByFieldValue", "versionType", "versionField", "routingField")
+            "deleteByFieldField", "deleteByFieldValue", "versionType", "versionField", "routingField", "changeDetectionFile")
         .optionalNumber("batchSize", "batchByteSize", "batchTimeout", "logRate", "maxRetries", "retryWaitDurationMs",
-            "retryMaxWaitDurationMs", "retryRandomizationFactor")
-        .optionalBoolean("sendEnabled")
+            "retryMaxWaitDurationMs", "retryRandomizationFactor", "minBatchSize", "maxBatchSize", "targetBatchLatencyMs")
+        .optionalBoolean("sendEnabled", "adaptiveBatchSize")
         .optionalList("whitelist", new TypeReference<List<String>>(){})
         .optionalList("blacklist", new TypeReference<List<String>>(){})
         .optionalList("retryableStatusCodes", new TypeReference<List<Integer>>(){}).build()
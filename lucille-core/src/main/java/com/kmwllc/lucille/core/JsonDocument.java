@@ -2,11 +2,14 @@ package com.kmwllc.lucille.core;
 
 import com.dashjoin.jsonata.Jsonata;
 import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BinaryNode;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.kmwllc.lucille.util.FieldFilter;
@@ -20,12 +23,24 @@ import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
 /**
  * Document implementation that functions as a lightweight wrapper around a piece of JSON.
  * Stores all field data in Jackson ObjectNode.
  *
+ * Copies made with {@link #deepCopy()}, the copy constructor, or {@link #getChildren()} are copy-on-write: the copy
+ * and its source share the values of their object and array fields until one of them modifies a field in place, at
+ * which point that field alone is cloned in the document being modified. Either document can be modified freely
+ * without affecting the other. Each document keeps track of its own shared fields. Making a copy only increments a
+ * counter on its source, which the source checks the next time it is about to modify a field in place, so a document
+ * can be copied while another thread reads it.
+ *
+ * {@link #getJson(String)}, {@link #getJsonList(String)} and {@link #getNestedJson(String)} return nodes owned by this
+ * document: a shared value is cloned before it is returned, so modifying the returned node in place changes this
+ * document and no other. The other getters never clone.
  */
 public class JsonDocument implements Document {
 
@@ -37,15 +52,30 @@ public class JsonDocument implements Document {
   @JsonValue
   protected ObjectNode data;
 
+  // the number of copies that have been made of this document. Incremented by the thread making a copy, so that the
+  // copy never writes to any other state of its source.
+  private final AtomicInteger copies = new AtomicInteger();
+
+  // the value of copies when sharedFields was last brought up to date
+  private int copiesSeen = 0;
+
+  // the fields whose object or array values may be referenced by another document, and so are cloned before being
+  // modified in place. Created when first needed.
+  private Set<String> sharedFields;
+
   /**
-   * A copy constructor for {@link Document} that deep copies the ObjectNode and verifies the
-   * validity of the document.
+   * A copy constructor for {@link Document} that copies the given document and verifies the
+   * validity of the copy. The copy shares its object and array values with the given document until either one
+   * modifies them; see the class documentation.
    *
    * @param document document to copy
    * @throws DocumentException if document is missing a nonempty {@link Document#ID_FIELD}
    */
   public JsonDocument(Document document) throws DocumentException {
-    this(getData(document).deepCopy());
+    this(shallowCopy(getData(document)));
+    ((JsonDocument) document).copies.incrementAndGet();
+    // every object and array value of this document is shared with the source
+    copies.incrementAndGet();
   }
 
   /**
@@ -122,6 +152,8 @@ public class JsonDocument implements Document {
   @Override
   public void removeFromArray(String name, int index) {
     validateFieldNames(name);
+    own(name);
+    inflateVector(name);
     data.withArray(name).remove(index);
   }
 
@@ -183,6 +215,38 @@ public class JsonDocument implements Document {
     data.set(name, value);
   }
 
+  @Override
+  public void setVector(String name, float[] vector) {
+    validateFieldNames(name);
+    if (vector == null) {
+      data.putNull(name);
+    } else {
+      data.set(name, new FloatVectorNode(vector));
+    }
+  }
+
+  @Override
+  public float[] getVector(String name) {
+    JsonNode node = data.get(name);
+    if (node == null || node.isNull()) {
+      return null;
+    }
+
+    if (node instanceof FloatVectorNode) {
+      return ((FloatVectorNode) node).getVector();
+    }
+
+    if (!node.isArray()) {
+      return new float[] {node.floatValue()};
+    }
+
+    float[] vector = new float[node.size()];
+    for (int i = 0; i < vector.length; i++) {
+      vector[i] = node.get(i).floatValue();
+    }
+    return vector;
+  }
+
   @Override
   public void setField(String name, Instant value) {
     validateFieldNames(name);
@@ -212,13 +276,20 @@ public class JsonDocument implements Document {
   public void renameField(String oldName, String newName, UpdateMode mode) {
     validateFieldNames(oldName, newName);
     JsonNode oldValues = data.get(oldName);
+    boolean wasShared = isShared(oldName);
     data.remove(oldName);
+    if (wasShared) {
+      sharedFields.remove(oldName);
+    }
 
     if (has(newName)) {
       if (mode.equals(UpdateMode.SKIP)) {
         return;
       } else if (mode.equals(UpdateMode.APPEND)) {
         convertToList(newName);
+        if (wasShared) {
+          oldValues = oldValues.deepCopy();
+        }
 
         if (oldValues.getNodeType() == JsonNodeType.ARRAY) {
           data.withArray(newName).addAll((ArrayNode) oldValues);
@@ -230,6 +301,11 @@ public class JsonDocument implements Document {
     }
 
     data.set(newName, oldValues);
+    if (wasShared) {
+      markShared(newName);
+    } else if (sharedFields != null) {
+      sharedFields.remove(newName);
+    }
   }
 
   @Override
@@ -493,6 +569,8 @@ public class JsonDocument implements Document {
       return Collections.singletonList(getJson(name));
     }
 
+    // the caller may modify the elements in place
+    own(name);
     ArrayNode array = data.withArray(name);
     List<JsonNode> result = new ArrayList<>();
     for (JsonNode node : array) {
@@ -507,8 +585,9 @@ public class JsonDocument implements Document {
     }
     // Json is handled differently from other value types
     // we don't call getSingleNode(name) to retrieve the first value from a JsonArray
-    // instead, we simply return the internal JsonNode itself, whether it is an array or not
-    return data.get(name);
+    // instead, we simply return the internal JsonNode itself, whether it is an array or not.
+    // The caller may modify it in place, so a value shared with another document is cloned first.
+    return own(name);
   }
 
   @Override
@@ -609,8 +688,9 @@ public class JsonDocument implements Document {
       data.set(name, MAPPER.createArrayNode());
       return;
     }
-    JsonNode field = data.get(name);
+    JsonNode field = own(name);
     if (field.isArray()) {
+      inflateVector(name);
       return;
     }
     ArrayNode array = MAPPER.createArrayNode();
@@ -618,6 +698,17 @@ public class JsonDocument implements Document {
     data.set(name, array);
   }
 
+  /**
+   * Vectors are stored in read-only nodes, so a vector field is converted to an ordinary ArrayNode before any
+   * operation that modifies the array in place.
+   */
+  private void inflateVector(String name) {
+    JsonNode field = data.get(name);
+    if (field instanceof FloatVectorNode) {
+      data.set(name, ((FloatVectorNode) field).toArrayNode());
+    }
+  }
+
   @Override
   public void addToField(String name, String value) {
     validateFieldNames(name);
@@ -811,7 +902,12 @@ public class JsonDocument implements Document {
       if (!other.has(name)) {
         return;
       } else {
-        data.set(name, getData(other).get(name));
+        JsonNode otherValue = getData(other).get(name);
+        data.set(name, otherValue);
+        if (otherValue.isContainerNode()) {
+          markShared(name);
+          ((JsonDocument) other).copies.incrementAndGet();
+        }
         return;
       }
 
@@ -821,10 +917,13 @@ public class JsonDocument implements Document {
       ArrayNode currentValues = (ArrayNode) data.get(name);
       JsonNode otherValue = getData(other).get(name);
 
+      // the values become part of this document's array, so containers are copied rather than shared
       if (otherValue.getNodeType() == JsonNodeType.ARRAY) {
-        currentValues.addAll((ArrayNode) otherValue);
+        for (JsonNode value : otherValue) {
+          currentValues.add(value.isContainerNode() ? value.deepCopy() : value);
+        }
       } else {
-        currentValues.add(otherValue);
+        currentValues.add(otherValue.isContainerNode() ? otherValue.deepCopy() : otherValue);
       }
 
     }
@@ -843,7 +942,95 @@ public class JsonDocument implements Document {
 
   @Override
   public Map<String, Object> asMap() {
-    return MAPPER.convertValue(data, TYPE);
+    boolean hasVectors = false;
+    for (JsonNode value : data) {
+      if (value instanceof FloatVectorNode) {
+        hasVectors = true;
+        break;
+      }
+    }
+
+    if (!hasVectors) {
+      return MAPPER.convertValue(data, TYPE);
+    }
+
+    // vectors are returned as lists of Floats, rather than of the Doubles Jackson would read back
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (Iterator<Map.Entry<String, JsonNode>> it = data.fields(); it.hasNext(); ) {
+      Map.Entry<String, JsonNode> entry = it.next();
+      JsonNode value = entry.getValue();
+      if (value instanceof FloatVectorNode) {
+        map.put(entry.getKey(), ((FloatVectorNode) value).toList());
+      } else {
+        map.put(entry.getKey(), MAPPER.convertValue(value, Object.class));
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Returns the fields of this document accepted by the given filter as a Map holding the same values as {@link #asMap()}.
+   * Fields that are not accepted are never converted, and values are copied straight from the document's nodes instead
+   * of being serialized and read back by Jackson.
+   */
+  Map<String, Object> asMap(Predicate<String> filter) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (Iterator<Map.Entry<String, JsonNode>> it = data.fields(); it.hasNext(); ) {
+      Map.Entry<String, JsonNode> entry = it.next();
+      if (filter.test(entry.getKey())) {
+        map.put(entry.getKey(), toObject(entry.getValue()));
+      }
+    }
+    return map;
+  }
+
+  // converts a node to the value MAPPER.convertValue(node, Object.class) would return, without the round trip
+  private static Object toObject(JsonNode node) {
+    switch (node.getNodeType()) {
+      case STRING:
+        return node.textValue();
+      case NUMBER:
+        return node.numberValue();
+      case BOOLEAN:
+        return node.booleanValue();
+      case NULL:
+        return null;
+      case BINARY:
+        return ((BinaryNode) node).binaryValue().clone();
+      case ARRAY:
+        if (node instanceof FloatVectorNode) {
+          return ((FloatVectorNode) node).toList();
+        }
+        List<Object> list = new ArrayList<>(node.size());
+        for (JsonNode element : node) {
+          list.add(toObject(element));
+        }
+        return list;
+      case OBJECT:
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ) {
+          Map.Entry<String, JsonNode> entry = it.next();
+          map.put(entry.getKey(), toObject(entry.getValue()));
+        }
+        return map;
+      default:
+        break;
+    }
+    return MAPPER.convertValue(node, Object.class);
+  }
+
+  /**
+   * Writes the fields of this document accepted by the given filter to the given generator, as fields of a JSON object
+   * that the caller has started. Each value is serialized directly from the document's node.
+   */
+  void writeFields(JsonGenerator generator, SerializerProvider provider, Predicate<String> filter) throws IOException {
+    for (Iterator<Map.Entry<String, JsonNode>> it = data.fields(); it.hasNext(); ) {
+      Map.Entry<String, JsonNode> entry = it.next();
+      if (filter.test(entry.getKey())) {
+        generator.writeFieldName(entry.getKey());
+        entry.getValue().serialize(generator, provider);
+      }
+    }
   }
 
   @Override
@@ -922,6 +1109,7 @@ public class JsonDocument implements Document {
 
   @Override
   public void addChild(Document document) {
+    own(CHILDREN_FIELD);
     ArrayNode node = data.withArray(CHILDREN_FIELD);
     node.add(getData(document));
   }
@@ -947,11 +1135,18 @@ public class JsonDocument implements Document {
     for (Iterator<JsonNode> it = node.elements(); it.hasNext(); ) {
       JsonNode element = it.next();
       try {
-        children.add(new JsonDocument((ObjectNode) element.deepCopy()));
+        // each child shares the values of the stored child's fields, and this document no longer modifies the
+        // stored children in place
+        JsonDocument child = new JsonDocument(shallowCopy((ObjectNode) element));
+        child.copies.incrementAndGet();
+        children.add(child);
       } catch (DocumentException e) {
         log.error("Unable to instantiate child Document", e);
       }
     }
+    if (!children.isEmpty()) {
+      markShared(CHILDREN_FIELD);
+    }
     return children;
   }
 
@@ -1011,6 +1206,7 @@ public class JsonDocument implements Document {
       return;
     }
 
+    own(fieldName);
     ArrayNode arrayNode = data.withArray(fieldName);
     LinkedHashSet<JsonNode> set = new LinkedHashSet<>();
     int length = 0;
@@ -1029,6 +1225,7 @@ public class JsonDocument implements Document {
         arrayNode.add(jsonNode);
       }
     } else {
+      own(targetFieldName);
       arrayNode = data.withArray(targetFieldName);
       for (JsonNode jsonNode : set) {
         arrayNode.add(jsonNode);
@@ -1036,18 +1233,36 @@ public class JsonDocument implements Document {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The expression reads this document through a {@link JsonataView}, so only the fields it reads are converted, and
+   * fields it passes through to the result unchanged keep their original nodes, including binary values.
+   */
   @Override
   public void transform(Jsonata expr) throws DocumentException {
-    Object transformed = expr.evaluate(asMapWithByteArrayConversion(data));
+    JsonataView view = new JsonataView();
+    Object root = view.wrap(data);
+    Object transformed = expr.evaluate(root);
 
     if (transformed == null) {
       throw new DocumentException("Transformation must return a Map (JSON object), returned null");
     } else if (!(transformed instanceof Map)) {
       throw new DocumentException("Transformation must return a Map (JSON object), returned " + transformed.getClass());
+    } else if (transformed == root) {
+      return;
     }
 
-    // Jsonata-java outputs a Map, converting to ObjectNode so we can update data.
-    ObjectNode transformedNode = MAPPER.valueToTree(transformed);
+    // fields holding nodes of the current tree are marked as shared, so they are copied before being modified in place
+    ObjectNode transformedNode = MAPPER.createObjectNode();
+    List<String> reusingFields = new ArrayList<>();
+    for (Map.Entry<?, ?> entry : ((Map<?, ?>) transformed).entrySet()) {
+      String name = String.valueOf(entry.getKey());
+      transformedNode.set(name, view.toJson(entry.getValue()));
+      if (view.reusedNodes()) {
+        reusingFields.add(name);
+      }
+    }
 
     HashMap<String, JsonNode> reserved = new HashMap<>();
     RESERVED_FIELDS.stream().filter(this::has).forEach(field -> reserved.put(field, data.get(field)));
@@ -1058,61 +1273,47 @@ public class JsonDocument implements Document {
     }
 
     data = transformedNode;
+    for (String name : reusingFields) {
+      markShared(name);
+    }
   }
 
   @Override
   public void transform(Jsonata expr, String sourceField, String destField) throws DocumentException {
     JsonNode sourceNode = getNestedJson(sourceField);
-    Object transformed = expr.evaluate(asMapWithByteArrayConversion(sourceNode));
+    JsonataView view = new JsonataView();
+    Object transformed = expr.evaluate(view.wrap(sourceNode));
 
     if (transformed == null) {
       throw new DocumentException("Transformation returned null");
     }
 
-    // Converting the output back to a Jackson-compatible value.
     if (destField == null) {
       destField = sourceField;
     }
-    setNestedJson(destField, MAPPER.valueToTree(transformed));
+    JsonNode result = view.toJson(transformed);
+    if (result == sourceNode && destField.equals(sourceField)) {
+      return;
+    }
+    // parts of the source that are passed through are copied, so they aren't referenced from two places
+    setNestedJson(destField, view.reusedNodes() ? result.deepCopy() : result);
   }
 
-  /**
-   * Recursively converts a JsonNode to a Map/List/primitive, including converting binary nodes to base64 strings
-   *  for compatibility with jsonata-java. It wants only raw values, Maps, or Lists (not arrays or binary types).
-   *
-   * This is used in place of this.asMap() when you need to handle byte[]. The asMap() method uses MAPPER.convertValue which does not handle byte[].
-   *
-   * @param node the JsonNode to convert
-   * @return Object that can be evaluated by jsonata-java
-   */
-  private Object asMapWithByteArrayConversion(JsonNode node) {
-    if (node == null || node.isNull()) {
-      return null;
-    } else if (node.isObject()) {
-      Map<String, Object> map = new HashMap<>();
-      node.fields().forEachRemaining(entry ->
-          map.put(entry.getKey(), asMapWithByteArrayConversion(entry.getValue()))
-      );
-      return map;
-    } else if (node.isArray()) {
-      List<Object> list = new ArrayList<>();
-      node.forEach(element -> list.add(asMapWithByteArrayConversion(element)));
-      return list;
-    } else if (node.isBinary()) {
-      try {
-        return Base64.getEncoder().encodeToString(node.binaryValue());
-      } catch (IOException e) {
-        return null;
-      }
-    } else if (node.isTextual()) {
-      return node.asText();
-    } else if (node.isNumber()) {
-      return node.numberValue();
-    } else if (node.isBoolean()) {
-      return node.booleanValue();
-    } else {
-      return node.toString();
+  @Override
+  public void setNestedJson(List<Segment> segments, JsonNode value) {
+    // the nested setters modify the top-level value in place, so a shared value is cloned first
+    if (!segments.isEmpty()) {
+      own(segments.get(0).name);
     }
+    Document.super.setNestedJson(segments, value);
+  }
+
+  @Override
+  public void removeNestedJson(List<Segment> segments) {
+    if (segments != null && !segments.isEmpty()) {
+      own(segments.get(0).name);
+    }
+    Document.super.removeNestedJson(segments);
   }
 
   private static ObjectNode getData(Document other) {
@@ -1129,4 +1330,49 @@ public class JsonDocument implements Document {
   public void removeChildren() {
     data.remove(CHILDREN_FIELD);
   }
+
+  private static ObjectNode shallowCopy(ObjectNode node) {
+    ObjectNode copy = MAPPER.createObjectNode();
+    copy.setAll(node);
+    return copy;
+  }
+
+  private void markShared(String name) {
+    if (sharedFields == null) {
+      sharedFields = new HashSet<>();
+    }
+    sharedFields.add(name);
+  }
+
+  /**
+   * Returns whether the value of the given field may be shared with another document. If copies of this document
+   * have been made since the last check, every object and array field is marked as shared first.
+   */
+  private boolean isShared(String name) {
+    int copyCount = copies.get();
+    if (copyCount != copiesSeen) {
+      copiesSeen = copyCount;
+      for (Iterator<Map.Entry<String, JsonNode>> it = data.fields(); it.hasNext(); ) {
+        Map.Entry<String, JsonNode> field = it.next();
+        if (field.getValue().isContainerNode()) {
+          markShared(field.getKey());
+        }
+      }
+    }
+    return sharedFields != null && sharedFields.contains(name);
+  }
+
+  /**
+   * Returns the value of the given field, first replacing it with a deep copy if it may be shared with another
+   * document, so the returned node can be modified in place.
+   */
+  private JsonNode own(String name) {
+    JsonNode node = data.get(name);
+    if (node != null && node.isContainerNode() && isShared(name)) {
+      node = node.deepCopy();
+      data.set(name, node);
+      sharedFields.remove(name);
+    }
+    return node;
+  }
 }
@@ -0,0 +1,178 @@
+package com.kmwllc.lucille.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Presents a Jackson tree to jsonata-java, which evaluates expressions over Maps, Lists, and plain values, without
+ * converting the tree first. Objects and arrays are wrapped in read-only views, and a field's value is only converted
+ * when the expression reads it, so an expression that reads one small field of a large document only converts that
+ * field.
+ * <p>
+ * Binary values are read as base64 strings. When a string read from a binary value ends up in the result unchanged,
+ * {@link #toJson(Object)} turns it back into the original binary node. A view is used for one evaluation.
+ */
+class JsonataView {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  // the base64 strings handed out for binary values, by identity, mapped to the binary nodes they were read from
+  private final Map<String, JsonNode> binaries = new IdentityHashMap<>();
+
+  // whether toJson has returned any nodes of the viewed tree as part of its result since the last reset
+  private boolean reused = false;
+
+  /**
+   * Returns the given node as jsonata-java expects to see it: a Map for an object, a List for an array, or a String,
+   * Number, or Boolean. Returns null for a null or missing node.
+   */
+  Object wrap(JsonNode node) {
+    if (node == null || node.isNull()) {
+      return null;
+    } else if (node.isObject()) {
+      return new ObjectView((ObjectNode) node);
+    } else if (node.isArray()) {
+      return new ArrayView((ArrayNode) node);
+    } else if (node.isBinary()) {
+      try {
+        String encoded = Base64.getEncoder().encodeToString(node.binaryValue());
+        binaries.put(encoded, node);
+        return encoded;
+      } catch (IOException e) {
+        return null;
+      }
+    } else if (node.isTextual()) {
+      return node.asText();
+    } else if (node.isNumber()) {
+      return node.numberValue();
+    } else if (node.isBoolean()) {
+      return node.booleanValue();
+    } else {
+      return node.toString();
+    }
+  }
+
+  /**
+   * Converts the result of an evaluation to a Jackson tree. Parts of the result that are views of the original tree
+   * are returned as the original nodes rather than copies, so the result may share nodes with the original tree; see
+   * {@link #reusedNodes()}.
+   */
+  JsonNode toJson(Object value) {
+    if (value instanceof ObjectView view) {
+      reused = true;
+      return view.node;
+    } else if (value instanceof ArrayView view) {
+      reused = true;
+      return view.node;
+    } else if (value instanceof Map<?, ?> map) {
+      ObjectNode node = MAPPER.createObjectNode();
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        node.set(String.valueOf(entry.getKey()), toJson(entry.getValue()));
+      }
+      return node;
+    } else if (value instanceof List<?> list) {
+      ArrayNode node = MAPPER.createArrayNode();
+      for (Object element : list) {
+        node.add(toJson(element));
+      }
+      return node;
+    } else if (value instanceof String string && binaries.containsKey(string)) {
+      return binaries.get(string);
+    } else {
+      return MAPPER.valueToTree(value);
+    }
+  }
+
+  /**
+   * Returns whether any object or array of the original tree has been returned by {@link #toJson(Object)} since this
+   * was last called, and starts tracking again.
+   */
+  boolean reusedNodes() {
+    boolean result = reused;
+    reused = false;
+    return result;
+  }
+
+  private class ObjectView extends AbstractMap<String, Object> {
+
+    private final ObjectNode node;
+
+    private ObjectView(ObjectNode node) {
+      this.node = node;
+    }
+
+    @Override
+    public Object get(Object key) {
+      return key instanceof String name ? wrap(node.get(name)) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String name && node.has(name);
+    }
+
+    @Override
+    public int size() {
+      return node.size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          Iterator<Entry<String, JsonNode>> fields = node.fields();
+          return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+              return fields.hasNext();
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              Entry<String, JsonNode> field = fields.next();
+              return new SimpleImmutableEntry<>(field.getKey(), wrap(field.getValue()));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return node.size();
+        }
+      };
+    }
+  }
+
+  private class ArrayView extends AbstractList<Object> implements RandomAccess {
+
+    private final ArrayNode node;
+
+    private ArrayView(ArrayNode node) {
+      this.node = node;
+    }
+
+    @Override
+    public Object get(int index) {
+      return wrap(node.get(index));
+    }
+
+    @Override
+    public int size() {
+      return node.size();
+    }
+  }
+}
@@ -45,7 +45,7 @@ public class KafkaDocument extends JsonDocument {
   }
 
   /**
-   * Creates a deep copy of the given Document, now as a KafkaDocument with kafka metadata.
+   * Creates a copy of the given Document, now as a KafkaDocument with kafka metadata.
    */
   KafkaDocument(Document doc, String topic, int partition, long offset, String key) throws DocumentException {
     super(doc);
@@ -98,7 +98,7 @@ public class KafkaDocument extends JsonDocument {
   @Override
   public KafkaDocument clone() {
     try {
-      return new KafkaDocument(data.deepCopy(), topic, partition, offset, key);
+      return new KafkaDocument(this, topic, partition, offset, key);
     } catch (DocumentException e) {
       throw new IllegalStateException("Document not cloneable", e);
     }
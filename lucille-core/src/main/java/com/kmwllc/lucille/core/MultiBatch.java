@@ -6,7 +6,7 @@ public class MultiBatch implements Batch {
 
   private final Map<String, Batch> batches;
 
-  private final int capacity;
+  private int capacity;
   private final long byteCapacity;
   private final int timeout;
   private final String indexField;
@@ -66,4 +66,12 @@ public class MultiBatch implements Batch {
   public int getCapacity() {
     return capacity;
   }
+
+  @Override
+  public void setCapacity(int capacity) {
+    this.capacity = capacity;
+    for (Batch batch : batches.values()) {
+      batch.setCapacity(capacity);
+    }
+  }
 }
@@ -1,5 +1,10 @@
 package com.kmwllc.lucille.core;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.kmwllc.lucille.util.LogUtils;
 import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +19,13 @@ import java.util.stream.Collectors;
 
 /**
  * A sequence of processing Stages to be applied to incoming Documents.
+ *
+ * Consecutive stages that are fusable (see {@link Stage#isFusable()}) are applied to each Document in a single pass
+ * rather than one stage at a time. This does not change the result of processing a Document or the metrics recorded
+ * for each stage; it only removes per-stage overhead from pipelines with many lightweight stages.
+ *
+ * The time each stage takes to start is recorded in the <code>stage.&lt;name&gt;.startTime</code> timer, so stages
+ * that load models or dictionaries and delay the start of a run can be identified.
  */
 public class Pipeline {
 
@@ -21,13 +33,21 @@ public class Pipeline {
 
   private final ArrayList<Stage> stages = new ArrayList<>();
 
+  // the stages as they are applied to documents, with runs of fusable stages replaced by a FusedStages
+  private List<Stage> plan = Collections.emptyList();
+
+  private String metricsPrefix = "default";
+
   public List<Stage> getStages() {
     return stages;
   }
 
   public void startStages() throws StageException {
+    MetricRegistry metrics = SharedMetricRegistries.getOrCreate(LogUtils.METRICS_REG);
     for (Stage stage : stages) {
+      Timer.Context context = metrics.timer(startTimeMetric(stage)).time();
       stage.start();
+      log.debug("Started stage {} in {} ms.", stage.getName(), context.stop() / 1000000);
     }
   }
 
@@ -43,6 +63,23 @@ public class Pipeline {
     }
   }
 
+  /**
+   * Logs how long each stage has taken to start, across all pipelines that share this pipeline's metrics prefix.
+   */
+  public void logStartMetrics() {
+    MetricRegistry metrics = SharedMetricRegistries.getOrCreate(LogUtils.METRICS_REG);
+    for (Stage stage : stages) {
+      Timer timer = metrics.timer(startTimeMetric(stage));
+      Snapshot snapshot = timer.getSnapshot();
+      log.info(String.format("Stage %s started %d times. Mean start time: %.2f ms. Max start time: %.2f ms.",
+          stage.getName(), timer.getCount(), snapshot.getMean() / 1000000, snapshot.getMax() / 1000000.0));
+    }
+  }
+
+  private String startTimeMetric(Stage stage) {
+    return metricsPrefix + ".stage." + stage.getName() + ".startTime";
+  }
+
   /**
    * Returns a list of exceptions that occurred during initialization and validation of stages
    * in the config. Validation is performed on every stage config that is provided, whether
@@ -59,13 +96,31 @@ public class Pipeline {
    * or not it is enabled.
    */
   public static List<Exception> validateStages(List<? extends Config> stages) {
+    return validateStages(stages, null);
+  }
+
+  /**
+   * Validates the stages of the named pipeline, as {@link #validateStages(Config, String)} does, and adds the stage
+   * created from each config to <code>instances</code>, or null where a stage could not be created. When there are no
+   * exceptions, the instances can be passed to {@link #fromConfig(Config, String, String, List)} rather than creating
+   * every stage again.
+   */
+  static List<Exception> validateStages(Config config, String name, List<Stage> instances) throws Exception {
+    return validateStages(getPipelineStages(config, name), instances);
+  }
+
+  private static List<Exception> validateStages(List<? extends Config> stages, List<Stage> instances) {
     List<Exception> exceptions = new ArrayList<>();
     for (Config c : stages) {
+      Stage stage = null;
       try {
-        Stage.fromConfig(c);
+        stage = Stage.fromConfig(c);
       } catch (Exception e) {
         exceptions.add(e);
       }
+      if (instances != null) {
+        instances.add(stage);
+      }
     }
     return exceptions;
   }
@@ -78,14 +133,21 @@ public class Pipeline {
    */
   public static Pipeline fromConfig(List<? extends Config> stages, String metricsPrefix) throws
       Exception {
+    return fromConfig(stages, metricsPrefix, null);
+  }
+
+  private static Pipeline fromConfig(List<? extends Config> stages, String metricsPrefix, List<Stage> instances)
+      throws Exception {
     Pipeline pipeline = new Pipeline();
-    for (Config c : stages) {
+    pipeline.metricsPrefix = metricsPrefix;
+    for (int i = 0; i < stages.size(); i++) {
+      Config c = stages.get(i);
       // skip configs with "enabled: false"
       if (c.hasPath("enabled") && !c.getBoolean("enabled")) {
         continue;
       }
 
-      Stage stage = Stage.fromConfig(c);
+      Stage stage = instances != null ? instances.get(i) : Stage.fromConfig(c);
       pipeline.addStage(stage, metricsPrefix);
     }
     pipeline.startStages();
@@ -103,6 +165,21 @@ public class Pipeline {
     return fromConfig(getPipelineStages(config, name), metricsPrefix);
   }
 
+  /**
+   * Instantiates the named Pipeline from stages that were already created, one for each stage config, by
+   * {@link #validateStages(Config, String, List)}. Each instance must not have been used in another Pipeline. When
+   * <code>instances</code> is null, the stages are created from the Config.
+   */
+  static Pipeline fromConfig(Config config, String name, String metricsPrefix, List<Stage> instances)
+      throws Exception {
+    List<? extends Config> stages = getPipelineStages(config, name);
+    if (instances != null && instances.size() != stages.size()) {
+      throw new PipelineException("Expected " + stages.size() + " stage instances for pipeline " + name + " but got "
+          + instances.size());
+    }
+    return fromConfig(stages, metricsPrefix, instances);
+  }
+
   private static List<? extends Config> getPipelineStages(Config config, String name) throws Exception {
     if (!config.hasPath("pipelines")) {
       throw new PipelineException("No pipelines element present in config");
@@ -152,7 +229,7 @@ public class Pipeline {
   public Iterator<Document> processDocument(Document document) throws StageException {
     Iterator<Document> result = document.iterator();
 
-    for (Stage stage : stages) {
+    for (Stage stage : plan) {
       result = stage.apply(result);
     }
 
@@ -172,5 +249,34 @@ public class Pipeline {
       throw new PipelineException("Two stages cannot have the same name: " + stage.getName());
     }
     stages.add(stage);
+    plan = fuse(stages);
+  }
+
+  /**
+   * Returns the given stages with each run of two or more consecutive fusable stages replaced by a single FusedStages.
+   */
+  static List<Stage> fuse(List<Stage> stages) {
+    List<Stage> result = new ArrayList<>();
+    List<Stage> run = new ArrayList<>();
+    for (Stage stage : stages) {
+      if (stage.isFusable()) {
+        run.add(stage);
+        continue;
+      }
+      endRun(run, result);
+      result.add(stage);
+    }
+    endRun(run, result);
+    return result;
+  }
+
+  private static void endRun(List<Stage> run, List<Stage> result) {
+    if (run.size() > 1) {
+      log.debug("Fusing stages {}.", run.stream().map(Stage::getName).collect(Collectors.toList()));
+      result.add(new FusedStages(run));
+    } else {
+      result.addAll(run);
+    }
+    run.clear();
   }
 }
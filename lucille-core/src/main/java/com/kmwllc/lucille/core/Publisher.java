@@ -55,6 +55,12 @@ public interface Publisher {
    */
   long numPending();
 
+  /**
+   * Returns the number of pending documents at which publish() starts to block, or null if publish() never blocks
+   * because of pending documents.
+   */
+  Integer getMaxPendingDocs();
+
   /**
    * Returns the number of child documents that the publisher did not publish but was notified about via
    * a CREATE event passed to handleEvent().
@@ -38,7 +38,8 @@ import org.slf4j.MDC;
 public class PublisherImpl implements Publisher {
 
   public static final Spec SPEC = SpecBuilder.withoutDefaults()
-      .optionalNumber("queueCapacity", "maxPendingDocs").build();
+      .optionalNumber("queueCapacity", "maxPendingDocs", "queueMemoryBytes")
+      .optionalString("queueSpillDirectory").build();
 
   private static final Logger log = LoggerFactory.getLogger(PublisherImpl.class);
   private static final Logger docLogger = LoggerFactory.getLogger("com.kmwllc.lucille.core.DocLogger");
@@ -490,6 +491,7 @@ public class PublisherImpl implements Publisher {
     return numDropped;
   }
 
+  @Override
   public Integer getMaxPendingDocs() {
     return maxPendingDocs;
   }
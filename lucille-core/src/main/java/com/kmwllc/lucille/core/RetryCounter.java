@@ -5,4 +5,10 @@ public interface RetryCounter {
   boolean add(Document document);
 
   void remove(Document document);
+
+  /**
+   * Writes out any updates that have been buffered. Called when a Worker is idle and before it stops.
+   */
+  default void flush() {
+  }
 }
@@ -306,11 +306,19 @@ public class Runner {
    * @throws Exception If a larger error occurs, preventing the Config from being validates.
    */
   public static Map<String, List<Exception>> runInValidationMode(Config config) throws Exception {
+    return runInValidationMode(config, null);
+  }
+
+  // Validates the given Config as runInValidationMode(Config) does. When validatedStages is not null, the stages created
+  // for each pipeline without errors are added to it, keyed by pipeline name, so a WorkerPool can use them rather than
+  // creating every stage again.
+  private static Map<String, List<Exception>> runInValidationMode(Config config, Map<String, List<Stage>> validatedStages)
+      throws Exception {
     // Resolve any potential substitutions once, to prevent errors about missing values.
     config = config.resolve();
     Map<String, List<Exception>> allExceptionsMap = new HashMap<>();
 
-    Map<String, List<Exception>> pipelineExceptions = validatePipelines(config);
+    Map<String, List<Exception>> pipelineExceptions = validatePipelines(config, validatedStages);
     log.info(stringifyValidation(pipelineExceptions, "Pipeline"));
 
     Map<String, List<Exception>> connectorExceptions = validateConnectors(config);
@@ -383,7 +391,8 @@ public class Runner {
    * Returns a mapping from pipeline names to the list of exceptions produced when validating them. (only includes
    * a pipeline name if there are errors with its config.)
    */
-  private static Map<String, List<Exception>> validatePipelines(Config rootConfig) throws Exception {
+  private static Map<String, List<Exception>> validatePipelines(Config rootConfig, Map<String, List<Stage>> validatedStages)
+      throws Exception {
     Map<String, List<Exception>> exceptionMap = new LinkedHashMap<>();
 
     if (!rootConfig.hasPath("pipelines")) {
@@ -394,11 +403,14 @@ public class Runner {
     for (Config pipelineConfig : rootConfig.getConfigList("pipelines")) {
       String pipelineName = pipelineConfig.getString("name");
 
-      List<Exception> exceptionsForPipeline = Pipeline.validateStages(rootConfig, pipelineName);
+      List<Stage> stages = new ArrayList<>();
+      List<Exception> exceptionsForPipeline = Pipeline.validateStages(rootConfig, pipelineName, stages);
 
       if (!exceptionsForPipeline.isEmpty()) {
         // No checks on whether the map has the pipeline name, since Pipeline checks for duplicate names...
         exceptionMap.put(pipelineName, exceptionsForPipeline);
+      } else if (validatedStages != null) {
+        validatedStages.put(pipelineName, stages);
       }
     }
 
@@ -534,7 +546,9 @@ public class Runner {
 
     MDC.put(RUNID_FIELD, runId);
 
-    Map<String, List<Exception>> validationErrors = runInValidationMode(config);
+    // the stages created during validation are used by the first Worker for each pipeline
+    Map<String, List<Stage>> validatedStages = new HashMap<>();
+    Map<String, List<Exception>> validationErrors = runInValidationMode(config, validatedStages);
     if (!validationErrors.isEmpty()) {
       log.error("Pre-run validation failed.");
 
@@ -579,8 +593,8 @@ public class Runner {
       }
 
       ConnectorResult result =
-          runConnectorWithComponents(config, runId, type, connector,
-              workerMessengerFactory, indexerMessengerFactory, publisherMessengerFactory, startWorkerAndIndexer, bypassSolr);
+          runConnectorWithComponents(config, runId, type, connector, workerMessengerFactory, indexerMessengerFactory,
+              publisherMessengerFactory, startWorkerAndIndexer, bypassSolr, validatedStages);
 
       connectorResults.add(result);
 
@@ -707,7 +721,8 @@ public class Runner {
       IndexerMessengerFactory indexerMessengerFactory,
       PublisherMessengerFactory publisherMessengerFactory,
       boolean startWorkerAndIndexer,
-      boolean bypassIndexer) throws Exception {
+      boolean bypassIndexer,
+      Map<String, List<Stage>> validatedStages) throws Exception {
     String pipelineName = connector.getPipelineName();
     WorkerPool workerPool = null;
     Indexer indexer = null;
@@ -724,7 +739,9 @@ public class Runner {
       String metricsPrefix = runId + "." + connector.getName() + "." + connector.getPipelineName();
 
       if (startWorkerAndIndexer && connector.getPipelineName() != null) {
-        workerPool = new WorkerPool(config, pipelineName, localRunId, workerMessengerFactory, metricsPrefix);
+        // a pipeline's validated stages are only used once, by the first connector that feeds it
+        workerPool = new WorkerPool(config, pipelineName, localRunId, workerMessengerFactory, metricsPrefix,
+            validatedStages.remove(pipelineName));
 
         try {
           workerPool.start();
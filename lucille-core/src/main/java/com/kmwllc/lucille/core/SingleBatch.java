@@ -4,6 +4,7 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.LinkedBlockingQueue;
 
 
@@ -12,7 +13,7 @@ public class SingleBatch implements Batch {
   private final LinkedBlockingQueue<Document> queue;
   private final int timeout;
   private Instant lastAddOrFlushInstant;
-  private final int capacity;
+  private int capacity;
   private final long byteCapacity;
   private long byteAccumulator = 0;
 
@@ -28,7 +29,7 @@ public class SingleBatch implements Batch {
   public SingleBatch(int capacity, long byteCapacity, int timeout) {
     this.capacity = capacity;
     this.byteCapacity = byteCapacity;
-    this.queue = new LinkedBlockingQueue<>(capacity);
+    this.queue = new LinkedBlockingQueue<>();
     this.timeout = timeout;
     this.lastAddOrFlushInstant = Instant.now();
   }
@@ -36,6 +37,7 @@ public class SingleBatch implements Batch {
 
   @Override
   public List<Document> add(Document doc) {
+    Objects.requireNonNull(doc);
     List<Document> docs = new ArrayList<>();
     // can just leave this at 0 if byte cap isn't set so that we don't have to call getByteSize()
     long docByteSize = byteCapacity != Indexer.NO_BATCH_SIZE_BYTES ? doc.getByteSize() : 0;
@@ -46,11 +48,11 @@ public class SingleBatch implements Batch {
       byteAccumulator = docByteSize;
     }
 
-    if (byteAccumulator > byteCapacity || !queue.offer(doc)) {
+    if (byteAccumulator > byteCapacity || queue.size() >= capacity) {
       queue.drainTo(docs);
-      queue.offer(doc);
       byteAccumulator = docByteSize;
     }
+    queue.offer(doc);
 
     lastAddOrFlushInstant = Instant.now();
     return docs;
@@ -77,6 +79,11 @@ public class SingleBatch implements Batch {
     return capacity;
   }
 
+  @Override
+  public void setCapacity(int capacity) {
+    this.capacity = capacity;
+  }
+
   /**
    * Indicates whether the configured timeout has elapsed since the most
    * recent of the following events: add(), flush(), flushIfExpired() with an expiration detected, new Batch().
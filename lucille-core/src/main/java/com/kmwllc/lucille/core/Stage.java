@@ -20,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -206,6 +207,49 @@ public abstract class Stage {
    */
   public abstract Iterator<Document> processDocument(Document doc) throws StageException;
 
+  /**
+   * Returns whether processDocument() may return child documents. Stages that only work on the fields of the document
+   * they are given should override this to return false, which allows a Pipeline to run them together with neighboring
+   * stages of the same kind in a single pass. Defaults to true.
+   */
+  public boolean createsChildren() {
+    return true;
+  }
+
+  /**
+   * Returns true if this stage can be run as part of a fused run of stages: it does not create children and
+   * has no conditions.
+   */
+  public boolean isFusable() {
+    return !createsChildren() && (!config.hasPath("conditions") || config.getConfigList("conditions").isEmpty());
+  }
+
+  /**
+   * Processes a Document as a member of a {@link FusedStages} run. For a fusable stage this is equivalent to
+   * apply(doc), but it records the stage's latency and errors without wrapping the document in iterators.
+   * The caller is responsible for not passing dropped or skipped documents.
+   */
+  void processFused(Document doc) throws StageException {
+    docLogger.info("Stage {} to process {}.", name, doc.getId());
+    long start = System.nanoTime();
+    try {
+      Iterator<Document> children = processDocument(doc);
+      if (children != null && children.hasNext()) {
+        throw new StageException("Stage " + name + " does not declare that it creates children but returned a child document.");
+      }
+    } catch (StageException e) {
+      if (errorCounter != null) {
+        errorCounter.inc();
+      }
+      throw e;
+    } finally {
+      if (timer != null) {
+        timer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+      docLogger.info("Stage {} done processing {}.", name, doc.getId());
+    }
+  }
+
   /**
    * Applies an operation to a Document in place and returns an Iterator over any child Documents generated
    * by the operation, with the input or parent document at the end. Unlike processDocument, the return
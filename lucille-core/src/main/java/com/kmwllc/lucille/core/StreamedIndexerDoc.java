@@ -0,0 +1,92 @@
+package com.kmwllc.lucille.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A Document as it will be sent to a search engine, serialized by writing the Document's fields straight to the JSON
+ * generator of the outgoing request. Fields rejected by the Indexer's field filter are skipped during the write, so the
+ * Document is never converted to a Map. Client libraries that serialize request bodies with Jackson, such as the
+ * Elasticsearch and OpenSearch Java clients, accept an instance anywhere they accept a document.
+ * <p>
+ * The Document is read when the request is serialized, not when this object is created. Instances are created with
+ * {@link Indexer#getStreamedIndexerDoc(Document, String, String)}.
+ */
+public final class StreamedIndexerDoc extends JsonSerializable.Base {
+
+  private final Document doc;
+  private final Predicate<String> filter;
+
+  // written as the id field in place of the document's own id, or null to leave the id out
+  private final String id;
+
+  // the field to write the document's children to, or null to leave the children out
+  private final String childrenField;
+
+  StreamedIndexerDoc(Document doc, Predicate<String> filter, String id, String childrenField) {
+    this.doc = doc;
+    this.filter = filter;
+    this.id = id;
+    this.childrenField = childrenField;
+  }
+
+  public Document getDocument() {
+    return doc;
+  }
+
+  @Override
+  public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+    generator.writeStartObject();
+
+    if (id != null) {
+      generator.writeStringField(Document.ID_FIELD, id);
+    }
+
+    writeFields(doc, generator, provider, name -> !Document.ID_FIELD.equals(name)
+        && !Document.CHILDREN_FIELD.equals(name) && !name.equals(childrenField) && filter.test(name));
+
+    if (childrenField != null && doc.hasChildren()) {
+      generator.writeArrayFieldStart(childrenField);
+      for (Document child : doc.getChildren()) {
+        // we don't support children that contain nested children
+        generator.writeStartObject();
+        writeFields(child, generator, provider, name -> !Document.CHILDREN_FIELD.equals(name) && filter.test(name));
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+    }
+
+    generator.writeEndObject();
+  }
+
+  @Override
+  public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer)
+      throws IOException {
+    serialize(generator, provider);
+  }
+
+  private static void writeFields(Document doc, JsonGenerator generator, SerializerProvider provider,
+      Predicate<String> filter) throws IOException {
+    if (doc instanceof JsonDocument) {
+      ((JsonDocument) doc).writeFields(generator, provider, filter);
+      return;
+    }
+
+    for (Map.Entry<String, Object> entry : doc.asMap().entrySet()) {
+      if (filter.test(entry.getKey())) {
+        generator.writeFieldName(entry.getKey());
+        provider.defaultSerializeValue(entry.getValue(), generator);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return doc.toString();
+  }
+}
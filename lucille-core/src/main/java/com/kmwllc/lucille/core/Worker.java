@@ -18,14 +18,15 @@ import sun.misc.Signal;
 
 import java.time.Instant;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 class Worker implements Runnable {
 
   public static final Spec SPEC = SpecBuilder.withoutDefaults()
-      .optionalString("pipeline")
+      .optionalString("pipeline", "retryTracking")
       .optionalNumber("threads", "maxProcessingSecs", "maxRetries")
-      .optionalBoolean("exitOnTimeout", "enableHeartbeat").build();
+      .optionalBoolean("exitOnTimeout", "enableHeartbeat", "parallelStartup").build();
 
   public static final String METRICS_SUFFIX = ".worker.docProcessingTme";
 
@@ -53,13 +54,24 @@ class Worker implements Runnable {
 
   public Worker(Config config, WorkerMessenger messenger, String localRunId, String pipelineName, String metricsPrefix)
       throws Exception {
+    this(config, messenger, localRunId, pipelineName, metricsPrefix, null);
+  }
+
+  /**
+   * Creates a Worker whose pipeline uses the given stage instances, created during validation, or creates its own when
+   * <code>stages</code> is null.
+   */
+  Worker(Config config, WorkerMessenger messenger, String localRunId, String pipelineName, String metricsPrefix,
+      List<Stage> stages) throws Exception {
     this.messenger = messenger;
     this.localRunId = localRunId;
-    this.pipeline = Pipeline.fromConfig(config, pipelineName, metricsPrefix);
+    this.pipeline = Pipeline.fromConfig(config, pipelineName, metricsPrefix, stages);
     if (config.hasPath("worker.maxRetries")) {
       log.info("Retries will be tracked in Zookeeper with a configured maximum of: " + config.getInt("worker.maxRetries"));
       this.trackRetries = true;
-      this.counter = new ZKRetryCounter(config);
+      ZKRetryCounter zkCounter = new ZKRetryCounter(config);
+      messenger.addRebalanceListener(zkCounter);
+      this.counter = zkCounter;
     }
     this.pollInstant = new AtomicReference();
     this.pollInstant.set(Instant.now());
@@ -173,6 +185,16 @@ class Worker implements Runnable {
     // commit any remaining offsets before termination
     commitOffsetsAndRemoveCounter(null);
 
+    close();
+
+    log.debug("Exiting");
+  }
+
+  /**
+   * Closes the messenger and stops the pipeline's stages. Called when the Worker stops running, or by the WorkerPool
+   * when a Worker is created but never started.
+   */
+  void close() {
     try {
       messenger.close();
     } catch (Exception e) {
@@ -184,19 +206,23 @@ class Worker implements Runnable {
     } catch (StageException e) {
       log.error("Error stopping pipeline stage", e);
     }
-
-    log.debug("Exiting");
   }
 
   public void logMetrics() {
     pipeline.logMetrics();
   }
 
+  public void logStartMetrics() {
+    pipeline.logStartMetrics();
+  }
+
   private void commitOffsetsAndRemoveCounter(Document doc) {
     try {
       messenger.commitPendingDocOffsets();
       if (trackRetries && doc != null) {
         counter.remove(doc);
+      } else if (trackRetries) {
+        counter.flush();
       }
     } catch (Exception commitException) {
       log.error("Error committing updated offsets for pending documents", commitException);
@@ -11,8 +11,11 @@ import java.lang.management.ManagementFactory;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
@@ -20,10 +23,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.TimerTask;
 import org.slf4j.MDC;
 
+/**
+ * Starts and stops the Worker threads for a pipeline.
+ *
+ * Workers are created one at a time by default. Creating one means creating and starting every stage in its pipeline,
+ * which can take a long time for stages that load models or dictionaries, so <code>worker.parallelStartup: true</code>
+ * creates them in parallel instead. Only enable it when every stage's start() is safe to run on several threads at
+ * once. No Worker thread starts polling until every Worker has been created.
+ */
 public class WorkerPool {
 
   public static final int DEFAULT_POOL_SIZE = 1;
@@ -49,9 +61,22 @@ public class WorkerPool {
   private boolean started = false;
   private final int logSeconds;
   private final String metricsPrefix;
+  private final boolean parallelStartup;
+  // stages created while validating the config, used by the first Worker; null if there are none to reuse
+  private List<Stage> validatedStages;
 
   public WorkerPool(Config config, String pipelineName, String localRunId, WorkerMessengerFactory factory, String metricsPrefix) {
+    this(config, pipelineName, localRunId, factory, metricsPrefix, null);
+  }
+
+  /**
+   * Creates a WorkerPool whose first Worker uses the given stage instances, one for each of the pipeline's stage
+   * configs, as created by {@link Pipeline#validateStages(Config, String, List)}.
+   */
+  WorkerPool(Config config, String pipelineName, String localRunId, WorkerMessengerFactory factory, String metricsPrefix,
+      List<Stage> validatedStages) {
     this.config = config;
+    this.validatedStages = validatedStages;
     this.pipelineName = pipelineName;
     this.localRunId = localRunId;
     this.workerMessengerFactory = factory;
@@ -70,6 +95,7 @@ public class WorkerPool {
     this.maxProcessingSecs =
         config.hasPath("worker.maxProcessingSecs") ? config.getInt("worker.maxProcessingSecs") : 10 * 60;
     this.exitOnTimeout = config.hasPath("worker.exitOnTimeout") ? config.getBoolean("worker.exitOnTimeout") : false;
+    this.parallelStartup = ConfigUtils.getOrDefault(config, "worker.parallelStartup", false);
   }
 
   public void start() throws Exception {
@@ -78,18 +104,20 @@ public class WorkerPool {
     }
     started = true;
     log.info("Starting " + numWorkers + " worker threads for pipeline " + pipelineName);
-    List<Worker> workers = new ArrayList<>();
+    Instant startedAt = Instant.now();
 
     try {
-      for (int i = 0; i < numWorkers; i++) {
-        WorkerMessenger messenger = workerMessengerFactory.create();
+      List<Worker> workers = createWorkers();
 
+      for (int i = 0; i < workers.size(); i++) {
         String name = ThreadNameUtils.createName("Worker-" + (i + 1), localRunId);
-        // will throw exception if pipeline has errors
-        Worker worker = new Worker(config, messenger, localRunId, pipelineName, metricsPrefix);
-        workers.add(worker);
-        // start workerThread
-        threads.add(Worker.startThread(worker, name));
+        threads.add(Worker.startThread(workers.get(i), name));
+      }
+
+      log.info("Started {} worker threads for pipeline {} in {} ms.", numWorkers, pipelineName,
+          Duration.between(startedAt, Instant.now()).toMillis());
+      if (!workers.isEmpty()) {
+        workers.get(0).logStartMetrics();
       }
 
       watcherService = startWatcher(workers, maxProcessingSecs);
@@ -104,6 +132,89 @@ public class WorkerPool {
     }
   }
 
+  // Creates the Workers, in parallel if parallelStartup is true. If any of them can't be created, the others are
+  // closed, along with the messengers of the ones that failed, and the first exception is thrown.
+  private List<Worker> createWorkers() throws Exception {
+    BasicThreadFactory namingFactory = new BasicThreadFactory.Builder()
+        .namingPattern(ThreadNameUtils.createName("WorkerStartup", localRunId) + "-%d")
+        .daemon(true)
+        .build();
+    // the threads are kept so they can be joined, since the executor reports termination before they have exited
+    List<Thread> startupThreads = Collections.synchronizedList(new ArrayList<>());
+    ThreadFactory factory = r -> {
+      Thread thread = namingFactory.newThread(r);
+      startupThreads.add(thread);
+      return thread;
+    };
+
+    List<WorkerMessenger> messengers = new ArrayList<>();
+    try {
+      for (int i = 0; i < numWorkers; i++) {
+        messengers.add(workerMessengerFactory.create());
+      }
+    } catch (Exception e) {
+      closeMessengers(messengers);
+      throw e;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(parallelStartup ? Math.max(numWorkers, 1) : 1, factory);
+    List<Future<Worker>> futures = new ArrayList<>();
+    try {
+      for (WorkerMessenger messenger : messengers) {
+        // only the first Worker uses the stages created during validation, since a stage can only be in one pipeline
+        List<Stage> stages = validatedStages;
+        validatedStages = null;
+
+        futures.add(executor.submit(() -> {
+          MDC.put(Document.RUNID_FIELD, localRunId);
+          // will throw exception if pipeline has errors
+          return new Worker(config, messenger, localRunId, pipelineName, metricsPrefix, stages);
+        }));
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    List<Worker> workers = new ArrayList<>();
+    // the messengers of Workers that couldn't be created, which are still open
+    List<WorkerMessenger> unused = new ArrayList<>();
+    Exception failure = null;
+    // wait for every Worker, so that none are left starting when an exception is thrown
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        workers.add(futures.get(i).get());
+      } catch (ExecutionException e) {
+        unused.add(messengers.get(i));
+        if (failure == null) {
+          failure = e.getCause() instanceof Exception cause ? cause : e;
+        }
+      }
+    }
+    // every task has finished, so the startup threads are only exiting
+    for (Thread thread : startupThreads) {
+      thread.join();
+    }
+
+    if (failure != null) {
+      for (Worker worker : workers) {
+        worker.close();
+      }
+      closeMessengers(unused);
+      throw failure;
+    }
+    return workers;
+  }
+
+  private static void closeMessengers(List<WorkerMessenger> messengers) {
+    for (WorkerMessenger messenger : messengers) {
+      try {
+        messenger.close();
+      } catch (Exception e) {
+        log.error("Error closing messenger", e);
+      }
+    }
+  }
+
   public void stop() {
     log.debug("Stopping " + threads.size() + " worker threads");
     for (WorkerThread workerThread : threads) {
@@ -3,29 +3,83 @@ package com.kmwllc.lucille.core;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
 import com.typesafe.config.Config;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.framework.recipes.shared.SharedCount;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ZKRetryCounter implements RetryCounter {
+/**
+ * Tracks the number of attempts made to process each document in ZooKeeper, so that a document which repeatedly
+ * crashes Workers can be sent to the dead letter queue once it exceeds worker.maxRetries.
+ * <p>
+ * worker.retryTracking controls which documents are counted:
+ * <ul>
+ *   <li>"all" (the default): every document's counter is incremented before it is processed and deleted afterwards.
+ *   This costs several ZooKeeper writes per document.</li>
+ *   <li>"suspected": only documents that may have been delivered before are counted. Offsets are committed after every
+ *   document, so a document that crashed a Worker is always redelivered as the first record its consumer sees from
+ *   that partition, or after a gap in that partition's offsets. A Kafka record whose offset directly follows the
+ *   previous record this counter saw from the same partition cannot be a redelivery and skips ZooKeeper entirely.
+ *   Documents that did not come from Kafka have no offsets and are always counted.</li>
+ * </ul>
+ * When registered with the Worker's consumer as a rebalance listener, the offsets seen from partitions that are
+ * revoked are forgotten, so that the first record seen from a partition after it is assigned again is suspected.
+ * <p>
+ * The counters of processed documents are deleted in batches, in a single ZooKeeper transaction, once
+ * DELETE_BATCH_SIZE of them are waiting, when partitions are revoked, and when the Worker flushes this counter because
+ * it is idle or stopping. A counter that is still waiting to be deleted when a Worker crashes is left behind, but its
+ * document's offset has been committed, so it is not delivered again. Increments are not buffered: a document's
+ * counter must be written before the document is processed, or a document that crashes the Worker would never reach
+ * worker.maxRetries.
+ */
+public class ZKRetryCounter implements RetryCounter, ConsumerRebalanceListener {
 
   public static final Spec SPEC = SpecBuilder.withoutDefaults()
       .requiredString("connectString").build();
 
+  public static final String TRACK_ALL = "all";
+  public static final String TRACK_SUSPECTED = "suspected";
+
+  static final int DELETE_BATCH_SIZE = 100;
+
   private static final Logger docLogger = LoggerFactory.getLogger("com.kmwllc.lucille.core.DocLogger");
   private final CuratorFramework curatorFramework;
   private final int maxRetries;
+  private final boolean suspectedOnly;
 
   private final String retryCounterPrefix;
 
+  // used when suspectedOnly: the last offset seen for each topic partition, and the counters that exist in ZooKeeper
+  private final Map<TopicPartition, Long> lastOffsets = new HashMap<>();
+  private final Set<String> countedPaths = new HashSet<>();
+
+  // counters of processed documents that are waiting to be deleted
+  private final List<String> pendingDeletes = new ArrayList<>();
+
   public ZKRetryCounter(Config config) {
     this.maxRetries = config.hasPath("worker.maxRetries") ? config.getInt("worker.maxRetries") : 3;
     this.retryCounterPrefix = "/LucilleCounters/" + config.getString("kafka.consumerGroupId") + "/";
 
+    String retryTracking = config.hasPath("worker.retryTracking") ? config.getString("worker.retryTracking") : TRACK_ALL;
+    if (!TRACK_ALL.equals(retryTracking) && !TRACK_SUSPECTED.equals(retryTracking)) {
+      throw new IllegalArgumentException("worker.retryTracking must be \"" + TRACK_ALL + "\" or \"" + TRACK_SUSPECTED
+          + "\", but was \"" + retryTracking + "\".");
+    }
+    this.suspectedOnly = TRACK_SUSPECTED.equals(retryTracking);
+
     RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
     this.curatorFramework = CuratorFrameworkFactory.newClient(config.getString("zookeeper.connectString"), retryPolicy);
     curatorFramework.start();
@@ -33,12 +87,19 @@ public class ZKRetryCounter implements RetryCounter {
 
   @Override
   public boolean add(Document document) {
+    if (suspectedOnly && !isSuspected(document)) {
+      return false;
+    }
+
     String counterPath = getCounterPath(document);
     int retryCount = 0;
     try (SharedCount counter = new SharedCount(curatorFramework, counterPath, 0)) {
       counter.start();
       retryCount = counter.getCount();
       counter.setCount(++retryCount);
+      if (suspectedOnly) {
+        countedPaths.add(counterPath);
+      }
     } catch (Exception e) {
       docLogger.error("Couldn't access retry counter for doc {}", document.getId(), e);
     }
@@ -50,11 +111,73 @@ public class ZKRetryCounter implements RetryCounter {
   @Override
   public void remove(Document document) {
     String counterPath = getCounterPath(document);
-    try {
-      curatorFramework.delete().quietly().deletingChildrenIfNeeded().forPath(counterPath);
-    } catch (Exception e) {
-      docLogger.error("Couldn't delete retry counter for doc {}", document.getId(), e);
+    // when only suspected documents are counted, there is nothing to delete for the others
+    if (suspectedOnly && !countedPaths.remove(counterPath)) {
+      return;
+    }
+    synchronized (pendingDeletes) {
+      pendingDeletes.add(counterPath);
+      if (pendingDeletes.size() >= DELETE_BATCH_SIZE) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Deletes the counters of the documents that have been removed since the last flush, in one transaction. If the
+   * transaction fails, for example because one of the counters was never created, they are deleted one at a time.
+   */
+  @Override
+  public void flush() {
+    synchronized (pendingDeletes) {
+      if (pendingDeletes.isEmpty()) {
+        return;
+      }
+
+      try {
+        List<CuratorOp> ops = new ArrayList<>(pendingDeletes.size());
+        for (String counterPath : pendingDeletes) {
+          ops.add(curatorFramework.transactionOp().delete().forPath(counterPath));
+        }
+        curatorFramework.transaction().forOperations(ops);
+      } catch (Exception e) {
+        for (String counterPath : pendingDeletes) {
+          try {
+            curatorFramework.delete().quietly().deletingChildrenIfNeeded().forPath(counterPath);
+          } catch (Exception e2) {
+            docLogger.error("Couldn't delete retry counter {}", counterPath, e2);
+          }
+        }
+      }
+      pendingDeletes.clear();
+    }
+  }
+
+  @Override
+  public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+    flush();
+
+    // another consumer may process records from these partitions before they are assigned back to this one
+    for (TopicPartition partition : partitions) {
+      lastOffsets.remove(partition);
+    }
+  }
+
+  @Override
+  public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+  }
+
+  /**
+   * Returns whether the given document may have been delivered before, in which case its previous attempt might have
+   * crashed a Worker. Records the document's offset so the next record from the same partition can be checked.
+   */
+  private boolean isSuspected(Document document) {
+    if (!(document instanceof KafkaDocument)) {
+      return true;
     }
+    KafkaDocument doc = (KafkaDocument) document;
+    Long lastOffset = lastOffsets.put(new TopicPartition(doc.getTopic(), doc.getPartition()), doc.getOffset());
+    return lastOffset == null || doc.getOffset() != lastOffset + 1;
   }
 
   private String getCounterPath(Document document) {
@@ -50,22 +50,33 @@ public abstract class BaseFileHandler implements FileHandler {
     }
 
     // once docIterator.hasNext() is false, it will close its resources in handler and return
-    while (docIterator.hasNext()) {
-      Document doc;
-      try {
-        doc = docIterator.next();
-      } catch (Exception e) {
-        log.error("Error reading next document from file {}", pathStr, e);
-        continue;
-      }
-      if (doc != null) {
-        try (MDCCloseable docIdMDC = MDC.putCloseable(ID_FIELD, doc.getId())) {
-          docLogger.info("FileHandler is now publishing Document {}", doc.getId());
+    try {
+      while (docIterator.hasNext()) {
+        Document doc;
+        try {
+          doc = docIterator.next();
+        } catch (Exception e) {
+          log.error("Error reading next document from file {}", pathStr, e);
+          continue;
+        }
+        if (doc != null) {
+          try (MDCCloseable docIdMDC = MDC.putCloseable(ID_FIELD, doc.getId())) {
+            docLogger.info("FileHandler is now publishing Document {}", doc.getId());
+          }
+          try {
+            publisher.publish(doc);
+          } catch (Exception e) {
+            throw new FileHandlerException("Error publishing file " + pathStr, e);
+          }
         }
+      }
+    } finally {
+      // an iterator that is abandoned early may still hold resources, such as threads
+      if (docIterator instanceof AutoCloseable closeable) {
         try {
-          publisher.publish(doc);
+          closeable.close();
         } catch (Exception e) {
-          throw new FileHandlerException("Error publishing file " + pathStr, e);
+          log.warn("Error closing document iterator for file {}", pathStr, e);
         }
       }
     }
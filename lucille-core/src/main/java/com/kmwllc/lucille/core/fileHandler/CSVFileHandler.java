@@ -11,16 +11,29 @@ import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 import com.opencsv.exceptions.CsvValidationException;
+import com.kmwllc.lucille.util.ThreadNameUtils;
 import com.typesafe.config.Config;
+import de.siegmar.fastcsv.reader.CsvReader;
+import de.siegmar.fastcsv.reader.CsvRow;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.CharUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -29,6 +42,12 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A file handler for CSV files. Extracts documents from the rows of a CSV file.
+ *
+ * By default, the file is read with OpenCSV on the calling thread. Setting <code>parserThreads</code> switches to a
+ * FastCSV-based reader that parses chunks of the file in parallel while still publishing rows in file order. Use it for
+ * very large files. <code>chunkSizeBytes</code> (default 8 MB) sets the approximate size of each chunk. In this mode,
+ * backslash escapes are not interpreted (quotes are escaped by doubling them, per RFC 4180), so
+ * <code>ignoreEscapeChar</code> has no effect.
  */
 public class CSVFileHandler extends BaseFileHandler {
 
@@ -36,8 +55,14 @@ public class CSVFileHandler extends BaseFileHandler {
       .optionalString("docIdPrefix", "lineNumberField", "separatorChar", "filenameField", "filePathField", "idField", "docIdFormat")
       .optionalList("idFields", new TypeReference<List<String>>() {})
       .optionalList("ignoredTerms", new TypeReference<List<String>>() {})
+      .optionalNumber("parserThreads", "chunkSizeBytes")
       .optionalBoolean("useTabs", "interpretQuotes", "ignoreEscapeChar", "lowercaseFields").build();
 
+  public static final int DEFAULT_CHUNK_SIZE_BYTES = 8 * 1024 * 1024;
+
+  // the number of chunks that may be read ahead of the chunk currently being published, per parser thread
+  private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
   private static final Logger log = LoggerFactory.getLogger(CSVFileHandler.class);
 
   private final String lineNumField;
@@ -51,6 +76,8 @@ public class CSVFileHandler extends BaseFileHandler {
   private final char escapeChar;
   private final boolean lowercaseFields;
   private final List<String> ignoredTerms;
+  private final int parserThreads;
+  private final int chunkSizeBytes;
   private static final String UTF8_BOM = "\uFEFF";
 
   public CSVFileHandler(Config config) {
@@ -77,11 +104,19 @@ public class CSVFileHandler extends BaseFileHandler {
         CSVParser.NULL_CHARACTER : CSVParser.DEFAULT_ESCAPE_CHARACTER;
     this.lowercaseFields = config.hasPath("lowercaseFields") ? config.getBoolean("lowercaseFields") : false;
     this.ignoredTerms = config.hasPath("ignoredTerms") ? config.getStringList("ignoredTerms") : new ArrayList<>();
+    this.parserThreads = config.hasPath("parserThreads") ? config.getInt("parserThreads") : 0;
+    this.chunkSizeBytes = config.hasPath("chunkSizeBytes") ? config.getInt("chunkSizeBytes") : DEFAULT_CHUNK_SIZE_BYTES;
+
+    if (config.hasPath("parserThreads") && parserThreads < 1) {
+      throw new IllegalArgumentException("parserThreads must be at least 1.");
+    }
+    if (chunkSizeBytes < 1) {
+      throw new IllegalArgumentException("chunkSizeBytes must be at least 1.");
+    }
   }
 
   @Override
   public Iterator<Document> processFile(InputStream inputStream, String pathStr) throws FileHandlerException {
-    CSVReader csvReader = getCsvReader(inputStream, pathStr);
     String fileName = FilenameUtils.getName(pathStr);
 
     if (pathStr.contains(ARCHIVE_FILE_SEPARATOR)) {
@@ -89,6 +124,11 @@ public class CSVFileHandler extends BaseFileHandler {
       fileName = entryName.substring(entryName.lastIndexOf("/") + 1);
     }
 
+    if (parserThreads > 0) {
+      return new ChunkedDocumentIterator(inputStream, fileName, pathStr);
+    }
+
+    CSVReader csvReader = getCsvReader(inputStream, pathStr);
     return getDocumentIterator(csvReader, fileName, pathStr);
   }
 
@@ -126,14 +166,7 @@ public class CSVFileHandler extends BaseFileHandler {
           line = csvIterator.next();
           lineNum++;
 
-          if (line.length == 0 || (line.length == 1 && StringUtils.isBlank(line[0]))) {
-            log.warn("Skipping blank line {}. ({})", lineNum, path);
-            return next();
-          }
-          if (line.length != header.length) {
-            // the line/row number reported here may differ from the physical line number in the file, if the CSV contains
-            // a quoted value that spans multiple lines
-            log.warn("Logical row {} has {} columns but the header has {}. Skipping line. ({})", lineNum, line.length, header.length, path);
+          if (shouldSkipLine(line, header, lineNum, path)) {
             return next();
           }
 
@@ -153,6 +186,20 @@ public class CSVFileHandler extends BaseFileHandler {
     };
   }
 
+  private boolean shouldSkipLine(String[] line, String[] header, int lineNum, String path) {
+    if (line.length == 0 || (line.length == 1 && StringUtils.isBlank(line[0]))) {
+      log.warn("Skipping blank line {}. ({})", lineNum, path);
+      return true;
+    }
+    if (line.length != header.length) {
+      // the line/row number reported here may differ from the physical line number in the file, if the CSV contains
+      // a quoted value that spans multiple lines
+      log.warn("Logical row {} has {} columns but the header has {}. Skipping line. ({})", lineNum, line.length, header.length, path);
+      return true;
+    }
+    return false;
+  }
+
   private Document getDocumentFromLine(List<Integer> idColumns, String[] header, String[] line, String filename, String path, int lineNum) {
     String docId = "";
     if (!idColumns.isEmpty()) {
@@ -243,11 +290,7 @@ public class CSVFileHandler extends BaseFileHandler {
         }
         log.warn("CSV does not contain header row, no Documents will be published for the file. ({})", path);
       }
-      if (lowercaseFields) {
-        for (int i = 0; i < header.length; i++) {
-          header[i] = header[i].toLowerCase();
-        }
-      }
+      lowercaseHeader(header);
       return header;
     } catch (IOException | CsvValidationException e) {
       try {
@@ -259,6 +302,14 @@ public class CSVFileHandler extends BaseFileHandler {
     }
   }
 
+  private void lowercaseHeader(String[] header) {
+    if (lowercaseFields && header != null) {
+      for (int i = 0; i < header.length; i++) {
+        header[i] = header[i].toLowerCase();
+      }
+    }
+  }
+
   private CSVReader getCsvReader(InputStream inputStream, String path) throws FileHandlerException {
     try {
       return new CSVReaderBuilder(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)))
@@ -294,4 +345,233 @@ public class CSVFileHandler extends BaseFileHandler {
     return docIdPrefix + id;
   }
 
+  /**
+   * Reads a CSV with FastCSV, parsing chunks of the input in parallel and returning their Documents in file order.
+   *
+   * The stream is read sequentially into chunks of roughly chunkSizeBytes, each cut at the last line break that is not
+   * inside a quoted value, so every chunk holds whole records. Chunks are parsed on up to parserThreads threads, and at
+   * most CHUNKS_IN_FLIGHT_PER_THREAD chunks per thread are read ahead of the chunk being published, which bounds both
+   * memory use and how far parsing can run ahead of publishing. Documents are built on the calling thread, as chunks
+   * complete in order, so line numbers and default ids match the OpenCSV path.
+   *
+   * FastCSV follows RFC 4180, where a quote inside a quoted value is escaped by doubling it. Backslash escapes are not
+   * interpreted, as if ignoreEscapeChar were set.
+   *
+   * A stream that fits in a single chunk is parsed on the calling thread and no threads are started.
+   */
+  private class ChunkedDocumentIterator implements Iterator<Document> {
+
+    private final InputStream inputStream;
+    private final String filename;
+    private final String path;
+    private final Deque<Future<List<String[]>>> pending = new ArrayDeque<>();
+
+    private ThreadPoolExecutor executor;
+    private byte[] carry = new byte[0];
+    private boolean endOfInput = false;
+    private boolean closed = false;
+
+    private String[] header;
+    private List<Integer> idColumns;
+    private Iterator<String[]> rows = Collections.emptyIterator();
+    private int lineNum = 0;
+    private Document nextDoc;
+
+    ChunkedDocumentIterator(InputStream inputStream, String filename, String path) {
+      this.inputStream = inputStream;
+      this.filename = filename;
+      this.path = path;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (nextDoc != null) {
+        return true;
+      }
+      if (closed) {
+        return false;
+      }
+
+      try {
+        nextDoc = advance();
+      } catch (Exception e) {
+        log.error("Error processing CSV line {}. ({})", lineNum, path, e);
+        nextDoc = null;
+      }
+
+      if (nextDoc == null) {
+        close();
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public Document next() {
+      if (!hasNext()) {
+        log.warn("No more lines to process. ({})", path);
+        throw new IllegalStateException(String.format("No more lines to process. (%s)", path));
+      }
+
+      Document doc = nextDoc;
+      nextDoc = null;
+      return doc;
+    }
+
+    private Document advance() throws Exception {
+      while (true) {
+        while (!rows.hasNext()) {
+          List<String[]> chunk = nextChunk();
+          if (chunk == null) {
+            if (header == null) {
+              log.warn("CSV does not contain header row, no Documents will be published for the file. ({})", path);
+            }
+            return null;
+          }
+          rows = chunk.iterator();
+        }
+
+        String[] line = rows.next();
+
+        if (header == null) {
+          if (line.length == 0) {
+            log.warn("CSV does not contain header row, no Documents will be published for the file. ({})", path);
+            return null;
+          }
+          lowercaseHeader(line);
+          header = line;
+          idColumns = getIdColumns(getColumnIndexMap(header, path), path);
+          continue;
+        }
+
+        lineNum++;
+        if (!shouldSkipLine(line, header, lineNum, path)) {
+          return getDocumentFromLine(idColumns, header, line, filename, path, lineNum);
+        }
+      }
+    }
+
+    private List<String[]> nextChunk() throws Exception {
+      while (!endOfInput && pending.size() < parserThreads * CHUNKS_IN_FLIGHT_PER_THREAD) {
+        byte[] chunk = readChunk();
+        if (chunk.length == 0) {
+          continue;
+        }
+
+        if (endOfInput && pending.isEmpty()) {
+          // the rest of the input is a single chunk, so there is nothing to parse it in parallel with
+          return parseChunk(chunk);
+        }
+        pending.addLast(getExecutor().submit(() -> parseChunk(chunk)));
+      }
+
+      Future<List<String[]>> future = pending.pollFirst();
+      if (future == null) {
+        return null;
+      }
+
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        throw new FileHandlerException(String.format("Error parsing CSV. (%s)", path), e.getCause());
+      }
+    }
+
+    /**
+     * Reads the next chunk of whole records from the stream. Any bytes after the last record boundary are kept and
+     * placed at the start of the following chunk.
+     */
+    private byte[] readChunk() throws IOException {
+      byte[] buffer = Arrays.copyOf(carry, Math.max(chunkSizeBytes, carry.length + 1));
+      int length = carry.length;
+
+      while (true) {
+        int read = inputStream.readNBytes(buffer, length, buffer.length - length);
+        length += read;
+
+        if (length < buffer.length) {
+          endOfInput = true;
+          carry = new byte[0];
+          return Arrays.copyOf(buffer, length);
+        }
+
+        int boundary = lastRecordBoundary(buffer, length);
+        if (boundary >= 0) {
+          carry = Arrays.copyOfRange(buffer, boundary + 1, length);
+          return Arrays.copyOf(buffer, boundary + 1);
+        }
+
+        // a single record is larger than the buffer
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    }
+
+    /**
+     * Returns the index of the last line break in the buffer that is not inside a quoted value, or -1 if there is none.
+     * A line break is a line feed or a carriage return that isn't followed by one, so files with CR line endings are
+     * split too. A carriage return at the end of the buffer isn't a boundary, since its line feed may not have been read
+     * yet. The quote and line break characters are ASCII, so they can be found in UTF-8 bytes without decoding them.
+     */
+    private int lastRecordBoundary(byte[] buffer, int length) {
+      int boundary = -1;
+      boolean inQuotes = false;
+      for (int i = 0; i < length; i++) {
+        byte b = buffer[i];
+        if (b == quoteChar && quoteChar != CSVParser.NULL_CHARACTER) {
+          inQuotes = !inQuotes;
+        } else if (!inQuotes && (b == '\n' || (b == '\r' && i + 1 < length && buffer[i + 1] != '\n'))) {
+          boundary = i;
+        }
+      }
+      return boundary;
+    }
+
+    private List<String[]> parseChunk(byte[] chunk) {
+      CsvReader reader = CsvReader.builder()
+          .fieldSeparator(separatorChar)
+          .quoteCharacter(quoteChar)
+          .skipEmptyRows(false)
+          .errorOnDifferentFieldCount(false)
+          .build(new String(chunk, StandardCharsets.UTF_8));
+
+      List<String[]> result = new ArrayList<>();
+      for (CsvRow row : reader) {
+        result.add(row.getFields().toArray(new String[0]));
+      }
+      return result;
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+      if (executor == null) {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(parserThreads, parserThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+          Thread t = new Thread(r, ThreadNameUtils.createName("CSVParser-" + threadCount.incrementAndGet()));
+          t.setDaemon(true);
+          return t;
+        });
+        // lets the threads of an iterator that is abandoned before it is exhausted end on their own
+        executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+    }
+
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+
+      pending.forEach(f -> f.cancel(true));
+      pending.clear();
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+
+      try {
+        inputStream.close();
+      } catch (IOException e) {
+        log.error("Error closing CSV InputStream. ({})", path, e);
+      }
+    }
+  }
 }
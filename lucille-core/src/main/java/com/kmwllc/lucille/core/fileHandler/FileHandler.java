@@ -20,6 +20,8 @@ public interface FileHandler {
   /**
    * Processes a file given an InputStream of its contents and a representation path String to it, and returns an iterator
    * of Documents. The Iterator should close all resources when completed (hasNext() is false) or when an exception is thrown.
+   * An Iterator that holds resources a caller may need to release before it is exhausted, such as threads, can also implement
+   * {@link AutoCloseable}; {@link BaseFileHandler#processFileAndPublish} closes it once it stops iterating.
    * Path string is used for populating file path field of document and for logging/error/debugging purposes.
    *
    * @param inputStream An InputStream of the file's contents.
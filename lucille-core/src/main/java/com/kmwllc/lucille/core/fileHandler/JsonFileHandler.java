@@ -1,39 +1,59 @@
 package com.kmwllc.lucille.core.fileHandler;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.DocumentException;
 import com.kmwllc.lucille.core.JsonDocument;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
 import com.kmwllc.lucille.util.FieldFilter;
+import com.kmwllc.lucille.util.ThreadNameUtils;
 import com.typesafe.config.Config;
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.UnaryOperator;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.LineIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.commons.lang3.StringUtils;
 
 /**
- * A file handler for JSON lines.
+ * A file handler for JSON lines and JSON arrays.
+ * <p>
+ * Reads each JSON object in the file and builds a {@link Document}. The objects may be on separate lines (JSON lines)
+ * or be the elements of a top-level array. The file is read with a streaming parser, so neither the file nor a line of
+ * it is held in memory as a String.
  * <p>
- * Reads each line as a JSON object and builds a {@link Document}.
+ * When <code>jsonl</code> is true and <code>parserThreads</code> is above 1, local files larger than
+ * <code>chunkSizeBytes</code> (default 8 MB) are parsed in parallel, split into byte ranges at line breaks. This is
+ * only correct when every object is on a single line, so it must be enabled explicitly; files with pretty-printed or
+ * otherwise multi-line objects are always read sequentially. Documents are still returned in file order, and errors
+ * report line numbers within the whole file.
  * <p>
  * <b>Note:</b> if your input JSON has its own "id" field but you've configured a different field for IDs, your original
  * "id" will be overwritten by the generated one in the documents.
@@ -45,15 +65,25 @@ public class JsonFileHandler extends BaseFileHandler {
       .optionalList("idFields", new TypeReference<List<String>>() {})
       .optionalList("blacklist", new TypeReference<List<String>>() {})
       .optionalList("whitelist", new TypeReference<List<String>>() {})
+      .optionalNumber("parserThreads", "chunkSizeBytes")
+      .optionalBoolean("jsonl")
       .build();
 
+  public static final int DEFAULT_CHUNK_SIZE_BYTES = 8 * 1024 * 1024;
+
+  // the number of chunks that may be read ahead of the chunk currently being published, per parser thread
+  private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
   private static final Logger log = LoggerFactory.getLogger(JsonFileHandler.class);
 
   private final UnaryOperator<String> idUpdater;
   private final List<String> idFields;
   private final String docIdFormat;
-  private final ObjectMapper mapper = new ObjectMapper();
   private final FieldFilter fieldFilter;
+  private final int parserThreads;
+  private final int chunkSizeBytes;
+  private final boolean jsonl;
 
   public JsonFileHandler(Config config) {
     super(config);
@@ -70,6 +100,17 @@ public class JsonFileHandler extends BaseFileHandler {
 
     this.fieldFilter = new FieldFilter(config);
 
+    this.parserThreads = config.hasPath("parserThreads") ? config.getInt("parserThreads") : 1;
+    this.chunkSizeBytes = config.hasPath("chunkSizeBytes") ? config.getInt("chunkSizeBytes") : DEFAULT_CHUNK_SIZE_BYTES;
+    this.jsonl = config.hasPath("jsonl") && config.getBoolean("jsonl");
+
+    if (parserThreads < 1) {
+      throw new IllegalArgumentException("parserThreads must be at least 1.");
+    }
+    if (chunkSizeBytes < 1) {
+      throw new IllegalArgumentException("chunkSizeBytes must be at least 1.");
+    }
+
     if (!fieldFilter.getBlacklist().isEmpty()) {
       Collection<String> intersection = CollectionUtils.intersection(this.idFields, fieldFilter.getBlacklist());
       if (!intersection.isEmpty()) {
@@ -104,91 +145,348 @@ public class JsonFileHandler extends BaseFileHandler {
 
   @Override
   public Iterator<Document> processFile(InputStream inputStream, String path) throws FileHandlerException {
-    // reader will be closed when the LineIterator is closed in getDocumentIterator
-    Reader reader;
+    File file = new File(path);
+    if (jsonl && parserThreads > 1 && file.isFile() && file.length() > chunkSizeBytes && !startsWithArray(file)) {
+      // each worker reads its own range of the file, so the stream we were given is not needed
+      IOUtils.closeQuietly(inputStream);
+      return new ParallelJsonlIterator(file, path);
+    }
 
+    JsonParser parser;
     try {
-      reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+      // the parser closes the InputStream when it is closed
+      parser = MAPPER.getFactory().createParser(inputStream);
     } catch (Exception e) {
-      throw new FileHandlerException(String.format("Error creating reader from file. (%s)", path), e);
+      IOUtils.closeQuietly(inputStream);
+      throw new FileHandlerException(String.format("Error creating parser from file. (%s)", path), e);
+    }
+
+    return new StreamingDocumentIterator(parser, path);
+  }
+
+  /**
+   * Reads the next document from the parser, which must be positioned on the START_OBJECT token of a JSON object. The
+   * object is read token by token into the document's ObjectNode, and the values of fields excluded by the blacklist or
+   * whitelist are skipped without being materialized. When this method returns, the parser is positioned on the
+   * object's END_OBJECT token. linesBefore is the number of lines in the file before the text the parser reads, and is
+   * added to the parser's line numbers when reporting them.
+   */
+  private Document readDocument(JsonParser parser, String path, int linesBefore) throws IOException, DocumentException {
+    int lineNum = linesBefore + parser.getTokenLocation().getLineNr();
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      throw new DocumentException(String.format("Expected a JSON object but found %s at line %d. (%s)",
+          parser.currentToken(), lineNum, path));
+    }
+
+    ObjectNode node = MAPPER.createObjectNode();
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      parser.nextToken();
+
+      if (fieldFilter.isActive() && !fieldFilter.shouldInclude(fieldName)) {
+        parser.skipChildren();
+      } else {
+        node.set(fieldName, MAPPER.readTree(parser));
+      }
+    }
+
+    if (idFields.isEmpty()) {
+      Document doc = new JsonDocument(node);
+      node.put(Document.ID_FIELD, idUpdater.apply(doc.getId()));
+      return doc;
+    }
+
+    List<String> parts = new ArrayList<>(idFields.size());
+
+    for (String fieldName : idFields) {
+      JsonNode valueNode = node.get(fieldName);
+      String value = (valueNode != null && !valueNode.isNull()) ? valueNode.asText() : null;
+      parts.add(value != null ? value : "");
+      if (StringUtils.isBlank(value)) {
+        log.warn("Missing/blank idField {} at line {}. ({})", fieldName, lineNum, path);
+      }
+    }
+
+    String rawId = (docIdFormat != null) ? String.format(docIdFormat, parts.toArray()) : String.join("_", parts);
+    node.put(Document.ID_FIELD, docIdPrefix + rawId);
+
+    return Document.create(node);
+  }
+
+  /**
+   * Returns whether the first non-whitespace character of the file opens a JSON array.
+   */
+  private static boolean startsWithArray(File file) {
+    try (JsonParser parser = MAPPER.getFactory().createParser(file)) {
+      return parser.nextToken() == JsonToken.START_ARRAY;
+    } catch (IOException e) {
+      // not valid JSON at the start of the file, let the sequential path report it
+      return true;
+    }
+  }
+
+  /**
+   * Reads documents from a stream of JSON objects. The objects may be separated by line breaks (JSON lines) or any
+   * other whitespace, or they may be the elements of a top-level array. The stream is never read into memory as a
+   * whole, so arrays of any size can be processed.
+   */
+  private class StreamingDocumentIterator implements Iterator<Document> {
+
+    private final JsonParser parser;
+    private final String path;
+    private boolean inArray = false;
+    private boolean closed = false;
+    private JsonToken nextToken;
+
+    StreamingDocumentIterator(JsonParser parser, String path) {
+      this.parser = parser;
+      this.path = path;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (closed) {
+        return false;
+      }
+      if (nextToken != null) {
+        return true;
+      }
+
+      try {
+        nextToken = parser.nextToken();
+        if (!inArray && nextToken == JsonToken.START_ARRAY) {
+          inArray = true;
+          nextToken = parser.nextToken();
+        }
+        if (inArray && nextToken == JsonToken.END_ARRAY) {
+          inArray = false;
+          nextToken = parser.nextToken();
+        }
+      } catch (IOException e) {
+        // the file is malformed or can't be read, close the parser and report the error rather than ending the file early
+        int lineNum = parser.getCurrentLocation().getLineNr();
+        close();
+        log.error("Error reading JSON near line {}. ({})", lineNum, path, e);
+        throw new RuntimeException(String.format("Error reading JSON near line %d. (%s)", lineNum, path), e);
+      }
+
+      // Iterator closes when the parser is done reading (successful job)
+      if (nextToken == null) {
+        close();
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public Document next() {
+      // additional safety check to ensure that the iterator has more documents to process, if hasNext returns false,
+      // means we have also closed the parser, throw an exception
+      if (!hasNext()) {
+        log.warn("No more lines to process. ({})", path);
+        throw new NoSuchElementException(String.format("No more lines to process. (%s)", path));
+      }
+
+      nextToken = null;
+      try {
+        return readDocument(parser, path, 0);
+      } catch (Exception e) {
+        // any errors that occur during the process of creating a document, we close the parser
+        int lineNum = parser.getCurrentLocation().getLineNr();
+        close();
+        log.error("Error parsing JSON line {}. ({})", lineNum, path, e);
+        throw new RuntimeException(
+            String.format("Error creating document, make sure that you have id field(s) properly configured within each line of json. (%s)", path), e);
+      }
     }
 
-    return getDocumentIterator(reader, path);
+    private void close() {
+      closed = true;
+      IOUtils.closeQuietly(parser);
+    }
   }
 
-  private Iterator<Document> getDocumentIterator(Reader reader, String path) {
-    return new Iterator<Document>() {
-      // closing LineIterator closes reader, which closes BufferedReader, InputStreamReader and the InputStream passed into InputStreamReader
-      private final LineIterator it = IOUtils.lineIterator(reader);
-      private int lineNum = 0;
-
-      @Override
-      public boolean hasNext() {
-        boolean hasNext = it.hasNext();
-        // Iterator closes when reader is done reading (successful job)
-        if (!hasNext) {
-          IOUtils.closeQuietly(it);
+  /**
+   * Reads a local JSON lines file by splitting it into byte ranges of roughly chunkSizeBytes and parsing the ranges in
+   * parallel. The file is declared to hold one object per line, so every line feed ends a record, and each range is
+   * widened to end at the first line feed at or after its nominal end. An object that spans lines fails the range it
+   * ends in rather than being read as two records. Each range is read with its own positional reads, so workers do not
+   * share a stream.
+   *
+   * Each range counts its line feeds before parsing and hands the running total to the next range, so line numbers in
+   * errors and warnings are numbered from the start of the file.
+   *
+   * Ranges are submitted in order and at most CHUNKS_IN_FLIGHT_PER_THREAD per thread are outstanding, so documents are
+   * returned in file order and memory use is bounded by the number of ranges in flight.
+   */
+  private class ParallelJsonlIterator implements Iterator<Document> {
+
+    private final File file;
+    private final String path;
+    private final Deque<Future<List<Document>>> pending = new ArrayDeque<>();
+    private final ThreadPoolExecutor executor;
+
+    private FileChannel channel;
+    private long fileSize;
+    private long nextRangeStart = 0;
+    private CompletableFuture<Integer> linesBeforeNextRange = CompletableFuture.completedFuture(0);
+    private Iterator<Document> docs = Collections.emptyIterator();
+    private boolean closed = false;
+
+    ParallelJsonlIterator(File file, String path) {
+      this.file = file;
+      this.path = path;
+
+      AtomicInteger threadCount = new AtomicInteger();
+      this.executor = new ThreadPoolExecutor(parserThreads, parserThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread t = new Thread(r, ThreadNameUtils.createName("JsonParser-" + threadCount.incrementAndGet()));
+        t.setDaemon(true);
+        return t;
+      });
+      // lets the threads of an iterator that is abandoned before it is exhausted end on their own
+      executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (closed) {
+        return false;
+      }
+
+      try {
+        while (!docs.hasNext()) {
+          List<Document> chunk = nextChunk();
+          if (chunk == null) {
+            close();
+            return false;
+          }
+          docs = chunk.iterator();
         }
-        return hasNext;
+        return true;
+      } catch (Exception e) {
+        close();
+        log.error("Error parsing JSON. ({})", path, e);
+        throw new RuntimeException(
+            String.format("Error creating document, make sure that you have id field(s) properly configured within each line of json. (%s)", path), e);
       }
+    }
 
-      @Override
-      public Document next() {
-        // additional safety check to ensure that the iterator has more lines to process, if hasNext returns false,
-        // means we have also closed LineIterator, throw an exception
-        if (!hasNext()) {
-          log.warn("No more lines to process. ({})", path);
-          throw new NoSuchElementException(String.format("No more lines to process. (%s)", path));
+    @Override
+    public Document next() {
+      if (!hasNext()) {
+        log.warn("No more lines to process. ({})", path);
+        throw new NoSuchElementException(String.format("No more lines to process. (%s)", path));
+      }
+      return docs.next();
+    }
+
+    private List<Document> nextChunk() throws Exception {
+      if (channel == null) {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        fileSize = channel.size();
+      }
+
+      while (nextRangeStart < fileSize && pending.size() < parserThreads * CHUNKS_IN_FLIGHT_PER_THREAD) {
+        long start = nextRangeStart;
+        long end = nextLineStart(Math.min(start + chunkSizeBytes, fileSize));
+        nextRangeStart = end;
+        // ranges run in submission order, so the range before this one has always started when this one waits on it
+        CompletableFuture<Integer> linesBefore = linesBeforeNextRange;
+        CompletableFuture<Integer> linesThrough = new CompletableFuture<>();
+        linesBeforeNextRange = linesThrough;
+        pending.addLast(executor.submit(() -> parseRange(start, end, linesBefore, linesThrough)));
+      }
+
+      Future<List<Document>> future = pending.pollFirst();
+      if (future == null) {
+        return null;
+      }
+
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        throw new FileHandlerException(String.format("Error parsing JSON. (%s)", path), e.getCause());
+      }
+    }
+
+    /**
+     * Returns the offset of the first byte after the first line feed at or after the given position, or the file size
+     * if there is no such line feed.
+     */
+    private long nextLineStart(long position) throws IOException {
+      if (position >= fileSize) {
+        return fileSize;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(8192);
+      long offset = position;
+      while (offset < fileSize) {
+        buffer.clear();
+        int read = channel.read(buffer, offset);
+        if (read <= 0) {
+          break;
         }
+        for (int i = 0; i < read; i++) {
+          if (buffer.get(i) == '\n') {
+            return offset + i + 1;
+          }
+        }
+        offset += read;
+      }
+      return fileSize;
+    }
 
-        lineNum++;
-        String line = it.next();
+    private List<Document> parseRange(long start, long end, CompletableFuture<Integer> linesBefore,
+        CompletableFuture<Integer> linesThrough) throws Exception {
+      byte[] bytes = new byte[(int) (end - start)];
+      int firstLine;
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, start + buffer.position()) < 0) {
+            throw new IOException(String.format("Unexpected end of file at byte %d. (%s)", start + buffer.position(), path));
+          }
+        }
 
-        if (StringUtils.isBlank(line)) {
-          log.warn("Skipping blank line {}. ({})", lineNum, path);
-          return next();
+        int lineFeeds = 0;
+        for (byte b : bytes) {
+          if (b == '\n') {
+            lineFeeds++;
+          }
         }
+        firstLine = linesBefore.get();
+        linesThrough.complete(firstLine + lineFeeds);
+      } catch (Exception e) {
+        // the following ranges can't number their lines, fail them too
+        linesThrough.completeExceptionally(e);
+        throw e;
+      }
+
+      List<Document> result = new ArrayList<>();
+      try (JsonParser parser = MAPPER.getFactory().createParser(bytes)) {
         try {
-          if (idFields.isEmpty()) {
-            return JsonDocument.fromJsonString(line, idUpdater, fieldFilter);
-          } else {
-            ObjectNode node = (ObjectNode) mapper.readTree(line);
-            if (fieldFilter.isActive()) {
-              Set<String> discardedFields = new HashSet<>();
-              Iterator<String> iter = node.fieldNames();
-              while (iter.hasNext()) {
-                String fieldName = iter.next();
-                if (!fieldFilter.shouldInclude(fieldName)) {
-                  discardedFields.add(fieldName);
-                }
-              }
-              node.remove(discardedFields);
-            }
-            List<String> parts = new ArrayList<>(idFields.size());
-
-            for (String fieldName : idFields) {
-              JsonNode valueNode = node.get(fieldName);
-              parts.add((valueNode != null && !valueNode.isNull()) ? valueNode.asText() : "");
-              String value = (valueNode != null && !valueNode.isNull()) ? valueNode.asText() : null;
-              if (StringUtils.isBlank(value)) {
-                log.warn("Missing/blank idField {} at line {}. ({})", fieldName, lineNum, path);
-              }
-            }
-
-            String rawId = (docIdFormat != null) ? String.format(docIdFormat, parts.toArray()) : String.join("_", parts);
-            node.put(Document.ID_FIELD, docIdPrefix + rawId);
-
-            return Document.create(node);
+          while (parser.nextToken() != null) {
+            result.add(readDocument(parser, path, firstLine));
           }
-        } catch (Exception e) {
-          // any errors that occur during the process of creating a document, we close the LineIterator
-          // cannot close iterator in finally, as we will called next() again if there are more elements.
-          IOUtils.closeQuietly(it);
-          log.error("Error parsing JSON line {}. ({})", lineNum, path, e);
-          throw new RuntimeException(
-              String.format("Error creating document, make sure that you have id field(s) properly configured within each line of json. (%s)", path), e);
+        } catch (IOException e) {
+          int lineNum = firstLine + parser.getCurrentLocation().getLineNr();
+          throw new FileHandlerException(String.format("Error reading JSON near line %d. (%s)", lineNum, path), e);
         }
       }
-    };
+      return result;
+    }
+
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+
+      pending.forEach(f -> f.cancel(true));
+      pending.clear();
+      executor.shutdownNow();
+      IOUtils.closeQuietly(channel);
+    }
   }
 }
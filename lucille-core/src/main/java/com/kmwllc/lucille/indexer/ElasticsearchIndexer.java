@@ -57,6 +57,8 @@ import java.util.Optional;
  *   <li>update (Boolean, Optional) : Use partial update API instead of index/replace. Defaults to false.</li>
  *   <li>acceptInvalidCert (Boolean, Optional) : Allow invalid TLS certificates. Defaults to false.</li>
  *   <li>useCompression (Boolean, Optional) : Whether to use compression in the underlying Elasticsearch HTTP client. Defaults to false.</li>
+ *   <li>streamDocuments (Boolean, Optional) : Write each document's fields directly into the bulk request body, applying the
+ *   whitelist and blacklist during the write, instead of first converting the document to a Map. Defaults to false.</li>
  *   <li>childDocumentsField (String, Optional) : Field name to place attached child documents in the
  *   indexed document. If not set, child documents are not indexed. For child queries to work correctly, this field should be mapped
  *   as type "nested" in the index mapping.</li>
@@ -73,7 +75,7 @@ public class ElasticsearchIndexer extends Indexer {
 
   public static final Spec SPEC = SpecBuilder.indexer()
       .requiredString("index", "url")
-      .optionalBoolean("update", "acceptInvalidCert", "useCompression")
+      .optionalBoolean("update", "acceptInvalidCert", "useCompression", "streamDocuments")
       .optionalString("parentName", "childDocumentsField")
       .optionalParent("join", new TypeReference<Map<String, String>>() {}).build();
 
@@ -88,6 +90,7 @@ public class ElasticsearchIndexer extends Indexer {
   private final String routingField;
   private final VersionType versionType;
   private final String childDocumentsField;
+  private final boolean streamDocuments;
 
   public ElasticsearchIndexer(Config config, IndexerMessenger messenger, boolean bypass,
       String metricsPrefix, String localRunId, ElasticsearchClient client) {
@@ -109,6 +112,7 @@ public class ElasticsearchIndexer extends Indexer {
     this.routingField = ConfigUtils.getOrDefault(config, "indexer.routingField", null);
     this.versionType = config.hasPath("indexer.versionType") ? VersionType.valueOf(config.getString("indexer.versionType")) : null;
     this.childDocumentsField = ConfigUtils.getOrDefault(config, "elasticsearch.childDocumentsField", null);
+    this.streamDocuments = ConfigUtils.getOrDefault(config, "elasticsearch.streamDocuments", false);
   }
 
   public ElasticsearchIndexer(Config config, IndexerMessenger messenger, boolean bypass, String metricsPrefix, String localRunId) throws IndexerException {
@@ -318,29 +322,11 @@ public class ElasticsearchIndexer extends Indexer {
       // populate join data to document
       joinData.populateJoinData(doc);
 
-      // removing fields in the blacklist or not in the whitelist in configurations
-      Map<String, Object> indexerDoc = getIndexerDoc(doc);
-
-      // remove children documents field from indexer doc (processed from doc by addChildren method call below)
-      indexerDoc.remove(Document.CHILDREN_FIELD);
-
       // if a doc id override value exists, make sure it is used instead of pre-existing doc id
       String docId = Optional.ofNullable(getDocIdOverride(doc)).orElse(doc.getId());
       documentsUploaded.put(docId, doc);
 
-      // only add id if our fieldFilter allows it (based on our blacklist and whitelist)
-      // - Case 1: id and idOverride filtered out -> idOverride used by Indexer, both removed from Document (tested in testBlacklistWithOverride)
-      // - Case 2: id is filtered, idOverride exists -> idOverride used by Indexer, only id field removed from Document (tested in testBlacklistWithOverride2)
-      // - Case 3: id is filtered, idOverride null -> id used by Indexer, id also removed from Document (tested in testRouting)
-      // - Case 4: both unfiltered, idOverride exists -> idOverride used by Indexer, id and idOverride field exist in Document (tested in testOverride)
-      // - Case 5: both unfiltered, idOverride null -> document id remains and used by Indexer (Default case & tested)
-      if (fieldFilter.shouldInclude(Document.ID_FIELD)) {
-        indexerDoc.put(Document.ID_FIELD, docId);
-      }
-
-      if (doc.hasChildren()) {
-        addChildren(doc, indexerDoc);
-      }
+      Object indexerDoc = streamDocuments ? toStreamedDoc(doc, docId) : getIndexerDocMap(doc, docId);
 
       Long versionNum = (versionType == VersionType.External || versionType == VersionType.ExternalGte)
           ? ((KafkaDocument) doc).getOffset()
@@ -445,6 +431,36 @@ public class ElasticsearchIndexer extends Indexer {
     }
   }
 
+  /** Returns the document as a Map with the fields that should be indexed, its id and its children. */
+  private Map<String, Object> getIndexerDocMap(Document doc, String docId) {
+    // removing fields in the blacklist or not in the whitelist in configurations, and the children documents field
+    // (processed from doc by addChildren method call below)
+    Map<String, Object> indexerDoc = getIndexerDocWithoutChildren(doc);
+
+    // only add id if our fieldFilter allows it (based on our blacklist and whitelist)
+    // - Case 1: id and idOverride filtered out -> idOverride used by Indexer, both removed from Document (tested in testBlacklistWithOverride)
+    // - Case 2: id is filtered, idOverride exists -> idOverride used by Indexer, only id field removed from Document (tested in testBlacklistWithOverride2)
+    // - Case 3: id is filtered, idOverride null -> id used by Indexer, id also removed from Document (tested in testRouting)
+    // - Case 4: both unfiltered, idOverride exists -> idOverride used by Indexer, id and idOverride field exist in Document (tested in testOverride)
+    // - Case 5: both unfiltered, idOverride null -> document id remains and used by Indexer (Default case & tested)
+    if (fieldFilter.shouldInclude(Document.ID_FIELD)) {
+      indexerDoc.put(Document.ID_FIELD, docId);
+    }
+
+    if (doc.hasChildren()) {
+      addChildren(doc, indexerDoc);
+    }
+    return indexerDoc;
+  }
+
+  /** Returns the document in a form that writes its fields, its id and its children directly to the bulk request. */
+  private Object toStreamedDoc(Document doc, String docId) {
+    if (doc.hasChildren() && childDocumentsField == null) {
+      log.warn("Document {} has children but elasticsearch.childDocumentsField is not configured. They will not be indexed.", doc.getId());
+    }
+    return getStreamedIndexerDoc(doc, fieldFilter.shouldInclude(Document.ID_FIELD) ? docId : null, childDocumentsField);
+  }
+
   /** Only call on documents that have children. */
   private void addChildren(Document doc, Map<String, Object> indexerDoc) {
     if (childDocumentsField == null) {
@@ -456,11 +472,9 @@ public class ElasticsearchIndexer extends Indexer {
     List<Document> children = doc.getChildren();
 
     for (Document child : children) {
-      // calling getIndexerDoc allows us to apply black/whitelist
-      Map<String, Object> childDocMap = getIndexerDoc(child);
+      // calling getIndexerDocWithoutChildren allows us to apply black/whitelist
       // we don't support children that contain nested children
-      childDocMap.remove(Document.CHILDREN_FIELD);
-      childDocMaps.add(childDocMap);
+      childDocMaps.add(getIndexerDocWithoutChildren(child));
     }
     indexerDoc.put(childDocumentsField, childDocMaps);
   }
@@ -0,0 +1,211 @@
+package com.kmwllc.lucille.indexer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.kmwllc.lucille.core.ConfigUtils;
+import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.Indexer;
+import com.kmwllc.lucille.core.spec.Spec;
+import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.message.IndexerMessenger;
+import com.typesafe.config.Config;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes documents to a series of files in a directory, as JSON lines or CSV rows, for staging data in a data lake or
+ * other file-based destination. Subclasses can write other formats by passing their own {@link FileFormat}; the
+ * lucille-parquet plugin uses this to write Parquet files.
+ * <p>
+ * Files are written by a background thread, so the Indexer never waits on disk writes or fsync unless it gets a whole
+ * batch ahead of the disk. Each file is written under a name ending in <code>.inprogress</code> and renamed once it is
+ * complete and synced to disk. A new file is started when the current one reaches <code>rollSizeBytes</code> or has
+ * been open for <code>rollIntervalSeconds</code>, and when the Indexer closes. Because writing happens after a batch is
+ * reported as indexed, a disk error fails the batches that follow it rather than the batch that was being written.
+ * For the same reason, indexer.changeDetectionFile is not supported: hashes would be stored for documents that never
+ * reach the disk, and those documents would be skipped on the next run.
+ * <p>
+ * Documents are written with the fields that would be sent to any other destination, after applying the whitelist and
+ * blacklist, and with indexer.idOverrideField applied to the id. Children are not written. Deletions are not supported.
+ * Additional parameters are made available by the {@link com.kmwllc.lucille.core.Indexer} abstract class.
+ * <p>
+ * Config Parameters -
+ * <ul>
+ *   <li>directory (String, Required) : Directory to write files to. Created if it does not exist.</li>
+ *   <li>format (String, Optional) : <code>jsonl</code> to write each document as a line of JSON, or <code>csv</code> to
+ *   write selected fields as CSV rows. Defaults to jsonl.</li>
+ *   <li>columns (List&lt;String&gt;, Optional) : Ordered list of document fields to write as CSV columns. Required for
+ *   csv. Multivalued fields are written as a bracketed list.</li>
+ *   <li>includeHeader (Boolean, Optional) : Start each CSV file with a row of column names. Defaults to true.</li>
+ *   <li>compression (String, Optional) : <code>none</code>, <code>gzip</code>, or <code>zstd</code>. Defaults to none.</li>
+ *   <li>filePrefix (String, Optional) : Start of each file's name, which is followed by the time the file was started and
+ *   a sequence number. Defaults to "documents".</li>
+ *   <li>rollSizeBytes (Long, Optional) : Start a new file once this many bytes have been written to the current one,
+ *   counted before compression. Defaults to no limit.</li>
+ *   <li>rollIntervalSeconds (Long, Optional) : Start a new file once the current one has been open this long. Defaults to
+ *   no limit.</li>
+ * </ul>
+ */
+public class FileIndexer extends Indexer {
+
+  public static final Spec SPEC = SpecBuilder.indexer()
+      .requiredString("directory")
+      .optionalString("format", "compression", "filePrefix")
+      .optionalList("columns", new TypeReference<List<String>>(){})
+      .optionalBoolean("includeHeader")
+      .optionalNumber("rollSizeBytes", "rollIntervalSeconds").build();
+
+  private static final Logger log = LoggerFactory.getLogger(FileIndexer.class);
+
+  private final Path directory;
+  private final String filePrefix;
+  private final FileFormat format;
+  private final long rollSizeBytes;
+  private final long rollIntervalMs;
+
+  private RollingFileWriter writer;
+
+  /**
+   * Creates a FileIndexer that writes the format chosen by file.format.
+   * @param config Configuration for Lucille which should potentially contain "indexer" as well as "file"
+   *              (Configuration for the FileIndexer)
+   * @param localRunId The runID for a local run, null otherwise.
+   */
+  public FileIndexer(Config config, IndexerMessenger messenger, boolean bypass, String metricsPrefix, String localRunId) {
+    this(config, messenger, bypass, metricsPrefix, localRunId, new StreamFileFormat(
+        ConfigUtils.getOrDefault(config, "file.format", StreamFileFormat.JSONL),
+        ConfigUtils.getOrDefault(config, "file.compression", StreamFileFormat.NONE),
+        config.hasPath("file.columns") ? config.getStringList("file.columns") : null,
+        ConfigUtils.getOrDefault(config, "file.includeHeader", true)));
+  }
+
+  /**
+   * Creates a FileIndexer that writes files in the given format.
+   * @param config Configuration for Lucille which should potentially contain "indexer" as well as "file"
+   *              (Configuration for the FileIndexer)
+   * @param localRunId The runID for a local run, null otherwise.
+   * @param format Writes documents to a file in the chosen format.
+   */
+  protected FileIndexer(Config config, IndexerMessenger messenger, boolean bypass, String metricsPrefix, String localRunId,
+      FileFormat format) {
+    super(config, messenger, bypass, metricsPrefix, localRunId);
+    if (this.indexOverrideField != null) {
+      throw new IllegalArgumentException(
+          "Cannot create " + getClass().getSimpleName() + ". Config setting 'indexer.indexOverrideField' is not supported.");
+    }
+    if (this.deletionMarkerField != null || this.deleteByFieldField != null) {
+      log.warn("Deletion is not supported for this indexer. Documents marked for deletion will be written as regular records.");
+    }
+
+    this.directory = Paths.get(config.getString("file.directory"));
+    this.filePrefix = ConfigUtils.getOrDefault(config, "file.filePrefix", "documents");
+    this.format = format;
+    this.rollSizeBytes = config.hasPath("file.rollSizeBytes") ? config.getLong("file.rollSizeBytes") : 0;
+    this.rollIntervalMs = config.hasPath("file.rollIntervalSeconds") ? config.getLong("file.rollIntervalSeconds") * 1000 : 0;
+  }
+
+  @Override
+  protected String getIndexerConfigKey() { return "file"; }
+
+  // a batch is reported as indexed when it is handed to the writer thread, before it reaches the disk
+  @Override
+  protected boolean supportsChangeDetection() {
+    return false;
+  }
+
+  @Override
+  public boolean validateConnection() {
+    if (bypass) {
+      return true;
+    }
+    if (writer == null) {
+      try {
+        writer = new RollingFileWriter(directory, filePrefix, format, rollSizeBytes, rollIntervalMs);
+      } catch (IOException e) {
+        log.error("Couldn't create directory {} for {}.", directory, getClass().getSimpleName(), e);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  protected Set<Pair<Document, Exception>> sendToIndex(List<Document> documents) throws Exception {
+    if (bypass) {
+      return Set.of();
+    }
+    if (writer == null && !validateConnection()) {
+      throw new IOException("Couldn't create directory " + directory + ".");
+    }
+
+    // the records are converted here, so the writer thread never reads documents that are being passed on
+    List<Map<String, Object>> records = new ArrayList<>(documents.size());
+    for (Document doc : documents) {
+      Map<String, Object> record = getIndexerDocWithoutChildren(doc);
+      String idOverride = getDocIdOverride(doc);
+      if (idOverride != null) {
+        record.put(Document.ID_FIELD, idOverride);
+      }
+      records.add(record);
+    }
+    writer.write(records);
+
+    return Set.of();
+  }
+
+  @Override
+  public void closeConnection() {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (Exception e) {
+        log.error("Error finishing files in {}.", directory, e);
+      }
+    }
+  }
+
+  /**
+   * Writes records to files in one format.
+   */
+  public interface FileFormat {
+
+    /**
+     * Returns the extension for files in this format, without a leading dot, e.g. "jsonl.gz".
+     */
+    String getExtension();
+
+    /**
+     * Creates the file at the given path and returns a writer for it.
+     */
+    RecordWriter open(Path path) throws IOException;
+  }
+
+  /**
+   * Writes records to a single file. Used by one thread at a time.
+   */
+  public interface RecordWriter extends Closeable {
+
+    /**
+     * Writes a record, holding the fields of a document by name.
+     */
+    void write(Map<String, Object> record) throws IOException;
+
+    /**
+     * Writes out any buffered records that can be written out before the file is closed.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Returns the size of the file so far, in bytes, used to decide when to start a new file.
+     */
+    long getBytesWritten();
+  }
+}
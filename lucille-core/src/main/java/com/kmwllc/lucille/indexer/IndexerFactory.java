@@ -57,7 +57,7 @@ public class IndexerFactory {
     }
   }
 
-  // Creates an indexer based on the config's "indexer.type". Throws an exception if it is not a supported type (solr, opensearch, elasticsearch, csv).
+  // Creates an indexer based on the config's "indexer.type". Throws an exception if it is not a supported type (solr, opensearch, elasticsearch, csv, file).
   private static Indexer indexerFromType(Config config, IndexerMessenger messenger, boolean bypass, String metricsPrefix, String localRunId) throws IndexerException {
     String typeName = config.getString("indexer.type");
 
@@ -69,6 +69,8 @@ public class IndexerFactory {
       return new ElasticsearchIndexer(config, messenger, bypass, metricsPrefix, localRunId);
     } else if (typeName.equalsIgnoreCase("CSV")) {
       return new CSVIndexer(config, messenger, bypass, metricsPrefix, localRunId);
+    } else if (typeName.equalsIgnoreCase("File")) {
+      return new FileIndexer(config, messenger, bypass, metricsPrefix, localRunId);
     } else {
       throw new IndexerException("Unknown indexer.type configuration of: '" + typeName + "'");
     }
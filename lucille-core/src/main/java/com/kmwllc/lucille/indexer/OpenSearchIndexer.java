@@ -48,6 +48,8 @@ import org.slf4j.LoggerFactory;
  *   <li>update (Boolean, Optional) : Use partial update API instead of index/replace. Defaults to false.</li>
  *   <li>acceptInvalidCert (Boolean, Optional) : Allow invalid TLS certificates. Defaults to false.</li>
  *   <li>useCompression (Boolean, Optional) : Whether to use compression in the underlying OpenSearch HTTP client. Defaults to false.</li>
+ *   <li>streamDocuments (Boolean, Optional) : Write each document's fields directly into the bulk request body, applying the
+ *   whitelist and blacklist during the write, instead of first converting the document to a Map. Defaults to false.</li>
  *   <li>childDocumentsField (String, Optional) : Field name under which attached child documents are nested in the
  *   indexed document. If not set, child documents are not indexed. For child queries to work correctly, this field should be mapped
  *   as type "nested" in the index mapping.</li>
@@ -59,7 +61,7 @@ public class OpenSearchIndexer extends Indexer {
 
   public static final Spec SPEC = SpecBuilder.indexer()
       .requiredString("index", "url")
-      .optionalBoolean("update", "acceptInvalidCert", "useCompression")
+      .optionalBoolean("update", "acceptInvalidCert", "useCompression", "streamDocuments")
       .optionalString("childDocumentsField").build();
 
   private static final Logger log = LoggerFactory.getLogger(OpenSearchIndexer.class);
@@ -76,6 +78,7 @@ public class OpenSearchIndexer extends Indexer {
   private final boolean update;
 
   private final String childDocumentsField;
+  private final boolean streamDocuments;
 
   public OpenSearchIndexer(Config config, IndexerMessenger messenger, boolean bypass,
       String metricsPrefix,String localRunId, OpenSearchClient client) {
@@ -88,6 +91,7 @@ public class OpenSearchIndexer extends Indexer {
     this.versionType =
         config.hasPath("indexer.versionType") ? VersionType.valueOf(config.getString("indexer.versionType")) : null;
     this.childDocumentsField = ConfigUtils.getOrDefault(config, "opensearch.childDocumentsField", null);
+    this.streamDocuments = ConfigUtils.getOrDefault(config, "opensearch.streamDocuments", false);
     this.versionField = config.hasPath("indexer.versionField") ? config.getString("indexer.versionField") : null;
 
     // validate config indexer.versionType that must be set if config indexer.versionField is set
@@ -337,27 +341,9 @@ public class OpenSearchIndexer extends Indexer {
       String docId = entry.getKey().getRight();
       Document doc = entry.getValue();
 
-      // removing fields in the blacklist or not in the whitelist in configurations
-      Map<String, Object> indexerDoc = getIndexerDoc(doc);
-
-      // remove children documents field from indexer doc (processed from doc by addChildren method call below)
-      indexerDoc.remove(Document.CHILDREN_FIELD);
-
       uploadedDocuments.put(docId, doc);
 
-      // only add id if our fieldFilter allows it (based on our blacklist and whitelist)
-      // - Case 1: id and idOverride filtered out -> idOverride used by Indexer, both removed from Document (tested in testBlacklistWithOverride)
-      // - Case 2: id is filtered, idOverride exists -> idOverride used by Indexer, only id field removed from Document (tested in testBlacklistWithOverride2)
-      // - Case 3: id is filtered, idOverride null -> id used by Indexer, id also removed from Document (tested in testRouting)
-      // - Case 4: both unfiltered, idOverride exists -> idOverride used by Indexer, id and idOverride field exist in Document (tested in testOverride)
-      // - Case 5: both unfiltered, idOverride null -> document id remains and used by Indexer (Default case & tested)
-      if (fieldFilter.shouldInclude(Document.ID_FIELD)) {
-        indexerDoc.put(Document.ID_FIELD, docId);
-      }
-
-      if (doc.hasChildren()) {
-        addChildren(doc, indexerDoc);
-      }
+      Object indexerDoc = streamDocuments ? toStreamedDoc(doc, docId) : getIndexerDocMap(doc, docId);
 
       Long versionNum = (versionType == VersionType.External || versionType == VersionType.ExternalGte)
           ? getVersionNum(doc)
@@ -426,6 +412,36 @@ public class OpenSearchIndexer extends Indexer {
     return failedDocs;
   }
 
+  /** Returns the document as a Map with the fields that should be indexed, its id and its children. */
+  private Map<String, Object> getIndexerDocMap(Document doc, String docId) {
+    // removing fields in the blacklist or not in the whitelist in configurations, and the children documents field
+    // (processed from doc by addChildren method call below)
+    Map<String, Object> indexerDoc = getIndexerDocWithoutChildren(doc);
+
+    // only add id if our fieldFilter allows it (based on our blacklist and whitelist)
+    // - Case 1: id and idOverride filtered out -> idOverride used by Indexer, both removed from Document (tested in testBlacklistWithOverride)
+    // - Case 2: id is filtered, idOverride exists -> idOverride used by Indexer, only id field removed from Document (tested in testBlacklistWithOverride2)
+    // - Case 3: id is filtered, idOverride null -> id used by Indexer, id also removed from Document (tested in testRouting)
+    // - Case 4: both unfiltered, idOverride exists -> idOverride used by Indexer, id and idOverride field exist in Document (tested in testOverride)
+    // - Case 5: both unfiltered, idOverride null -> document id remains and used by Indexer (Default case & tested)
+    if (fieldFilter.shouldInclude(Document.ID_FIELD)) {
+      indexerDoc.put(Document.ID_FIELD, docId);
+    }
+
+    if (doc.hasChildren()) {
+      addChildren(doc, indexerDoc);
+    }
+    return indexerDoc;
+  }
+
+  /** Returns the document in a form that writes its fields, its id and its children directly to the bulk request. */
+  private Object toStreamedDoc(Document doc, String docId) {
+    if (doc.hasChildren() && childDocumentsField == null) {
+      log.warn("Document {} has children but opensearch.childDocumentsField is not configured. They will not be indexed.", doc.getId());
+    }
+    return getStreamedIndexerDoc(doc, fieldFilter.shouldInclude(Document.ID_FIELD) ? docId : null, childDocumentsField);
+  }
+
   /** Only call on documents that have children. */
   private void addChildren(Document doc, Map<String, Object> indexerDoc) {
     if (childDocumentsField == null) {
@@ -437,11 +453,9 @@ public class OpenSearchIndexer extends Indexer {
     List<Document> children = doc.getChildren();
 
     for (Document child : children) {
-      // calling getIndexerDoc allows us to apply black/whitelist
-      Map<String, Object> childDocMap = getIndexerDoc(child);
+      // calling getIndexerDocWithoutChildren allows us to apply black/whitelist
       // we don't support children that contain nested children
-      childDocMap.remove(Document.CHILDREN_FIELD);
-      childDocMaps.add(childDocMap);
+      childDocMaps.add(getIndexerDocWithoutChildren(child));
     }
     indexerDoc.put(childDocumentsField, childDocMaps);
   }
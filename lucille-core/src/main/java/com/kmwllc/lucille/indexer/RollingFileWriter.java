@@ -0,0 +1,183 @@
+package com.kmwllc.lucille.indexer;
+
+import com.kmwllc.lucille.indexer.FileIndexer.FileFormat;
+import com.kmwllc.lucille.indexer.FileIndexer.RecordWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes records to a series of files on a background thread, so the caller never waits on disk writes or fsync unless
+ * it gets a whole buffer ahead of the disk.
+ * <p>
+ * Records are handed over a buffer at a time. While the writer thread writes one buffer, the caller fills the next; a
+ * caller handing over a buffer waits only until the writer thread has finished the previous one. The current file is
+ * finished, and a new one started with the next record, once it reaches the size limit or has been open longer than
+ * the roll interval. A file is written under a name ending in {@value #IN_PROGRESS_SUFFIX} and is renamed once it has
+ * been closed and synced to disk, so complete files can be picked up as soon as they appear.
+ * <p>
+ * When writing fails, the writer thread stops, and the failure is thrown to the caller by the next call to
+ * {@link #write(List)} or {@link #close()}. Records from earlier buffers may already have been reported as written by
+ * then.
+ */
+class RollingFileWriter implements AutoCloseable {
+
+  static final String IN_PROGRESS_SUFFIX = ".inprogress";
+
+  private static final Logger log = LoggerFactory.getLogger(RollingFileWriter.class);
+
+  private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+  private static final long IDLE_POLL_MS = 1000;
+  // compared by identity, so it can't be mistaken for an empty buffer
+  private static final List<Map<String, Object>> END = new ArrayList<>();
+
+  private final Path directory;
+  private final String prefix;
+  private final FileFormat format;
+  private final long rollSizeBytes;
+  private final long rollIntervalMs;
+
+  private final SynchronousQueue<List<Map<String, Object>>> handoff = new SynchronousQueue<>();
+  private final Thread thread;
+  private volatile Exception failure;
+
+  // only used by the writer thread
+  private RecordWriter current;
+  private Path currentPath;
+  private long currentOpenedAt;
+  private int fileCount = 0;
+
+  /**
+   * @param directory the directory to write files to, created if it does not exist
+   * @param prefix the start of each file's name, followed by a timestamp and a sequence number
+   * @param format writes records in the chosen format
+   * @param rollSizeBytes the size at which a file is finished, or 0 for no limit
+   * @param rollIntervalMs how long a file is written to before it is finished, or 0 for no limit
+   */
+  RollingFileWriter(Path directory, String prefix, FileFormat format, long rollSizeBytes, long rollIntervalMs)
+      throws IOException {
+    this.directory = directory;
+    this.prefix = prefix;
+    this.format = format;
+    this.rollSizeBytes = rollSizeBytes;
+    this.rollIntervalMs = rollIntervalMs;
+
+    Files.createDirectories(directory);
+    this.thread = new Thread(this::run, "file-indexer-writer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Hands the given records to the writer thread, waiting only while it is still writing the previous buffer.
+   *
+   * @throws IOException if writing an earlier buffer failed
+   */
+  void write(List<Map<String, Object>> records) throws IOException, InterruptedException {
+    while (!handoff.offer(records, IDLE_POLL_MS, TimeUnit.MILLISECONDS)) {
+      checkFailure();
+    }
+    checkFailure();
+  }
+
+  /**
+   * Waits for all records to be written and finishes the current file.
+   *
+   * @throws IOException if writing any records failed
+   */
+  @Override
+  public void close() throws IOException, InterruptedException {
+    if (thread.isAlive()) {
+      while (!handoff.offer(END, IDLE_POLL_MS, TimeUnit.MILLISECONDS) && thread.isAlive()) {
+        // waiting for the writer thread to finish its current buffer
+      }
+      thread.join();
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("Writing to " + directory + " failed.", failure);
+    }
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        List<Map<String, Object>> records = handoff.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+        if (records == END) {
+          break;
+        }
+
+        if (records != null) {
+          for (Map<String, Object> record : records) {
+            if (current == null) {
+              open();
+            }
+            current.write(record);
+            if (rollSizeBytes > 0 && current.getBytesWritten() >= rollSizeBytes) {
+              finish();
+            }
+          }
+        } else if (current != null) {
+          // nothing to write for a while, so make what has been written so far visible to readers of the file
+          current.flush();
+        }
+
+        if (current != null && rollIntervalMs > 0 && System.currentTimeMillis() - currentOpenedAt >= rollIntervalMs) {
+          finish();
+        }
+      }
+      if (current != null) {
+        finish();
+      }
+    } catch (Exception e) {
+      log.error("Error writing to {}. No more documents will be written.", currentPath != null ? currentPath : directory, e);
+      failure = e;
+      if (current != null) {
+        try {
+          current.close();
+        } catch (Exception e2) {
+          log.warn("Error closing {}.", currentPath, e2);
+        }
+      }
+    }
+  }
+
+  private void open() throws IOException {
+    String name = prefix + "-" + ZonedDateTime.now(ZoneOffset.UTC).format(TIMESTAMP)
+        + String.format("-%05d.", fileCount++) + format.getExtension();
+    currentPath = directory.resolve(name + IN_PROGRESS_SUFFIX);
+    current = format.open(currentPath);
+    currentOpenedAt = System.currentTimeMillis();
+  }
+
+  private void finish() throws IOException {
+    current.close();
+    current = null;
+
+    try (FileChannel channel = FileChannel.open(currentPath, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+
+    String name = currentPath.getFileName().toString();
+    Path finished = currentPath.resolveSibling(name.substring(0, name.length() - IN_PROGRESS_SUFFIX.length()));
+    Files.move(currentPath, finished, StandardCopyOption.ATOMIC_MOVE);
+    log.info("Finished writing {}.", finished);
+    currentPath = null;
+  }
+}
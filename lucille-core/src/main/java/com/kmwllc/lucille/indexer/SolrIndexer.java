@@ -1,6 +1,7 @@
 package com.kmwllc.lucille.indexer;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.kmwllc.lucille.core.ConfigUtils;
 import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.Indexer;
 import com.kmwllc.lucille.core.IndexerException;
@@ -13,6 +14,7 @@ import com.kmwllc.lucille.util.SolrUtils;
 import com.typesafe.config.Config;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -23,8 +25,11 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.CloudHttp2SolrClient;
+import org.apache.solr.client.solrj.impl.CloudSolrClient.RouteException;
 import org.apache.solr.client.solrj.impl.HttpJdkSolrClient;
+import org.apache.solr.client.solrj.impl.LBSolrClient;
 import org.apache.solr.client.solrj.request.CollectionAdminRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.SolrPingResponse;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
@@ -47,31 +52,51 @@ import org.slf4j.LoggerFactory;
  *   <li>userName (String, Optional) : Username for HTTP authentication.</li>
  *   <li>password (String, Optional) : Password for HTTP authentication.</li>
  *   <li>acceptInvalidCert (Boolean, Optional) : Allow invalid TLS certificates. Defaults to false.</li>
+ *   <li>routeUpdatesToLeaders (Boolean, Optional) : Send the adds and deletes for each collection in a batch as a single
+ *   update request. With useCloudClient, the client hashes each document with the collection's router, sends one request
+ *   per shard leader in parallel, and never sends updates to a replica that would forward them. If a shard's request
+ *   fails, only the documents routed to that shard are marked as failed. Defaults to false.</li>
+ *   <li>atomicUpdates (Map&lt;String, String&gt;, Optional) : Send documents as atomic updates, which change only the given
+ *   fields of a document already in the index. Maps field names to the Solr update modifier to apply to them: set, add,
+ *   add-distinct, remove, removeregex or inc. Fields that aren't listed are set. Requires the schema to support atomic
+ *   updates (an updateLog, with other fields stored or docValues). With routeUpdatesToLeaders, atomic updates and deletes
+ *   are sent in the same request.</li>
  * </ul>
  */
 public class SolrIndexer extends Indexer {
 
   public static final Spec SPEC = SpecBuilder.indexer()
       .optionalList("url", new TypeReference<List<String>>() {})
-      .optionalBoolean("useCloudClient", "acceptInvalidCert")
+      .optionalBoolean("useCloudClient", "acceptInvalidCert", "routeUpdatesToLeaders")
       .optionalString("defaultCollection", "userName", "password", "zkChroot")
       .optionalString(SSLUtils.SSL_CONFIG_OPTIONAL_PROPERTIES)
-      .optionalList("zkHosts", new TypeReference<List<String>>(){}).build();
+      .optionalList("zkHosts", new TypeReference<List<String>>(){})
+      .optionalParent("atomicUpdates", new TypeReference<Map<String, String>>(){}).build();
 
   private static final Logger log = LoggerFactory.getLogger(SolrIndexer.class);
 
+  private static final Set<String> ATOMIC_UPDATE_MODIFIERS =
+      Set.of("set", "add", "add-distinct", "remove", "removeregex", "inc");
+
   private final SolrClient solrClient;
+  private final boolean routeUpdatesToLeaders;
+  private final Map<String, String> atomicUpdates;
 
   public SolrIndexer(Config config, IndexerMessenger messenger, boolean bypass,
       String metricsPrefix, String localRunId, SolrClient solrClient) {
     super(config, messenger, bypass, metricsPrefix, localRunId);
 
     this.solrClient = solrClient;
+    this.routeUpdatesToLeaders = ConfigUtils.getOrDefault(config, "solr.routeUpdatesToLeaders", false);
+    this.atomicUpdates = getAtomicUpdates(config);
   }
 
   public SolrIndexer(Config config, IndexerMessenger messenger, boolean bypass, String metricsPrefix, String localRunId) {
     super(config, messenger, bypass, metricsPrefix, localRunId);
 
+    this.routeUpdatesToLeaders = ConfigUtils.getOrDefault(config, "solr.routeUpdatesToLeaders", false);
+    this.atomicUpdates = getAtomicUpdates(config);
+
     // If the SolrIndexer is creating its own client it needs to happen after the Indexer has validated its config
     // to avoid problems where a client is created with no way to close it.
     this.solrClient = getSolrClient(config, bypass);
@@ -85,6 +110,27 @@ public class SolrIndexer extends Indexer {
   @Override
   protected String getIndexerConfigKey() { return "solr"; }
 
+  private static Map<String, String> getAtomicUpdates(Config config) {
+    if (!config.hasPath("solr.atomicUpdates")) {
+      return null;
+    }
+
+    Map<String, String> atomicUpdates = new HashMap<>();
+    for (Map.Entry<String, Object> entry : config.getConfig("solr.atomicUpdates").root().unwrapped().entrySet()) {
+      String field = entry.getKey();
+      String modifier = String.valueOf(entry.getValue());
+      if (Document.ID_FIELD.equals(field)) {
+        throw new IllegalArgumentException("solr.atomicUpdates can't apply a modifier to the id field.");
+      }
+      if (!ATOMIC_UPDATE_MODIFIERS.contains(modifier)) {
+        throw new IllegalArgumentException("Unsupported atomic update modifier '" + modifier + "' for field '" + field
+            + "'. Must be one of " + ATOMIC_UPDATE_MODIFIERS + ".");
+      }
+      atomicUpdates.put(field, modifier);
+    }
+    return atomicUpdates;
+  }
+
   private static SolrClient getSolrClient(Config config, boolean bypass) {
     return bypass ? null : SolrUtils.getSolrClient(config);
   }
@@ -156,6 +202,7 @@ public class SolrIndexer extends Indexer {
 
     Map<String, SolrDocRequests> solrDocRequestsByCollection = new HashMap<>();
     Map<String, Document> docsUploaded = new LinkedHashMap<>();
+    Set<Pair<Document, Exception>> failedDocs = new HashSet<>();
 
     for (Document doc : documents) {
 
@@ -179,13 +226,15 @@ public class SolrIndexer extends Indexer {
 
         // if the add/update requests contain the ID of this delete, send the add/updates
         // immediately so the add/update
-        // of the document is processed before this delete.
+        // of the document is processed before this delete. A combined update request already
+        // processes its add/updates before its deletes.
 
-        if (solrDocRequests.containsIdForAddUpdate(solrId)
+        if (!routeUpdatesToLeaders
+            && (solrDocRequests.containsIdForAddUpdate(solrId)
             || (deleteByFieldField != null
             && doc.has(deleteByFieldField)
             && deleteByFieldValue != null
-            && doc.has(deleteByFieldValue))) {
+            && doc.has(deleteByFieldValue)))) {
           sendAddUpdateBatch(collection, solrDocRequests.getAddUpdateDocs());
           solrDocRequests.resetAddUpdates();
         }
@@ -211,16 +260,24 @@ public class SolrIndexer extends Indexer {
 
         if (solrDocRequests.containsIdForDeletion(solrId)
             || solrDocRequests.containsAnyDeleteByField()) {
-          sendDeletionBatch(collection, solrDocRequests);
+          if (routeUpdatesToLeaders) {
+            failedDocs.addAll(sendUpdateRequest(collection, solrDocRequests, docsUploaded));
+            solrDocRequests.resetAddUpdates();
+          } else {
+            sendDeletionBatch(collection, solrDocRequests);
+          }
           solrDocRequests.resetDeletes();
         }
         solrDocRequests.addDocForAddUpdate(solrDoc, solrId);
       }
     }
 
-    Set<Pair<Document, Exception>> failedDocs = new HashSet<>();
-
     for (String collection : solrDocRequestsByCollection.keySet()) {
+      if (routeUpdatesToLeaders) {
+        failedDocs.addAll(sendUpdateRequest(collection, solrDocRequestsByCollection.get(collection), docsUploaded));
+        continue;
+      }
+
       List<SolrInputDocument> collectionDocs = solrDocRequestsByCollection.get(collection).getAddUpdateDocs();
 
       try {
@@ -244,6 +301,84 @@ public class SolrIndexer extends Indexer {
     return failedDocs;
   }
 
+  /**
+   * Sends the add/updates and deletes held by the given requests as a single update request. Solr processes the
+   * add/updates of an update request before its deletes. With a cloud client, the request is split by shard on the
+   * client and sent to each shard leader in parallel, so when it fails, only the add/updates that were routed to the
+   * failed shards are returned as failed. A failure that affects deletes is thrown, as it is for separate deletes.
+   */
+  private Set<Pair<Document, Exception>> sendUpdateRequest(String collection, SolrDocRequests requests,
+      Map<String, Document> docsUploaded) throws IndexerException {
+    boolean hasDeletes = !requests.getDeleteIds().isEmpty() || !requests.getValuesToDeleteByField().isEmpty();
+    if (requests.getAddUpdateDocs().isEmpty() && !hasDeletes) {
+      return Set.of();
+    }
+
+    UpdateRequest request = new UpdateRequest();
+    if (!requests.getAddUpdateDocs().isEmpty()) {
+      request.add(requests.getAddUpdateDocs());
+    }
+    if (!requests.getValuesToDeleteByField().isEmpty()) {
+      request.deleteByQuery(getDeleteQuery(requests));
+    } else if (!requests.getDeleteIds().isEmpty()) {
+      request.deleteById(requests.getDeleteIds());
+    }
+
+    IndexerRetryableException failure;
+    List<UpdateRequest> failedRequests;
+    try {
+      solrClient.request(request, collection);
+      return Set.of();
+    } catch (SolrException e) {
+      failure = toRetryableException(e);
+      failedRequests = e instanceof RouteException ? getFailedRoutes((RouteException) e, request) : List.of(request);
+    } catch (SolrServerException | IOException e) {
+      failure = new IndexerRetryableException("Error communicating with Solr", e);
+      failedRequests = List.of(request);
+    }
+
+    // a delete by query is only sent once all the routed requests have succeeded
+    boolean deletesFailed = request.getDeleteQuery() != null && !request.getDeleteQuery().isEmpty();
+    for (UpdateRequest failedRequest : failedRequests) {
+      deletesFailed |= failedRequest.getDeleteById() != null && !failedRequest.getDeleteById().isEmpty();
+    }
+    if (deletesFailed) {
+      throw failure;
+    }
+
+    Set<Pair<Document, Exception>> failedDocs = new HashSet<>();
+    for (UpdateRequest failedRequest : failedRequests) {
+      if (failedRequest.getDocuments() == null) {
+        continue;
+      }
+      for (SolrInputDocument d : failedRequest.getDocuments()) {
+        String docId = d.getFieldValue(Document.ID_FIELD).toString();
+
+        if (docsUploaded.containsKey(docId)) {
+          failedDocs.add(Pair.of(docsUploaded.get(docId), failure));
+        } else {
+          throw failure;
+        }
+      }
+    }
+    return failedDocs;
+  }
+
+  /**
+   * Returns the per-shard requests that failed, or the whole request if the failures can't be matched to the routes.
+   */
+  private static List<UpdateRequest> getFailedRoutes(RouteException e, UpdateRequest request) {
+    List<UpdateRequest> failedRoutes = new ArrayList<>();
+    for (Map.Entry<String, Throwable> throwable : e.getThrowables()) {
+      LBSolrClient.Req route = e.getRoutes().get(throwable.getKey());
+      if (route == null || !(route.getRequest() instanceof UpdateRequest)) {
+        return List.of(request);
+      }
+      failedRoutes.add((UpdateRequest) route.getRequest());
+    }
+    return failedRoutes.isEmpty() ? List.of(request) : failedRoutes;
+  }
+
   private void sendAddUpdateBatch(String collection, List<SolrInputDocument> solrDocs)
       throws IndexerException {
     if (solrDocs.isEmpty()) {
@@ -282,23 +417,7 @@ public class SolrIndexer extends Indexer {
       } else {
         // At least some of the deletes are by field. Perform the deletes with a single request using
         // terms queries.
-        List<String> termsQueries = new ArrayList<>();
-        if (!requests.getDeleteIds().isEmpty()) {
-          termsQueries.add(
-              String.format("(+{!terms f='id' v='%s'})", String.join(",", requests.getDeleteIds())));
-        }
-
-        requests
-            .getValuesToDeleteByField()
-            .entrySet()
-            .forEach(
-                entry ->
-                    termsQueries.add(
-                        String.format(
-                            "(+{!terms f='%s' v='%s'})",
-                            entry.getKey(), String.join(",", entry.getValue()))));
-
-        String queryToDelete = String.join(" OR ", termsQueries);
+        String queryToDelete = getDeleteQuery(requests);
 
         if (collection == null) {
           solrClient.deleteByQuery(queryToDelete);
@@ -313,6 +432,26 @@ public class SolrIndexer extends Indexer {
     }
   }
 
+  private static String getDeleteQuery(SolrDocRequests requests) {
+    List<String> termsQueries = new ArrayList<>();
+    if (!requests.getDeleteIds().isEmpty()) {
+      termsQueries.add(
+          String.format("(+{!terms f='id' v='%s'})", String.join(",", requests.getDeleteIds())));
+    }
+
+    requests
+        .getValuesToDeleteByField()
+        .entrySet()
+        .forEach(
+            entry ->
+                termsQueries.add(
+                    String.format(
+                        "(+{!terms f='%s' v='%s'})",
+                        entry.getKey(), String.join(",", entry.getValue()))));
+
+    return String.join(" OR ", termsQueries);
+  }
+
   private static IndexerRetryableException toRetryableException(SolrException e) {
     int code = e.code();
     if (code > 0) {
@@ -331,16 +470,12 @@ public class SolrIndexer extends Indexer {
 
   private SolrInputDocument toSolrDoc(Document doc, String idOverride, String indexOverride)
       throws IndexerException {
-    // removes fields specified by fieldFilter config, including id
-    Map<String, Object> map = getIndexerDoc(doc);
+    // removes fields specified by fieldFilter config, including id, and the children, which are added below
+    Map<String, Object> map = getIndexerDocWithoutChildren(doc);
     SolrInputDocument solrDoc = new SolrInputDocument();
 
     for (String key : map.keySet()) {
 
-      if (Document.CHILDREN_FIELD.equals(key)) {
-        continue;
-      }
-      
       if (idOverride != null && Document.ID_FIELD.equals(key)) {
         solrDoc.setField(Document.ID_FIELD, idOverride);
         continue;
@@ -358,13 +493,26 @@ public class SolrIndexer extends Indexer {
                 "Object field '%s' on document id=%s is not supported by the " + "SolrIndexer.",
                 key, doc.getId()));
       }
-      solrDoc.setField(key, value);
+      solrDoc.setField(key, toFieldValue(key, value));
     }
 
     addChildren(doc, solrDoc);
     return solrDoc;
   }
 
+  /**
+   * Returns the value to send for the given field: the value itself, or, when documents are sent as atomic updates, a map
+   * from the field's modifier to the value. Every field other than the id gets a modifier, so that Solr treats the
+   * document as an atomic update even if it has none of the fields listed in atomicUpdates.
+   */
+  private Object toFieldValue(String field, Object value) {
+    if (atomicUpdates == null || Document.ID_FIELD.equals(field)) {
+      return value;
+    }
+    // a singleton map, since a null value with "set" removes the field
+    return Collections.singletonMap(atomicUpdates.getOrDefault(field, "set"), value);
+  }
+
   private void addChildren(Document doc, SolrInputDocument solrDoc) throws IndexerException {
     List<Document> children = doc.getChildren();
     if (children == null || children.isEmpty()) {
@@ -372,14 +520,11 @@ public class SolrIndexer extends Indexer {
     }
     for (Document child : children) {
       // remove key:value pair mappings if they appear in blacklist
-      Map<String, Object> map = getIndexerDoc(child);
+      // we don't support children that contain nested children
+      Map<String, Object> map = getIndexerDocWithoutChildren(child);
 
       SolrInputDocument solrChild = new SolrInputDocument();
       for (String key : map.keySet()) {
-        // we don't support children that contain nested children
-        if (Document.CHILDREN_FIELD.equals(key)) {
-          continue;
-        }
         Object value = map.get(key);
         if (value instanceof Map) {
           throw new IndexerException(
@@ -0,0 +1,171 @@
+package com.kmwllc.lucille.indexer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kmwllc.lucille.indexer.FileIndexer.FileFormat;
+import com.kmwllc.lucille.indexer.FileIndexer.RecordWriter;
+import com.opencsv.CSVWriterBuilder;
+import com.opencsv.ICSVWriter;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Writes records as JSON lines or CSV rows to a file, optionally compressed with gzip or zstd. The size reported for
+ * rolling is the number of bytes written before compression, which is exact however much the compressor has buffered.
+ */
+class StreamFileFormat implements FileFormat {
+
+  static final String JSONL = "jsonl";
+  static final String CSV = "csv";
+
+  static final String NONE = "none";
+  static final String GZIP = "gzip";
+  static final String ZSTD = "zstd";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // records are flushed by the writer, not after each one is serialized
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+      .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+  private final String format;
+  private final String compression;
+  private final List<String> columns;
+  private final boolean includeHeader;
+
+  /**
+   * @param format {@value #JSONL} or {@value #CSV}
+   * @param compression {@value #NONE}, {@value #GZIP}, or {@value #ZSTD}
+   * @param columns the fields to write as CSV columns, in order; not used for JSON lines
+   * @param includeHeader whether each CSV file starts with a row of column names
+   */
+  StreamFileFormat(String format, String compression, List<String> columns, boolean includeHeader) {
+    if (!JSONL.equals(format) && !CSV.equals(format)) {
+      throw new IllegalArgumentException("file.format must be " + JSONL + " or " + CSV + ".");
+    }
+    if (!NONE.equals(compression) && !GZIP.equals(compression) && !ZSTD.equals(compression)) {
+      throw new IllegalArgumentException("file.compression must be " + NONE + ", " + GZIP + ", or " + ZSTD + ".");
+    }
+    if (CSV.equals(format) && (columns == null || columns.isEmpty())) {
+      throw new IllegalArgumentException("file.columns must be set when file.format is " + CSV + ".");
+    }
+
+    this.format = format;
+    this.compression = compression;
+    this.columns = columns;
+    this.includeHeader = includeHeader;
+  }
+
+  @Override
+  public String getExtension() {
+    switch (compression) {
+      case GZIP:
+        return format + ".gz";
+      case ZSTD:
+        return format + ".zst";
+      default:
+        return format;
+    }
+  }
+
+  @Override
+  public RecordWriter open(Path path) throws IOException {
+    OutputStream file = new FileOutputStream(path.toFile());
+    OutputStream out;
+    try {
+      switch (compression) {
+        case GZIP:
+          out = new GZIPOutputStream(file, BUFFER_SIZE);
+          break;
+        case ZSTD:
+          out = new ZstdCompressorOutputStream(file);
+          break;
+        default:
+          out = file;
+      }
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+    CountingOutputStream counted = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+
+    return JSONL.equals(format) ? new JsonLinesWriter(counted) : new CsvWriter(counted);
+  }
+
+  private static abstract class StreamRecordWriter implements RecordWriter {
+
+    protected final CountingOutputStream out;
+
+    private StreamRecordWriter(CountingOutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public long getBytesWritten() {
+      return out.getByteCount();
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  private static class JsonLinesWriter extends StreamRecordWriter {
+
+    private JsonLinesWriter(CountingOutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(Map<String, Object> record) throws IOException {
+      MAPPER.writeValue(out, record);
+      out.write('\n');
+    }
+  }
+
+  private class CsvWriter extends StreamRecordWriter {
+
+    // each row is rendered here and then written to the stream, so the byte count is current after every record
+    private final StringWriter row = new StringWriter();
+    private final ICSVWriter writer = new CSVWriterBuilder(row).build();
+
+    private CsvWriter(CountingOutputStream out) throws IOException {
+      super(out);
+      if (includeHeader) {
+        writeRow(columns.toArray(new String[0]));
+      }
+    }
+
+    @Override
+    public void write(Map<String, Object> record) throws IOException {
+      String[] line = new String[columns.size()];
+      for (int i = 0; i < columns.size(); i++) {
+        Object value = record.get(columns.get(i));
+        line[i] = value == null ? null : value.toString();
+      }
+      writeRow(line);
+    }
+
+    private void writeRow(String[] line) throws IOException {
+      row.getBuffer().setLength(0);
+      writer.writeNext(line, true);
+      out.write(row.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.kmwllc.lucille.message;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * A ConsumerRebalanceListener that passes each rebalance on to the listeners added to it, so that a consumer can be
+ * subscribed before the components that want to hear about its rebalances have been created.
+ */
+class ForwardingRebalanceListener implements ConsumerRebalanceListener {
+
+  private final List<ConsumerRebalanceListener> listeners = new CopyOnWriteArrayList<>();
+
+  void add(ConsumerRebalanceListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+    for (ConsumerRebalanceListener listener : listeners) {
+      listener.onPartitionsRevoked(partitions);
+    }
+  }
+
+  @Override
+  public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+    for (ConsumerRebalanceListener listener : listeners) {
+      listener.onPartitionsAssigned(partitions);
+    }
+  }
+
+  @Override
+  public void onPartitionsLost(Collection<TopicPartition> partitions) {
+    for (ConsumerRebalanceListener listener : listeners) {
+      listener.onPartitionsLost(partitions);
+    }
+  }
+}
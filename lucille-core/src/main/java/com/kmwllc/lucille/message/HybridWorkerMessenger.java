@@ -27,6 +27,7 @@ public class HybridWorkerMessenger implements WorkerMessenger {
 
   private final Config config;
   private final String pipelineName;
+  private final ForwardingRebalanceListener rebalanceListener = new ForwardingRebalanceListener();
 
   public HybridWorkerMessenger(Config config, String pipelineName,
       LinkedBlockingQueue<Document> pipelineDest,
@@ -44,17 +45,15 @@ public class HybridWorkerMessenger implements WorkerMessenger {
       LinkedBlockingQueue<Document> pipelineDest,
       LinkedBlockingQueue<Map<TopicPartition, OffsetAndMetadata>> offsets) {
     this(config, pipelineName, pipelineDest, offsets, createSourceConsumer(config, pipelineName));
+    sourceConsumer.subscribe(Pattern.compile(KafkaUtils.getSourceTopicName(pipelineName, config)),
+        rebalanceListener);
   }
 
   private static KafkaConsumer createSourceConsumer(Config config, String pipelineName) {
     // append random string to kafka client ID to prevent kafka from issuing a warning when multiple consumers
     // with the same client ID are started in separate worker threads
     String kafkaClientId = "com.kmwllc.lucille-worker-" + pipelineName + "-" + RandomStringUtils.randomAlphanumeric(8);
-    KafkaConsumer consumer = KafkaUtils.createDocumentConsumer(config, kafkaClientId);
-    String sourceTopicName = KafkaUtils.getSourceTopicName(pipelineName, config);
-    consumer.subscribe(Pattern.compile(sourceTopicName));
-
-    return consumer;
+    return KafkaUtils.createDocumentConsumer(config, kafkaClientId);
   }
 
   /**
@@ -75,6 +74,11 @@ public class HybridWorkerMessenger implements WorkerMessenger {
     return null;
   }
 
+  @Override
+  public void addRebalanceListener(ConsumerRebalanceListener listener) {
+    rebalanceListener.add(listener);
+  }
+
   @Override
   public void commitPendingDocOffsets() throws Exception {
     Map<TopicPartition, OffsetAndMetadata> batchOffsets = null;
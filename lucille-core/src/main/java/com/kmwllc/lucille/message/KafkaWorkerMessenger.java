@@ -6,6 +6,7 @@ import com.kmwllc.lucille.core.KafkaDocument;
 import com.typesafe.config.Config;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.producer.KafkaProducer;
@@ -24,6 +25,7 @@ public class KafkaWorkerMessenger implements WorkerMessenger {
   private final KafkaProducer<String, String> kafkaEventProducer;
   private final Config config;
   private final String pipelineName;
+  private final ForwardingRebalanceListener rebalanceListener = new ForwardingRebalanceListener();
 
   public KafkaWorkerMessenger(Config config, String pipelineName) {
     this.config = config;
@@ -34,7 +36,8 @@ public class KafkaWorkerMessenger implements WorkerMessenger {
     // with the same client ID are started in separate worker threads
     String kafkaClientId = "com.kmwllc.lucille-worker-" + pipelineName + "-" + RandomStringUtils.randomAlphanumeric(8);
     this.sourceConsumer = KafkaUtils.createDocumentConsumer(config, kafkaClientId);
-    this.sourceConsumer.subscribe(Collections.singletonList(KafkaUtils.getSourceTopicName(pipelineName, config)));
+    this.sourceConsumer.subscribe(Collections.singletonList(KafkaUtils.getSourceTopicName(pipelineName, config)),
+        rebalanceListener);
   }
 
   /**
@@ -54,6 +57,11 @@ public class KafkaWorkerMessenger implements WorkerMessenger {
     return null;
   }
 
+  @Override
+  public void addRebalanceListener(ConsumerRebalanceListener listener) {
+    rebalanceListener.add(listener);
+  }
+
   @Override
   public void commitPendingDocOffsets() throws Exception {
     // offsets are committed synchronously to ensure that offsets are successfully committed before the documents are sent to
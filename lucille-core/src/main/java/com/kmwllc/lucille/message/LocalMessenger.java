@@ -1,11 +1,15 @@
 package com.kmwllc.lucille.message;
 
 import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.ConfigUtils;
 import com.kmwllc.lucille.core.Event;
 import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -21,6 +25,7 @@ public class LocalMessenger implements IndexerMessenger, PublisherMessenger, Wor
 
   public static final int POLL_TIMEOUT_MS = 50;
   public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+  public static final long DEFAULT_QUEUE_MEMORY_BYTES = 64L * 1024 * 1024;
 
   private final BlockingQueue<Event> pipelineEvents = new LinkedBlockingQueue<>();
   private final BlockingQueue<Document> pipelineSource;
@@ -36,13 +41,25 @@ public class LocalMessenger implements IndexerMessenger, PublisherMessenger, Wor
     this.pipelineDest = new LinkedBlockingQueue<>(capacity);
   }
 
-  public LocalMessenger(Config config) {
-    this.pipelineSource = config.hasPath("publisher.queueCapacity") ?
-        new LinkedBlockingQueue<>(config.getInt("publisher.queueCapacity")) :
-        new LinkedBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
-    this.pipelineDest = config.hasPath("publisher.queueCapacity") ?
-        new LinkedBlockingQueue<>(config.getInt("publisher.queueCapacity")) :
-        new LinkedBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
+  /**
+   * Creates a LocalMessenger whose document queues each hold up to <code>publisher.queueCapacity</code> documents.
+   * When <code>publisher.queueSpillDirectory</code> is set, only <code>publisher.queueMemoryBytes</code> of each
+   * queue's documents are kept on the heap and the rest are spilled to files in that directory.
+   */
+  public LocalMessenger(Config config) throws IOException {
+    int capacity = ConfigUtils.getOrDefault(config, "publisher.queueCapacity", DEFAULT_QUEUE_CAPACITY);
+
+    if (config.hasPath("publisher.queueSpillDirectory")) {
+      Path spillDirectory = Paths.get(config.getString("publisher.queueSpillDirectory"));
+      long maxMemoryBytes = config.hasPath("publisher.queueMemoryBytes") ?
+          config.getLong("publisher.queueMemoryBytes") : DEFAULT_QUEUE_MEMORY_BYTES;
+      this.pipelineSource = new SpillingDocumentQueue(capacity, maxMemoryBytes, spillDirectory);
+      this.pipelineDest = new SpillingDocumentQueue(capacity, maxMemoryBytes, spillDirectory);
+      log.info("Document queues will spill to {} beyond {} bytes in memory.", spillDirectory, maxMemoryBytes);
+    } else {
+      this.pipelineSource = new LinkedBlockingQueue<>(capacity);
+      this.pipelineDest = new LinkedBlockingQueue<>(capacity);
+    }
   }
 
   private String runId = null;
@@ -114,8 +131,21 @@ public class LocalMessenger implements IndexerMessenger, PublisherMessenger, Wor
     }
   }
 
+  /**
+   * Closes any document queues that spill to disk. The LocalMessenger is shared, and each component closes it once it
+   * is done, so closing never drops documents: a queue's files are deleted once every spilled document has been read
+   * by the components still running.
+   */
   @Override
   public void close() {
+    closeQueue(pipelineSource);
+    closeQueue(pipelineDest);
+  }
+
+  private static void closeQueue(BlockingQueue<Document> queue) {
+    if (queue instanceof SpillingDocumentQueue) {
+      ((SpillingDocumentQueue) queue).close();
+    }
   }
 
   @Override
@@ -0,0 +1,498 @@
+package com.kmwllc.lucille.message;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.JsonDocument;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded FIFO queue of Documents that keeps only a limited number of bytes of Documents on the heap and spills the
+ * rest to memory-mapped segment files on disk. LocalMessenger uses it when a spill directory is configured, so that a
+ * large queue capacity can absorb bursts from a fast Connector without the buffered Documents filling the heap.
+ * <p>
+ * Documents are held in memory until their total size, as estimated by {@link Document#getByteSize()}, would exceed
+ * the configured limit. Later Documents are encoded as CBOR and appended to a segment file. Once any Document has been
+ * spilled, new Documents are also spilled until the segment files have been drained, so Documents are always returned
+ * in the order they were added. Each segment file is deleted as soon as all of its Documents have been read.
+ * <p>
+ * Each spilled record starts with the kind of Document it holds. Only JsonDocuments are encoded to disk, since they
+ * can be decoded exactly as they were. Any other kind of Document, such as a HashMapDocument, stays on the heap even
+ * once spilling has started, and a record marking its place is spilled instead, so it is still returned in order and
+ * as the same object. Such Documents don't count towards the memory limit. The queue holds at most
+ * <code>capacity</code> Documents in total, in memory and on disk; <code>put</code> blocks while it is full.
+ * <p>
+ * {@link #close()} never drops Documents. It deletes the queue's directory at once if nothing is spilled, and otherwise
+ * as soon as the last spilled Document has been read, so a queue shared by several components can be closed by the
+ * first of them while the others are still draining it. Once the directory has been deleted, any Documents added are
+ * held in memory. A directory left behind because its Documents were never read is deleted when the JVM exits.
+ */
+class SpillingDocumentQueue extends AbstractQueue<Document> implements BlockingQueue<Document>, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(SpillingDocumentQueue.class);
+
+  static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper(new CBORFactory());
+
+  // the first byte of each spilled record: a JsonDocument encoded as CBOR, or the place of a Document kept in memory
+  private static final byte JSON_RECORD = 0;
+  private static final byte HELD_RECORD = 1;
+
+  private final int capacity;
+  private final long maxMemoryBytes;
+  private final Path directory;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+
+  private final Deque<HeldDocument> memory = new ArrayDeque<>();
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  // Documents that couldn't be encoded, in the order of their HELD_RECORDs
+  private final Deque<Document> unspillable = new ArrayDeque<>();
+  private long memoryBytes = 0;
+  private int spilledCount = 0;
+  private int count = 0;
+  private int nextSegment = 0;
+  private boolean closed = false;
+  private boolean directoryDeleted = false;
+
+  /**
+   * @param capacity the maximum number of Documents the queue holds, in memory and on disk
+   * @param maxMemoryBytes the maximum estimated size of the Documents held in memory before new Documents are spilled
+   * @param spillDirectory the directory in which a temporary directory for this queue's segment files is created
+   */
+  SpillingDocumentQueue(int capacity, long maxMemoryBytes, Path spillDirectory) throws IOException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("publisher.queueCapacity must be at least 1.");
+    }
+    if (maxMemoryBytes < 0) {
+      throw new IllegalArgumentException("publisher.queueMemoryBytes must not be negative.");
+    }
+
+    this.capacity = capacity;
+    this.maxMemoryBytes = maxMemoryBytes;
+
+    Files.createDirectories(spillDirectory);
+    this.directory = Files.createTempDirectory(spillDirectory, "lucille-queue-");
+    // registered before any segment, so it is deleted after them if they are still present when the JVM exits
+    this.directory.toFile().deleteOnExit();
+  }
+
+  Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Returns the number of Documents currently stored on disk rather than in memory.
+   */
+  int getSpilledCount() {
+    lock.lock();
+    try {
+      return spilledCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(Document document) {
+    checkNotNull(document);
+    lock.lock();
+    try {
+      if (count >= capacity) {
+        return false;
+      }
+      enqueue(document);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(Document document, long timeout, TimeUnit unit) throws InterruptedException {
+    checkNotNull(document);
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (count >= capacity) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(document);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(Document document) throws InterruptedException {
+    checkNotNull(document);
+    lock.lockInterruptibly();
+    try {
+      while (count >= capacity) {
+        notFull.await();
+      }
+      enqueue(document);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document poll() {
+    lock.lock();
+    try {
+      return count == 0 ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        notEmpty.await();
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document peek() {
+    lock.lock();
+    try {
+      if (!memory.isEmpty()) {
+        return memory.peekFirst().document;
+      }
+      return spilledCount == 0 ? null : decode(segments.peekFirst().read(false), false);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    lock.lock();
+    try {
+      return capacity - count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super Document> collection) {
+    return drainTo(collection, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Document> collection, int maxElements) {
+    if (collection == this) {
+      throw new IllegalArgumentException("Cannot drain a queue into itself.");
+    }
+    lock.lock();
+    try {
+      int drained = 0;
+      while (count > 0 && drained < maxElements) {
+        collection.add(dequeue());
+        drained++;
+      }
+      return drained;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns an iterator over a snapshot of the queue's Documents, in order. Spilled Documents are decoded from disk
+   * without being removed, and the iterator does not support removal.
+   */
+  @Override
+  public Iterator<Document> iterator() {
+    lock.lock();
+    try {
+      List<Document> snapshot = new ArrayList<>(count);
+      for (HeldDocument held : memory) {
+        snapshot.add(held.document);
+      }
+      Iterator<Document> unspilled = unspillable.iterator();
+      for (Segment segment : segments) {
+        for (byte[] record : segment.unread()) {
+          snapshot.add(record[0] == HELD_RECORD ? unspilled.next() : decodeJson(record));
+        }
+      }
+      return Collections.unmodifiableList(snapshot).iterator();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void enqueue(Document document) {
+    long bytes = document.getByteSize();
+    if (directoryDeleted || (spilledCount == 0 && (memory.isEmpty() || memoryBytes + bytes <= maxMemoryBytes))) {
+      memory.addLast(new HeldDocument(document, bytes));
+      memoryBytes += bytes;
+    } else if (document.getClass() == JsonDocument.class) {
+      spill(encode(document));
+    } else {
+      unspillable.addLast(document);
+      spill(new byte[] {HELD_RECORD});
+    }
+    count++;
+    notEmpty.signal();
+  }
+
+  private Document dequeue() {
+    Document document;
+    // Documents in memory are always older than spilled ones: spilling only starts once memory is full, and nothing
+    // is added to memory again until every spilled Document has been read.
+    if (!memory.isEmpty()) {
+      HeldDocument held = memory.removeFirst();
+      memoryBytes -= held.bytes;
+      document = held.document;
+    } else {
+      Segment head = segments.peekFirst();
+      document = decode(head.read(true), true);
+      spilledCount--;
+      if (head.isDrained()) {
+        segments.removeFirst();
+        head.delete();
+        if (closed && segments.isEmpty()) {
+          deleteDirectory();
+        }
+      }
+    }
+    count--;
+    notFull.signal();
+    return document;
+  }
+
+  private void spill(byte[] record) {
+    Segment tail = segments.peekLast();
+    if (tail == null || !tail.fits(record)) {
+      tail = newSegment(Math.max(SEGMENT_BYTES, Integer.BYTES + record.length));
+      segments.addLast(tail);
+    }
+    tail.write(record);
+    spilledCount++;
+  }
+
+  private Segment newSegment(int size) {
+    Path path = directory.resolve("segment-" + nextSegment++);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      // the mapping stays valid after the channel is closed
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      path.toFile().deleteOnExit();
+      return new Segment(path, buffer);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't create queue segment " + path, e);
+    }
+  }
+
+  /**
+   * Deletes the queue's directory once no Documents are spilled: immediately if none are, otherwise when the last
+   * spilled Document is read. No Documents are dropped. The queue can still be used, and holds every Document in
+   * memory once the directory has been deleted.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+
+      if (segments.isEmpty()) {
+        deleteDirectory();
+      } else {
+        log.debug("Queue directory {} will be deleted once its {} spilled documents have been read.", directory,
+            spilledCount);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void deleteDirectory() {
+    directoryDeleted = true;
+    try {
+      Files.deleteIfExists(directory);
+    } catch (IOException e) {
+      log.warn("Couldn't delete queue directory {}.", directory, e);
+    }
+  }
+
+  private static byte[] encode(Document document) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.write(JSON_RECORD);
+      MAPPER.writeValue(out, document);
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't encode document " + document.getId() + " for spilling to disk", e);
+    }
+  }
+
+  /**
+   * Returns the Document held by the given record, which must be the first spilled record, removing it from the
+   * Documents held in memory if <code>remove</code> is true.
+   */
+  private Document decode(byte[] record, boolean remove) {
+    if (record[0] == HELD_RECORD) {
+      return remove ? unspillable.removeFirst() : unspillable.peekFirst();
+    }
+    return decodeJson(record);
+  }
+
+  private static Document decodeJson(byte[] record) {
+    try {
+      return Document.create((ObjectNode) MAPPER.readTree(record, 1, record.length - 1));
+    } catch (Exception e) {
+      throw new IllegalStateException("Couldn't decode a spilled document", e);
+    }
+  }
+
+  private static void checkNotNull(Document document) {
+    if (document == null) {
+      throw new NullPointerException();
+    }
+  }
+
+  private static class HeldDocument {
+
+    private final Document document;
+    private final long bytes;
+
+    private HeldDocument(Document document, long bytes) {
+      this.document = document;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * A memory-mapped file holding length-prefixed records, written at the end and read from the front.
+   */
+  private static class Segment {
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private int writePosition = 0;
+    private int readPosition = 0;
+
+    private Segment(Path path, ByteBuffer buffer) {
+      this.path = path;
+      this.buffer = buffer;
+    }
+
+    private boolean fits(byte[] record) {
+      return buffer.capacity() - writePosition >= Integer.BYTES + record.length;
+    }
+
+    private void write(byte[] record) {
+      ByteBuffer view = buffer.duplicate();
+      view.position(writePosition);
+      view.putInt(record.length);
+      view.put(record);
+      writePosition = view.position();
+    }
+
+    private byte[] read(boolean advance) {
+      ByteBuffer view = buffer.duplicate();
+      view.position(readPosition);
+      byte[] record = new byte[view.getInt()];
+      view.get(record);
+      if (advance) {
+        readPosition = view.position();
+      }
+      return record;
+    }
+
+    private List<byte[]> unread() {
+      List<byte[]> records = new ArrayList<>();
+      ByteBuffer view = buffer.duplicate();
+      view.position(readPosition);
+      while (view.position() < writePosition) {
+        byte[] record = new byte[view.getInt()];
+        view.get(record);
+        records.add(record);
+      }
+      return records;
+    }
+
+    private boolean isDrained() {
+      return readPosition == writePosition;
+    }
+
+    private void delete() {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        // some platforms won't delete a file while it is mapped; it is deleted on exit instead
+        log.warn("Couldn't delete queue segment {}.", path, e);
+      }
+    }
+  }
+}
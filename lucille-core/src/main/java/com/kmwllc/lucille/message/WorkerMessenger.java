@@ -2,6 +2,7 @@ package com.kmwllc.lucille.message;
 
 import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.Event;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 
 /**
  * API that a Worker uses to exchange messages with other components.
@@ -53,6 +54,14 @@ public interface WorkerMessenger {
    */
   void sendEvent(Event event) throws Exception;
 
+  /**
+   * Registers a listener to be told about the Kafka partitions assigned to and revoked from this WorkerMessenger's
+   * consumer when its consumer group rebalances. The listener is called from within pollDocToProcess(). Does nothing
+   * for WorkerMessengers that don't consume from Kafka.
+   */
+  default void addRebalanceListener(ConsumerRebalanceListener listener) {
+  }
+
   /**
    * Close any connections opened by this WorkerMessenger.
    */
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kmwllc.lucille.core.ConfigUtils;
 import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.FieldPath;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import com.kmwllc.lucille.core.spec.Spec;
@@ -71,6 +72,7 @@ public class AddRandomNestedField extends Stage {
   private static final ObjectMapper mapper = new ObjectMapper();
 
   private final String targetField;
+  private FieldPath targetPath;
   private final Map<List<String>, String> parsedEntries;
   private final Integer numObjects; // fixed N (optional)
   private final Integer minNumObjects; // range min (optional)
@@ -129,6 +131,8 @@ public class AddRandomNestedField extends Stage {
   // Start generator stages
   @Override
   public void start() throws StageException {
+    targetPath = FieldPath.compile(targetField);
+
     if (generatorsConfig != null) {
       // Iterate over each generator param
       for (String key : generatorsConfig.root().keySet()) {
@@ -258,9 +262,9 @@ public class AddRandomNestedField extends Stage {
       }
     }
 
-    if (doc.getNestedJson(targetField) == null) {
+    if (doc.getNestedJson(targetPath) == null) {
       // set new array node on doc
-      doc.setNestedJson(targetField, mapper.createArrayNode());
+      doc.setNestedJson(targetPath, mapper.createArrayNode());
     }
 
     return null;
@@ -20,6 +20,8 @@ import static com.dashjoin.jsonata.Jsonata.jsonata;
  * Applies a given Jsonata expression to extract information from a Document's field or to transform a Document entirely.
  * Applying a transformation to an entire document is an experimental feature and should be used with caution.
  * See <a href="https://github.com/dashjoin/jsonata-java">here</a> for Jsonata implementation.
+ * Objects are given to the expression with their keys in document order, so functions like $keys() list fields in
+ * the order they were added to the Document.
  * <p>
  * Config Parameters -
  * <ul>
@@ -4,11 +4,14 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.*;
 import com.kmwllc.lucille.connector.FileConnector;
 import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.FieldPath;
 import com.kmwllc.lucille.util.FileContentFetcher;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.stage.util.NestedValueRef;
+import com.kmwllc.lucille.stage.util.PolyglotScriptPool;
 import com.typesafe.config.Config;
 import org.graalvm.polyglot.*;
 import org.graalvm.polyglot.proxy.ProxyArray;
@@ -23,6 +26,10 @@ import java.util.*;
  * Document. Reading a missing field from doc yields null. Assigning null to a field stores a
  * JSON null. Using the JavaScript delete operator removes fields (including nested fields and array
  * indices). Exactly one of an inline script or a script file path must be provided.
+ * <p>
+ * Each instance runs its script in its own pool of contexts created from one JVM-wide JavaScript engine; see
+ * {@link PolyglotScriptPool}. The script is compiled once for all worker threads. Globals set by a script may persist
+ * from one document to the next, but are never visible to other instances of the stage.
  * <br>
  * Field and container behavior:
  * <ul>
@@ -57,9 +64,7 @@ public class ApplyJavascript extends Stage {
 
   private final String scriptPath;
   private final String inlineScript;
-  private Source source;
-  private Context context;
-  private Engine engine;
+  private PolyglotScriptPool pool;
 
   public ApplyJavascript(Config config) {
     super(config);
@@ -73,55 +78,44 @@ public class ApplyJavascript extends Stage {
       throw new StageException("Can only specify either script path or script.");
     }
 
+    Source source;
+
     if (inlineScript != null) {
       try {
-        this.source = Source.newBuilder("js", inlineScript, "<inline>").build();
+        source = Source.newBuilder("js", inlineScript, "<inline>").build();
       } catch (Exception e) {
         throw new StageException("Failed to build inline JavaScript source.", e);
       }
     } else {
       try (Reader reader = FileContentFetcher.getOneTimeReader(scriptPath, config)) {
-        this.source = Source.newBuilder("js", reader, scriptPath).build();
+        source = Source.newBuilder("js", reader, scriptPath).build();
       } catch (Exception e) {
         throw new StageException("Failed to read JavaScript from '" + scriptPath + "'.", e);
       }
     }
 
-    try {
-      this.engine = Engine.newBuilder()
-          .option("engine.WarnInterpreterOnly", "false")
-          .option("log.level", "OFF")
-          .build();
-
-      this.context = Context.newBuilder("js")
-          .engine(engine)
-          .allowAllAccess(true)
-          .build();
-    } catch (Exception e) {
-      throw new StageException("Failed to initialize JavaScript context.", e);
-    }
+    this.pool = PolyglotScriptPool.acquire("js", source);
   }
 
   @Override
   public void stop() throws StageException {
-    if (context != null) {
-      context.close();
-    }
-
-    if (engine != null) {
-      engine.close();
-    }
+    PolyglotScriptPool.release(pool);
+    pool = null;
   }
 
   @Override
   public Iterator<Document> processDocument(Document doc) throws StageException {
+    Context context = pool.borrow();
     try {
-      context.getBindings("js").putMember("doc", JsDocProxy.root(doc));
-      context.getBindings("js").putMember("rawDoc", doc);
-      context.eval(source);
+      Value bindings = context.getBindings("js");
+      bindings.putMember("doc", JsDocProxy.root(doc));
+      bindings.putMember("rawDoc", doc);
+      context.eval(pool.getSource());
       return null;
     } catch (Exception e) {
       throw new StageException("JavaScript failed for doc '" + doc.getId() + "' using '" + scriptPath + "'.", e);
+    } finally {
+      pool.giveBack(context);
     }
   }
 
@@ -131,33 +125,25 @@ public class ApplyJavascript extends Stage {
     private static final JsonNodeFactory JSON = JsonNodeFactory.instance;
 
     private final Document doc;
-    private final List<Document.Segment> segments; // null for root, otherwise "a.b"
+    // the root, or the nested value this proxy stands for. Reads walk down to the value without building a path.
+    private final NestedValueRef ref;
 
-    private JsDocProxy(Document doc, List<Document.Segment> segments) {
+    private JsDocProxy(Document doc, NestedValueRef ref) {
       this.doc = doc;
-      this.segments = segments;
+      this.ref = ref;
     }
 
     static JsDocProxy root(Document d) {
-      return new JsDocProxy(d, new ArrayList());
+      return new JsDocProxy(d, NestedValueRef.root(d));
     }
 
     private boolean isRoot() {
-      return segments.isEmpty();
+      return ref.isRoot();
     }
 
-    private List<Document.Segment> join(String key) {
-      if (isRoot()) {
-        return List.of(new Document.Segment(key));
-      }
-      List<Document.Segment> result = new ArrayList(segments);
-      // assume an all-digit key is an array index
-      if (key.chars().allMatch(c -> c >= '0' && c <= '9')) {
-        result.add(new Document.Segment(Integer.parseInt(key)));
-      } else {
-        result.add(new Document.Segment(key));
-      }
-      return result;
+    // the path of the given member, for writes; an all-digit key below the root is an array index
+    private FieldPath join(String key) {
+      return ref.member(key).getPath();
     }
 
     @Override
@@ -177,18 +163,18 @@ public class ApplyJavascript extends Stage {
       }
 
       if (json.isArray()) {
-        return jsonArrayToProxyArray(json, List.of(new Document.Segment(key)));
+        return jsonArrayToProxyArray(json, ref.child(key));
       }
 
       if (json.isContainerNode()) {
-        return new JsDocProxy(doc, List.of(new Document.Segment(key)));
+        return new JsDocProxy(doc, ref.child(key));
       }
 
       return jsonNodeToJsValue(json);
     }
 
     private Object getNestedMember(String key) {
-      JsonNode current = doc.getNestedJson(segments);
+      JsonNode current = ref.get();
       if (current == null || current.isNull()) {
         return null;
       }
@@ -200,7 +186,7 @@ public class ApplyJavascript extends Stage {
           return null;
         }
 
-        return child.isContainerNode() ? new JsDocProxy(doc, join(key)) : jsonNodeToJsValue(child);
+        return child.isContainerNode() ? new JsDocProxy(doc, ref.member(key)) : jsonNodeToJsValue(child);
       }
 
       if (current.isArray()) {
@@ -212,14 +198,14 @@ public class ApplyJavascript extends Stage {
 
         JsonNode child = current.get(idx);
 
-        return child.isContainerNode() ? new JsDocProxy(doc, join(key)) : jsonNodeToJsValue(child);
+        return child.isContainerNode() ? new JsDocProxy(doc, ref.member(key)) : jsonNodeToJsValue(child);
       }
       return null;
     }
 
     @Override
     public void putMember(String key, Value v) {
-      List<Document.Segment> full = join(key);
+      FieldPath full = isRoot() ? null : join(key);
 
       if (v == null || v.isNull()) {
         if (isRoot()) {
@@ -259,8 +245,6 @@ public class ApplyJavascript extends Stage {
 
     @Override
     public boolean removeMember(String key) {
-      List<Document.Segment> full = join(key);
-
       if (isRoot()) {
         if (!doc.has(key)) {
           return false;
@@ -276,6 +260,7 @@ public class ApplyJavascript extends Stage {
         return true;
       }
 
+      FieldPath full = join(key);
       if (doc.getNestedJson(full) == null) {
         return false;
       }
@@ -290,7 +275,7 @@ public class ApplyJavascript extends Stage {
         return doc.has(key);
       }
 
-      JsonNode current = doc.getNestedJson(segments);
+      JsonNode current = ref.get();
       if (current == null || current.isNull()) {
         return false;
       }
@@ -314,7 +299,7 @@ public class ApplyJavascript extends Stage {
         return ProxyArray.fromArray(names.toArray(new String[0]));
       }
 
-      JsonNode node = doc.getNestedJson(segments);
+      JsonNode node = ref.get();
       if (node == null || node.isNull()) {
         return ProxyArray.fromArray(new String[0]);
       }
@@ -366,16 +351,14 @@ public class ApplyJavascript extends Stage {
     }
 
     // Document -> JS: convert a JSON array to a ProxyArray and make containers nested proxies
-    private Object jsonArrayToProxyArray(JsonNode jsonArray, List<Document.Segment> baseKey) {
+    private Object jsonArrayToProxyArray(JsonNode jsonArray, NestedValueRef arrayRef) {
       int n = jsonArray.size();
       Object[] arr = new Object[n];
 
       for (int i = 0; i < n; i++) {
         JsonNode child = jsonArray.get(i);
         if (child.isContainerNode()) {
-          List<Document.Segment> extendedKey = new ArrayList(baseKey);
-          extendedKey.add(new Document.Segment(i));
-          arr[i] = new JsDocProxy(doc, extendedKey);
+          arr[i] = new JsDocProxy(doc, arrayRef.child(i));
         } else {
           arr[i] = jsonNodeToJsValue(child);
         }
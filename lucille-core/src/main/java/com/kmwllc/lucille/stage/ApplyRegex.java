@@ -4,6 +4,9 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.kmwllc.lucille.core.*;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.stage.util.MultiPatternMatcher;
+import com.kmwllc.lucille.stage.util.TimeLimitedCharSequence;
+import com.kmwllc.lucille.stage.util.TimeLimitedCharSequence.TimeLimitExceededException;
 import com.kmwllc.lucille.util.StageUtils;
 import com.typesafe.config.Config;
 
@@ -30,6 +33,11 @@ import java.util.regex.Pattern;
  *   <li>multiline (Boolean, Optional) : Determines whether the regex matcher should allow matches across multiple lines. Defaults to false.</li>
  *   <li>dotall (Boolean, Optional) : Turns on the DOTALL functionality for the regex matcher. Defaults to false.</li>
  *   <li>literal (Boolean, Optional) : Toggles treating the regex expression as a literal String. Defaults to false.</li>
+ *   <li>engine (String, Optional) : The regex engine to use, either 'java' or 'automaton'. 'automaton' matches with a deterministic
+ *   automaton that cannot backtrack and takes the longest match at each position. It supports only a subset of regex syntax (see
+ *   {@link MultiPatternMatcher}) and no capturing groups. Defaults to 'java'.</li>
+ *   <li>matchTimeout (Integer, Optional) : The maximum time in milliseconds to spend matching a single value. If it is exceeded, for
+ *   example because of catastrophic backtracking, the document fails with an error. Defaults to no limit.</li>
  * </ul>
  */
 public class ApplyRegex extends Stage {
@@ -38,7 +46,8 @@ public class ApplyRegex extends Stage {
       .requiredList("source", new TypeReference<List<String>>(){})
       .requiredList("dest", new TypeReference<List<String>>(){})
       .requiredString("regex")
-      .optionalString("updateMode")
+      .optionalString("updateMode", "engine")
+      .optionalNumber("matchTimeout")
       .optionalBoolean("ignoreCase", "multiline", "dotall", "literal").build();
 
   private final List<String> sourceFields;
@@ -50,10 +59,13 @@ public class ApplyRegex extends Stage {
   private final boolean multiline;
   private final boolean dotall;
   private final boolean literal;
+  private final boolean useAutomaton;
+  private final Integer matchTimeout;
 
   private Pattern pattern;
+  private MultiPatternMatcher automatonMatcher;
 
-  public ApplyRegex(Config config) {
+  public ApplyRegex(Config config) throws StageException {
     super(config);
 
     this.sourceFields = config.getStringList("source");
@@ -65,6 +77,13 @@ public class ApplyRegex extends Stage {
     this.multiline = ConfigUtils.getOrDefault(config, "multiline", false);
     this.dotall = ConfigUtils.getOrDefault(config, "dotall", false);
     this.literal = ConfigUtils.getOrDefault(config, "literal", false);
+
+    String engine = ConfigUtils.getOrDefault(config, "engine", "java");
+    if (!"java".equals(engine) && !"automaton".equals(engine)) {
+      throw new StageException("engine must be 'java' or 'automaton'.");
+    }
+    this.useAutomaton = "automaton".equals(engine);
+    this.matchTimeout = config.hasPath("matchTimeout") ? config.getInt("matchTimeout") : null;
   }
 
   @Override
@@ -107,6 +126,17 @@ public class ApplyRegex extends Stage {
         break;
     }
 
+    if (useAutomaton) {
+      if (pattern.matcher("").groupCount() > 0) {
+        throw new StageException("The automaton engine does not support capturing groups; use (?:...) for grouping.");
+      }
+      try {
+        automatonMatcher = MultiPatternMatcher.compile(List.of(regexExpr), ignoreCase, dotall, literal);
+      } catch (IllegalArgumentException e) {
+        throw new StageException("Could not compile regex for the automaton engine.", e);
+      }
+    }
+
     StageUtils.validateFieldNumNotZero(sourceFields, "Apply Regex");
     StageUtils.validateFieldNumNotZero(destFields, "Apply Regex");
     StageUtils.validateFieldNumsSeveralToOne(sourceFields, destFields, "Apply Regex");
@@ -124,12 +154,22 @@ public class ApplyRegex extends Stage {
 
       List<String> outputValues = new ArrayList<>();
       for (String value : doc.getStringList(sourceField)) {
-        Matcher matcher = pattern.matcher(value);
-        int group = matcher.groupCount() > 0 ? 1 : 0;
-
-        // If we find regex matches in the text, add them to the output field
-        while (matcher.find()) {
-          outputValues.add(matcher.group(group));
+        CharSequence chars = matchTimeout == null ? value : TimeLimitedCharSequence.withTimeout(value, matchTimeout);
+        try {
+          if (automatonMatcher != null) {
+            outputValues.addAll(automatonMatcher.findAll(chars));
+            continue;
+          }
+
+          Matcher matcher = pattern.matcher(chars);
+          int group = matcher.groupCount() > 0 ? 1 : 0;
+
+          // If we find regex matches in the text, add them to the output field
+          while (matcher.find()) {
+            outputValues.add(matcher.group(group));
+          }
+        } catch (TimeLimitExceededException e) {
+          throw new StageException("Matching regex against a value of " + sourceField + " took longer than " + matchTimeout + " ms.");
         }
       }
 
@@ -3,18 +3,25 @@ package com.kmwllc.lucille.stage;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
 import com.kmwllc.lucille.stage.util.ChunkingMethod;
+import com.kmwllc.lucille.stage.util.TextChunk;
 import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
 import com.typesafe.config.Config;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import opennlp.tools.sentdetect.SentenceDetector;
 import opennlp.tools.sentdetect.SentenceDetectorME;
 import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.util.Span;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +34,9 @@ import org.slf4j.LoggerFactory;
  * the current document.
  * Order of processing chunks: chunking method -> cleaning -> pre-merge processing -> merge -> overlap -> character limiting
  * <p>
+ * Chunks are tracked as character ranges of the source text through every step, and the text of each chunk is only built
+ * once, when its child document is created.
+ * <p>
  * Config Parameters -
  * <ul>
  *   <li>source (String) : field of which Chunking Stage will chunk the text.</li>
@@ -38,10 +48,15 @@ import org.slf4j.LoggerFactory;
  *       e.g. \n\n \n \n.</li>
  *       <li>sentence chunking ("sentence") : use openNLP sentence model for splitting.</li>
  *       <li>custom chunking ("custom") : regex option in config required, used to split content.</li>
+ *       <li>token chunking ("token") : split between words into chunks of at most tokensPerChunk tokens, as counted by the
+ *       tokenizer of an embedding model. A single word longer than tokensPerChunk becomes a chunk of its own.</li>
  *     </ol>
  *   </li>
  *   <li>regex (String, only for custom chunking) : regEx that will be used to split chunks.</li>
  *   <li>lengthToSplit (Integer, only for fixed chunking) : length of characters of each initial chunk before processing.</li>
+ *   <li>tokensPerChunk (Integer, only for token chunking) : maximum number of tokens in each initial chunk before processing.</li>
+ *   <li>encoding (String, optional, only for token chunking) : the tokenizer encoding used to count tokens, one of "cl100k_base",
+ *   "o200k_base", "p50k_base", "p50k_edit" or "r50k_base". Defaults to "cl100k_base", the encoding of OpenAI's embedding models.</li>
  *   <li>preMergeMinChunkLen (Integer, optional) : removes and append chunk to the neighboring chunk if below given number of characters,
  *   defaults appending to next chunk.</li>
  *   <li>preMergeMaxChunkLen (Integer, optional) : truncates the chunks if over given amount, applies before merging and overlapping.</li>
@@ -77,6 +92,13 @@ import org.slf4j.LoggerFactory;
  *    drop_parent : true # drop parent document if you do not want it to be indexed
  *  }
  *
+ *  e.g. of token chunking configuration for an embedding model with a 512 token input limit
+ *  {
+ *   source: "text"
+ *   chunkingMethod: "token"
+ *   tokensPerChunk: 512
+ *  }
+ *
  *  e.g. of sentence chunking configuration with 5 sentences per chunk and 1 sentence of overlap, with a limit of 2000 characters
  *  {
  *   source: "text"
@@ -92,9 +114,9 @@ public class ChunkText extends Stage {
 
   public static final Spec SPEC = SpecBuilder.stage()
       .requiredString("source")
-      .optionalString("dest", "chunkingMethod", "regex")
+      .optionalString("dest", "chunkingMethod", "regex", "encoding")
       .optionalNumber("chunksToMerge", "characterLimit", "overlapPercentage", "lengthToSplit",
-          "preMergeMinChunkLen", "preMergeMaxChunkLen", "chunksToOverlap")
+          "preMergeMinChunkLen", "preMergeMaxChunkLen", "chunksToOverlap", "tokensPerChunk")
       .optionalBoolean("cleanChunks").build();
 
   private final String source;
@@ -109,7 +131,16 @@ public class ChunkText extends Stage {
   private final Integer chunksToOverlap;
   private final Integer overlapPercentage;
   private final Integer characterLimit;
+  private final Integer tokensPerChunk;
+  private final EncodingType encodingType;
   private SentenceDetector sentenceDetector;
+  private Encoding encoding;
+
+  // regEx from LangChain4J paragraph splitter
+  private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\s*(?>\\R)\\s*(?>\\R)\\s*");
+  private static final Pattern LINE_BREAK = Pattern.compile("\\s*(?>\\R)\\s*");
+
+  private final Pattern customPattern;
   private static final Logger log = LoggerFactory.getLogger(ChunkText.class);
 
   public ChunkText(Config config) throws StageException {
@@ -129,6 +160,11 @@ public class ChunkText extends Stage {
     this.chunksToOverlap = config.hasPath("chunksToOverlap") ? config.getInt("chunksToOverlap") : null;
     this.overlapPercentage = config.hasPath("overlapPercentage") ? config.getInt("overlapPercentage") : 0;
     this.characterLimit = config.hasPath("characterLimit") ? config.getInt("characterLimit") : -1;
+    this.tokensPerChunk = config.hasPath("tokensPerChunk") && config.getInt("tokensPerChunk") > 0
+        ? config.getInt("tokensPerChunk") : null;
+    String encodingName = config.hasPath("encoding") ? config.getString("encoding") : EncodingType.CL100K_BASE.getName();
+    this.encodingType = EncodingType.fromName(encodingName)
+        .orElseThrow(() -> new StageException("Unknown token encoding: " + encodingName));
     if (chunksToMerge < 1) {
       throw new StageException("Chunks to merge configuration must be greater than 1 if merging chunks is desired or equal to 1 if undesired.");
     }
@@ -141,12 +177,16 @@ public class ChunkText extends Stage {
     if (method == ChunkingMethod.FIXED && lengthToSplit == null) {
       throw new StageException("Provide a positive length to split for fixed sized chunking.");
     }
+    if (method == ChunkingMethod.TOKEN && tokensPerChunk == null) {
+      throw new StageException("Provide a positive number of tokens per chunk for token chunking.");
+    }
     if (chunksToOverlap != null && overlapPercentage > 0) {
       throw new StageException("Both chunksToOverlap and overlapPercentage cannot be used. Choose one overlap option.");
     }
     if (chunksToOverlap != null && chunksToOverlap >= chunksToMerge) {
       throw new StageException("Chunks to overlap must be smaller than the chunks to merge.");
     }
+    this.customPattern = method == ChunkingMethod.CUSTOM ? Pattern.compile(regEx) : null;
   }
 
   @Override
@@ -163,6 +203,10 @@ public class ChunkText extends Stage {
         throw new StageException("Could not load sentence model.", e);
       }
     }
+
+    if (method == ChunkingMethod.TOKEN) {
+      encoding = Encodings.newLazyEncodingRegistry().getEncoding(encodingType);
+    }
   }
 
   @Override
@@ -177,26 +221,31 @@ public class ChunkText extends Stage {
     String content = doc.getString(source);
 
     // splitting up content based on chunking method
-    String[] chunks;
+    List<TextChunk> chunks;
     switch (method) {
       case CUSTOM:
-        chunks = content.split(regEx);
+        chunks = split(content, customPattern);
         break;
       case PARAGRAPH:
         // split any consecutive line break sequence (\n, \r, \r\n) optionally within one unit of whitespace
-        // regEx from LangChain4J paragraph splitter
-        chunks = content.split("\\s*(?>\\R)\\s*(?>\\R)\\s*");
+        chunks = split(content, PARAGRAPH_BREAK);
         break;
       case FIXED:
         chunks = splitBySize(content, lengthToSplit);
         break;
+      case TOKEN:
+        chunks = splitByTokens(content, tokensPerChunk);
+        break;
       default: // SENTENCE
-        chunks = sentenceDetector.sentDetect(content);
+        chunks = new ArrayList<>();
+        for (Span span : sentenceDetector.sentPosDetect(content)) {
+          chunks.add(TextChunk.of(content, span.getStart(), span.getEnd()));
+        }
         break;
     }
 
     // removing newline characters and trim if clean chunks was selected
-    if (cleanChunks) cleanChunks(chunks);
+    if (cleanChunks) chunks = cleanChunks(content, chunks);
 
     // append chunk to the next available chunk if below a certain number of characters, else append to chunk before.
     if (preMergeMinChunkLen > 0) chunks = filterByAppend(chunks, preMergeMinChunkLen);
@@ -224,40 +273,33 @@ public class ChunkText extends Stage {
     return null;
   }
 
-  private String[] mergeAndOverlapChunks(String[] chunks, Integer chunksToMerge, Integer chunksToOverlap) {
+  private List<TextChunk> mergeAndOverlapChunks(List<TextChunk> chunks, Integer chunksToMerge, Integer chunksToOverlap) {
     if (isInvalidInput(chunks)) {
       return chunks;
     }
 
-    int chunkLength = chunks.length;
-    int stepSize = chunksToMerge - chunksToOverlap;;
+    int chunkLength = chunks.size();
+    int stepSize = chunksToMerge - chunksToOverlap;
     int endIndex = chunkLength - chunksToOverlap;
-    int resultSize = (endIndex - 1) / stepSize + 1;
-    String[] resultChunks = new String[resultSize];
-    StringBuilder sb = new StringBuilder();
+    List<TextChunk> resultChunks = new ArrayList<>();
 
     // go through each window and merge them
-    for (int i = 0, resultIndex = 0; i < endIndex; i += stepSize, resultIndex++) {
-      sb.setLength(0);
-      for (int j = i; j < Math.min(i + chunksToMerge, chunkLength); j++) {
-        sb.append(chunks[j]).append(" ");
-      }
-      log.debug("{} {} {}", i, resultIndex, sb.toString());
-      resultChunks[resultIndex] = sb.toString().trim();
+    for (int i = 0; i < endIndex; i += stepSize) {
+      resultChunks.add(TextChunk.join(chunks.subList(i, Math.min(i + chunksToMerge, chunkLength))).trim());
     }
     return resultChunks;
   }
 
   // true if no reason to process chunk
-  private boolean isInvalidInput(String[] chunks) {
-    return chunks.length <= 1;
+  private boolean isInvalidInput(List<TextChunk> chunks) {
+    return chunks.size() <= 1;
   }
 
-  private void truncateRest(String[] chunks, int characterLimit) {
-    for (int i = 0; i < chunks.length; i++) {
-      String s = chunks[i];
-      if (s.length() > characterLimit) {
-        chunks[i] = s.substring(0, characterLimit).trim();
+  private void truncateRest(List<TextChunk> chunks, int characterLimit) {
+    for (int i = 0; i < chunks.size(); i++) {
+      TextChunk chunk = chunks.get(i);
+      if (chunk.length() > characterLimit) {
+        chunks.set(i, chunk.truncate(characterLimit).trim());
       }
     }
   }
@@ -266,134 +308,207 @@ public class ChunkText extends Stage {
    * Splits the given String input into chunks, using the given chunkSize.
    * @param input The String you want to chunk up.
    * @param chunkSize The desired size of your chunks.
-   * @return The chunked String as an array of individual Strings.
+   * @return The chunks, as ranges of the input.
    */
-  public String[] splitBySize(String input, int chunkSize) {
+  public List<TextChunk> splitBySize(String input, int chunkSize) {
     int inputLength = input.length();
-    int numOfChunks = (inputLength + chunkSize - 1) / chunkSize;
-    String[] chunks = new String[numOfChunks];
-
-    int start = 0;
-    for (int i = 0; i < numOfChunks; i++) {
-      int end = Math.min(start + chunkSize, inputLength);
-      chunks[i] = input.substring(start, end);
-      start = end;
+    List<TextChunk> chunks = new ArrayList<>((inputLength + chunkSize - 1) / chunkSize);
+
+    for (int start = 0; start < inputLength; start += chunkSize) {
+      chunks.add(TextChunk.of(input, start, Math.min(start + chunkSize, inputLength)));
     }
 
     return chunks;
   }
 
-  // replacing all new line characters with white spaces and trim at the end
-  private void cleanChunks(String[] chunks) {
-    for (int i = 0; i < chunks.length; i++) {
-      chunks[i] = chunks[i].replaceAll("\\s*(?>\\R)\\s*", " ").trim();
+  /**
+   * Splits the given input around matches of the given pattern, following the rules of String.split(regex): a zero-width
+   * match at the start of the input never produces a leading empty chunk, and trailing empty chunks are removed.
+   */
+  private static List<TextChunk> split(String input, Pattern pattern) {
+    List<TextChunk> chunks = new ArrayList<>();
+    Matcher matcher = pattern.matcher(input);
+    int index = 0;
+
+    while (matcher.find()) {
+      if (index == 0 && matcher.start() == 0 && matcher.end() == 0) {
+        continue;
+      }
+      chunks.add(TextChunk.of(input, index, matcher.start()));
+      index = matcher.end();
     }
+
+    if (index == 0) {
+      return new ArrayList<>(List.of(TextChunk.of(input, 0, input.length())));
+    }
+
+    chunks.add(TextChunk.of(input, index, input.length()));
+    while (!chunks.isEmpty() && chunks.get(chunks.size() - 1).length() == 0) {
+      chunks.remove(chunks.size() - 1);
+    }
+    return chunks;
   }
 
-  private String[] filterByAppend(String[] chunks, Integer minimumChunkLength) {
+  /**
+   * Splits the given input between words into chunks of at most maxTokens tokens. Tokens are counted a word at a time,
+   * together with the whitespace before the word, which matches how the tokenizer itself divides text before encoding it.
+   */
+  private List<TextChunk> splitByTokens(String input, int maxTokens) {
+    List<TextChunk> chunks = new ArrayList<>();
+    int length = input.length();
+    int chunkStart = -1;
+    int chunkEnd = -1;
+    int chunkTokens = 0;
+    int pos = 0;
+
+    while (pos < length) {
+      int wordStart = pos;
+      while (wordStart < length && Character.isWhitespace(input.charAt(wordStart))) {
+        wordStart++;
+      }
+      if (wordStart == length) {
+        break;
+      }
+
+      int wordEnd = wordStart;
+      while (wordEnd < length && !Character.isWhitespace(input.charAt(wordEnd))) {
+        wordEnd++;
+      }
+
+      int tokens = encoding.countTokensOrdinary(input.substring(chunkStart < 0 ? wordStart : pos, wordEnd));
+      if (chunkStart >= 0 && chunkTokens + tokens > maxTokens) {
+        chunks.add(TextChunk.of(input, chunkStart, chunkEnd));
+        chunkStart = -1;
+        tokens = encoding.countTokensOrdinary(input.substring(wordStart, wordEnd));
+      }
+
+      if (chunkStart < 0) {
+        chunkStart = wordStart;
+        chunkTokens = 0;
+      }
+      chunkTokens += tokens;
+      chunkEnd = wordEnd;
+      pos = wordEnd;
+    }
+
+    if (chunkStart >= 0) {
+      chunks.add(TextChunk.of(input, chunkStart, chunkEnd));
+    }
+    return chunks;
+  }
+
+  // replacing all new line characters with white spaces and trim at the end. the cleaned chunks are written one after
+  // another into a single buffer, which becomes the source text for the remaining steps.
+  private List<TextChunk> cleanChunks(String content, List<TextChunk> chunks) {
+    StringBuilder cleaned = new StringBuilder(content.length());
+    Matcher matcher = LINE_BREAK.matcher(content);
+
+    List<TextChunk> result = new ArrayList<>(chunks.size());
+    for (TextChunk chunk : chunks) {
+      result.add(chunk.replaceInto(cleaned, matcher, " ").trim());
+    }
+    return result;
+  }
+
+  private List<TextChunk> filterByAppend(List<TextChunk> chunks, Integer minimumChunkLength) {
     if (isInvalidInput(chunks)) {
       return chunks;
     }
-    int originalChunksLength = chunks.length;
+    int originalChunksLength = chunks.size();
 
-    List<String> finalChunks = new ArrayList<>();
-    StringBuilder currentChunk = new StringBuilder();
+    List<TextChunk> finalChunks = new ArrayList<>();
+    int currentStart = 0;
+    // length of the current chunk, counting a trailing space after each appended chunk
+    int currentLength = 0;
 
     for (int i = 0; i < originalChunksLength; i++) {
-      currentChunk.append(chunks[i]).append(" ");
+      currentLength += chunks.get(i).length() + 1;
 
       // if current chunk is smaller and is not the last chunk
-      if (currentChunk.length() < minimumChunkLength && i + 1 < originalChunksLength) {
+      if (currentLength < minimumChunkLength && i + 1 < originalChunksLength) {
         continue;
       }
 
+      TextChunk currentChunk = TextChunk.join(chunks.subList(currentStart, i + 1));
+
       // currentChunk not large enough but no next available chunk
-      if (currentChunk.length() < minimumChunkLength && i + 1 == originalChunksLength) {
+      if (currentLength < minimumChunkLength && i + 1 == originalChunksLength) {
         // append current chunk to last added chunk
         if (!finalChunks.isEmpty()) {
-          String chunkToAppend = finalChunks.remove(finalChunks.size() - 1);
-          currentChunk = new StringBuilder(chunkToAppend).append(" ").append(currentChunk);
+          TextChunk chunkToAppend = finalChunks.remove(finalChunks.size() - 1);
+          currentChunk = TextChunk.join(chunkToAppend, currentChunk);
         } else {
           log.warn("all chunks added together will not reach pre merge minimum chunk length. Merging all chunks into one...");
         }
       }
 
       // add currentChunk to finalChunk and reset currentChunk
-      finalChunks.add(currentChunk.toString().trim());
-      currentChunk.setLength(0);
+      finalChunks.add(currentChunk.trim());
+      currentStart = i + 1;
+      currentLength = 0;
     }
 
-    return finalChunks.toArray(new String[0]);
+    return finalChunks;
   }
 
-  private String[] mergeChunks(String[] chunks, int chunkSize) {
+  private List<TextChunk> mergeChunks(List<TextChunk> chunks, int chunkSize) {
     if (isInvalidInput(chunks)) {
       return chunks;
     }
 
-    int length = chunks.length;
-    int resultSize = (length + chunkSize - 1) / chunkSize;
-    String[] result = new String[resultSize];
-    StringBuilder sb = new StringBuilder();
-
-    for (int i = 0, chunkIndex = 0; i < resultSize; i++) {
-      sb.setLength(0);
-      int endIndex = Math.min(chunkIndex + chunkSize, length);
-      sb.append(chunks[chunkIndex]);
+    int length = chunks.size();
+    List<TextChunk> result = new ArrayList<>((length + chunkSize - 1) / chunkSize);
 
-      for (int j = chunkIndex + 1; j < endIndex; j++) {
-        sb.append(' ').append(chunks[j]);
-      }
-
-      result[i] = sb.toString().trim();
-      chunkIndex = endIndex;
+    for (int chunkIndex = 0; chunkIndex < length; chunkIndex += chunkSize) {
+      result.add(TextChunk.join(chunks.subList(chunkIndex, Math.min(chunkIndex + chunkSize, length))).trim());
     }
 
     return result;
   }
 
-  private String[] overlapChunks(String[] chunks, Integer overlapPercentage) {
+  private List<TextChunk> overlapChunks(List<TextChunk> chunks, Integer overlapPercentage) {
     if (isInvalidInput(chunks)) {
       return chunks;
     }
 
-    String[] result = new String[chunks.length];
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < chunks.length; i++) {
-      // reset sb
-      sb.setLength(0);
-      sb.append(chunks[i]);
+    List<TextChunk> result = new ArrayList<>(chunks.size());
+    List<TextChunk> parts = new ArrayList<>(3);
+    for (int i = 0; i < chunks.size(); i++) {
+      parts.clear();
+      TextChunk chunk = chunks.get(i);
 
       // calculate the number of characters to overlap
-      int overlapChars = chunks[i].length() * overlapPercentage / 100;
+      int overlapChars = chunk.length() * overlapPercentage / 100;
 
       // Add overlap from the previous chunk
       if (i > 0) {
-        String prevChunk = chunks[i - 1];
+        TextChunk prevChunk = chunks.get(i - 1);
         int startIndex = Math.max(0, prevChunk.length() - overlapChars); // if the overlap would be longer than prev chunk
-        sb.insert(0, prevChunk.substring(startIndex) + " ");
+        parts.add(prevChunk.slice(startIndex, prevChunk.length()));
       }
 
+      parts.add(chunk);
+
       // Add overlap from the next chunk
-      if (i < chunks.length - 1) {
-        String nextChunk = chunks[i + 1];
+      if (i < chunks.size() - 1) {
+        TextChunk nextChunk = chunks.get(i + 1);
         int endIndex = Math.min(overlapChars, nextChunk.length()); // if the overlap would be longer than next chunk
-        sb.append(" ").append(nextChunk, 0, endIndex);
+        parts.add(nextChunk.slice(0, endIndex));
       }
 
-      result[i] = sb.toString().trim();
+      result.add(TextChunk.join(parts).trim());
     }
 
     return result;
   }
 
-  private void createChildrenDocsWithChunks(Document doc, String[] chunks) {
-    if (chunks.length == 0) {
+  private void createChildrenDocsWithChunks(Document doc, List<TextChunk> chunks) {
+    if (chunks.isEmpty()) {
       return;
     }
 
     String parentId = doc.getString(Document.ID_FIELD);
-    int totalChunks = chunks.length;
+    int totalChunks = chunks.size();
     int offset = 0;
 
     for (int i = 0; i < totalChunks; i++) {
@@ -405,7 +520,8 @@ public class ChunkText extends Stage {
       childDoc.setField("chunk_number", i + 1);
       childDoc.setField("total_chunks", totalChunks);
 
-      String chunk = chunks[i];
+      // the chunk's text is built here, once, from its ranges of the source text
+      String chunk = chunks.get(i).toString();
       int length = chunk.length();
 
       childDoc.setField("offset", offset);
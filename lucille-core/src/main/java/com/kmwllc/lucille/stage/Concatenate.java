@@ -90,4 +90,9 @@ public class Concatenate extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
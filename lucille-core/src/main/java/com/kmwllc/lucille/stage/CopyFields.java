@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kmwllc.lucille.core.ConfigUtils;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.FieldPath;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import com.kmwllc.lucille.core.UpdateMode;
@@ -51,7 +52,7 @@ public class CopyFields extends Stage {
   private final UpdateMode updateMode;
   private final boolean isNested;
 
-  private List<Pair<List<Document.Segment>,List<Document.Segment>>> nestedFieldPairs = new ArrayList<>();
+  private List<Pair<FieldPath, FieldPath>> nestedFieldPairs = new ArrayList<>();
   private List<Pair<String,String>> nonNestedFieldPairs = new ArrayList<>();
 
   public CopyFields(Config config) {
@@ -73,13 +74,13 @@ public class CopyFields extends Stage {
     // create field pairs, and deal with nested vs non-nested here so we don't have to check the type for every doc
     if (isNested) {
       for (Entry<String, Object> entry : fieldMapping.entrySet()) {
-        List<Document.Segment> source = Document.Segment.parse(entry.getKey());
+        FieldPath source = FieldPath.compile(entry.getKey());
         if (entry.getValue() instanceof String) {
-          List<Document.Segment> dest = Document.Segment.parse((String) entry.getValue());
+          FieldPath dest = FieldPath.compile((String) entry.getValue());
           nestedFieldPairs.add(Pair.of(source, dest));
         } else if (entry.getValue() instanceof List) {
           for (String val : (List<String>) entry.getValue()) {
-            List<Document.Segment> dest = Document.Segment.parse(val);
+            FieldPath dest = FieldPath.compile(val);
             nestedFieldPairs.add(Pair.of(source, dest));
           }
         } else {
@@ -104,7 +105,7 @@ public class CopyFields extends Stage {
   @Override
   public Iterator<Document> processDocument(Document doc) throws StageException {
     if (isNested) {
-      for (Pair<List<Document.Segment>,List<Document.Segment>> fieldPair : nestedFieldPairs) {
+      for (Pair<FieldPath, FieldPath> fieldPair : nestedFieldPairs) {
         JsonNode sourceVal = doc.getNestedJson(fieldPair.getKey());
         if (sourceVal == null) {
           continue;
@@ -113,7 +114,7 @@ public class CopyFields extends Stage {
           doc.setNestedJson(fieldPair.getValue(), sourceVal);
         } catch (IllegalArgumentException ex) {
           log.error("Failed to set field {} on doc {}.\n {}",
-              Document.Segment.stringify(fieldPair.getValue()), doc.getId(), ex.getMessage());
+              fieldPair.getValue(), doc.getId(), ex.getMessage());
         }
       }
     } else {
@@ -126,4 +127,9 @@ public class CopyFields extends Stage {
     }
     return null;
   }
-}
\ No newline at end of file
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
+}
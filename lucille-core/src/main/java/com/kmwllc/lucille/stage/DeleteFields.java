@@ -53,4 +53,9 @@ public class DeleteFields extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -1,8 +1,5 @@
 package com.kmwllc.lucille.stage;
 
-import com.cybozu.labs.langdetect.Detector;
-import com.cybozu.labs.langdetect.DetectorFactory;
-import com.cybozu.labs.langdetect.Language;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.Document;
@@ -10,14 +7,13 @@ import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import com.kmwllc.lucille.core.UpdateMode;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
-import com.kmwllc.lucille.util.FileUtils;
+import com.kmwllc.lucille.stage.util.LangDetectLanguageDetector;
+import com.kmwllc.lucille.stage.util.LanguageDetector;
+import com.kmwllc.lucille.stage.util.NGramLanguageDetector;
 import com.kmwllc.lucille.util.StageUtils;
 import com.typesafe.config.Config;
 
-import java.io.File;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -25,6 +21,8 @@ import java.util.List;
  * Detects the language of the text in each supplied source field and outputs the language abbreviation associated with the text to
  * the languageField.
  * <p>
+ * The values of all source fields are detected together, as one text.
+ * <p>
  * Config Parameters -
  * <ul>
  *   <li>source (List&lt;String&gt;) : List of source field names.</li>
@@ -33,26 +31,33 @@ import java.util.List;
  *   <li>minLength (Integer, Optional) : The min length of Strings to be considered for language detection. Shorter Strings will be
  *   ignored. Defaults to 50.</li>
  *   <li>maxLength (Integer, Optional) : The max length of Strings to be considered for language detection. Longer Strings will be
- *   truncated. Defaults to 10,000.</li>
+ *   truncated, or sampled when using the "ngram" backend. Defaults to 10,000.</li>
  *   <li>minProbability (Double, Optional) : The min probability for a language result to be considered valid. Results below this
  *   threshold will be ignored. Defaults to 0.95.</li>
  *   <li>updateMode (String, Optional) : The methodology by which you want document fields to be updated. See {@link UpdateMode}.</li>
+ *   <li>backend (String, Optional) : The detection engine to use. Defaults to "langdetect".
+ *     <ol>
+ *       <li>"langdetect" : the langdetect library, which runs several randomized trials over the first maxLength characters.</li>
+ *       <li>"ngram" : langdetect's language profiles, loaded once into an immutable model shared by all threads and scored in a
+ *       single deterministic pass that stops as soon as the most likely language reaches minProbability, or langdetect's
+ *       convergence threshold of 0.99999 if that is higher. Text longer than
+ *       maxLength is read through windows spread evenly across it rather than from the start only.</li>
+ *     </ol>
+ *   </li>
+ *   <li>sampleWindows (Integer, Optional) : The number of windows read from text longer than maxLength by the "ngram" backend.
+ *   Defaults to 4.</li>
  * </ul>
  */
 public class DetectLanguage extends Stage {
 
+  public static final String LANGDETECT_BACKEND = "langdetect";
+  public static final String NGRAM_BACKEND = "ngram";
+
   public static final Spec SPEC = SpecBuilder.stage()
       .requiredList("source", new TypeReference<List<String>>(){})
       .requiredString("languageField")
-      .optionalString("languageConfidenceField", "updateMode")
-      .optionalNumber("minLength", "maxLength", "minProbability").build();
-
-  private final static String profileResourcesLoc = "profiles";
-
-  private final static String[] profiles = {"af", "ar", "bg", "bn", "cs", "da", "de", "el", "en", "es", "et", "fa",
-      "fi", "fr", "gu", "he", "hi", "hr", "hu", "id", "it", "ja", "kn", "ko", "lt", "lv", "mk", "ml", "mr", "ne", "nl",
-      "no", "pa", "pl", "pt", "ro", "ru", "sk", "sl", "so", "sq", "sv", "sw", "ta", "te", "th", "tl", "tr", "uk", "ur",
-      "vi", "zh-cn", "zh-tw"};
+      .optionalString("languageConfidenceField", "updateMode", "backend")
+      .optionalNumber("minLength", "maxLength", "minProbability", "sampleWindows").build();
 
   private final List<String> sourceFields;
   private final String languageField;
@@ -61,14 +66,16 @@ public class DetectLanguage extends Stage {
   private final int maxLength;
   private final double minProbability;
   private final UpdateMode updateMode;
+  private final String backend;
+  private final int sampleWindows;
 
-  private Detector detector;
+  private LanguageDetector detector;
 
   /**
    * Creates the DetectLanguage stage from the given config.
    * @param config Configuration for the DetectLanguage stage.
    */
-  public DetectLanguage(Config config) {
+  public DetectLanguage(Config config) throws StageException {
     super(config);
 
     this.sourceFields = config.getStringList("source");
@@ -79,30 +86,11 @@ public class DetectLanguage extends Stage {
     this.maxLength = config.hasPath("maxLength") ? config.getInt("maxLength") : 10_000;
     this.minProbability = config.hasPath("minProbability") ? config.getDouble("minProbability") : .95;
     this.updateMode = UpdateMode.fromConfig(config);
-  }
+    this.backend = config.hasPath("backend") ? config.getString("backend") : LANGDETECT_BACKEND;
+    this.sampleWindows = config.hasPath("sampleWindows") ? config.getInt("sampleWindows") : 4;
 
-  private static synchronized void copyResources(File profDir, String profilesPath) throws StageException {
-    // If the profiles directory does not exist, try to create it.
-    if (!profDir.exists()) {
-      if (!profDir.mkdirs()) {
-        throw new StageException("Unable to create profiles directory for storing Language Detection profiles.");
-      }
-
-      // Copy the profiles from the classpath resources to the local file system.
-      try {
-        for (String profile : profiles) {
-          InputStream profileStream = DetectLanguage.class.getClassLoader()
-              .getResourceAsStream(profileResourcesLoc + "/" + profile);
-          File profFile = new File(profilesPath + "/" + profile);
-          Files.copy(
-              profileStream,
-              profFile.toPath(),
-              StandardCopyOption.REPLACE_EXISTING);
-          profileStream.close();
-        }
-      } catch (Exception e) {
-        throw new StageException("Unable to copy profiles from resources to local file system.", e);
-      }
+    if (!LANGDETECT_BACKEND.equals(backend) && !NGRAM_BACKEND.equals(backend)) {
+      throw new StageException("backend must be " + LANGDETECT_BACKEND + " or " + NGRAM_BACKEND + ".");
     }
   }
 
@@ -110,33 +98,17 @@ public class DetectLanguage extends Stage {
   public void start() throws StageException {
     StageUtils.validateFieldNumNotZero(sourceFields, "Detect Language");
 
-    if (!DetectorFactory.getLangList().isEmpty()) {
-      return;
-    }
-
-    String profilesPath = FileUtils.getLucilleHomeDirectory() + "/DetectLanguage/profiles";
-    File profileDir = new File(profilesPath);
-
-    copyResources(profileDir, profilesPath);
-
-    // Load the profiles
-    try {
-      DetectorFactory.loadProfile(profileDir);
-    } catch (Exception e) {
-      throw new StageException("Unable to load language profiles", e);
+    if (NGRAM_BACKEND.equals(backend)) {
+      detector = new NGramLanguageDetector(maxLength, sampleWindows, minProbability);
+    } else {
+      detector = new LangDetectLanguageDetector(maxLength);
     }
   }
 
   @Override
   public Iterator<Document> processDocument(Document doc) throws StageException {
-    try {
-      detector = DetectorFactory.create();
-      detector.setMaxTextLength(maxLength);
-    } catch (Exception e) {
-      throw new StageException("Unable to create new Language Detector", e);
-    }
-
-    StringBuilder builder = new StringBuilder();
+    List<String> texts = new ArrayList<>();
+    int length = 0;
     for (String source : sourceFields) {
 
       if (!doc.has(source)) {
@@ -144,29 +116,20 @@ public class DetectLanguage extends Stage {
       }
 
       for (String value : doc.getStringList(source)) {
-        builder.append(value);
-
-        if (builder.length() > maxLength) {
-          break;
-        }
+        texts.add(value);
+        length += value.length();
       }
     }
 
-    if (builder.length() < minLength) {
+    if (length < minLength) {
       return null;
     }
 
-    try {
-      detector.append(builder.substring(0, Math.min(builder.length(), maxLength)));
-      Language result = detector.getProbabilities().get(0);
+    LanguageDetector.Result result = detector.detect(texts);
 
-      if (result.prob >= minProbability) {
-        doc.update(languageField, updateMode, result.lang);
-        doc.update(languageConfidenceField, updateMode, Math.floor(result.prob * 100) / 100);
-
-      }
-    } catch (Exception e) {
-      throw new StageException("Unable to detect language", e);
+    if (result != null && result.getProbability() >= minProbability) {
+      doc.update(languageField, updateMode, result.getLanguage());
+      doc.update(languageConfidenceField, updateMode, Math.floor(result.getProbability() * 100) / 100);
     }
 
     return null;
@@ -49,4 +49,9 @@ public class DropDocument extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -60,4 +60,9 @@ public class DropValues extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -4,10 +4,13 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.*;
 import com.kmwllc.lucille.connector.FileConnector;
 import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.FieldPath;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.stage.util.NestedValueRef;
+import com.kmwllc.lucille.stage.util.PolyglotScriptPool;
 import com.kmwllc.lucille.util.FileContentFetcher;
 import com.typesafe.config.Config;
 import org.graalvm.polyglot.*;
@@ -26,6 +29,9 @@ import java.util.*;
  * dictionary-style access (`doc["field"]`) for dynamic or non-identifier field names. Both forms operate on the same
  * underlying data.
  * <p>
+ * Each instance runs its script in its own pool of contexts created from one JVM-wide Python engine; see
+ * {@link PolyglotScriptPool}. The script is compiled once for all worker threads.
+ * <p>
  * Config Parameters:
  * <ul>
  *   <li>scriptPath (String, Optional) : Path to the Python script to run.</li>
@@ -46,9 +52,7 @@ public class EmbeddedPython extends Stage {
   private final String inlineScript;
 //  private final String pythonRoot;
 
-  private Source source;
-  private Context context;
-  private Engine engine;
+  private PolyglotScriptPool pool;
 
   public EmbeddedPython(Config config) {
     super(config);
@@ -63,32 +67,25 @@ public class EmbeddedPython extends Stage {
       throw new StageException("Can only specify either script path or script.");
     }
 
+    Source source;
+
     if (inlineScript != null) {
       try {
-        this.source = Source.newBuilder("python", inlineScript, "<inline>").build();
+        source = Source.newBuilder("python", inlineScript, "<inline>").build();
       } catch (Exception e) {
         throw new StageException("Failed to build inline Python source.", e);
       }
     } else {
       try (Reader reader = FileContentFetcher.getOneTimeReader(scriptPath, config)) {
-        this.source = Source.newBuilder("python", reader, scriptPath).build();
+        source = Source.newBuilder("python", reader, scriptPath).build();
       } catch (Exception e) {
         throw new StageException("Failed to read Python from '" + scriptPath + "'.", e);
       }
     }
 
-    try {
-      this.engine = Engine.newBuilder()
-          .option("engine.WarnInterpreterOnly", "false")
-          .option("log.level", "OFF")
-          .build();
-
-      this.context = Context.newBuilder("python")
-          .engine(engine)
-          .allowAllAccess(true)
-          .build();
+    this.pool = PolyglotScriptPool.acquire("python", source);
 
-      // Code for Python dependencies, but requires JDK 21
+    // Code for Python dependencies, but requires JDK 21. Contexts are created in PolyglotScriptPool.
 
 //      if (pythonRoot != null) {
 //        Path pyRoot = Paths.get(pythonRoot);
@@ -105,31 +102,27 @@ public class EmbeddedPython extends Stage {
 //            .err(System.err)
 //            .build();
 //      }
-    } catch (Exception e) {
-      throw new StageException("Failed to initialize Python context.", e);
-    }
   }
 
   @Override
   public void stop() throws StageException {
-    if (context != null) {
-      context.close();
-    }
-
-    if (engine != null) {
-      engine.close();
-    }
+    PolyglotScriptPool.release(pool);
+    pool = null;
   }
 
   @Override
   public Iterator<Document> processDocument(Document doc) throws StageException {
+    Context context = pool.borrow();
     try {
-      context.getBindings("python").putMember("doc", PyDocProxy.root(doc));
-      context.getBindings("python").putMember("rawDoc", doc);
-      context.eval(source);
+      Value bindings = context.getBindings("python");
+      bindings.putMember("doc", PyDocProxy.root(doc));
+      bindings.putMember("rawDoc", doc);
+      context.eval(pool.getSource());
       return null;
     } catch (Exception e) {
       throw new StageException("Python failed for doc '" + doc.getId() + "' using '" + scriptPath + "'.", e);
+    } finally {
+      pool.giveBack(context);
     }
   }
 
@@ -139,33 +132,25 @@ public class EmbeddedPython extends Stage {
     private static final JsonNodeFactory JSON = JsonNodeFactory.instance;
 
     private final Document doc;
-    private final List<Document.Segment> segments;
+    // the root, or the nested value this proxy stands for. Reads walk down to the value without building a path.
+    private final NestedValueRef ref;
 
-    private PyDocProxy(Document doc, List<Document.Segment> segments) {
+    private PyDocProxy(Document doc, NestedValueRef ref) {
       this.doc = doc;
-      this.segments = segments;
+      this.ref = ref;
     }
 
     static PyDocProxy root(Document d) {
-      return new PyDocProxy(d, new ArrayList());
+      return new PyDocProxy(d, NestedValueRef.root(d));
     }
 
     private boolean isRoot() {
-      return segments.isEmpty();
+      return ref.isRoot();
     }
 
-    private List<Document.Segment> join(String key) {
-      if (isRoot()) {
-        return List.of(new Document.Segment(key));
-      }
-      List<Document.Segment> result = new ArrayList(segments);
-      // assume an all-digit key is an array index
-      if (key.chars().allMatch(c -> c >= '0' && c <= '9')) {
-        result.add(new Document.Segment(Integer.parseInt(key)));
-      } else {
-        result.add(new Document.Segment(key));
-      }
-      return result;
+    // the path of the given member, for writes; an all-digit key below the root is an array index
+    private FieldPath join(String key) {
+      return ref.member(key).getPath();
     }
 
     @Override
@@ -193,18 +178,18 @@ public class EmbeddedPython extends Stage {
       }
 
       if (json.isArray()) {
-        return new PyArrayProxy(doc, List.of(new Document.Segment(key)));
+        return new PyArrayProxy(doc, ref.child(key));
       }
 
       if (json.isContainerNode()) {
-        return new PyDocProxy(doc, List.of(new Document.Segment(key)));
+        return new PyDocProxy(doc, ref.child(key));
       }
 
       return jsonNodeToPyValue(json);
     }
 
     private Object getNestedMember(String key) {
-      JsonNode current = doc.getNestedJson(segments);
+      JsonNode current = ref.get();
       if (current == null || current.isNull()) {
         return null;
       }
@@ -217,10 +202,10 @@ public class EmbeddedPython extends Stage {
         }
 
         if (child.isArray()) {
-          return new PyArrayProxy(doc, join(key));
+          return new PyArrayProxy(doc, ref.member(key));
         }
 
-        return child.isContainerNode() ? new PyDocProxy(doc, join(key)) : jsonNodeToPyValue(child);
+        return child.isContainerNode() ? new PyDocProxy(doc, ref.member(key)) : jsonNodeToPyValue(child);
       }
 
       if (current.isArray()) {
@@ -233,10 +218,10 @@ public class EmbeddedPython extends Stage {
         JsonNode child = current.get(idx);
 
         if (child.isArray()) {
-          return new PyArrayProxy(doc, join(key));
+          return new PyArrayProxy(doc, ref.member(key));
         }
 
-        return child.isContainerNode() ? new PyDocProxy(doc, join(key)) : jsonNodeToPyValue(child);
+        return child.isContainerNode() ? new PyDocProxy(doc, ref.member(key)) : jsonNodeToPyValue(child);
       }
 
       return null;
@@ -244,7 +229,7 @@ public class EmbeddedPython extends Stage {
 
     @Override
     public void putMember(String key, Value v) {
-      List<Document.Segment> full = join(key);
+      FieldPath full = isRoot() ? null : join(key);
 
       if (v == null || v.isNull()) {
         if (isRoot()) {
@@ -284,8 +269,6 @@ public class EmbeddedPython extends Stage {
 
     @Override
     public boolean removeMember(String key) {
-      List<Document.Segment> full = join(key);
-
       if (isRoot()) {
         if (!doc.has(key)) {
           return false;
@@ -301,6 +284,7 @@ public class EmbeddedPython extends Stage {
         return true;
       }
 
+      FieldPath full = join(key);
       if (doc.getNestedJson(full) == null) {
         return false;
       }
@@ -315,7 +299,7 @@ public class EmbeddedPython extends Stage {
         return doc.has(key);
       }
 
-      JsonNode current = doc.getNestedJson(segments);
+      JsonNode current = ref.get();
       if (current == null || current.isNull()) {
         return false;
       }
@@ -339,7 +323,7 @@ public class EmbeddedPython extends Stage {
         return ProxyArray.fromArray(names.toArray(new String[0]));
       }
 
-      JsonNode node = doc.getNestedJson(segments);
+      JsonNode node = ref.get();
       if (node == null || node.isNull()) {
         return ProxyArray.fromArray(new String[0]);
       }
@@ -369,7 +353,7 @@ public class EmbeddedPython extends Stage {
         return doc.getFieldNames().size();
       }
 
-      JsonNode node = doc.getNestedJson(segments);
+      JsonNode node = ref.get();
       if (node == null || node.isNull()) {
         return 0;
       }
@@ -412,7 +396,7 @@ public class EmbeddedPython extends Stage {
       if (isRoot()) {
         keys.addAll(doc.getFieldNames());
       } else {
-        JsonNode node = doc.getNestedJson(segments);
+        JsonNode node = ref.get();
         if (node != null && !node.isNull()) {
           if (node.isObject()) {
             node.fieldNames().forEachRemaining(keys::add);
@@ -598,22 +582,22 @@ public class EmbeddedPython extends Stage {
 
   private static final class PyArrayProxy implements ProxyArray {
     private final Document doc;
-    private final List<Document.Segment> path;
+    private final NestedValueRef ref;
 
-    PyArrayProxy(Document doc, List<Document.Segment> path) {
+    PyArrayProxy(Document doc, NestedValueRef ref) {
       this.doc = doc;
-      this.path = path;
+      this.ref = ref;
     }
 
     @Override
     public long getSize() {
-      JsonNode node = doc.getNestedJson(path);
+      JsonNode node = ref.get();
       return (node != null && node.isArray()) ? node.size() : 0;
     }
 
     @Override
     public Object get(long index) {
-      JsonNode node = doc.getNestedJson(path);
+      JsonNode node = ref.get();
 
       if (node == null || !node.isArray()) {
         return null;
@@ -629,15 +613,11 @@ public class EmbeddedPython extends Stage {
 
       JsonNode child = arr.get(i);
       if (child.isArray()) {
-        List<Document.Segment> extended = new ArrayList<>(path);
-        extended.add(new Document.Segment(i));
-        return new PyArrayProxy(doc, extended);
+        return new PyArrayProxy(doc, ref.child(i));
       }
 
       if (child.isContainerNode()) {
-        List<Document.Segment> extended = new ArrayList<>(path);
-        extended.add(new Document.Segment(i));
-        return new PyDocProxy(doc, extended);
+        return new PyDocProxy(doc, ref.child(i));
       }
 
       return PyDocProxy.jsonNodeToPyValue(child);
@@ -645,9 +625,9 @@ public class EmbeddedPython extends Stage {
 
     @Override
     public void set(long index, Value value) {
-      JsonNode node = doc.getNestedJson(path);
+      JsonNode node = ref.get();
       if (node == null || !node.isArray()) {
-        throw new IllegalStateException("Expected array at " + path);
+        throw new IllegalStateException("Expected array at " + ref);
       }
       ArrayNode arr = (ArrayNode) node;
 
@@ -656,15 +636,14 @@ public class EmbeddedPython extends Stage {
         throw new ArrayIndexOutOfBoundsException(i);
       }
 
-      arr.set(i, PyDocProxy.pyValueToJsonNode(value));
-      doc.setNestedJson(path, arr);
+      doc.setNestedJson(ref.child(i).getPath(), PyDocProxy.pyValueToJsonNode(value));
     }
 
     @Override
     public boolean remove(long index) {
-      JsonNode node = doc.getNestedJson(path);
+      JsonNode node = ref.get();
       if (node == null || !node.isArray()) {
-        throw new IllegalStateException("Expected array at " + path);
+        throw new IllegalStateException("Expected array at " + ref);
       }
       ArrayNode arr = (ArrayNode) node;
 
@@ -680,7 +659,7 @@ public class EmbeddedPython extends Stage {
         }
       }
 
-      doc.setNestedJson(path, newArr);
+      doc.setNestedJson(ref.getPath(), newArr);
       return true;
     }
   }
@@ -1,19 +1,16 @@
 package com.kmwllc.lucille.stage;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
-import com.kmwllc.lucille.stage.util.Py4JRuntime;
 import com.kmwllc.lucille.stage.util.Py4JRuntimeManager;
+import com.kmwllc.lucille.stage.util.Py4JRuntimePool;
 import com.typesafe.config.Config;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import org.apache.commons.collections4.IteratorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +20,10 @@ import org.slf4j.LoggerFactory;
  * Document to a python function, waits for a JSON response, and applies any returned field updates to the
  * document.
  * <p>
+ * The script can be run in several python processes, each behind its own gateway, to use more than one core for
+ * CPU-bound python code. Documents being processed at the same time by different worker threads can also be sent to
+ * python together, in one call, to reduce the number of round trips. See {@link Py4JRuntimePool}.
+ * <p>
  * Config Parameters:
  * <ul>
  *   <li>scriptPath (String, Required) : Path to the python script that contains the processing function. NOTE: The path must be
@@ -35,15 +36,22 @@ import org.slf4j.LoggerFactory;
  *   <li>functionName (String, Optional) : Name of the Python function to call for each document. Defaults to
  *   process_document.</li>
  *   <li>port (Integer, Optional) : Explicit base port to use for the Py4J gateway. If omitted, a free port
- *   pair is automatically selected starting from the default range.</li>
+ *   pair is automatically selected starting from the default range. With more than one process, process i uses the
+ *   port pair starting at port + 2 * i.</li>
+ *   <li>numProcesses (Integer, Optional) : Number of python processes to run the script in. Defaults to 1.</li>
+ *   <li>batchSize (Integer, Optional) : Maximum number of documents sent to python in one call. Documents are only
+ *   combined when they are waiting at the same time; a call is never delayed to fill a batch. Defaults to 1.</li>
+ *   <li>payloadFormat (String, Optional) : Encoding of the documents exchanged with python, either "json" or "cbor".
+ *   "cbor" is a compact binary encoding that requires the cbor2 python package, which is installed automatically.
+ *   Defaults to "json".</li>
  * </ul>
  */
 public final class ExternalPython extends Stage {
 
   public static final Spec SPEC = SpecBuilder.stage()
       .requiredString("scriptPath")
-      .optionalString("pythonExecutable", "functionName", "port", "requirementsPath")
-      .optionalNumber("port")
+      .optionalString("pythonExecutable", "functionName", "port", "requirementsPath", "payloadFormat")
+      .optionalNumber("port", "numProcesses", "batchSize")
       .build();
 
   private static final Logger log = LoggerFactory.getLogger(ExternalPython.class);
@@ -53,8 +61,10 @@ public final class ExternalPython extends Stage {
   private final String requirementsPath;
   private final String functionName;
   private final Integer port;
-  private Py4JRuntime runtime;
-  private final ObjectMapper mapper = new ObjectMapper();
+  private final int numProcesses;
+  private final int batchSize;
+  private final String payloadFormat;
+  private Py4JRuntimePool runtime;
 
   public ExternalPython(Config config) {
     super(config);
@@ -64,11 +74,15 @@ public final class ExternalPython extends Stage {
     this.requirementsPath = config.hasPath("requirementsPath") ? config.getString("requirementsPath") : null;
     this.functionName = config.hasPath("functionName") ? config.getString("functionName") : "process_document";
     this.port = config.hasPath("port") ? config.getInt("port") : null;
+    this.numProcesses = config.hasPath("numProcesses") ? config.getInt("numProcesses") : 1;
+    this.batchSize = config.hasPath("batchSize") ? config.getInt("batchSize") : 1;
+    this.payloadFormat = config.hasPath("payloadFormat") ? config.getString("payloadFormat") : Py4JRuntimePool.JSON_FORMAT;
   }
 
   @Override
   public void start() throws StageException {
-    runtime = Py4JRuntimeManager.getInstance().acquire(pythonExecutable, scriptPath, requirementsPath, port);
+    runtime = Py4JRuntimeManager.getInstance()
+        .acquire(pythonExecutable, scriptPath, requirementsPath, port, numProcesses, batchSize, payloadFormat);
 
     if (!runtime.isReady()) {
       throw new StageException("Py4J connection not ready after start");
@@ -78,15 +92,9 @@ public final class ExternalPython extends Stage {
   @Override
   public Iterator<Document> processDocument(Document doc) throws StageException {
     try {
-      Map<String, Object> msg = new HashMap<>();
-      msg.put("method", functionName);
-      msg.put("data", doc);
-
-      String requestJson = mapper.writeValueAsString(msg);
-      String responseJson = runtime.exec(requestJson);
+      JsonNode node = runtime.exec(functionName, doc);
 
-      if (responseJson != null && !responseJson.isEmpty()) {
-        JsonNode node = mapper.readTree(responseJson);
+      if (node != null) {
 
         // update doc with fields from response
         List<String> responseFieldNames = IteratorUtils.toList(node.fieldNames());
@@ -75,4 +75,9 @@ public class ExtractFirstCharacter extends Stage {
     return null;
 
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -59,4 +59,8 @@ public class HashFieldValueToBucket extends Stage {
     return null;
   }
 
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
\ No newline at end of file
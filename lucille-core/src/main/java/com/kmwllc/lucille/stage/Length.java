@@ -42,4 +42,9 @@ public class Length extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -1,25 +1,21 @@
 package com.kmwllc.lucille.stage;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.kmwllc.lucille.connector.FileConnector;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.stage.util.QueryMonitor;
+import com.kmwllc.lucille.core.ConfigUtils;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigObject;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.monitor.MatchingQueries;
-import org.apache.lucene.monitor.Monitor;
-import org.apache.lucene.monitor.MonitorQuery;
-import org.apache.lucene.monitor.QueryMatch;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 
 import java.io.IOException;
 import java.util.Iterator;
@@ -28,24 +24,49 @@ import java.util.List;
 /**
  * Evaluates a set of queries against specified text fields in each document and records which queries matched.
  * <p>
+ * The queries are held in a Lucene Monitor that is shared by every MatchQuery stage with the same queries and settings,
+ * so they are parsed and indexed once per JVM rather than once per worker thread. Large query sets can be read from a
+ * CSV file and kept in an on-disk index that is reused across runs as long as the queries do not change.
+ * <p>
  * Config Parameters -
  * <ul>
  *   <li>fields(List&lt;String&gt;) : names of text fields in the Lucille document to match against.</li>
- *   <li>queries (List&lt;Object&gt;) : list of objects each mapping a query name to a query string.</li>
+ *   <li>queries (List&lt;Object&gt;, Optional) : list of objects each mapping a query name to a query string.</li>
+ *   <li>queriesPath (String, Optional) : path to a CSV file where each line holds a query name followed by a query string.
+ *   Can be a local path or a cloud storage URI. At least one of queries and queriesPath must be given; when both are given,
+ *   a query in the file replaces an inline query with the same name.</li>
  *   <li>matchedQueriesField (String, required) : the field name under which to store the list of matched query IDs in the Lucille
  *   document.</li>
+ *   <li>indexPath (String, Optional) : a directory in which to keep the query index on disk. When the queries and settings
+ *   are unchanged since the index was built, the index is reused instead of being rebuilt. Defaults to an in-memory index.</li>
+ *   <li>presearcher (String, Optional) : "term" to filter candidate queries on single terms, or "multipass" to filter on
+ *   several terms per query, which rejects more non-matching queries at the cost of a larger index. Defaults to "term".</li>
+ *   <li>presearcherPasses (Integer, Optional) : the number of passes made by the multipass presearcher. Defaults to 2.</li>
+ *   <li>batchSize (Integer, Optional) : the maximum number of documents, submitted concurrently by different worker threads,
+ *   to match against the queries in a single pass. Defaults to 1, which matches each document on its own.</li>
+ *   <li>s3 (Map, Optional) : If your queries file is held in S3. See FileConnector for the appropriate arguments to provide.</li>
+ *   <li>azure (Map, Optional) : If your queries file is held in Azure. See FileConnector for the appropriate arguments to provide.</li>
+ *   <li>gcp (Map, Optional) : If your queries file is held in Google Cloud. See FileConnector for the appropriate arguments to provide.</li>
  * </ul>
  */
 public class MatchQuery extends Stage {
 
   public static final String FIELDS_PARAM = "fields";
   public static final String QUERIES_PARAM = "queries";
+  public static final String QUERIES_PATH_PARAM = "queriesPath";
   public static final String MATCHEDQUERIES_PARAM = "matchedQueriesField";
+  public static final String INDEX_PATH_PARAM = "indexPath";
+  public static final String PRESEARCHER_PARAM = "presearcher";
+  public static final String PRESEARCHER_PASSES_PARAM = "presearcherPasses";
+  public static final String BATCH_SIZE_PARAM = "batchSize";
 
   public static final Spec SPEC = SpecBuilder.stage()
       .requiredList(FIELDS_PARAM, new TypeReference<List<String>>(){})
-      .requiredList(QUERIES_PARAM, new TypeReference<List<Map<String, Object>>>(){})
-      .requiredString(MATCHEDQUERIES_PARAM).build();
+      .optionalList(QUERIES_PARAM, new TypeReference<List<Map<String, Object>>>(){})
+      .requiredString(MATCHEDQUERIES_PARAM)
+      .optionalString(QUERIES_PATH_PARAM, INDEX_PATH_PARAM, PRESEARCHER_PARAM)
+      .optionalNumber(PRESEARCHER_PASSES_PARAM, BATCH_SIZE_PARAM)
+      .optionalParent(FileConnector.S3_PARENT_SPEC, FileConnector.GCP_PARENT_SPEC, FileConnector.AZURE_PARENT_SPEC).build();
 
   // the list of fields to run the queries against
   private final List<String> fieldsList;
@@ -53,16 +74,26 @@ public class MatchQuery extends Stage {
   // the list of queries to run
   private final List<? extends ConfigObject> queryList;
 
+  private final String queriesPath;
   private final String matchedQueriesField;
+  private final String indexPath;
+  private final String presearcher;
+  private final int presearcherPasses;
+  private final int batchSize;
 
-  private Monitor monitor;
+  private QueryMonitor monitor;
 
 
   public MatchQuery(Config config) {
     super(config);
     fieldsList = config.getStringList(FIELDS_PARAM);
-    queryList = config.getObjectList(QUERIES_PARAM);
+    queryList = config.hasPath(QUERIES_PARAM) ? config.getObjectList(QUERIES_PARAM) : List.of();
+    queriesPath = ConfigUtils.getOrDefault(config, QUERIES_PATH_PARAM, null);
     matchedQueriesField = config.getString(MATCHEDQUERIES_PARAM);
+    indexPath = ConfigUtils.getOrDefault(config, INDEX_PATH_PARAM, null);
+    presearcher = ConfigUtils.getOrDefault(config, PRESEARCHER_PARAM, QueryMonitor.TERM_PRESEARCHER);
+    presearcherPasses = ConfigUtils.getOrDefault(config, PRESEARCHER_PASSES_PARAM, 2);
+    batchSize = ConfigUtils.getOrDefault(config, BATCH_SIZE_PARAM, 1);
   }
 
   @Override
@@ -70,31 +101,36 @@ public class MatchQuery extends Stage {
     if (fieldsList.size() == 0) {
       throw new StageException(String.format("MatchQuery requires at least one %s property.", FIELDS_PARAM));
     }
-    if (queryList.size() == 0) {
-      throw new StageException(String.format("MatchQuery requires at least one %s property.", QUERIES_PARAM));
+    if (queryList.size() == 0 && queriesPath == null) {
+      throw new StageException(String.format("MatchQuery requires at least one %s property or a %s.", QUERIES_PARAM,
+          QUERIES_PATH_PARAM));
     }
     if (StringUtils.isBlank(matchedQueriesField)) {
       throw new StageException(String.format("MatchQuery requires a %s property.", MATCHEDQUERIES_PARAM));
     }
+    if (presearcherPasses < 1) {
+      throw new StageException(String.format("%s must be at least 1.", PRESEARCHER_PASSES_PARAM));
+    }
+    if (batchSize < 1) {
+      throw new StageException(String.format("%s must be at least 1.", BATCH_SIZE_PARAM));
+    }
 
-    try {
-      Analyzer analyzer = new StandardAnalyzer();
-      monitor = new Monitor(analyzer);
-
-      // TODO:: default field is the 1st field configured
-      QueryParser parser = new QueryParser(fieldsList.get(0), analyzer);
-
-      for (ConfigObject query : this.queryList) {
-        for (String queryName : query.keySet()) {
-          String q = query.get(queryName).unwrapped().toString();
-          MonitorQuery mq = new MonitorQuery(queryName, parser.parse(q));
-          monitor.register(mq);
-        }
+    Map<String, String> queries = new LinkedHashMap<>();
+    for (ConfigObject query : this.queryList) {
+      for (String queryName : query.keySet()) {
+        queries.put(queryName, query.get(queryName).unwrapped().toString());
       }
-    } catch (IOException | ParseException e) {
-      throw new StageException("Failed to start MatchQuery stage.", e);
     }
 
+    // TODO:: default field is the 1st field configured
+    monitor = QueryMonitor.acquire(fieldsList.get(0), queries, queriesPath, indexPath, presearcher, presearcherPasses,
+        batchSize, config);
+  }
+
+  @Override
+  public void stop() throws StageException {
+    QueryMonitor.release(monitor);
+    monitor = null;
   }
 
   @Override
@@ -109,9 +145,8 @@ public class MatchQuery extends Stage {
         }
       }
 
-      MatchingQueries<QueryMatch> matches = monitor.match(luceneDoc, QueryMatch.SIMPLE_MATCHER);
-      for (QueryMatch match : matches.getMatches()) {
-        doc.addToField(this.matchedQueriesField, match.getQueryId());
+      for (String queryId : monitor.match(luceneDoc)) {
+        doc.addToField(this.matchedQueriesField, queryId);
       }
 
     } catch (IOException e) {
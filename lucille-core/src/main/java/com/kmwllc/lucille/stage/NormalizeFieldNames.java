@@ -45,4 +45,9 @@ public class NormalizeFieldNames extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -183,10 +183,15 @@ public class OpenAIEmbed extends Stage {
 
     // add embeddings to document
     for (int i = 0; i < embeddings.size(); i++) {
-      float[] vectors = embeddings.get(i).vector();
+      float[] vector = embeddings.get(i).vector();
       Document doc = docsToEmbed.get(i);
-      for (Float vector : vectors) {
-        doc.setOrAdd(dest, vector);
+      // an existing field is appended to, as before; a new field is stored as a vector
+      if (doc.has(dest)) {
+        for (float value : vector) {
+          doc.setOrAdd(dest, value);
+        }
+      } else {
+        doc.setVector(dest, vector);
       }
     }
 
@@ -47,11 +47,19 @@ public class RandomVector extends Stage {
   @Override
   public Iterator<Document> processDocument(Document doc) throws StageException {
     for (String field : fields) {
-      Float[] floats = new Float[dimensions];
-      for (int i = 0; i < this.dimensions; i++) {
-        floats[i] = 2 * random.nextFloat() - 1;
+      if (updateMode == UpdateMode.OVERWRITE || !doc.has(field)) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+          vector[i] = 2 * random.nextFloat() - 1;
+        }
+        doc.setVector(field, vector);
+      } else if (updateMode == UpdateMode.APPEND) {
+        Float[] floats = new Float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+          floats[i] = 2 * random.nextFloat() - 1;
+        }
+        doc.update(field, updateMode, floats);
       }
-      doc.update(field, updateMode, floats);
     }
     return null;
   }
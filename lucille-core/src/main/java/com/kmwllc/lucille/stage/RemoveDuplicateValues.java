@@ -49,4 +49,9 @@ public class RemoveDuplicateValues extends Stage {
     }
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -38,4 +38,8 @@ public class RemoveEmptyFields extends Stage {
     return null;
   }
 
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
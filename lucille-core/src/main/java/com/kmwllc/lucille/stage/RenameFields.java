@@ -89,4 +89,9 @@ public class RenameFields extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -4,13 +4,15 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.kmwllc.lucille.core.*;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.stage.util.MultiPatternMatcher;
+import com.kmwllc.lucille.stage.util.TimeLimitedCharSequence;
+import com.kmwllc.lucille.stage.util.TimeLimitedCharSequence.TimeLimitExceededException;
 import com.kmwllc.lucille.util.StageUtils;
 import com.typesafe.config.Config;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -33,6 +35,13 @@ import java.util.regex.Pattern;
  *   <li>multiline (Boolean, Optional) : Determines whether the regex matcher should allow matches across multiple lines. Defaults to false.</li>
  *   <li>dotall (Boolean, Optional) : Turns on the DOTALL functionality for the regex matcher. Defaults to false.</li>
  *   <li>literal (Boolean, Optional) : Toggles treating the regex expression as a literal String. Defaults to false.</li>
+ *   <li>engine (String, Optional) : The regex engine to use, either 'java' or 'automaton'. With 'java', each pattern is applied
+ *   in turn with java.util.regex. With 'automaton', all of the patterns are combined into one automaton and replaced in a single
+ *   pass over each value, taking the longest match at each position; this is much faster for large numbers of patterns and cannot
+ *   backtrack, but supports only a subset of regex syntax (see {@link MultiPatternMatcher}) and inserts the replacement literally.
+ *   Defaults to 'java'.</li>
+ *   <li>matchTimeout (Integer, Optional) : The maximum time in milliseconds to spend replacing patterns in a single value. If it is
+ *   exceeded, for example because of catastrophic backtracking, the document fails with an error. Defaults to no limit.</li>
  * </ul>
  */
 public class ReplacePatterns extends Stage {
@@ -41,7 +50,8 @@ public class ReplacePatterns extends Stage {
       .requiredList("source", new TypeReference<List<String>>(){})
       .requiredList("dest", new TypeReference<List<String>>(){})
       .requiredList("regex", new TypeReference<List<String>>(){})
-      .optionalString("replacement", "replacementField", "updateMode")
+      .optionalString("replacement", "replacementField", "updateMode", "engine")
+      .optionalNumber("matchTimeout")
       .optionalBoolean("ignoreCase", "multiline", "dotall", "literal").build();
 
   private final List<String> sourceFields;
@@ -55,8 +65,11 @@ public class ReplacePatterns extends Stage {
   private final boolean multiline;
   private final boolean dotall;
   private final boolean literal;
+  private final boolean useAutomaton;
+  private final Integer matchTimeout;
 
   private List<Pattern> patterns;
+  private MultiPatternMatcher automatonMatcher;
 
   public ReplacePatterns(Config config) throws StageException {
     super(config);
@@ -79,10 +92,30 @@ public class ReplacePatterns extends Stage {
     this.multiline = ConfigUtils.getOrDefault(config, "multiline", false);
     this.dotall = ConfigUtils.getOrDefault(config, "dotall", false);
     this.literal = ConfigUtils.getOrDefault(config, "literal", false);
+
+    String engine = ConfigUtils.getOrDefault(config, "engine", "java");
+    if (!"java".equals(engine) && !"automaton".equals(engine)) {
+      throw new StageException("engine must be 'java' or 'automaton'.");
+    }
+    this.useAutomaton = "automaton".equals(engine);
+    this.matchTimeout = config.hasPath("matchTimeout") ? config.getInt("matchTimeout") : null;
   }
 
   @Override
   public void start() throws StageException {
+    StageUtils.validateFieldNumNotZero(sourceFields, "Apply Regex");
+    StageUtils.validateFieldNumNotZero(destFields, "Apply Regex");
+    StageUtils.validateFieldNumsSeveralToOne(sourceFields, destFields, "Apply Regex");
+
+    if (useAutomaton) {
+      try {
+        automatonMatcher = MultiPatternMatcher.compile(regexExprs, ignoreCase, dotall, literal);
+      } catch (IllegalArgumentException e) {
+        throw new StageException("Could not compile patterns for the automaton engine.", e);
+      }
+      return;
+    }
+
     List<Integer> flags = new ArrayList<>();
 
     // Determine which flags the user turned on and set them when generating the pattern.
@@ -130,10 +163,6 @@ public class ReplacePatterns extends Stage {
         }
         break;
     }
-
-    StageUtils.validateFieldNumNotZero(sourceFields, "Apply Regex");
-    StageUtils.validateFieldNumNotZero(destFields, "Apply Regex");
-    StageUtils.validateFieldNumsSeveralToOne(sourceFields, destFields, "Apply Regex");
   }
 
   @Override
@@ -154,16 +183,37 @@ public class ReplacePatterns extends Stage {
 
       List<String> outputValues = new ArrayList<>();
       for (String value : doc.getStringList(sourceField)) {
-        for (Pattern pattern : patterns) {
-          Matcher matcher = pattern.matcher(value);
-          value = matcher.replaceAll(replacementForDoc);
+        try {
+          outputValues.add(replace(value, replacementForDoc));
+        } catch (TimeLimitExceededException e) {
+          throw new StageException("Replacing patterns in a value of " + sourceField + " took longer than " + matchTimeout + " ms.");
         }
-
-        outputValues.add(value);
       }
       doc.update(destField, updateMode, outputValues.toArray(new String[0]));
     }
 
     return null;
   }
+
+  private String replace(String value, String replacement) {
+    long deadline = matchTimeout == null ? 0 : System.nanoTime() + matchTimeout * 1_000_000L;
+
+    if (automatonMatcher != null) {
+      return automatonMatcher.replaceAll(limit(value, deadline), replacement);
+    }
+
+    for (Pattern pattern : patterns) {
+      value = pattern.matcher(limit(value, deadline)).replaceAll(replacement);
+    }
+    return value;
+  }
+
+  private CharSequence limit(String value, long deadline) {
+    return matchTimeout == null ? value : new TimeLimitedCharSequence(value, deadline);
+  }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -51,4 +51,9 @@ public class SetStaticValues extends Stage {
     }
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
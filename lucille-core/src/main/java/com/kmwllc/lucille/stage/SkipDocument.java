@@ -30,4 +30,9 @@ public class SkipDocument extends Stage {
     doc.setSkipped(true);
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
@@ -56,4 +56,9 @@ public class TrimWhitespace extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
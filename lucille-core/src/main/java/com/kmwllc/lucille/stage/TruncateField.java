@@ -71,4 +71,9 @@ public class TruncateField extends Stage {
 
     return null;
   }
+
+  @Override
+  public boolean createsChildren() {
+    return false;
+  }
 }
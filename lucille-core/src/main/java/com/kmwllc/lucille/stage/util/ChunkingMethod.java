@@ -6,7 +6,7 @@ import com.typesafe.config.Config;
  * A method of chunking contents.
  */
 public enum ChunkingMethod {
-  FIXED("fixed"), CUSTOM("custom"), PARAGRAPH("paragraph"), SENTENCE("sentence");
+  FIXED("fixed"), CUSTOM("custom"), PARAGRAPH("paragraph"), SENTENCE("sentence"), TOKEN("token");
 
   public static final String CONFIG_PATH = "chunkingMethod";
   public static final ChunkingMethod DEFAULT = SENTENCE;
@@ -0,0 +1,108 @@
+package com.kmwllc.lucille.stage.util;
+
+import com.cybozu.labs.langdetect.Detector;
+import com.cybozu.labs.langdetect.DetectorFactory;
+import com.cybozu.labs.langdetect.Language;
+import com.kmwllc.lucille.core.StageException;
+import com.kmwllc.lucille.util.FileUtils;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Detects languages with the langdetect library. Language profiles are copied from the classpath to the Lucille home
+ * directory and loaded into langdetect's global DetectorFactory, and each call creates its own Detector, which runs
+ * langdetect's randomized trials over the first maxLength characters of the text.
+ */
+public class LangDetectLanguageDetector implements LanguageDetector {
+
+  private static final String PROFILE_RESOURCES_LOC = "profiles";
+
+  /**
+   * The languages for which langdetect provides profiles.
+   */
+  public static final String[] PROFILES = {"af", "ar", "bg", "bn", "cs", "da", "de", "el", "en", "es", "et", "fa",
+      "fi", "fr", "gu", "he", "hi", "hr", "hu", "id", "it", "ja", "kn", "ko", "lt", "lv", "mk", "ml", "mr", "ne", "nl",
+      "no", "pa", "pl", "pt", "ro", "ru", "sk", "sl", "so", "sq", "sv", "sw", "ta", "te", "th", "tl", "tr", "uk", "ur",
+      "vi", "zh-cn", "zh-tw"};
+
+  private final int maxLength;
+
+  public LangDetectLanguageDetector(int maxLength) throws StageException {
+    this.maxLength = maxLength;
+    loadProfiles();
+  }
+
+  private static synchronized void loadProfiles() throws StageException {
+    if (!DetectorFactory.getLangList().isEmpty()) {
+      return;
+    }
+
+    String profilesPath = FileUtils.getLucilleHomeDirectory() + "/DetectLanguage/profiles";
+    File profileDir = new File(profilesPath);
+
+    copyResources(profileDir, profilesPath);
+
+    // Load the profiles
+    try {
+      DetectorFactory.loadProfile(profileDir);
+    } catch (Exception e) {
+      throw new StageException("Unable to load language profiles", e);
+    }
+  }
+
+  private static void copyResources(File profDir, String profilesPath) throws StageException {
+    // If the profiles directory does not exist, try to create it.
+    if (!profDir.exists()) {
+      if (!profDir.mkdirs()) {
+        throw new StageException("Unable to create profiles directory for storing Language Detection profiles.");
+      }
+
+      // Copy the profiles from the classpath resources to the local file system.
+      try {
+        for (String profile : PROFILES) {
+          InputStream profileStream = LangDetectLanguageDetector.class.getClassLoader()
+              .getResourceAsStream(PROFILE_RESOURCES_LOC + "/" + profile);
+          File profFile = new File(profilesPath + "/" + profile);
+          Files.copy(
+              profileStream,
+              profFile.toPath(),
+              StandardCopyOption.REPLACE_EXISTING);
+          profileStream.close();
+        }
+      } catch (Exception e) {
+        throw new StageException("Unable to copy profiles from resources to local file system.", e);
+      }
+    }
+  }
+
+  @Override
+  public Result detect(List<String> texts) throws StageException {
+    Detector detector;
+    try {
+      detector = DetectorFactory.create();
+      detector.setMaxTextLength(maxLength);
+    } catch (Exception e) {
+      throw new StageException("Unable to create new Language Detector", e);
+    }
+
+    StringBuilder builder = new StringBuilder();
+    for (String text : texts) {
+      builder.append(text);
+
+      if (builder.length() > maxLength) {
+        break;
+      }
+    }
+
+    try {
+      detector.append(builder.substring(0, Math.min(builder.length(), maxLength)));
+      Language result = detector.getProbabilities().get(0);
+      return new Result(result.lang, result.prob);
+    } catch (Exception e) {
+      throw new StageException("Unable to detect language", e);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package com.kmwllc.lucille.stage.util;
+
+import com.kmwllc.lucille.core.StageException;
+import java.util.List;
+
+/**
+ * A backend for detecting the language of text. Implementations are created in Stage start() and may be called by
+ * several threads at once.
+ */
+public interface LanguageDetector {
+
+  /**
+   * Returns the most likely language of the given texts, taken together as a single text, or null if no language could
+   * be detected.
+   */
+  Result detect(List<String> texts) throws StageException;
+
+  /**
+   * A detected language and the probability that the text is in that language.
+   */
+  final class Result {
+
+    private final String language;
+    private final double probability;
+
+    public Result(String language, double probability) {
+      this.language = language;
+      this.probability = probability;
+    }
+
+    public String getLanguage() {
+      return language;
+    }
+
+    public double getProbability() {
+      return probability;
+    }
+  }
+}
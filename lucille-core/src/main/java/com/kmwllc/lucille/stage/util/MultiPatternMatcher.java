@@ -0,0 +1,493 @@
+package com.kmwllc.lucille.stage.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.Operations;
+import org.apache.lucene.util.automaton.RegExp;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+import org.apache.lucene.util.automaton.Transition;
+
+/**
+ * Finds or replaces the matches of any of a set of regular expressions in a single pass over a text. The expressions
+ * are compiled into one deterministic automaton with Lucene's automaton package, so the cost of matching does not
+ * grow with the number of expressions, and no input can cause backtracking.
+ * <p>
+ * Matching is leftmost-longest: at each position, the longest text matched by any of the expressions is taken, and
+ * scanning resumes after it. This differs from java.util.regex, which takes the first alternative that matches rather
+ * than the longest, and from applying expressions one after another, where a later expression sees the output of an
+ * earlier one.
+ * <p>
+ * Before matching, a second automaton, for the reversed expressions preceded by any text, is run backward over the
+ * whole text once to find every position at which some match starts, and all other positions are skipped without
+ * being examined. If that automaton would be too large to build, positions are instead skipped only when their
+ * character can't begin a match. From each position where a match starts, the longest match is found by running the
+ * combined automaton forward until no expression can match any further. That run may read past the end of the match
+ * it finds, so an expression that can match a long text that never completes, such as <code>a+b|a</code> on a long
+ * run of a's, makes matching take time proportional to the square of the text's length in the worst case. Matching
+ * is linear in the length of the text when matches can't extend much beyond where they end.
+ * <p>
+ * Expressions use java.util.regex syntax, limited to what an automaton can express: literals and escapes, character
+ * classes (including \d, \w, \s and their negations), ".", grouping with (...) or (?:...), alternation, and the
+ * greedy quantifiers *, +, ?, and {n,m}. Anchors, boundaries, lookaround, backreferences, lazy or possessive
+ * quantifiers, inline flags, Unicode properties, and nested character classes are rejected. Groups do not capture,
+ * and expressions that can match the empty string are rejected.
+ */
+public final class MultiPatternMatcher {
+
+  // the characters that "." does not match unless dotall is enabled, as in java.util.regex
+  private static final String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+
+  // the characters matched by \s in java.util.regex
+  private static final String WHITESPACE = " \t\n\u000B\f\r";
+
+  private final CharacterRunAutomaton automaton;
+  // run backward over a text, accepts after reading the character at each position where a match starts; may be null
+  private final CharacterRunAutomaton startFinder;
+  private final BitSet firstChars = new BitSet(Character.MAX_VALUE + 1);
+  private boolean supplementaryFirstChars = false;
+
+  private MultiPatternMatcher(Automaton dfa, Automaton startFinder) {
+    this.automaton = new CharacterRunAutomaton(dfa);
+    this.startFinder = startFinder != null ? new CharacterRunAutomaton(startFinder) : null;
+
+    if (dfa.getNumStates() > 0) {
+      Transition t = new Transition();
+      int count = dfa.initTransition(0, t);
+      for (int i = 0; i < count; i++) {
+        dfa.getNextTransition(t);
+        firstChars.set(Math.min(t.min, Character.MAX_VALUE + 1), Math.min(t.max + 1, Character.MAX_VALUE + 1));
+        supplementaryFirstChars |= t.max > Character.MAX_VALUE;
+      }
+    }
+  }
+
+  /**
+   * Compiles the given expressions into a matcher.
+   *
+   * @param regexes the expressions to match.
+   * @param ignoreCase whether to match ASCII letters regardless of case, like Pattern.CASE_INSENSITIVE.
+   * @param dotall whether "." matches line terminators, like Pattern.DOTALL.
+   * @param literal whether the expressions are literal strings, like Pattern.LITERAL.
+   * @throws IllegalArgumentException if an expression is invalid or not supported, or the expressions are too complex
+   * to combine into one automaton.
+   */
+  public static MultiPatternMatcher compile(List<String> regexes, boolean ignoreCase, boolean dotall, boolean literal) {
+    List<Automaton> automata = new ArrayList<>();
+    for (String regex : regexes) {
+      try {
+        automata.add(literal ? Automata.makeString(regex) : new RegExp(toAutomatonSyntax(regex, dotall), RegExp.NONE).toAutomaton());
+      } catch (TooComplexToDeterminizeException e) {
+        throw new IllegalArgumentException("Pattern is too complex: " + regex, e);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid or unsupported pattern " + regex + ": " + e.getMessage(), e);
+      }
+    }
+
+    Automaton combined = automata.size() == 1 ? automata.get(0) : Operations.union(automata);
+    if (ignoreCase) {
+      combined = foldAsciiCase(combined);
+    }
+
+    Automaton dfa;
+    try {
+      dfa = Operations.determinize(combined, Operations.DEFAULT_DETERMINIZE_WORK_LIMIT);
+    } catch (TooComplexToDeterminizeException e) {
+      throw new IllegalArgumentException("The patterns are too complex to combine into one automaton.", e);
+    }
+
+    if (dfa.getNumStates() > 0 && dfa.isAccept(0)) {
+      throw new IllegalArgumentException("Patterns that can match the empty string are not supported.");
+    }
+
+    return new MultiPatternMatcher(dfa, startFinder(dfa));
+  }
+
+  /**
+   * Returns a deterministic automaton for the reverse of the given one preceded by any text, or null if it is too
+   * complex to determinize.
+   */
+  private static Automaton startFinder(Automaton dfa) {
+    try {
+      Automaton reversed = Operations.concatenate(Automata.makeAnyString(), Operations.reverse(dfa));
+      return Operations.determinize(reversed, Operations.DEFAULT_DETERMINIZE_WORK_LIMIT);
+    } catch (TooComplexToDeterminizeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the given text with every match replaced by the given replacement, which is inserted literally.
+   */
+  public String replaceAll(CharSequence text, String replacement) {
+    StringBuilder builder = null;
+    int copied = 0;
+    int length = text.length();
+    BitSet starts = findStarts(text, length);
+    int pos = nextStart(starts, 0, length);
+
+    while (pos < length) {
+      int end = matchAt(text, pos, length, starts);
+      if (end < 0) {
+        pos = nextStart(starts, pos + Character.charCount(Character.codePointAt(text, pos)), length);
+        continue;
+      }
+
+      if (builder == null) {
+        builder = new StringBuilder(length + replacement.length());
+      }
+      builder.append(text, copied, pos).append(replacement);
+      pos = nextStart(starts, end, length);
+      copied = end;
+    }
+
+    if (builder == null) {
+      return text.toString();
+    }
+    return builder.append(text, copied, length).toString();
+  }
+
+  /**
+   * Returns the matches in the given text, in order.
+   */
+  public List<String> findAll(CharSequence text) {
+    List<String> matches = new ArrayList<>();
+    int length = text.length();
+    BitSet starts = findStarts(text, length);
+    int pos = nextStart(starts, 0, length);
+
+    while (pos < length) {
+      int end = matchAt(text, pos, length, starts);
+      if (end < 0) {
+        pos = nextStart(starts, pos + Character.charCount(Character.codePointAt(text, pos)), length);
+      } else {
+        matches.add(text.subSequence(pos, end).toString());
+        pos = nextStart(starts, end, length);
+      }
+    }
+
+    return matches;
+  }
+
+  /**
+   * Returns the positions in the given text at which a match starts, or null if they can't be found in advance.
+   */
+  private BitSet findStarts(CharSequence text, int length) {
+    if (startFinder == null) {
+      return null;
+    }
+
+    BitSet starts = new BitSet(length);
+    int state = 0;
+    int pos = length;
+    while (pos > 0) {
+      int codePoint = Character.codePointBefore(text, pos);
+      pos -= Character.charCount(codePoint);
+      state = startFinder.step(state, codePoint);
+      if (state == -1) {
+        // not reached, since the automaton accepts any text before a reversed match, but start over to be safe
+        state = 0;
+      } else if (startFinder.isAccept(state)) {
+        starts.set(pos);
+      }
+    }
+    return starts;
+  }
+
+  private static int nextStart(BitSet starts, int from, int length) {
+    if (starts == null || from >= length) {
+      return from;
+    }
+    int next = starts.nextSetBit(from);
+    return next < 0 ? length : next;
+  }
+
+  /**
+   * Returns the end of the longest match that starts at the given position, or -1 if no match starts there.
+   */
+  private int matchAt(CharSequence text, int start, int length, BitSet starts) {
+    int codePoint = Character.codePointAt(text, start);
+    if (starts == null && (codePoint <= Character.MAX_VALUE ? !firstChars.get(codePoint) : !supplementaryFirstChars)) {
+      return -1;
+    }
+
+    int state = 0;
+    int end = -1;
+    int pos = start;
+    while (pos < length) {
+      codePoint = Character.codePointAt(text, pos);
+      state = automaton.step(state, codePoint);
+      if (state == -1) {
+        break;
+      }
+      pos += Character.charCount(codePoint);
+      if (automaton.isAccept(state)) {
+        end = pos;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Returns an automaton that also accepts every string the given one accepts with ASCII letters in the other case.
+   */
+  private static Automaton foldAsciiCase(Automaton automaton) {
+    Automaton.Builder builder = new Automaton.Builder();
+    int numStates = automaton.getNumStates();
+    for (int state = 0; state < numStates; state++) {
+      builder.createState();
+    }
+
+    Transition t = new Transition();
+    for (int state = 0; state < numStates; state++) {
+      builder.setAccept(state, automaton.isAccept(state));
+      int count = automaton.initTransition(state, t);
+      for (int i = 0; i < count; i++) {
+        automaton.getNextTransition(t);
+        builder.addTransition(state, t.dest, t.min, t.max);
+        addShifted(builder, state, t, 'A', 'Z', 'a' - 'A');
+        addShifted(builder, state, t, 'a', 'z', 'A' - 'a');
+      }
+    }
+
+    return builder.finish();
+  }
+
+  private static void addShifted(Automaton.Builder builder, int state, Transition t, int from, int to, int shift) {
+    int min = Math.max(t.min, from);
+    int max = Math.min(t.max, to);
+    if (min <= max) {
+      builder.addTransition(state, t.dest, min + shift, max + shift);
+    }
+  }
+
+  /**
+   * Rewrites an expression in java.util.regex syntax into the equivalent expression in the syntax of Lucene's RegExp,
+   * with all of RegExp's optional operators disabled.
+   */
+  static String toAutomatonSyntax(String regex, boolean dotall) {
+    StringBuilder out = new StringBuilder(regex.length() + 16);
+    int i = 0;
+    int length = regex.length();
+
+    while (i < length) {
+      char c = regex.charAt(i);
+      switch (c) {
+        case '\\':
+          i = appendEscape(regex, i, out, false);
+          continue;
+        case '[':
+          i = appendClass(regex, i, out);
+          continue;
+        case '(':
+          if (i + 1 < length && regex.charAt(i + 1) == '?') {
+            if (i + 2 < length && regex.charAt(i + 2) == ':') {
+              out.append('(');
+              i += 3;
+              continue;
+            }
+            throw unsupported("lookaround, named groups, and inline flags", regex);
+          }
+          out.append('(');
+          break;
+        case ')':
+        case '|':
+          out.append(c);
+          break;
+        case '*':
+        case '+':
+        case '?':
+          out.append(c);
+          checkGreedy(regex, i + 1);
+          break;
+        case '{':
+          int close = regex.indexOf('}', i);
+          if (close < 0) {
+            throw new IllegalArgumentException("Unclosed repetition in " + regex);
+          }
+          out.append(regex, i, close + 1);
+          checkGreedy(regex, close + 1);
+          i = close + 1;
+          continue;
+        case '.':
+          if (dotall) {
+            out.append('.');
+          } else {
+            out.append("[^");
+            LINE_TERMINATORS.chars().forEach(ch -> appendLiteral(out, ch));
+            out.append(']');
+          }
+          break;
+        case '^':
+        case '$':
+          throw unsupported("anchors", regex);
+        default:
+          // a character outside the BMP is one code point, as it is when matching
+          int codePoint = regex.codePointAt(i);
+          appendLiteral(out, codePoint);
+          i += Character.charCount(codePoint);
+          continue;
+      }
+      i++;
+    }
+
+    return out.toString();
+  }
+
+  private static void checkGreedy(String regex, int next) {
+    if (next < regex.length() && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) {
+      throw unsupported("lazy and possessive quantifiers", regex);
+    }
+  }
+
+  /**
+   * Appends the character class starting at the given position and returns the position after it.
+   */
+  private static int appendClass(String regex, int start, StringBuilder out) {
+    int i = start + 1;
+    out.append('[');
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      out.append('^');
+      i++;
+    }
+
+    boolean first = true;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == ']' && !first) {
+        out.append(']');
+        return i + 1;
+      }
+      if (c == '[' || (c == '&' && i + 1 < regex.length() && regex.charAt(i + 1) == '&')) {
+        throw unsupported("nested classes and class intersection", regex);
+      }
+
+      if (c == '\\') {
+        i = appendEscape(regex, i, out, true);
+      } else if (c == '-' && !first && i + 1 < regex.length() && regex.charAt(i + 1) != ']') {
+        // a range; a '-' at the start or end of the class is a literal
+        out.append('-');
+        i++;
+      } else {
+        int codePoint = regex.codePointAt(i);
+        appendLiteral(out, codePoint);
+        i += Character.charCount(codePoint);
+      }
+      first = false;
+    }
+
+    throw new IllegalArgumentException("Unclosed character class in " + regex);
+  }
+
+  /**
+   * Appends the escape sequence starting at the given position and returns the position after it.
+   */
+  private static int appendEscape(String regex, int start, StringBuilder out, boolean inClass) {
+    if (start + 1 >= regex.length()) {
+      throw new IllegalArgumentException("Trailing backslash in " + regex);
+    }
+
+    char c = regex.charAt(start + 1);
+    int next = start + 2;
+    switch (c) {
+      case 'd':
+      case 'D':
+      case 'w':
+      case 'W':
+        out.append('\\').append(c);
+        return next;
+      case 's':
+        if (inClass) {
+          WHITESPACE.chars().forEach(ch -> appendLiteral(out, ch));
+        } else {
+          out.append('[');
+          WHITESPACE.chars().forEach(ch -> appendLiteral(out, ch));
+          out.append(']');
+        }
+        return next;
+      case 'S':
+        if (inClass) {
+          throw unsupported("\\S inside a character class", regex);
+        }
+        out.append("[^");
+        WHITESPACE.chars().forEach(ch -> appendLiteral(out, ch));
+        out.append(']');
+        return next;
+      case 't':
+        appendLiteral(out, '\t');
+        return next;
+      case 'n':
+        appendLiteral(out, '\n');
+        return next;
+      case 'r':
+        appendLiteral(out, '\r');
+        return next;
+      case 'f':
+        appendLiteral(out, '\f');
+        return next;
+      case 'a':
+        appendLiteral(out, '\u0007');
+        return next;
+      case 'e':
+        appendLiteral(out, '\u001B');
+        return next;
+      case '0':
+        int end = next;
+        while (end < regex.length() && end < next + 3 && regex.charAt(end) >= '0' && regex.charAt(end) <= '7') {
+          end++;
+        }
+        if (end == next) {
+          throw new IllegalArgumentException("Illegal octal escape in " + regex);
+        }
+        appendLiteral(out, Integer.parseInt(regex.substring(next, end), 8));
+        return end;
+      case 'x':
+        if (next < regex.length() && regex.charAt(next) == '{') {
+          int close = regex.indexOf('}', next);
+          if (close < 0) {
+            throw new IllegalArgumentException("Unclosed hexadecimal escape in " + regex);
+          }
+          appendLiteral(out, Integer.parseInt(regex.substring(next + 1, close), 16));
+          return close + 1;
+        }
+        appendLiteral(out, parseHex(regex, next, 2));
+        return next + 2;
+      case 'u':
+        appendLiteral(out, parseHex(regex, next, 4));
+        return next + 4;
+      case 'Q':
+        int quoteEnd = regex.indexOf("\\E", next);
+        String quoted = quoteEnd < 0 ? regex.substring(next) : regex.substring(next, quoteEnd);
+        quoted.codePoints().forEach(cp -> appendLiteral(out, cp));
+        return quoteEnd < 0 ? regex.length() : quoteEnd + 2;
+      default:
+        if (Character.isLetterOrDigit(c)) {
+          throw unsupported("the escape \\" + c, regex);
+        }
+        appendLiteral(out, c);
+        return next;
+    }
+  }
+
+  private static int parseHex(String regex, int start, int digits) {
+    if (start + digits > regex.length()) {
+      throw new IllegalArgumentException("Illegal hexadecimal escape in " + regex);
+    }
+    return Integer.parseInt(regex.substring(start, start + digits), 16);
+  }
+
+  private static void appendLiteral(StringBuilder out, int codePoint) {
+    // RegExp treats a backslash followed by any character other than d, w, or s as that character
+    if (!Character.isLetterOrDigit(codePoint)) {
+      out.append('\\');
+    }
+    out.appendCodePoint(codePoint);
+  }
+
+  private static IllegalArgumentException unsupported(String feature, String regex) {
+    return new IllegalArgumentException("The automaton engine does not support " + feature + ": " + regex);
+  }
+}
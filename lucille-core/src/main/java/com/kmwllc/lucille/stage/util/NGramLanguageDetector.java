@@ -0,0 +1,441 @@
+package com.kmwllc.lucille.stage.util;
+
+import com.cybozu.labs.langdetect.util.NGram;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kmwllc.lucille.core.StageException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Detects languages with the naive Bayes n-gram model of the langdetect library, scored in a single deterministic pass.
+ * <p>
+ * The model is built once per JVM from langdetect's language profiles on the classpath and is immutable, so it is shared
+ * by every thread without copying profiles to disk or going through langdetect's global DetectorFactory. N-grams are
+ * looked up by their characters packed into a long, so scoring a text allocates nothing per n-gram.
+ * <p>
+ * Texts no longer than maxLength are read in full. Longer texts are read through sampleWindows windows spread evenly
+ * across the text and together holding maxLength characters, so that a document which starts with boilerplate in one
+ * language is still identified by its body. Each window is scored on its own, and the result is the language with the
+ * highest probability averaged over the windows. Scoring of a window stops early once its most likely language reaches
+ * the exit probability.
+ */
+public class NGramLanguageDetector implements LanguageDetector {
+
+  // smoothing used by langdetect: each n-gram contributes ALPHA / BASE_FREQ to every language's probability
+  private static final double ALPHA = 0.5;
+  private static final double BASE_FREQ = 10_000;
+
+  // probabilities are normalized, and checked for an early exit, after this many n-grams
+  private static final int CHECK_INTERVAL = 5;
+
+  // the minimum number of n-grams read before scoring may stop early
+  private static final int MIN_NGRAMS = 20;
+
+  // the probability at which langdetect considers its result converged. naive Bayes probabilities overshoot on the first
+  // few n-grams, so scoring never stops below this, whatever the requested exit probability
+  private static final double CONVERGENCE_PROBABILITY = 0.99999;
+
+  private static final Pattern URL_OR_MAIL = Pattern.compile("https?://[-_.?&~;+=/#0-9A-Za-z]{1,2076}"
+      + "|[-_.0-9A-Za-z]{1,64}@[-_0-9A-Za-z]{1,255}[-_.0-9A-Za-z]{1,255}");
+
+  private final Model model;
+  private final int maxLength;
+  private final int sampleWindows;
+  private final double exitProbability;
+
+  /**
+   * @param maxLength the maximum number of characters to read from a text.
+   * @param sampleWindows the number of windows to read from a text longer than maxLength.
+   * @param exitProbability the probability at which the most likely language is accepted without reading further. Values
+   * below langdetect's convergence threshold of 0.99999 are raised to it.
+   */
+  public NGramLanguageDetector(int maxLength, int sampleWindows, double exitProbability) throws StageException {
+    if (maxLength < 1) {
+      throw new StageException("maxLength must be at least 1.");
+    }
+    if (sampleWindows < 1) {
+      throw new StageException("sampleWindows must be at least 1.");
+    }
+
+    this.model = Model.get();
+    this.maxLength = maxLength;
+    this.sampleWindows = sampleWindows;
+    this.exitProbability = Math.max(exitProbability, CONVERGENCE_PROBABILITY);
+  }
+
+  @Override
+  public Result detect(List<String> texts) {
+    double[] sum = new double[model.languages.length];
+    int scored = 0;
+
+    for (int[] window : sample(texts)) {
+      double[] probs = score(texts, window);
+      if (probs != null) {
+        for (int i = 0; i < sum.length; i++) {
+          sum[i] += probs[i];
+        }
+        scored++;
+      }
+    }
+
+    if (scored == 0) {
+      return null;
+    }
+
+    int best = 0;
+    for (int i = 1; i < sum.length; i++) {
+      if (sum[i] > sum[best]) {
+        best = i;
+      }
+    }
+    return new Result(model.languages[best], sum[best] / scored);
+  }
+
+  /**
+   * Returns the probability of each language for the given ranges of the texts, or null if they hold no known n-grams.
+   */
+  private double[] score(List<String> texts, int[] segments) {
+    // as langdetect does, ignore Latin letters in text that is mostly written in another script
+    int latin = 0;
+    int nonLatin = 0;
+    for (int s = 0; s < segments.length; s += 3) {
+      String text = texts.get(segments[s]);
+      for (int i = segments[s + 1]; i < segments[s + 2]; i++) {
+        char c = text.charAt(i);
+        if (c >= 'A' && c <= 'z') {
+          latin++;
+        } else if (c >= '\u0300' && Character.UnicodeBlock.of(c) != Character.UnicodeBlock.LATIN_EXTENDED_ADDITIONAL) {
+          nonLatin++;
+        }
+      }
+    }
+
+    Scorer scorer = new Scorer(model, latin * 2 < nonLatin);
+    for (int s = 0; s < segments.length && !scorer.done(exitProbability); s += 3) {
+      String text = texts.get(segments[s]);
+      Matcher skip = URL_OR_MAIL.matcher(text).region(segments[s + 1], segments[s + 2]);
+      int skipStart = skip.find() ? skip.start() : segments[s + 2];
+
+      scorer.add(' ');
+      for (int i = segments[s + 1]; i < segments[s + 2] && !scorer.done(exitProbability); i++) {
+        if (i == skipStart) {
+          scorer.add(' ');
+          i = skip.end() - 1;
+          skipStart = skip.find() ? skip.start() : segments[s + 2];
+          continue;
+        }
+        scorer.add(text.charAt(i));
+      }
+    }
+
+    return scorer.probabilities();
+  }
+
+  /**
+   * Returns the windows to read from the given texts, each as triples of text index, start and end.
+   */
+  private List<int[]> sample(List<String> texts) {
+    long total = 0;
+    for (String text : texts) {
+      total += text.length();
+    }
+
+    if (total <= maxLength || sampleWindows == 1) {
+      // read from the start, up to maxLength characters
+      return List.of(ranges(texts, 0, Math.min(total, maxLength)));
+    }
+
+    int windowLength = Math.max(1, maxLength / sampleWindows);
+    List<int[]> windows = new ArrayList<>(sampleWindows);
+    for (int w = 0; w < sampleWindows; w++) {
+      long start = w * (total - windowLength) / (sampleWindows - 1);
+      windows.add(ranges(texts, start, start + windowLength));
+    }
+    return windows;
+  }
+
+  /**
+   * Returns the ranges of the texts that hold the characters from start to end, counting through the texts as if they
+   * were joined, as triples of text index, start and end.
+   */
+  private static int[] ranges(List<String> texts, long start, long end) {
+    List<Integer> added = new ArrayList<>();
+    long offset = 0;
+    for (int t = 0; t < texts.size() && offset < end; t++) {
+      int length = texts.get(t).length();
+      if (offset + length > start) {
+        int from = (int) Math.max(0, start - offset);
+        int to = (int) Math.min(length, end - offset);
+
+        // a window that starts inside a word begins at the next word, so no partial word is read
+        if (from > 0 && offset + from == start) {
+          String text = texts.get(t);
+          while (from < to && !Character.isWhitespace(text.charAt(from - 1))) {
+            from++;
+          }
+        }
+
+        added.add(t);
+        added.add(from);
+        added.add(to);
+      }
+      offset += length;
+    }
+
+    int[] result = new int[added.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = added.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * The state of scoring one text: the last characters read, in the manner of langdetect's NGram, and the probability
+   * of each language.
+   */
+  private static final class Scorer {
+
+    private final Model model;
+    private final boolean skipLatin;
+    private final double[] probs;
+    private final char[] grams = {' ', 0, 0};
+    private int gramsLength = 1;
+    private boolean capitalWord = false;
+    private int count = 0;
+    private double best = 0;
+
+    private Scorer(Model model, boolean skipLatin) {
+      this.model = model;
+      this.skipLatin = skipLatin;
+      this.probs = new double[model.languages.length];
+      Arrays.fill(probs, 1.0 / probs.length);
+    }
+
+    private void add(char c) {
+      if (skipLatin && c >= 'A' && c <= 'z') {
+        return;
+      }
+
+      char ch = NGram.normalize(c);
+      char last = grams[gramsLength - 1];
+      if (last == ' ') {
+        grams[0] = ' ';
+        gramsLength = 1;
+        capitalWord = false;
+        if (ch == ' ') {
+          return;
+        }
+      } else if (gramsLength == NGram.N_GRAM) {
+        grams[0] = grams[1];
+        grams[1] = grams[2];
+        gramsLength = 2;
+      }
+      grams[gramsLength++] = ch;
+
+      if (Character.isUpperCase(ch)) {
+        if (Character.isUpperCase(last)) {
+          capitalWord = true;
+        }
+      } else {
+        capitalWord = false;
+      }
+
+      if (capitalWord) {
+        return;
+      }
+
+      if (ch != ' ') {
+        update(ch);
+      }
+      if (gramsLength >= 2) {
+        update(((long) 2 << 48) | ((long) grams[gramsLength - 2] << 16) | grams[gramsLength - 1]);
+      }
+      if (gramsLength == 3) {
+        update(((long) 3 << 48) | ((long) grams[0] << 32) | ((long) grams[1] << 16) | grams[2]);
+      }
+    }
+
+    private void update(char unigram) {
+      update(((long) 1 << 48) | unigram);
+    }
+
+    private void update(long key) {
+      int index = model.indexOf(key);
+      if (index < 0) {
+        return;
+      }
+
+      for (int i = model.offsets[index]; i < model.offsets[index + 1]; i++) {
+        probs[model.langs[i]] *= model.factors[i];
+      }
+
+      if (++count % CHECK_INTERVAL == 0) {
+        normalize();
+      }
+    }
+
+    private void normalize() {
+      double sum = 0;
+      for (double p : probs) {
+        sum += p;
+      }
+      best = 0;
+      for (int i = 0; i < probs.length; i++) {
+        probs[i] /= sum;
+        best = Math.max(best, probs[i]);
+      }
+    }
+
+    private boolean done(double exitProbability) {
+      return count >= MIN_NGRAMS && best >= exitProbability;
+    }
+
+    private double[] probabilities() {
+      if (count == 0) {
+        return null;
+      }
+
+      normalize();
+      return probs;
+    }
+  }
+
+  /**
+   * An immutable table of n-gram probabilities, holding for each n-gram only the languages in which it occurs.
+   */
+  static final class Model {
+
+    private static Model instance;
+
+    private final String[] languages;
+
+    // open addressing hash table from packed n-gram to n-gram index
+    private final long[] keys;
+    private final int[] indexes;
+    private final int mask;
+
+    // for n-gram i, entries offsets[i] to offsets[i + 1] hold a language index and the factor by which an occurrence of
+    // the n-gram multiplies that language's probability, relative to languages in which it does not occur
+    private final int[] offsets;
+    private final byte[] langs;
+    private final double[] factors;
+
+    static synchronized Model get() throws StageException {
+      if (instance == null) {
+        try {
+          instance = load(LangDetectLanguageDetector.PROFILES);
+        } catch (IOException e) {
+          throw new StageException("Unable to load language profiles", e);
+        }
+      }
+      return instance;
+    }
+
+    private Model(String[] languages, long[] keys, int[] indexes, int[] offsets, byte[] langs, double[] factors) {
+      this.languages = languages;
+      this.keys = keys;
+      this.indexes = indexes;
+      this.mask = keys.length - 1;
+      this.offsets = offsets;
+      this.langs = langs;
+      this.factors = factors;
+    }
+
+    private static Model load(String[] languages) throws IOException {
+      ObjectMapper mapper = new ObjectMapper();
+      JsonNode[] profiles = new JsonNode[languages.length];
+      Map<Long, List<double[]>> entries = new HashMap<>();
+
+      for (int lang = 0; lang < languages.length; lang++) {
+        try (InputStream in = NGramLanguageDetector.class.getClassLoader().getResourceAsStream("profiles/" + languages[lang])) {
+          if (in == null) {
+            throw new IOException("No language profile found for " + languages[lang]);
+          }
+          profiles[lang] = mapper.readTree(in);
+        }
+
+        JsonNode nWords = profiles[lang].get("n_words");
+        Iterator<Map.Entry<String, JsonNode>> freq = profiles[lang].get("freq").fields();
+        while (freq.hasNext()) {
+          Map.Entry<String, JsonNode> entry = freq.next();
+          String gram = entry.getKey();
+          if (gram.length() < 1 || gram.length() > NGram.N_GRAM) {
+            continue;
+          }
+
+          // langdetect multiplies each language's probability by ALPHA / BASE_FREQ + p(n-gram | language). the first term
+          // is shared by every language and cancels out on normalization, leaving a factor for languages where p > 0
+          double prob = entry.getValue().asDouble() / nWords.get(gram.length() - 1).asDouble();
+          double factor = 1 + prob / (ALPHA / BASE_FREQ);
+          entries.computeIfAbsent(pack(gram), k -> new ArrayList<>()).add(new double[] {lang, factor});
+        }
+      }
+
+      int capacity = Integer.highestOneBit(Math.max(2, entries.size() * 2 - 1)) << 1;
+      long[] keys = new long[capacity];
+      int[] indexes = new int[capacity];
+      int[] offsets = new int[entries.size() + 1];
+      int total = entries.values().stream().mapToInt(List::size).sum();
+      byte[] langs = new byte[total];
+      double[] factors = new double[total];
+
+      int index = 0;
+      int pos = 0;
+      for (Map.Entry<Long, List<double[]>> entry : entries.entrySet()) {
+        int slot = slot(entry.getKey(), capacity - 1);
+        while (keys[slot] != 0) {
+          slot = (slot + 1) & (capacity - 1);
+        }
+        keys[slot] = entry.getKey();
+        indexes[slot] = index;
+
+        offsets[index] = pos;
+        for (double[] langFactor : entry.getValue()) {
+          langs[pos] = (byte) langFactor[0];
+          factors[pos] = langFactor[1];
+          pos++;
+        }
+        index++;
+      }
+      offsets[index] = pos;
+
+      return new Model(languages.clone(), keys, indexes, offsets, langs, factors);
+    }
+
+    /**
+     * Packs an n-gram of one to three characters into a long holding its length and characters. The result is never 0.
+     */
+    static long pack(CharSequence gram) {
+      long key = (long) gram.length() << 48;
+      for (int i = 0; i < gram.length(); i++) {
+        key |= (long) gram.charAt(i) << (16 * (gram.length() - 1 - i));
+      }
+      return key;
+    }
+
+    private static int slot(long key, int mask) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    int indexOf(long key) {
+      int slot = slot(key, mask);
+      while (keys[slot] != 0) {
+        if (keys[slot] == key) {
+          return indexes[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+  }
+}
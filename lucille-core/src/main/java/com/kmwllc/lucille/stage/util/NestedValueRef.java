@@ -0,0 +1,116 @@
+package com.kmwllc.lucille.stage.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.FieldPath;
+
+/**
+ * A reference to a value nested within a Document, as used by the document proxies of the script stages. A reference
+ * is made up of its parent's reference and its own field name or array index, so referring to a member never copies
+ * a path. The value is found by walking down from its top-level field each time it is read, and a {@link FieldPath}
+ * is only built, once, when the value is written.
+ */
+public final class NestedValueRef {
+
+  private final Document doc;
+  private final NestedValueRef parent;
+  private final String name;
+  private final int index;
+
+  private FieldPath path;
+
+  private NestedValueRef(Document doc, NestedValueRef parent, String name, int index) {
+    this.doc = doc;
+    this.parent = parent;
+    this.name = name;
+    this.index = index;
+  }
+
+  /**
+   * Returns a reference to the given document itself.
+   */
+  public static NestedValueRef root(Document doc) {
+    NestedValueRef root = new NestedValueRef(doc, null, null, -1);
+    root.path = FieldPath.ROOT;
+    return root;
+  }
+
+  public boolean isRoot() {
+    return parent == null;
+  }
+
+  /**
+   * Returns a reference to the field with the given name within this value. The name is used as is.
+   */
+  public NestedValueRef child(String name) {
+    return new NestedValueRef(doc, this, name, -1);
+  }
+
+  /**
+   * Returns a reference to the element at the given index within this value.
+   */
+  public NestedValueRef child(int index) {
+    return new NestedValueRef(doc, this, null, index);
+  }
+
+  /**
+   * Returns a reference to the given member of this value, as named by a script. Below the root, a key made up only of
+   * digits is taken to be an array index.
+   */
+  public NestedValueRef member(String key) {
+    if (!isRoot() && isIndex(key)) {
+      return child(Integer.parseInt(key));
+    }
+    return child(key);
+  }
+
+  /**
+   * Returns the referenced value, or null if it doesn't exist. Returns null for the root.
+   */
+  public JsonNode get() {
+    if (isRoot()) {
+      return null;
+    }
+    if (parent.isRoot()) {
+      return doc.getJson(name);
+    }
+
+    JsonNode container = parent.get();
+    if (container == null) {
+      return null;
+    }
+    if (container.isArray()) {
+      return name == null && index < container.size() ? container.get(index) : null;
+    }
+    return name != null ? container.get(name) : null;
+  }
+
+  /**
+   * Returns the path of the referenced value, for writing it with {@link Document#setNestedJson(FieldPath, JsonNode)}
+   * or {@link Document#removeNestedJson(FieldPath)}.
+   */
+  public FieldPath getPath() {
+    if (path == null) {
+      path = name != null ? parent.getPath().child(name) : parent.getPath().child(index);
+    }
+    return path;
+  }
+
+  @Override
+  public String toString() {
+    return getPath().toString();
+  }
+
+  private static boolean isIndex(String key) {
+    if (key.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,148 @@
+package com.kmwllc.lucille.stage.util;
+
+import com.kmwllc.lucille.core.StageException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.Source;
+
+/**
+ * Shares GraalVM polyglot engines between the instances of script stages such as ApplyJavascript and EmbeddedPython.
+ *
+ * One Engine is created per language and shared by every pool for that language, so a script is parsed and compiled
+ * once for all of the Contexts that run it, and the engine warms up once rather than once per stage instance. Each stage
+ * instance acquires a pool of its own. It holds the script's Source and a set of Contexts, each of which runs one
+ * document at a time. A Context is created only when a caller finds none idle, so a pool holds at most as many Contexts
+ * as there are documents being processed at once by its stage.
+ *
+ * Contexts are never shared between pools, so globals defined by a script are only visible to later documents
+ * processed by the same stage instance, never to another stage or another worker's copy of the stage.
+ *
+ * Pools are obtained with {@link #acquire(String, Source)} in Stage start() and returned with
+ * {@link #release(PolyglotScriptPool)} in Stage stop(). A pool's Contexts are closed when it is released, and a
+ * language's Engine is closed once no pools for that language remain.
+ */
+public final class PolyglotScriptPool {
+
+  private static final Map<String, Engine> engines = new HashMap<>();
+  private static final Map<String, Integer> enginePoolCounts = new HashMap<>();
+
+  private final String language;
+  private final Source source;
+  private final Engine engine;
+  private final Queue<Context> idle = new ConcurrentLinkedQueue<>();
+  private final List<Context> all = new ArrayList<>();
+  private boolean released = false;
+
+  private PolyglotScriptPool(String language, Source source, Engine engine) {
+    this.language = language;
+    this.source = source;
+    this.engine = engine;
+  }
+
+  /**
+   * Returns a new pool for the given script, creating the Engine for its language if necessary. Each call must be
+   * paired with a call to {@link #release(PolyglotScriptPool)}. If the pool can't be created, nothing is left to
+   * release.
+   */
+  public static synchronized PolyglotScriptPool acquire(String language, Source source) throws StageException {
+    Engine engine = engines.get(language);
+    if (engine == null) {
+      try {
+        engine = Engine.newBuilder()
+            .option("engine.WarnInterpreterOnly", "false")
+            .option("log.level", "OFF")
+            .build();
+      } catch (Exception e) {
+        throw new StageException("Failed to initialize " + language + " engine.", e);
+      }
+      engines.put(language, engine);
+    }
+
+    PolyglotScriptPool pool = new PolyglotScriptPool(language, source, engine);
+    try {
+      // create one context up front so a runtime that cannot be initialized is reported at startup
+      pool.idle.add(pool.createContext());
+    } catch (StageException e) {
+      // don't keep an engine that no pool is using
+      if (!enginePoolCounts.containsKey(language)) {
+        engines.remove(language).close();
+      }
+      throw e;
+    }
+
+    enginePoolCounts.merge(language, 1, Integer::sum);
+    return pool;
+  }
+
+  /**
+   * Releases a pool previously obtained from {@link #acquire(String, Source)}, closing its Contexts.
+   */
+  public static synchronized void release(PolyglotScriptPool pool) {
+    if (pool == null || pool.released) {
+      return;
+    }
+
+    pool.released = true;
+    pool.closeContexts();
+
+    if (enginePoolCounts.merge(pool.language, -1, Integer::sum) == 0) {
+      enginePoolCounts.remove(pool.language);
+      engines.remove(pool.language).close();
+    }
+  }
+
+  static synchronized boolean hasEngine(String language) {
+    return engines.containsKey(language);
+  }
+
+  public Source getSource() {
+    return source;
+  }
+
+  /**
+   * Returns a Context for the exclusive use of the caller until it is passed to {@link #giveBack(Context)}.
+   */
+  public Context borrow() throws StageException {
+    Context context = idle.poll();
+    return context != null ? context : createContext();
+  }
+
+  public void giveBack(Context context) {
+    idle.add(context);
+  }
+
+  private Context createContext() throws StageException {
+    if (!engine.getLanguages().containsKey(language)) {
+      throw new StageException("The " + language + " language is not installed.");
+    }
+
+    try {
+      Context context = Context.newBuilder(language)
+          .engine(engine)
+          .allowAllAccess(true)
+          .build();
+      synchronized (all) {
+        all.add(context);
+      }
+      return context;
+    } catch (Exception e) {
+      throw new StageException("Failed to initialize " + language + " context.", e);
+    }
+  }
+
+  private void closeContexts() {
+    synchronized (all) {
+      for (Context context : all) {
+        context.close();
+      }
+      all.clear();
+    }
+    idle.clear();
+  }
+}
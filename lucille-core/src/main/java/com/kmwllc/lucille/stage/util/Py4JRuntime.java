@@ -30,14 +30,18 @@ public final class Py4JRuntime {
   /**
    * Defines methods that can be called on the python client via Py4J.
    *
-   * Here, exec() represents Py4jClient.exec(self, json_msg) in Py4jClient.py
+   * Here, exec() represents Py4jClient.exec(self, json_msg) in Py4jClient.py and execBatch() represents
+   * Py4jClient.execBatch(self, payload, payload_format).
    */
   private interface PythonClient {
     Object exec(String json);
+
+    Object execBatch(Object payload, String payloadFormat);
   }
 
-  private final Set<Integer> usedPorts = new HashSet<>();
-  private int nextPort = 25333; // Default Py4J port
+  // ports are tracked for the whole JVM because several runtimes may be started, one per python process
+  private static final Set<Integer> usedPorts = new HashSet<>();
+  private static int nextPort = 25333; // Default Py4J port
 
   private final String pythonExecutable;
   private final String scriptPath;
@@ -55,6 +59,7 @@ public final class Py4JRuntime {
     this.scriptPath = scriptPath;
     this.requirementsPath = requirementsPath;
     this.requestedPort = requestedPort;
+    this.venvPythonPath = Paths.get("python").toAbsolutePath().resolve("venv/bin/python").toString();
   }
 
   public String getPythonExecutable() {
@@ -79,12 +84,31 @@ public final class Py4JRuntime {
       return;
     }
 
+    prepareEnvironment();
+    launch();
+  }
+
+  /**
+   * Creates the managed virtual environment if needed and installs py4j, the given additional packages, and the
+   * requirements into it. Runtimes that share the environment only need to prepare it once before calling launch().
+   *
+   * @param extraPackages names of additional packages to install; each must be importable under the same name.
+   */
+  public void prepareEnvironment(String... extraPackages) throws StageException {
     checkPythonInstalled();
     ensureVenv();
     logPythonEnvironment();
-    ensurePy4JInVenv();
+    ensurePackageInVenv("py4j");
+    for (String extraPackage : extraPackages) {
+      ensurePackageInVenv(extraPackage);
+    }
     installRequirementsIfNeeded();
+  }
 
+  /**
+   * Starts the gateway and the python process, using an environment already set up by prepareEnvironment().
+   */
+  public void launch() throws StageException {
     boundPort = allocatePort(requestedPort);
     gateway = startGateway(boundPort);
     startPythonProcess(boundPort);
@@ -138,6 +162,23 @@ public final class Py4JRuntime {
     }
   }
 
+  /**
+   * Sends a list of messages to Python in one call. The payload is an encoded list of messages, each of the form
+   * accepted by exec(), and the result is an encoded list with one entry per message. JSON payloads are passed as
+   * Strings and CBOR payloads as byte arrays.
+   */
+  public Object execBatch(Object payload, String payloadFormat) throws StageException {
+    if (!isReady()) {
+      throw new StageException("Py4J handler not ready");
+    }
+
+    try {
+      return pythonClient.execBatch(payload, payloadFormat);
+    } catch (Exception e) {
+      throw new StageException("Error calling Python via Py4J", e);
+    }
+  }
+
   private static GatewayServer startGateway(int port) throws StageException {
     try {
       GatewayServer gateway = new GatewayServer(
@@ -265,8 +306,7 @@ public final class Py4JRuntime {
     }
 
     Path venvDir = pythonDir.resolve("venv");
-    Path venvPython = venvDir.resolve("bin/python");
-    venvPythonPath = venvPython.toAbsolutePath().toString();
+    Path venvPython = Paths.get(venvPythonPath);
     if (!Files.exists(venvPython)) {
       log.info("Python venv not found, creating venv in cwd...");
       int exitCode;
@@ -313,10 +353,11 @@ public final class Py4JRuntime {
     }
   }
 
-  private void ensurePy4JInVenv() throws StageException {
+  private void ensurePackageInVenv(String name) throws StageException {
     int pipCode;
     try {
-      Process check = new ProcessBuilder(venvPythonPath, "-c", "import py4j,sys;print(py4j.__version__)")
+      Process check = new ProcessBuilder(venvPythonPath, "-c",
+          "import " + name + ",sys;print(getattr(" + name + ", '__version__', 'installed'))")
           .redirectErrorStream(true).start();
       String out;
       try (BufferedReader reader = new BufferedReader(new InputStreamReader(check.getInputStream(), StandardCharsets.UTF_8))) {
@@ -324,18 +365,18 @@ public final class Py4JRuntime {
       }
       int code = check.waitFor();
       if (code == 0 && out != null && !out.toLowerCase().contains("traceback")) {
-        log.info("Detected py4j in venv: {}", out);
+        log.info("Detected {} in venv: {}", name, out);
         return;
       }
-      log.info("Installing py4j into venv...");
-      Process pip = new ProcessBuilder(venvPythonPath, "-m", "pip", "install", "py4j")
+      log.info("Installing {} into venv...", name);
+      Process pip = new ProcessBuilder(venvPythonPath, "-m", "pip", "install", name)
           .redirectErrorStream(true).start();
       pipCode = pip.waitFor();
     } catch (Exception e) {
-      throw new StageException("Failed to ensure py4j in venv: " + e.getMessage(), e);
+      throw new StageException("Failed to ensure " + name + " in venv: " + e.getMessage(), e);
     }
     if (pipCode != 0) {
-      throw new StageException("pip install py4j failed (exit=" + pipCode + ")");
+      throw new StageException("pip install " + name + " failed (exit=" + pipCode + ")");
     }
   }
 
@@ -401,7 +442,7 @@ public final class Py4JRuntime {
     }
   }
 
-  private synchronized int allocatePort(Integer myRequestedPort) throws StageException {
+  private static synchronized int allocatePort(Integer myRequestedPort) throws StageException {
     if (myRequestedPort != null && myRequestedPort > 0) {
       if (!isPortAvailable(myRequestedPort) || !isPortAvailable(myRequestedPort + 1)) {
         throw new StageException("Requested port range " + myRequestedPort + "-" + (myRequestedPort + 1) + " is not available");
@@ -434,7 +475,7 @@ public final class Py4JRuntime {
     }
   }
 
-  private synchronized void unmarkPort(int port) {
+  private static synchronized void unmarkPort(int port) {
     usedPorts.remove(port);
     usedPorts.remove(port + 1);
   }
@@ -7,7 +7,7 @@ public final class Py4JRuntimeManager {
 
   private static final Py4JRuntimeManager instance = new Py4JRuntimeManager();
 
-  private static Py4JRuntime runtime;
+  private static Py4JRuntimePool runtime;
   private int refCount = 0;
 
   private Py4JRuntimeManager() {
@@ -17,17 +17,31 @@ public final class Py4JRuntimeManager {
     return instance;
   }
 
-  public synchronized Py4JRuntime acquire(String pythonExecutable, String scriptPath, String requirementsPath, Integer port)
+  public synchronized Py4JRuntimePool acquire(String pythonExecutable, String scriptPath, String requirementsPath, Integer port)
       throws StageException {
+    return acquire(pythonExecutable, scriptPath, requirementsPath, port, 1, 1, Py4JRuntimePool.JSON_FORMAT);
+  }
+
+  public synchronized Py4JRuntimePool acquire(String pythonExecutable, String scriptPath, String requirementsPath, Integer port,
+      int numProcesses, int batchSize, String payloadFormat) throws StageException {
     if (runtime == null) {
-      runtime = new Py4JRuntime(pythonExecutable, scriptPath, requirementsPath, port);
-      runtime.start();
+      runtime = new Py4JRuntimePool(pythonExecutable, scriptPath, requirementsPath, port, numProcesses, batchSize, payloadFormat);
+      try {
+        runtime.start();
+      } catch (StageException e) {
+        runtime = null;
+        throw e;
+      }
     } else {
       if (!(Objects.equals(pythonExecutable, runtime.getPythonExecutable()) && Objects.equals(scriptPath, runtime.getScriptPath()) &&
-      Objects.equals(requirementsPath, runtime.getRequirementsPath()) && Objects.equals(port, runtime.getRequestedPort()))) {
+      Objects.equals(requirementsPath, runtime.getRequirementsPath()) && Objects.equals(port, runtime.getRequestedPort()) &&
+      numProcesses == runtime.getNumProcesses() && batchSize == runtime.getBatchSize() &&
+      Objects.equals(payloadFormat, runtime.getPayloadFormat()))) {
         throw new StageException("Illegal attempt to acquire Py4JRuntime with different parameters from the initialized instance.\n" +
-            "Provided Params: " + pythonExecutable + " " + scriptPath + " " + requirementsPath + " " + port + " \n" +
-            "Original Params: " + runtime.getPythonExecutable() + " " + runtime.getScriptPath() + " " + runtime.getRequirementsPath() + " " + runtime.getRequestedPort());
+            "Provided Params: " + pythonExecutable + " " + scriptPath + " " + requirementsPath + " " + port + " " +
+            numProcesses + " " + batchSize + " " + payloadFormat + " \n" +
+            "Original Params: " + runtime.getPythonExecutable() + " " + runtime.getScriptPath() + " " + runtime.getRequirementsPath() + " " +
+            runtime.getRequestedPort() + " " + runtime.getNumProcesses() + " " + runtime.getBatchSize() + " " + runtime.getPayloadFormat());
       }
     }
 
@@ -0,0 +1,321 @@
+package com.kmwllc.lucille.stage.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.StageException;
+import com.kmwllc.lucille.util.ThreadNameUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of python processes, each running the same script behind its own Py4J gateway, that share the work of
+ * processing documents.
+ *
+ * With a batch size of 1, each call is sent directly from the calling thread to the next process in round-robin order.
+ * With a larger batch size, calls are placed on a queue shared by one dispatcher thread per process. A dispatcher
+ * takes every call that is waiting, up to the batch size, and sends them to its process together, so a process that
+ * is busy never holds up calls that another process could take. No call waits for a batch to fill.
+ *
+ * Calls fail with a StageException, rather than waiting, once the pool has been stopped or if every dispatcher thread
+ * has died.
+ *
+ * Messages are encoded as JSON, or as CBOR when the payload format is "cbor". CBOR requires the cbor2 package, which is
+ * installed into the managed virtual environment.
+ */
+public final class Py4JRuntimePool {
+
+  private static final Logger log = LoggerFactory.getLogger(Py4JRuntimePool.class);
+
+  public static final String JSON_FORMAT = "json";
+  public static final String CBOR_FORMAT = "cbor";
+
+  // key of the object Py4jClient.execBatch returns in place of a result when the function raised an error
+  private static final String ERROR_KEY = "__lucille_error__";
+
+  // how often a caller waiting on a queued call checks that the pool is still able to complete it
+  private static final long LIVENESS_CHECK_MS = 1000;
+
+  private final String pythonExecutable;
+  private final String scriptPath;
+  private final String requirementsPath;
+  private final Integer requestedPort;
+  private final int numProcesses;
+  private final int batchSize;
+  private final String payloadFormat;
+  private final ObjectMapper mapper;
+
+  private final List<Py4JRuntime> runtimes = new ArrayList<>();
+  private final List<Thread> dispatchers = new CopyOnWriteArrayList<>();
+  private final BlockingQueue<Call> queue = new LinkedBlockingQueue<>();
+  private final AtomicInteger nextRuntime = new AtomicInteger();
+  private volatile boolean running = false;
+
+  public Py4JRuntimePool(String pythonExecutable, String scriptPath, String requirementsPath, Integer requestedPort,
+      int numProcesses, int batchSize, String payloadFormat) throws StageException {
+    if (numProcesses < 1) {
+      throw new StageException("numProcesses must be at least 1.");
+    }
+    if (batchSize < 1) {
+      throw new StageException("batchSize must be at least 1.");
+    }
+    if (!JSON_FORMAT.equals(payloadFormat) && !CBOR_FORMAT.equals(payloadFormat)) {
+      throw new StageException("payloadFormat must be " + JSON_FORMAT + " or " + CBOR_FORMAT + ".");
+    }
+
+    this.pythonExecutable = pythonExecutable;
+    this.scriptPath = scriptPath;
+    this.requirementsPath = requirementsPath;
+    this.requestedPort = requestedPort;
+    this.numProcesses = numProcesses;
+    this.batchSize = batchSize;
+    this.payloadFormat = payloadFormat;
+    this.mapper = CBOR_FORMAT.equals(payloadFormat) ? new ObjectMapper(new CBORFactory()) : new ObjectMapper();
+  }
+
+  public String getPythonExecutable() {
+    return pythonExecutable;
+  }
+
+  public String getScriptPath() {
+    return scriptPath;
+  }
+
+  public String getRequirementsPath() {
+    return requirementsPath;
+  }
+
+  public Integer getRequestedPort() {
+    return requestedPort;
+  }
+
+  public int getNumProcesses() {
+    return numProcesses;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public String getPayloadFormat() {
+    return payloadFormat;
+  }
+
+  public void start() throws StageException {
+    try {
+      for (int i = 0; i < numProcesses; i++) {
+        // an explicit port is the base port of the first process; each process needs a pair of ports
+        Integer port = requestedPort == null ? null : requestedPort + 2 * i;
+        Py4JRuntime runtime = new Py4JRuntime(pythonExecutable, scriptPath, requirementsPath, port);
+        runtimes.add(runtime);
+
+        if (i == 0) {
+          if (CBOR_FORMAT.equals(payloadFormat)) {
+            runtime.prepareEnvironment("cbor2");
+          } else {
+            runtime.prepareEnvironment();
+          }
+        }
+        runtime.launch();
+      }
+    } catch (StageException e) {
+      stop();
+      throw e;
+    }
+
+    if (batchSize > 1) {
+      for (Py4JRuntime runtime : runtimes) {
+        Thread dispatcher = new Thread(() -> dispatch(runtime), ThreadNameUtils.createName("Py4J-dispatcher"));
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        dispatchers.add(dispatcher);
+      }
+    }
+    running = true;
+  }
+
+  public void stop() throws StageException {
+    // set first, so a call queued after the queue is drained below fails rather than waiting
+    running = false;
+    for (Thread dispatcher : dispatchers) {
+      dispatcher.interrupt();
+    }
+    dispatchers.clear();
+
+    List<Call> pending = new ArrayList<>();
+    queue.drainTo(pending);
+    for (Call call : pending) {
+      call.result.completeExceptionally(new StageException("Py4J runtime stopped"));
+    }
+
+    StageException error = null;
+    for (Py4JRuntime runtime : runtimes) {
+      try {
+        runtime.stop();
+      } catch (StageException e) {
+        error = e;
+      }
+    }
+    runtimes.clear();
+
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  public boolean isReady() {
+    return !runtimes.isEmpty() && runtimes.stream().allMatch(Py4JRuntime::isReady);
+  }
+
+  /**
+   * Calls the given python function on the given Document and returns the function's result, or null if the function
+   * returned None.
+   */
+  public JsonNode exec(String method, Document doc) throws StageException {
+    if (!running) {
+      throw new StageException("Py4J runtime pool is not running");
+    }
+    Map<String, Object> msg = Map.of("method", method, "data", doc);
+
+    if (batchSize == 1) {
+      Py4JRuntime runtime = runtimes.get(Math.floorMod(nextRuntime.getAndIncrement(), runtimes.size()));
+      if (JSON_FORMAT.equals(payloadFormat)) {
+        return execJson(runtime, msg);
+      }
+      return checkResult(execBatch(runtime, List.of(msg)).get(0));
+    }
+
+    Call call = new Call(msg);
+    queue.add(call);
+    try {
+      while (true) {
+        try {
+          return call.result.get(LIVENESS_CHECK_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          if (!running || dispatchers.stream().noneMatch(Thread::isAlive)) {
+            queue.remove(call);
+            // has no effect if a dispatcher completed the call in the meantime
+            call.result.completeExceptionally(new StageException("Py4J runtime stopped"));
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StageException("Interrupted while waiting for Python", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof StageException) {
+        throw (StageException) e.getCause();
+      }
+      throw new StageException("Error calling Python via Py4J", e.getCause());
+    }
+  }
+
+  private JsonNode execJson(Py4JRuntime runtime, Map<String, Object> msg) throws StageException {
+    try {
+      String responseJson = runtime.exec(mapper.writeValueAsString(msg));
+      return responseJson == null || responseJson.isEmpty() ? null : mapper.readTree(responseJson);
+    } catch (StageException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new StageException("Failed to exchange document with Python", e);
+    }
+  }
+
+  /**
+   * Sends the given messages in one call and returns one result per message. The result for a message that raised an
+   * error in python is an error object to be passed to checkResult().
+   */
+  private List<JsonNode> execBatch(Py4JRuntime runtime, List<Map<String, Object>> msgs) throws StageException {
+    JsonNode results;
+    try {
+      Object payload = CBOR_FORMAT.equals(payloadFormat) ? mapper.writeValueAsBytes(msgs) : mapper.writeValueAsString(msgs);
+      Object response = runtime.execBatch(payload, payloadFormat);
+      results = response instanceof byte[] ? mapper.readTree((byte[]) response) : mapper.readTree(String.valueOf(response));
+    } catch (StageException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new StageException("Failed to exchange documents with Python", e);
+    }
+
+    if (!results.isArray() || results.size() != msgs.size()) {
+      throw new StageException("Expected " + msgs.size() + " results from Python but received " + results.size());
+    }
+
+    List<JsonNode> list = new ArrayList<>(msgs.size());
+    for (JsonNode result : results) {
+      list.add(result.isNull() ? null : result);
+    }
+    return list;
+  }
+
+  private static JsonNode checkResult(JsonNode result) throws StageException {
+    if (result != null && result.isObject() && result.has(ERROR_KEY)) {
+      throw new StageException("Error in Python: " + result.get(ERROR_KEY).asText());
+    }
+    return result;
+  }
+
+  private void dispatch(Py4JRuntime runtime) {
+    List<Call> batch = new ArrayList<>(batchSize);
+    List<Map<String, Object>> msgs = new ArrayList<>(batchSize);
+
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(batch, batchSize - 1);
+
+      for (Call call : batch) {
+        msgs.add(call.msg);
+      }
+
+      try {
+        List<JsonNode> results = execBatch(runtime, msgs);
+        for (int i = 0; i < batch.size(); i++) {
+          try {
+            batch.get(i).result.complete(checkResult(results.get(i)));
+          } catch (StageException e) {
+            batch.get(i).result.completeExceptionally(e);
+          }
+        }
+      } catch (Exception e) {
+        log.warn("Python call failed for a batch of {} documents.", batch.size(), e);
+        for (Call call : batch) {
+          call.result.completeExceptionally(e);
+        }
+      } finally {
+        // if this thread is dying from an Error, the calls it took are failed rather than left waiting
+        for (Call call : batch) {
+          call.result.completeExceptionally(new StageException("Py4J dispatcher stopped"));
+        }
+      }
+
+      batch.clear();
+      msgs.clear();
+    }
+  }
+
+  private static final class Call {
+
+    private final Map<String, Object> msg;
+    private final CompletableFuture<JsonNode> result = new CompletableFuture<>();
+
+    private Call(Map<String, Object> msg) {
+      this.msg = msg;
+    }
+  }
+}
@@ -0,0 +1,341 @@
+package com.kmwllc.lucille.stage.util;
+
+import com.kmwllc.lucille.core.StageException;
+import com.kmwllc.lucille.util.FileContentFetcher;
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import com.typesafe.config.Config;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.monitor.MatchingQueries;
+import org.apache.lucene.monitor.Monitor;
+import org.apache.lucene.monitor.MonitorConfiguration;
+import org.apache.lucene.monitor.MonitorQuery;
+import org.apache.lucene.monitor.MonitorQuerySerializer;
+import org.apache.lucene.monitor.MultiMatchingQueries;
+import org.apache.lucene.monitor.MultipassTermFilteredPresearcher;
+import org.apache.lucene.monitor.Presearcher;
+import org.apache.lucene.monitor.QueryMatch;
+import org.apache.lucene.monitor.TermFilteredPresearcher;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Lucene Monitor holding a set of saved queries, shared by every MatchQuery stage instance configured with the same
+ * queries and settings, so that the queries are parsed and indexed once per JVM rather than once per worker thread.
+ * <p>
+ * Queries are given inline and/or in a CSV file where each line holds a query ID followed by a query string. When an
+ * index path is given, the Monitor keeps its query index on disk at that path. A fingerprint of the queries and
+ * settings is stored alongside the index, and when a later run finds the same fingerprint, the index is reused as is
+ * instead of being rebuilt; only the stored queries are re-parsed.
+ * <p>
+ * With a batch size greater than 1, documents submitted at the same time by different threads are matched together
+ * with a single call to Monitor.match(Document[], ...), so the presearcher runs once per batch rather than once per
+ * document. Every thread that submits a document matches whatever documents are waiting, up to the batch size, so
+ * batching never reduces the number of threads doing work, and no document waits for a batch to fill.
+ * <p>
+ * Monitors are obtained with {@link #acquire} in Stage start() and returned with {@link #release(QueryMonitor)} in
+ * Stage stop(). A Monitor is closed once its last holder releases it.
+ */
+public final class QueryMonitor {
+
+  private static final Logger log = LoggerFactory.getLogger(QueryMonitor.class);
+
+  public static final String TERM_PRESEARCHER = "term";
+  public static final String MULTIPASS_PRESEARCHER = "multipass";
+
+  private static final String FINGERPRINT_FILE = "lucille-queries.sha256";
+
+  // queries are registered in chunks so that a large query set is not held in memory twice
+  private static final int REGISTER_CHUNK_SIZE = 10_000;
+
+  private static final Map<List<Object>, QueryMonitor> monitors = new HashMap<>();
+
+  private final List<Object> key;
+  // the normalized directory of the query index on disk, or null if it is kept in memory
+  private final Path indexPath;
+  private final Monitor monitor;
+  private final int batchSize;
+  private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+  private int refCount = 0;
+
+  private QueryMonitor(List<Object> key, Path indexPath, Monitor monitor, int batchSize) {
+    this.key = key;
+    this.indexPath = indexPath;
+    this.monitor = monitor;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Returns the shared QueryMonitor for the given queries and settings, creating it if necessary. Each call must be
+   * paired with a call to {@link #release(QueryMonitor)}.
+   *
+   * @param defaultField the field searched by query terms that do not name a field.
+   * @param queries queries given inline, by query ID.
+   * @param queriesPath the path of a CSV file of query IDs and query strings, or null.
+   * @param indexPath the directory in which to keep the query index on disk, or null to keep it in memory.
+   * @param presearcher the presearcher to use, either "term" or "multipass".
+   * @param presearcherPasses the number of passes made by the multipass presearcher.
+   * @param batchSize the maximum number of documents to match at once.
+   * @param config the stage config, used to read queriesPath from cloud storage.
+   */
+  public static synchronized QueryMonitor acquire(String defaultField, Map<String, String> queries, String queriesPath,
+      String indexPath, String presearcher, int presearcherPasses, int batchSize, Config config) throws StageException {
+    Path indexDir = indexPath != null ? Paths.get(indexPath).toAbsolutePath().normalize() : null;
+    List<Object> key = Arrays.asList(defaultField, queries, queriesPath, indexDir, presearcher, presearcherPasses, batchSize);
+
+    QueryMonitor queryMonitor = monitors.get(key);
+    if (queryMonitor == null) {
+      if (indexDir != null && monitors.values().stream().anyMatch(m -> indexDir.equals(m.indexPath))) {
+        throw new StageException("The query index at " + indexPath + " is already in use with different queries or settings.");
+      }
+
+      try {
+        queryMonitor = new QueryMonitor(key, indexDir,
+            createMonitor(defaultField, queries, queriesPath, indexDir, presearcher, presearcherPasses, config), batchSize);
+      } catch (IOException | IllegalArgumentException e) {
+        throw new StageException("Failed to build query monitor.", e);
+      }
+      monitors.put(key, queryMonitor);
+    }
+
+    queryMonitor.refCount++;
+    return queryMonitor;
+  }
+
+  /**
+   * Releases a QueryMonitor previously obtained from {@link #acquire}.
+   */
+  public static synchronized void release(QueryMonitor queryMonitor) throws StageException {
+    if (queryMonitor == null || queryMonitor.refCount == 0) {
+      return;
+    }
+
+    queryMonitor.refCount--;
+    if (queryMonitor.refCount > 0) {
+      return;
+    }
+
+    monitors.remove(queryMonitor.key);
+    try {
+      queryMonitor.monitor.close();
+    } catch (IOException e) {
+      throw new StageException("Failed to close query monitor.", e);
+    }
+  }
+
+  public int getQueryCount() throws IOException {
+    return monitor.getQueryCount();
+  }
+
+  /**
+   * Returns the IDs of the queries that match the given document.
+   */
+  public List<String> match(Document doc) throws IOException {
+    if (batchSize == 1) {
+      return ids(monitor.match(doc, QueryMatch.SIMPLE_MATCHER));
+    }
+
+    Pending mine = new Pending(doc);
+    pending.add(mine);
+
+    while (!mine.result.isDone()) {
+      List<Pending> batch = new ArrayList<>(batchSize);
+      Pending next;
+      while (batch.size() < batchSize && (next = pending.poll()) != null) {
+        batch.add(next);
+      }
+
+      if (batch.isEmpty()) {
+        // another thread has taken this document into its batch
+        break;
+      }
+      matchBatch(batch);
+    }
+
+    try {
+      return mine.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for matches.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to match document.", e.getCause());
+    }
+  }
+
+  private void matchBatch(List<Pending> batch) {
+    Document[] docs = new Document[batch.size()];
+    for (int i = 0; i < docs.length; i++) {
+      docs[i] = batch.get(i).doc;
+    }
+
+    try {
+      MultiMatchingQueries<QueryMatch> matches = monitor.match(docs, QueryMatch.SIMPLE_MATCHER);
+      for (int i = 0; i < docs.length; i++) {
+        List<String> ids = new ArrayList<>();
+        for (QueryMatch match : matches.getMatches(i)) {
+          ids.add(match.getQueryId());
+        }
+        batch.get(i).result.complete(ids);
+      }
+    } catch (Exception e) {
+      for (Pending p : batch) {
+        p.result.completeExceptionally(e);
+      }
+    }
+  }
+
+  private static List<String> ids(MatchingQueries<QueryMatch> matches) {
+    List<String> ids = new ArrayList<>(matches.getMatchCount());
+    for (QueryMatch match : matches.getMatches()) {
+      ids.add(match.getQueryId());
+    }
+    return ids;
+  }
+
+  private static Monitor createMonitor(String defaultField, Map<String, String> inlineQueries, String queriesPath,
+      Path indexPath, String presearcherName, int presearcherPasses, Config config) throws IOException, StageException {
+    Analyzer analyzer = new StandardAnalyzer();
+
+    Presearcher presearcher;
+    if (TERM_PRESEARCHER.equals(presearcherName)) {
+      presearcher = new TermFilteredPresearcher();
+    } else if (MULTIPASS_PRESEARCHER.equals(presearcherName)) {
+      presearcher = new MultipassTermFilteredPresearcher(presearcherPasses);
+    } else {
+      throw new StageException("presearcher must be " + TERM_PRESEARCHER + " or " + MULTIPASS_PRESEARCHER + ".");
+    }
+
+    Map<String, String> queries = new LinkedHashMap<>(inlineQueries);
+    if (queriesPath != null) {
+      queries.putAll(readQueries(queriesPath, config));
+    }
+
+    MonitorConfiguration monitorConfig = new MonitorConfiguration();
+    Path fingerprintPath = null;
+    String fingerprint = null;
+    if (indexPath != null) {
+      Files.createDirectories(indexPath);
+      monitorConfig.setDirectoryProvider(() -> FSDirectory.open(indexPath),
+          MonitorQuerySerializer.fromParser(q -> parse(new QueryParser(defaultField, analyzer), q)));
+      fingerprintPath = indexPath.resolve(FINGERPRINT_FILE);
+      fingerprint = fingerprint(defaultField, presearcherName, presearcherPasses, queries);
+    }
+
+    Monitor monitor = new Monitor(analyzer, presearcher, monitorConfig);
+    try {
+      if (fingerprintPath != null && Files.exists(fingerprintPath)
+          && fingerprint.equals(Files.readString(fingerprintPath, StandardCharsets.UTF_8))) {
+        log.info("Reusing query index at {} with {} queries.", indexPath, monitor.getQueryCount());
+        return monitor;
+      }
+
+      monitor.clear();
+      QueryParser parser = new QueryParser(defaultField, analyzer);
+      List<MonitorQuery> chunk = new ArrayList<>(Math.min(queries.size(), REGISTER_CHUNK_SIZE));
+      for (Map.Entry<String, String> query : queries.entrySet()) {
+        chunk.add(new MonitorQuery(query.getKey(), parse(parser, query.getValue()), query.getValue(), Map.of()));
+        if (chunk.size() == REGISTER_CHUNK_SIZE) {
+          monitor.register(chunk);
+          chunk.clear();
+        }
+      }
+      monitor.register(chunk);
+
+      if (fingerprintPath != null) {
+        Files.writeString(fingerprintPath, fingerprint, StandardCharsets.UTF_8);
+      }
+      log.info("Registered {} queries.", queries.size());
+      return monitor;
+    } catch (IOException | RuntimeException e) {
+      monitor.close();
+      throw e;
+    }
+  }
+
+  private static Query parse(QueryParser parser, String query) {
+    try {
+      return parser.parse(query);
+    } catch (ParseException e) {
+      throw new IllegalArgumentException("Could not parse query: " + query, e);
+    }
+  }
+
+  /**
+   * Reads a CSV file in which each line holds a query ID followed by a query string.
+   */
+  private static Map<String, String> readQueries(String queriesPath, Config config) throws IOException {
+    FileContentFetcher fetcher = FileContentFetcher.create(config);
+    fetcher.startup();
+
+    try (CSVReader reader = new CSVReader(fetcher.getReader(queriesPath))) {
+      Map<String, String> queries = new LinkedHashMap<>();
+      String[] line;
+      while ((line = reader.readNext()) != null) {
+        if (line.length == 0 || (line.length == 1 && line[0].isBlank())) {
+          continue;
+        }
+        if (line.length != 2) {
+          throw new IOException(String.format("Expected a query ID and a query on line %d of %s", reader.getLinesRead(), queriesPath));
+        }
+        queries.put(line[0].trim(), line[1]);
+      }
+      return queries;
+    } catch (CsvValidationException e) {
+      throw new IOException("Error validating CSV", e);
+    } finally {
+      fetcher.shutdown();
+    }
+  }
+
+  private static String fingerprint(String defaultField, String presearcher, int presearcherPasses, Map<String, String> queries) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    digest.update((defaultField + "\n" + presearcher + "\n" + presearcherPasses + "\n").getBytes(StandardCharsets.UTF_8));
+    for (Map.Entry<String, String> query : queries.entrySet()) {
+      digest.update((query.getKey() + "\u0000" + query.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static final class Pending {
+
+    private final Document doc;
+    private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+
+    private Pending(Document doc) {
+      this.doc = doc;
+    }
+  }
+}
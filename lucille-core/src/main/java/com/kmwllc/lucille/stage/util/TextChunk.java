@@ -0,0 +1,202 @@
+package com.kmwllc.lucille.stage.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * A chunk of text held as one or more character ranges of a source text, read as if the ranges were joined by a single
+ * space. Merging, overlapping, trimming and truncating chunks only combine and narrow ranges, so no characters are copied
+ * until a chunk's text is requested with {@link #toString()}.
+ * <p>
+ * The operations mirror their String counterparts: {@link #join(List)} behaves like String.join(" ", ...),
+ * {@link #slice(int, int)} like substring, and {@link #trim()} like String.trim(). All chunks that are joined together must
+ * share the same source text.
+ */
+public final class TextChunk {
+
+  private final CharSequence text;
+
+  // start and end offsets into text of each range, in order: start0, end0, start1, end1, ...
+  private final int[] bounds;
+
+  // the number of characters in the chunk, counting one space between each pair of ranges
+  private final int length;
+
+  private TextChunk(CharSequence text, int[] bounds, int length) {
+    this.text = text;
+    this.bounds = bounds;
+    this.length = length;
+  }
+
+  /**
+   * Returns a chunk holding the characters of the given text from start (inclusive) to end (exclusive).
+   */
+  public static TextChunk of(CharSequence text, int start, int end) {
+    if (start < 0 || end < start || end > text.length()) {
+      throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + text.length());
+    }
+    return new TextChunk(text, new int[] {start, end}, end - start);
+  }
+
+  /**
+   * Returns a chunk holding the text of the given chunks, separated by single spaces.
+   */
+  public static TextChunk join(List<TextChunk> chunks) {
+    if (chunks.size() == 1) {
+      return chunks.get(0);
+    }
+
+    int size = 0;
+    int length = chunks.size() - 1;
+    for (TextChunk chunk : chunks) {
+      if (chunk.text != chunks.get(0).text) {
+        throw new IllegalArgumentException("Chunks must share the same source text to be joined.");
+      }
+      size += chunk.bounds.length;
+      length += chunk.length;
+    }
+
+    int[] bounds = new int[size];
+    int pos = 0;
+    for (TextChunk chunk : chunks) {
+      System.arraycopy(chunk.bounds, 0, bounds, pos, chunk.bounds.length);
+      pos += chunk.bounds.length;
+    }
+    return new TextChunk(chunks.get(0).text, bounds, length);
+  }
+
+  /**
+   * Returns a chunk holding the text of the given chunks, separated by single spaces.
+   */
+  public static TextChunk join(TextChunk... chunks) {
+    return join(Arrays.asList(chunks));
+  }
+
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Returns the part of this chunk from the given start (inclusive) to end (exclusive).
+   */
+  public TextChunk slice(int from, int to) {
+    if (from < 0 || to < from || to > length) {
+      throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", length " + length);
+    }
+    if (from == 0 && to == length) {
+      return this;
+    }
+    if (from == to) {
+      return new TextChunk(text, new int[] {bounds[0], bounds[0]}, 0);
+    }
+
+    int[] sliced = new int[bounds.length];
+    int size = 0;
+    int rangeStart = 0;
+
+    for (int i = 0; i < bounds.length; i += 2) {
+      int rangeLength = bounds[i + 1] - bounds[i];
+      int rangeEnd = rangeStart + rangeLength;
+
+      // a range is kept, possibly empty, when the slice covers any of its characters or the space on either side of it
+      if (from <= rangeEnd && to >= rangeStart) {
+        int start = Math.min(rangeLength, Math.max(0, from - rangeStart));
+        int end = Math.max(start, Math.min(rangeLength, to - rangeStart));
+        sliced[size++] = bounds[i] + start;
+        sliced[size++] = bounds[i] + end;
+      }
+
+      rangeStart = rangeEnd + 1;
+    }
+
+    return new TextChunk(text, Arrays.copyOf(sliced, size), to - from);
+  }
+
+  /**
+   * Returns the first n characters of this chunk, or this chunk if it is no longer than n.
+   */
+  public TextChunk truncate(int n) {
+    return n >= length ? this : slice(0, n);
+  }
+
+  /**
+   * Returns this chunk without leading or trailing whitespace, using the same definition of whitespace as String.trim().
+   */
+  public TextChunk trim() {
+    int first = -1;
+    int rangeStart = 0;
+    for (int i = 0; i < bounds.length && first < 0; i += 2) {
+      for (int k = bounds[i]; k < bounds[i + 1]; k++) {
+        if (text.charAt(k) > ' ') {
+          first = rangeStart + k - bounds[i];
+          break;
+        }
+      }
+      rangeStart += bounds[i + 1] - bounds[i] + 1;
+    }
+
+    if (first < 0) {
+      return slice(0, 0);
+    }
+
+    int last = -1;
+    int rangeEnd = length;
+    for (int i = bounds.length - 2; i >= 0 && last < 0; i -= 2) {
+      for (int k = bounds[i + 1] - 1; k >= bounds[i]; k--) {
+        if (text.charAt(k) > ' ') {
+          last = rangeEnd - (bounds[i + 1] - k);
+          break;
+        }
+      }
+      rangeEnd -= bounds[i + 1] - bounds[i] + 1;
+    }
+
+    return slice(first, last + 1);
+  }
+
+  /**
+   * Appends the text of this chunk to the given buffer, replacing each match of the given matcher's pattern with the given
+   * replacement, and returns the appended text as a chunk of the buffer. Matches are found within each range separately.
+   * The replacement is inserted literally.
+   */
+  public TextChunk replaceInto(StringBuilder buffer, Matcher matcher, String replacement) {
+    int start = buffer.length();
+    matcher.reset(text);
+
+    for (int i = 0; i < bounds.length; i += 2) {
+      if (i > 0) {
+        buffer.append(' ');
+      }
+
+      int last = bounds[i];
+      matcher.region(bounds[i], bounds[i + 1]);
+      while (matcher.find()) {
+        buffer.append(text, last, matcher.start()).append(replacement);
+        last = matcher.end();
+      }
+      buffer.append(text, last, bounds[i + 1]);
+    }
+
+    return of(buffer, start, buffer.length());
+  }
+
+  /**
+   * Returns the text of this chunk.
+   */
+  @Override
+  public String toString() {
+    if (bounds.length == 2) {
+      return text.subSequence(bounds[0], bounds[1]).toString();
+    }
+
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < bounds.length; i += 2) {
+      if (i > 0) {
+        builder.append(' ');
+      }
+      builder.append(text, bounds[i], bounds[i + 1]);
+    }
+    return builder.toString();
+  }
+}
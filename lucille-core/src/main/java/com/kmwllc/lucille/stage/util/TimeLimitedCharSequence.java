@@ -0,0 +1,72 @@
+package com.kmwllc.lucille.stage.util;
+
+/**
+ * A CharSequence that throws a {@link TimeLimitExceededException} from charAt() once a deadline has passed. Regex
+ * matchers read their input through charAt(), so wrapping a value in a TimeLimitedCharSequence bounds the time spent
+ * matching it, including time lost to catastrophic backtracking in java.util.regex.
+ */
+public final class TimeLimitedCharSequence implements CharSequence {
+
+  // reading the clock on every call would cost more than the matching itself
+  private static final int CHECK_INTERVAL = 1024;
+
+  private final CharSequence chars;
+  private final long deadline;
+  private int calls = 0;
+
+  /**
+   * @param chars the characters to wrap.
+   * @param deadline the deadline, as a value of System.nanoTime().
+   */
+  public TimeLimitedCharSequence(CharSequence chars, long deadline) {
+    this.chars = chars;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Wraps the given characters with a deadline the given number of milliseconds from now.
+   */
+  public static TimeLimitedCharSequence withTimeout(CharSequence chars, long timeoutMillis) {
+    return new TimeLimitedCharSequence(chars, System.nanoTime() + timeoutMillis * 1_000_000L);
+  }
+
+  public long getDeadline() {
+    return deadline;
+  }
+
+  @Override
+  public int length() {
+    return chars.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (++calls >= CHECK_INTERVAL) {
+      calls = 0;
+      if (System.nanoTime() - deadline > 0) {
+        throw new TimeLimitExceededException();
+      }
+    }
+    return chars.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return new TimeLimitedCharSequence(chars.subSequence(start, end), deadline);
+  }
+
+  @Override
+  public String toString() {
+    return chars.toString();
+  }
+
+  /**
+   * Thrown when a TimeLimitedCharSequence is read after its deadline.
+   */
+  public static class TimeLimitExceededException extends RuntimeException {
+
+    public TimeLimitExceededException() {
+      super("Time limit exceeded while reading characters.");
+    }
+  }
+}
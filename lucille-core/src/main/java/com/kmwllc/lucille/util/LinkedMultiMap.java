@@ -1,6 +1,7 @@
 package com.kmwllc.lucille.util;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
@@ -13,10 +14,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -27,6 +30,10 @@ public class LinkedMultiMap implements MultiMap, Serializable {
 
   private LinkedHashMap<String, Object> data;
 
+  // keys whose value list or JsonNode is also referenced by a copy of this map, mapped to that value. The value is
+  // copied before it is modified in place. null if nothing is shared.
+  private transient Map<String, Object> shared;
+
   public static final Set<Class<?>> SUPPORTED_TYPES =
       Collections.unmodifiableSet(new HashSet<>(
           List.of(
@@ -43,7 +50,8 @@ public class LinkedMultiMap implements MultiMap, Serializable {
               ArrayNode.class,
               Date.class,
               Timestamp.class,
-              byte[].class)));
+              byte[].class,
+              float[].class)));
 
 
   public LinkedMultiMap() {
@@ -129,9 +137,49 @@ public class LinkedMultiMap implements MultiMap, Serializable {
         : Collections.singletonList(data.get(name));
   }
 
+  /**
+   * Returns a copy of this map. The copy shares its mutable values (lists and JsonNodes) with this map until either
+   * map modifies one of them, at which point that value alone is copied in the map being modified.
+   */
   @Override
   public MultiMap deepCopy() {
-    return new LinkedMultiMap((LinkedHashMap) data.clone());
+    LinkedMultiMap copy = new LinkedMultiMap((LinkedHashMap) data.clone());
+    for (Map.Entry<String, Object> entry : data.entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof List || value instanceof JsonNode) {
+        markShared(entry.getKey(), value);
+        copy.markShared(entry.getKey(), value);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Ensures the value of the given key is not shared with a copy of this map, copying it if necessary. Called before
+   * handing out a value that the caller may modify in place.
+   */
+  public void detach(String key) {
+    Object value = data.get(key);
+    if (shared == null || value == null || shared.remove(key) != value) {
+      return;
+    }
+
+    if (value instanceof List) {
+      List<Object> copy = new ArrayList<>(((List<Object>) value).size());
+      for (Object element : (List<Object>) value) {
+        copy.add(element instanceof JsonNode ? ((JsonNode) element).deepCopy() : element);
+      }
+      data.put(key, copy);
+    } else {
+      data.put(key, ((JsonNode) value).deepCopy());
+    }
+  }
+
+  private void markShared(String key, Object value) {
+    if (shared == null) {
+      shared = new HashMap<>();
+    }
+    shared.put(key, value);
   }
 
   @Override
@@ -174,6 +222,7 @@ public class LinkedMultiMap implements MultiMap, Serializable {
     }
 
     if (isMultiValued(name)) {
+      detach(name);
       ((List) data.get(name)).add(value);
     } else {
       data.put(name, makeList(data.remove(name), value));
@@ -201,6 +250,7 @@ public class LinkedMultiMap implements MultiMap, Serializable {
   @Override
   public void clear() {
     data.clear();
+    shared = null;
   }
 
   @Override
@@ -210,6 +260,12 @@ public class LinkedMultiMap implements MultiMap, Serializable {
       throw new IllegalArgumentException("newName must not be null or already exist");
     }
 
+    // a shared value keeps being shared under its new name
+    Object sharedValue = shared == null ? null : shared.remove(oldName);
+    if (sharedValue != null && sharedValue == data.get(oldName)) {
+      markShared(newName, sharedValue);
+    }
+
     if (isMultiValued(oldName)) {
       putMany(newName, (List) data.remove(oldName));
     } else {
@@ -228,6 +284,7 @@ public class LinkedMultiMap implements MultiMap, Serializable {
     if (!isMultiValued(name)) {
       throw new IllegalArgumentException("name must be multi-valued");
     }
+    detach(name);
     List<Object> list = (List) data.get(name);
     if (index < 0 || index >= list.size()) {
       throw new IllegalArgumentException(
@@ -27,7 +27,7 @@ public class SolrUtils {
   public static final Spec SOLR_PARENT_SPEC = SpecBuilder.parent("solr")
       .requiredList("url", new TypeReference<List<String>>() {})
       .optionalString("zkChroot", "defaultCollection", "userName", "password")
-      .optionalBoolean("useCloudClient", "acceptInvalidCert")
+      .optionalBoolean("useCloudClient", "acceptInvalidCert", "routeUpdatesToLeaders")
       .optionalString(SSLUtils.SSL_CONFIG_OPTIONAL_PROPERTIES)
       .optionalList("zkHosts", new TypeReference<List<String>>(){}).build();
 
@@ -70,6 +70,10 @@ public class SolrUtils {
     if (config.hasPath("solr.defaultCollection")) {
       cloudBuilder.withDefaultCollection(config.getString("solr.defaultCollection"));
     }
+    // the client already routes updates to shard leaders, but falls back to other replicas, which forward them
+    if (config.hasPath("solr.routeUpdatesToLeaders") && config.getBoolean("solr.routeUpdatesToLeaders")) {
+      cloudBuilder.sendDirectUpdatesToShardLeadersOnly();
+    }
 
     // Always back CloudHttp2SolrClient with HttpJdkSolrClient (Java's built-in HTTP client).
     // Jetty's default HTTP/2 client throws ClosedChannelException when the server sends GOAWAY
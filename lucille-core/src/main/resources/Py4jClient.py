@@ -92,19 +92,7 @@ class Py4jClient:
     def exec(self, json_msg):
         msg = json.loads(json_msg)
         method_name = msg.get("method")
-
-        if not method_name:
-          raise ValueError("Missing method in message")
-
-        func = self.user_namespace.get(method_name)
-        if func is None or not callable(func):
-          raise AttributeError(f"Requested method {method_name} not found or not callable")
-
-        data = msg.get("data")
-        if data is None or data == []:
-          result = func()
-        else:
-          result = func(data)
+        result = self.call(msg)
 
         if result is None:
           return None
@@ -118,6 +106,49 @@ class Py4jClient:
             print(f"[Py4jClient] Result from {method_name} is not JSON-serializable: {e}")
             raise
 
+    def execBatch(self, payload, payload_format):
+        """
+        Calls the requested function once per message in a list of messages encoded as JSON (a str) or CBOR (bytes),
+        and returns the list of results in the same encoding. An error raised for one message is returned in place of
+        its result so that it does not fail the other messages in the batch.
+        """
+        if payload_format == "cbor":
+          import cbor2
+          msgs = cbor2.loads(bytes(payload))
+        else:
+          msgs = json.loads(payload)
+
+        results = []
+        for msg in msgs:
+          try:
+            result = self.call(msg)
+            if isinstance(result, str):
+              result = json.loads(result)
+            results.append(result)
+          except Exception as e:
+            print(f"[Py4jClient] Error calling {msg.get('method')}: {e}")
+            results.append({"__lucille_error__": f"{type(e).__name__}: {e}"})
+
+        if payload_format == "cbor":
+          return cbor2.dumps(results)
+        return json.dumps(results)
+
+    def call(self, msg):
+        method_name = msg.get("method")
+
+        if not method_name:
+          raise ValueError("Missing method in message")
+
+        func = self.user_namespace.get(method_name)
+        if func is None or not callable(func):
+          raise AttributeError(f"Requested method {method_name} not found or not callable")
+
+        data = msg.get("data")
+        if data is None or data == []:
+          return func()
+        else:
+          return func(data)
+
     def start(self):
         # Set up tee logging to both stdout and a file
         log_file = os.path.abspath("python/py4jclient.log")
@@ -2,11 +2,15 @@ package com.kmwllc.lucille.connector;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -21,7 +25,9 @@ import com.kmwllc.lucille.message.TestMessenger;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,11 +37,17 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 public class KafkaConnectorTest {
 
@@ -392,6 +404,195 @@ public class KafkaConnectorTest {
 
   }
 
+  @Test
+  public void testConsumerThreads() throws Exception {
+    Map<String, Object> configMap = new HashMap<>(BASE_CONFIG_MAP);
+    configMap.put("consumerThreads", 2);
+    Config config = ConfigFactory.parseMap(configMap);
+
+    KafkaConsumer<String, Document> consumer0 = mockConsumerWithRecords(0, "doc1", "doc2");
+    KafkaConsumer<String, Document> consumer1 = mockConsumerWithRecords(1, "doc3");
+    KafkaConnector connector = spy(new KafkaConnector(config));
+    ArgumentCaptor<Properties> propsCaptor = ArgumentCaptor.forClass(Properties.class);
+    doReturn(consumer0, consumer1).when(connector).createConsumer(propsCaptor.capture());
+
+    TestMessenger messenger = new TestMessenger();
+    Publisher publisher = new PublisherImpl(config, messenger, "run", "pipeline1");
+    connector.execute(publisher);
+
+    assertEquals(3, messenger.getDocsSentForProcessing().size());
+
+    // each consumer commits the offsets of its own partition after publishing, instead of auto-committing
+    verify(consumer0).commitSync(Map.of(new TopicPartition("test-topic", 0), new OffsetAndMetadata(2)));
+    verify(consumer1).commitSync(Map.of(new TopicPartition("test-topic", 1), new OffsetAndMetadata(1)));
+    verify(consumer0).close();
+    verify(consumer1).close();
+    for (Properties props : propsCaptor.getAllValues()) {
+      assertEquals("false", props.get(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG));
+    }
+    assertEquals(Set.of("test-client-0", "test-client-1"), Set.of(
+        propsCaptor.getAllValues().get(0).get(ConsumerConfig.CLIENT_ID_CONFIG),
+        propsCaptor.getAllValues().get(1).get(ConsumerConfig.CLIENT_ID_CONFIG)));
+  }
+
+  @Test
+  public void testConsumerThreadsFailure() throws Exception {
+    Map<String, Object> configMap = new HashMap<>(BASE_CONFIG_MAP);
+    configMap.put("consumerThreads", 2);
+    Config config = ConfigFactory.parseMap(configMap);
+
+    KafkaConsumer<String, Document> consumer0 = mockConsumerWithRecords(0, "doc1");
+    KafkaConsumer<String, Document> consumer1 = mockConsumerWithRecords(1, "doc2");
+    KafkaConnector connector = spy(new KafkaConnector(config));
+    doReturn(consumer0, consumer1).when(connector).createConsumer(any());
+
+    Publisher publisher = mock(Publisher.class);
+    doThrow(new RuntimeException("Publish failed")).when(publisher).publish(any(Document.class));
+
+    assertThrows(ConnectorException.class, () -> connector.execute(publisher));
+
+    // nothing was published, so nothing is committed
+    verify(consumer0, never()).commitSync(any(Map.class));
+    verify(consumer1, never()).commitSync(any(Map.class));
+    verify(consumer0).close();
+    verify(consumer1).close();
+  }
+
+  @Test(timeout = 10000)
+  public void testConsumerThreadsMaxMessagesWithIdlePartition() throws Exception {
+    Map<String, Object> configMap = new HashMap<>(BASE_CONFIG_MAP);
+    configMap.put("consumerThreads", 2);
+    configMap.put("maxMessages", 2L);
+    configMap.put("continueOnTimeout", true);
+    Config config = ConfigFactory.parseMap(configMap);
+
+    // consumer1's partition never has any records, so only the shared maxMessages count can stop it
+    KafkaConsumer<String, Document> consumer0 = mockConsumerWithRecords(0, "doc1", "doc2", "doc3");
+    KafkaConsumer<String, Document> consumer1 = mock(KafkaConsumer.class);
+    when(consumer1.poll(any(Duration.class))).thenReturn(ConsumerRecords.empty());
+    KafkaConnector connector = spy(new KafkaConnector(config));
+    doReturn(consumer0, consumer1).when(connector).createConsumer(any());
+
+    TestMessenger messenger = new TestMessenger();
+    Publisher publisher = new PublisherImpl(config, messenger, "run", "pipeline1");
+    connector.execute(publisher);
+
+    assertEquals(2, messenger.getDocsSentForProcessing().size());
+    verify(consumer0).commitSync(Map.of(new TopicPartition("test-topic", 0), new OffsetAndMetadata(2)));
+    verify(consumer0).close();
+    verify(consumer1).close();
+  }
+
+  @Test
+  public void testPauseOnMaxPendingDocs() throws Exception {
+    Map<String, Object> configMap = new HashMap<>(BASE_CONFIG_MAP);
+    configMap.put("pauseOnMaxPendingDocs", true);
+    Config config = ConfigFactory.parseMap(configMap);
+
+    TopicPartition tp = new TopicPartition("test-topic", 0);
+    ConsumerRecords<String, Document> records = new ConsumerRecords<>(
+        Map.of(tp, List.of(new ConsumerRecord<>("test-topic", 0, 0, "key", Document.create("doc1")))));
+    KafkaConsumer<String, Document> mockConsumer = mock(KafkaConsumer.class);
+    when(mockConsumer.assignment()).thenReturn(Set.of(tp));
+    // paused() reflects the calls to pause() and resume(), and a paused consumer polls no records
+    Set<TopicPartition> paused = new HashSet<>();
+    List<ConsumerRecords<String, Document>> unpolled = new ArrayList<>(List.of(records));
+    when(mockConsumer.poll(any(Duration.class))).thenAnswer(invocation ->
+        paused.isEmpty() && !unpolled.isEmpty() ? unpolled.remove(0) : ConsumerRecords.empty());
+    when(mockConsumer.paused()).thenAnswer(invocation -> new HashSet<>(paused));
+    doAnswer(invocation -> paused.addAll(invocation.getArgument(0))).when(mockConsumer).pause(any());
+    doAnswer(invocation -> paused.removeAll(invocation.getArgument(0))).when(mockConsumer).resume(any());
+
+    KafkaConnector connector = spy(new KafkaConnector(config));
+    doReturn(mockConsumer).when(connector).createConsumer(any());
+
+    Publisher publisher = mock(Publisher.class);
+    when(publisher.getMaxPendingDocs()).thenReturn(10);
+    when(publisher.numPending()).thenReturn(10L, 10L, 3L);
+
+    connector.execute(publisher);
+
+    verify(mockConsumer).pause(Set.of(tp));
+    verify(mockConsumer).resume(Set.of(tp));
+    verify(publisher).publish(any(Document.class));
+    assertTrue(paused.isEmpty());
+  }
+
+  @Test
+  public void testPartitionsAssignedWhilePausedArePaused() throws Exception {
+    Map<String, Object> configMap = new HashMap<>(BASE_CONFIG_MAP);
+    configMap.put("pauseOnMaxPendingDocs", true);
+    Config config = ConfigFactory.parseMap(configMap);
+
+    TopicPartition tp0 = new TopicPartition("test-topic", 0);
+    TopicPartition tp1 = new TopicPartition("test-topic", 1);
+    ConsumerRecords<String, Document> records = new ConsumerRecords<>(
+        Map.of(tp1, List.of(new ConsumerRecord<>("test-topic", 1, 0, "key", Document.create("doc1")))));
+    KafkaConsumer<String, Document> mockConsumer = mock(KafkaConsumer.class);
+    Set<TopicPartition> assignment = new HashSet<>(Set.of(tp0));
+    when(mockConsumer.assignment()).thenAnswer(invocation -> new HashSet<>(assignment));
+    Set<TopicPartition> paused = new HashSet<>();
+    when(mockConsumer.paused()).thenAnswer(invocation -> new HashSet<>(paused));
+    doAnswer(invocation -> paused.addAll(invocation.getArgument(0))).when(mockConsumer).pause(any());
+    doAnswer(invocation -> paused.removeAll(invocation.getArgument(0))).when(mockConsumer).resume(any());
+    ArgumentCaptor<ConsumerRebalanceListener> listener = ArgumentCaptor.forClass(ConsumerRebalanceListener.class);
+    doNothing().when(mockConsumer).subscribe(any(Collection.class), listener.capture());
+
+    // the first poll assigns tp1 to the paused consumer; its record is returned by any poll where tp1 isn't paused
+    List<ConsumerRecords<String, Document>> unpolled = new ArrayList<>(List.of(records));
+    AtomicBoolean rebalanced = new AtomicBoolean();
+    when(mockConsumer.poll(any(Duration.class))).thenAnswer(invocation -> {
+      if (!rebalanced.getAndSet(true)) {
+        assignment.add(tp1);
+        listener.getValue().onPartitionsAssigned(Set.of(tp1));
+      }
+      return !paused.contains(tp1) && !unpolled.isEmpty() ? unpolled.remove(0) : ConsumerRecords.empty();
+    });
+
+    KafkaConnector connector = spy(new KafkaConnector(config));
+    doReturn(mockConsumer).when(connector).createConsumer(any());
+
+    Publisher publisher = mock(Publisher.class);
+    when(publisher.getMaxPendingDocs()).thenReturn(10);
+    when(publisher.numPending()).thenReturn(10L, 3L);
+
+    connector.execute(publisher);
+
+    // the record from the newly assigned partition is only published once the consumer resumes
+    InOrder inOrder = inOrder(mockConsumer, publisher);
+    inOrder.verify(mockConsumer).pause(Set.of(tp0));
+    inOrder.verify(mockConsumer).pause(Set.of(tp1));
+    inOrder.verify(mockConsumer).resume(Set.of(tp0, tp1));
+    inOrder.verify(publisher).publish(any(Document.class));
+    assertTrue(paused.isEmpty());
+  }
+
+  @Test
+  public void testInvalidConsumerThreads() {
+    Map<String, Object> configMap = new HashMap<>(BASE_CONFIG_MAP);
+    configMap.put("consumerThreads", 0);
+    Config config = ConfigFactory.parseMap(configMap);
+
+    assertThrows(IllegalArgumentException.class, () -> new KafkaConnector(config));
+  }
+
+  /**
+   * Returns a mock consumer whose first poll returns records with the given document ids from the given partition, and
+   * whose later polls return nothing.
+   */
+  private static KafkaConsumer<String, Document> mockConsumerWithRecords(int partition, String... ids) {
+    List<ConsumerRecord<String, Document>> recordList = new ArrayList<>();
+    for (int i = 0; i < ids.length; i++) {
+      recordList.add(new ConsumerRecord<>("test-topic", partition, i, "key" + i, Document.create(ids[i])));
+    }
+    ConsumerRecords<String, Document> records =
+        new ConsumerRecords<>(Map.of(new TopicPartition("test-topic", partition), recordList));
+
+    KafkaConsumer<String, Document> mockConsumer = mock(KafkaConsumer.class);
+    when(mockConsumer.poll(any(Duration.class))).thenReturn(records, ConsumerRecords.empty());
+    return mockConsumer;
+  }
+
   @Test
   public void testDeserializerWithDocIdPrefix() throws Exception {
     KafkaConnectorDefaultDeserializer deserializer = new KafkaConnectorDefaultDeserializer();
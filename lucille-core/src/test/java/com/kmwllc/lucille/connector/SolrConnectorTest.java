@@ -4,24 +4,39 @@ import com.kmwllc.lucille.core.*;
 import com.kmwllc.lucille.message.TestMessenger;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.request.GenericSolrRequest;
 import org.apache.solr.client.solrj.request.SolrQuery;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.util.NamedList;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.*;
 
 public class SolrConnectorTest {
 
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   @Test
   public void testExecute() throws Exception {
     Config config = ConfigFactory.parseResourcesAnySyntax("SolrConnectorTest/execute.conf");
@@ -139,4 +154,111 @@ public class SolrConnectorTest {
     connector.postExecute("run2");
     assertEquals("{\"delete\":{\"query\":\"runId:run2\"}}", connector.getLastExecutedPostActions().get(0));
   }
+
+  @Test
+  public void testParallelShards() throws Exception {
+    Config config = ConfigFactory.parseResourcesAnySyntax("SolrConnectorTest/execute.conf")
+        .withValue("shards", ConfigValueFactory.fromIterable(List.of("shard1", "shard2")));
+    SolrClient mockClient = mock(SolrClient.class);
+    when(mockClient.query(any(SolrQuery.class))).then(invocation -> shardResponse(invocation.getArgument(0)));
+    TestMessenger messenger = new TestMessenger();
+    Publisher publisher = new PublisherImpl(config, messenger, "run", "pipeline1");
+
+    Connector connector = new SolrConnector(config, mockClient);
+    connector.execute(publisher);
+
+    assertEquals(Set.of("a1", "a2", "a3", "b1"),
+        messenger.getDocsSentForProcessing().stream().map(Document::getId).collect(Collectors.toSet()));
+    verify(mockClient, times(3)).query(any(SolrQuery.class));
+  }
+
+  @Test
+  public void testParallelShardsResumeFromCheckpoint() throws Exception {
+    File checkpoint = tempFolder.newFile("checkpoint.json");
+    Files.writeString(checkpoint.toPath(), "{\"shard1\":\"s1p2\",\"shard2\":\"DONE\"}");
+
+    Config config = ConfigFactory.parseResourcesAnySyntax("SolrConnectorTest/execute.conf")
+        .withValue("shards", ConfigValueFactory.fromIterable(List.of("shard1", "shard2")))
+        .withValue("checkpointFile", ConfigValueFactory.fromAnyRef(checkpoint.getAbsolutePath()));
+    SolrClient mockClient = mock(SolrClient.class);
+    when(mockClient.query(any(SolrQuery.class))).then(invocation -> shardResponse(invocation.getArgument(0)));
+    TestMessenger messenger = new TestMessenger();
+    Publisher publisher = new PublisherImpl(config, messenger, "run", "pipeline1");
+
+    Connector connector = new SolrConnector(config, mockClient);
+    connector.execute(publisher);
+
+    // shard2 was finished, and shard1 resumes with its second page
+    assertEquals(List.of("a3"), messenger.getDocsSentForProcessing().stream().map(Document::getId).toList());
+    verify(mockClient, times(1)).query(any(SolrQuery.class));
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testCheckpointSavedBeforeFailure() throws Exception {
+    File checkpoint = new File(tempFolder.getRoot(), "checkpoint.json");
+
+    Config config = ConfigFactory.parseResourcesAnySyntax("SolrConnectorTest/execute.conf")
+        .withValue("checkpointFile", ConfigValueFactory.fromAnyRef(checkpoint.getAbsolutePath()));
+    SolrClient mockClient = mock(SolrClient.class);
+    QueryResponse firstPage = response("p2", "doc1");
+    when(mockClient.query(any(SolrQuery.class)))
+        .thenReturn(firstPage)
+        .thenThrow(new SolrServerException("unavailable"));
+    TestMessenger messenger = new TestMessenger();
+    Publisher publisher = new PublisherImpl(config, messenger, "run", "pipeline1");
+
+    Connector connector = new SolrConnector(config, mockClient);
+    assertThrows(ConnectorException.class, () -> connector.execute(publisher));
+
+    assertEquals(1, messenger.getDocsSentForProcessing().size());
+    assertEquals("{\"*\":\"p2\"}", Files.readString(checkpoint.toPath()));
+  }
+
+  @Test
+  public void testCheckpointForOtherShardsFails() throws Exception {
+    File checkpoint = tempFolder.newFile("checkpoint.json");
+    Config sequential = ConfigFactory.parseResourcesAnySyntax("SolrConnectorTest/execute.conf")
+        .withValue("checkpointFile", ConfigValueFactory.fromAnyRef(checkpoint.getAbsolutePath()));
+    Config parallel = sequential.withValue("shards", ConfigValueFactory.fromIterable(List.of("shard1", "shard2")));
+
+    // a sequential checkpoint given to a parallel export, and the other way round
+    Map<String, Config> cases = Map.of("{\"*\":\"p2\"}", parallel, "{\"shard1\":\"s1p2\"}", sequential);
+    for (Map.Entry<String, Config> entry : cases.entrySet()) {
+      Files.writeString(checkpoint.toPath(), entry.getKey());
+      SolrClient mockClient = mock(SolrClient.class);
+      TestMessenger messenger = new TestMessenger();
+      Publisher publisher = new PublisherImpl(entry.getValue(), messenger, "run", "pipeline1");
+
+      Connector connector = new SolrConnector(entry.getValue(), mockClient);
+      assertThrows(ConnectorException.class, () -> connector.execute(publisher));
+
+      // nothing is exported, and the checkpoint is kept
+      verify(mockClient, never()).query(any(SolrQuery.class));
+      assertEquals(entry.getKey(), Files.readString(checkpoint.toPath()));
+    }
+  }
+
+  // shard1 has two pages of results and shard2 has one
+  private static QueryResponse shardResponse(SolrQuery q) {
+    String shard = q.get("shards");
+    String cursorMark = q.get("cursorMark");
+    if ("shard1".equals(shard)) {
+      return "*".equals(cursorMark) ? response("s1p2", "a1", "a2") : response("s1p2", "a3");
+    }
+    return response("*", "b1");
+  }
+
+  private static QueryResponse response(String nextCursorMark, String... ids) {
+    SolrDocumentList results = new SolrDocumentList();
+    for (String id : ids) {
+      SolrDocument doc = new SolrDocument();
+      doc.setField(Document.ID_FIELD, id);
+      results.add(doc);
+    }
+    QueryResponse resp = mock(QueryResponse.class);
+    when(resp.getResults()).thenReturn(results);
+    when(resp.getNextCursorMark()).thenReturn(nextCursorMark);
+    return resp;
+  }
 }
@@ -0,0 +1,81 @@
+package com.kmwllc.lucille.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveBatchControllerTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(1500);
+  private static final long VERY_SLOW = TimeUnit.MILLISECONDS.toNanos(2500);
+
+  @Test
+  public void testGrowsWhileFullBatchesAreFast() {
+    AdaptiveBatchController controller = new AdaptiveBatchController(100, 10, 130, 1000);
+
+    assertEquals(110, controller.onBatchSent(100, FAST, 0));
+    assertEquals(120, controller.onBatchSent(110, FAST, 0));
+    assertEquals(130, controller.onBatchSent(120, FAST, 0));
+    // capped at the maximum
+    assertEquals(130, controller.onBatchSent(130, FAST, 0));
+  }
+
+  @Test
+  public void testDoesNotGrowOnPartialBatches() {
+    AdaptiveBatchController controller = new AdaptiveBatchController(100, 10, 1000, 1000);
+
+    // a batch flushed by the timeout before it filled says nothing about a larger batch
+    assertEquals(100, controller.onBatchSent(40, FAST, 0));
+    assertEquals(100, controller.getBatchSize());
+  }
+
+  @Test
+  public void testHalvesOnRejections() {
+    AdaptiveBatchController controller = new AdaptiveBatchController(100, 30, 1000, 1000);
+
+    assertEquals(50, controller.onBatchSent(100, FAST, 1));
+    // never below the minimum
+    assertEquals(30, controller.onBatchSent(50, FAST, 5));
+    assertEquals(30, controller.onBatchSent(30, FAST, 5));
+  }
+
+  @Test
+  public void testHalvesOnLatency() {
+    AdaptiveBatchController controller = new AdaptiveBatchController(100, 10, 1000, 1000);
+
+    // one batch taking more than twice the target is enough
+    assertEquals(50, controller.onBatchSent(100, VERY_SLOW, 0));
+
+    // a batch that is moderately over the target is not, until the median of recent batches is over the target
+    assertEquals(60, controller.onBatchSent(50, FAST, 0));
+    assertEquals(60, controller.onBatchSent(60, SLOW, 0));
+    assertEquals(60, controller.onBatchSent(60, FAST, 0));
+    assertEquals(30, controller.onBatchSent(60, SLOW, 0));
+  }
+
+  @Test
+  public void testInitialSizeIsClamped() {
+    assertEquals(10, new AdaptiveBatchController(1, 10, 100, 1000).getBatchSize());
+    assertEquals(100, new AdaptiveBatchController(5000, 10, 100, 1000).getBatchSize());
+  }
+
+  @Test
+  public void testInvalidSettings() {
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchController(100, 0, 100, 1000));
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchController(100, 50, 10, 1000));
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchController(100, 10, 100, 0));
+  }
+
+  @Test
+  public void testIsOverloaded() {
+    assertTrue(AdaptiveBatchController.isOverloaded(new IndexerRetryableException(429, "too many requests", null)));
+    assertTrue(AdaptiveBatchController.isOverloaded(new IndexerRetryableException(503, "unavailable", null)));
+    assertFalse(AdaptiveBatchController.isOverloaded(new IndexerRetryableException(400, "bad request", null)));
+    assertFalse(AdaptiveBatchController.isOverloaded(new IndexerException("failed")));
+  }
+}
@@ -0,0 +1,118 @@
+package com.kmwllc.lucille.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentHashStoreTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static byte[] hash(int i) {
+    byte[] hash = new byte[16];
+    hash[0] = (byte) i;
+    hash[15] = (byte) (i >> 8);
+    return hash;
+  }
+
+  @Test
+  public void testPutGetRemove() throws Exception {
+    try (ContentHashStore store = new ContentHashStore(tempFolder.getRoot().toPath().resolve("hashes"))) {
+      assertNull(store.get(1L));
+
+      store.put(1L, hash(1));
+      store.put(2L, hash(2));
+      assertArrayEquals(hash(1), store.get(1L));
+      assertArrayEquals(hash(2), store.get(2L));
+      assertEquals(2, store.size());
+
+      store.put(1L, hash(3));
+      assertArrayEquals(hash(3), store.get(1L));
+      assertEquals(2, store.size());
+
+      store.remove(1L);
+      store.remove(99L);
+      assertNull(store.get(1L));
+      assertEquals(1, store.size());
+
+      // 0 marks empty slots, but can still be used as a key
+      store.put(0L, hash(4));
+      assertArrayEquals(hash(4), store.get(0L));
+
+      assertThrows(IllegalArgumentException.class, () -> store.put(5L, new byte[8]));
+    }
+  }
+
+  @Test
+  public void testRemoveKeepsCollidingKeysReachable() throws Exception {
+    long slots = ContentHashStore.INITIAL_SLOTS;
+    try (ContentHashStore store = new ContentHashStore(tempFolder.getRoot().toPath().resolve("hashes"))) {
+      // the first three all start probing at slot 7; the last two start at the final slot, so the second wraps around to
+      // slot 0
+      List<Long> keys = List.of(7L, 7L + slots, 7L + 2 * slots, slots - 1, 2 * slots - 1);
+      for (int i = 0; i < keys.size(); i++) {
+        store.put(keys.get(i), hash(i));
+      }
+
+      store.remove(7L);
+      store.remove(slots - 1);
+      assertNull(store.get(7L));
+      assertArrayEquals(hash(1), store.get(7L + slots));
+      assertArrayEquals(hash(2), store.get(7L + 2 * slots));
+      assertArrayEquals(hash(4), store.get(2 * slots - 1));
+    }
+  }
+
+  @Test
+  public void testGrowsAndPersists() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("dir/hashes");
+    int count = (int) (ContentHashStore.INITIAL_SLOTS * ContentHashStore.MAX_LOAD_FACTOR) + 100;
+    Map<Long, byte[]> expected = new HashMap<>();
+
+    try (ContentHashStore store = new ContentHashStore(file)) {
+      for (int i = 0; i < count; i++) {
+        long key = ChangeDetector.keyHash("doc" + i);
+        store.put(key, hash(i));
+        expected.put(key, hash(i));
+      }
+      assertEquals(count, store.size());
+    }
+    assertEquals(32 + 2L * ContentHashStore.INITIAL_SLOTS * 24, Files.size(file));
+    assertFalse(Files.exists(file.resolveSibling("hashes.tmp")));
+
+    try (ContentHashStore store = new ContentHashStore(file)) {
+      assertEquals(count, store.size());
+      for (Map.Entry<Long, byte[]> entry : expected.entrySet()) {
+        assertArrayEquals(entry.getValue(), store.get(entry.getKey()));
+      }
+    }
+  }
+
+  @Test
+  public void testFileCanOnlyBeOpenedOnce() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("hashes");
+    try (ContentHashStore store = new ContentHashStore(file)) {
+      assertThrows(IllegalStateException.class, () -> new ContentHashStore(file));
+    }
+    new ContentHashStore(file).close();
+  }
+
+  @Test
+  public void testRejectsOtherFiles() throws Exception {
+    Path file = tempFolder.newFile("other").toPath();
+    Files.writeString(file, "this is not a change detection file, but it is long enough to have a header");
+    assertThrows(IllegalStateException.class, () -> new ContentHashStore(file));
+  }
+}
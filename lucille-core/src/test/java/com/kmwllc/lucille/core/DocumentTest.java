@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.kmwllc.lucille.core.Document.Segment;
 import java.sql.Timestamp;
 import org.junit.Test;
@@ -1611,6 +1612,35 @@ public abstract class DocumentTest {
     assertEquals(Collections.singletonList(value), document.getBytesList("bytes"));
   }
 
+  @Test
+  public void testVector() throws Exception {
+    float[] vector = new float[] {0.5f, -1.25f, 3f};
+    Document document = createDocument("doc");
+    assertNull(document.getVector("vector"));
+
+    document.setVector("vector", vector);
+    assertSame(vector, document.getVector("vector"));
+    assertEquals(List.of(0.5f, -1.25f, 3f), document.getFloatList("vector"));
+    assertEquals(List.of(0.5d, -1.25d, 3d), document.getDoubleList("vector"));
+    assertEquals(List.of(0.5f, -1.25f, 3f), document.asMap().get("vector"));
+
+    // a vector read from serialized JSON is converted from the array of numbers
+    Document deserialized = createDocumentFromJson(document.toString());
+    assertArrayEquals(vector, deserialized.getVector("vector"), 0f);
+
+    Document copy = document.deepCopy();
+    assertArrayEquals(vector, copy.getVector("vector"), 0f);
+    copy.setVector("vector", new float[] {1f});
+    assertSame(vector, document.getVector("vector"));
+
+    document.setField("vector", (Object) new float[] {2f, 4f});
+    assertArrayEquals(new float[] {2f, 4f}, document.getVector("vector"), 0f);
+
+    document.setField("floats", 1f);
+    document.addToField("floats", 2f);
+    assertArrayEquals(new float[] {1f, 2f}, document.getVector("floats"), 0f);
+  }
+
   @Test
   public void testGetBytesListMissing() {
     Document document = createDocument("doc");
@@ -1732,6 +1762,85 @@ public abstract class DocumentTest {
     assertEquals(doc.getJson("a").toString(), "{\"b\":{\"c\":[{\"d\":[[[{\"e\":[[101]]}]]]}]}}");
   }
 
+  @Test
+  public void testDeepCopyIsIndependent() {
+    ObjectMapper mapper = new ObjectMapper();
+    Document original = createDocument("doc");
+    original.setField("obj", mapper.createObjectNode().put("a", 1));
+    original.addToField("list", "x");
+    original.addToField("list", "y");
+
+    Document copy = original.deepCopy();
+    copy.setNestedJson("obj.b", IntNode.valueOf(2));
+    copy.setNestedJson("obj.c", TextNode.valueOf("c"));
+    copy.addToField("list", "z");
+    copy.removeFromArray("list", 0);
+
+    assertEquals(mapper.createObjectNode().put("a", 1), original.getJson("obj"));
+    assertEquals(List.of("x", "y"), original.getStringList("list"));
+    assertEquals(List.of("y", "z"), copy.getStringList("list"));
+    assertEquals(2, copy.getJson("obj").get("b").asInt());
+
+    // changes to the original are not seen by a copy made earlier
+    Document secondCopy = original.deepCopy();
+    original.addToField("list", "w");
+    original.setNestedJson("obj.d", IntNode.valueOf(4));
+    assertEquals(List.of("x", "y"), secondCopy.getStringList("list"));
+    assertFalse(secondCopy.getJson("obj").has("d"));
+  }
+
+  @Test
+  public void testChildrenAreIndependent() {
+    Document parent = createDocument("parent");
+    Document child = createDocument("child");
+    child.addToField("list", "x");
+    parent.addChild(child);
+
+    Document first = parent.getChildren().get(0);
+    first.addToField("list", "y");
+
+    assertEquals(List.of("x"), parent.getChildren().get(0).getStringList("list"));
+    assertEquals(List.of("x", "y"), first.getStringList("list"));
+  }
+
+  @Test
+  public void testNestedJsonWithFieldPath() {
+    Document document = createDocument("doc");
+    FieldPath path = FieldPath.compile("a.b[0].c");
+
+    document.setNestedJson(path, IntNode.valueOf(5));
+    assertEquals(5, document.getNestedJson(path).intValue());
+    assertEquals(5, document.getNestedJson("a.b[0].c").intValue());
+    assertEquals(path, FieldPath.ROOT.child("a").child("b").child(0).child("c"));
+    assertEquals("a.b[0].c", path.toString());
+    assertSame(FieldPath.of("a.b[0].c"), FieldPath.of("a.b[0].c"));
+
+    // a child name is not parsed, so it can refer to a field whose name contains a '.'
+    FieldPath dotted = FieldPath.ROOT.child("x.y");
+    document.setNestedJson(dotted, TextNode.valueOf("dotted"));
+    assertTrue(document.has("x.y"));
+    assertEquals("dotted", document.getNestedJson(dotted).asText());
+    assertNotEquals(FieldPath.of("x.y"), dotted);
+
+    document.removeNestedJson(path);
+    assertNull(document.getNestedJson(path));
+    assertTrue(document.getNestedJson("a.b[0]").isObject());
+    assertNull(document.getNestedJson(FieldPath.ROOT));
+  }
+
+  @Test
+  public void testFieldPathCacheEvicts() {
+    FieldPath first = FieldPath.of("evicted.path");
+
+    for (int i = 0; i < FieldPath.MAX_CACHED_PATHS * 2; i++) {
+      FieldPath.of("filler" + i + ".path");
+    }
+
+    FieldPath again = FieldPath.of("evicted.path");
+    assertNotSame(first, again);
+    assertEquals(first, again);
+  }
+
   @Test
   public void testRemoveNestedJson() {
     ObjectMapper mapper = new ObjectMapper();
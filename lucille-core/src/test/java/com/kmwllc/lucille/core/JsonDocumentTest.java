@@ -5,7 +5,10 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.kmwllc.lucille.util.FieldFilter;
 import com.typesafe.config.ConfigFactory;
 import java.nio.charset.StandardCharsets;
@@ -25,7 +28,9 @@ import org.junit.Test;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
@@ -261,6 +266,40 @@ public class JsonDocumentTest extends DocumentTest.NodeDocumentTest {
     assertArrayEquals(expectedStringValues, doc.getStringList("field1").toArray());
   }
 
+  @Test
+  public void testFilteredAsMap() throws Exception {
+    JsonDocument doc = (JsonDocument) createDocument("id1");
+    doc.setField("int", 1);
+    doc.setField("long", 2L);
+    doc.setField("float", 1.5f);
+    doc.setField("double", 2.5d);
+    doc.setField("bool", true);
+    doc.setField("instant", Instant.parse("2024-03-12T16:09:32.231262Z"));
+    doc.addToField("list", "a");
+    doc.addToField("list", "b");
+    doc.setField("json", MAPPER.readTree("{\"a\":[1,{\"b\":null}],\"c\":2.25}"));
+    doc.setField("skipped", "value");
+    doc.setVector("vector", new float[] {0.5f, 1.5f});
+    doc.addChild(createDocument("child1"));
+
+    Map<String, Object> expected = doc.asMap();
+    expected.remove("skipped");
+    expected.remove(Document.CHILDREN_FIELD);
+    assertEquals(List.of(0.5f, 1.5f), expected.get("vector"));
+
+    Map<String, Object> filtered = doc.asMap(name -> !name.equals("skipped") && !name.equals(Document.CHILDREN_FIELD));
+    assertEquals(expected, filtered);
+    for (String key : expected.keySet()) {
+      if (expected.get(key) != null) {
+        assertEquals(expected.get(key).getClass(), filtered.get(key).getClass());
+      }
+    }
+
+    byte[] bytes = "bytes".getBytes(StandardCharsets.UTF_8);
+    doc.setField("bytes", bytes);
+    assertArrayEquals(bytes, (byte[]) doc.asMap(name -> name.equals("bytes")).get("bytes"));
+  }
+
   /**
    * Demonstrates that JsonDocument allows a value to be added as one type and retrieved as a different type.
    */
@@ -390,6 +429,30 @@ public class JsonDocumentTest extends DocumentTest.NodeDocumentTest {
     assertArrayEquals(new byte[]{1, 2, 3}, doc.getBytes("bytes"));
   }
 
+  @Test
+  public void testTransformKeepsOriginalNodes() throws Exception {
+    Document doc = createDocumentFromJson("{\"id\":\"id\",\"title\":\"a title\",\"nested\":{\"a\":1}}");
+    doc.setField("bytes", new byte[]{1, 2, 3});
+
+    // fields the expression passes through keep their nodes, so binary values stay binary
+    doc.transform(Jsonata.jsonata("$merge([$, {\"title\": $uppercase(title)}])"));
+    assertEquals("A TITLE", doc.getString("title"));
+    assertTrue(doc.getJson("bytes").isBinary());
+    assertArrayEquals(new byte[]{1, 2, 3}, doc.getBytes("bytes"));
+
+    // a node used for two fields is copied before either one is modified in place
+    doc.transform(Jsonata.jsonata("{\"id\": id, \"first\": nested, \"second\": nested}"));
+    doc.setNestedJson("first.a", IntNode.valueOf(2));
+    assertEquals(2, doc.getNestedJson("first.a").asInt());
+    assertEquals(1, doc.getNestedJson("second.a").asInt());
+
+    // the same for a node copied to another field
+    doc.transform(Jsonata.jsonata("$"), "second", "third");
+    doc.setNestedJson("third.a", IntNode.valueOf(3));
+    assertEquals(1, doc.getNestedJson("second.a").asInt());
+    assertEquals(3, doc.getNestedJson("third.a").asInt());
+  }
+
   @Test
   public void testTransformNestedJson() throws Exception {
     Document doc = createDocumentFromJson("{\"id\":\"id\",\"foo\": \"bar\"}");
@@ -471,4 +534,87 @@ public class JsonDocumentTest extends DocumentTest.NodeDocumentTest {
     assertEquals(40, fieldNamesParsed);
   }
 
+
+  @Test
+  public void testVectorSerializesCompactlyAndCanBeModified() throws Exception {
+    Document document = createDocument("doc");
+    document.setVector("vector", new float[] {0.1f, 0.2f});
+
+    // floats are written with float precision rather than widened to doubles
+    assertEquals("{\"id\":\"doc\",\"vector\":[0.1,0.2]}", document.toString());
+    assertEquals(createDocumentFromJson("{\"id\":\"doc\",\"vector\":[0.1,0.2]}").getFloatList("vector"),
+        document.getFloatList("vector"));
+
+    // modifying the field in place turns it into an ordinary array
+    document.addToField("vector", 0.3f);
+    document.removeFromArray("vector", 0);
+    assertEquals(List.of(0.2f, 0.3f), document.getFloatList("vector"));
+    assertArrayEquals(new float[] {0.2f, 0.3f}, document.getVector("vector"), 0f);
+  }
+
+  @Test
+  public void testCopiesShareFieldsUntilModified() throws Exception {
+    JsonDocument original = (JsonDocument) createDocumentFromJson(
+        "{\"id\":\"doc\",\"body\":{\"text\":\"large\"},\"tags\":[\"a\",\"b\"]}");
+    JsonDocument copy = (JsonDocument) original.deepCopy();
+
+    assertSame(original.data.get("body"), copy.data.get("body"));
+    assertSame(original.data.get("tags"), copy.data.get("tags"));
+
+    // only the modified field is cloned, and only in the document being modified
+    copy.addToField("tags", "c");
+    assertNotSame(original.data.get("tags"), copy.data.get("tags"));
+    assertSame(original.data.get("body"), copy.data.get("body"));
+    assertEquals(List.of("a", "b"), original.getStringList("tags"));
+
+    // the typed getters do not clone
+    copy.getString("body");
+    original.getStringList("tags");
+    assertSame(original.data.get("body"), copy.data.get("body"));
+
+    // a nested setter clones the field it modifies
+    copy.setNestedJson("body.text", TextNode.valueOf("changed"));
+    assertEquals("large", original.getNestedJson("body.text").asText());
+    assertEquals("changed", copy.getNestedJson("body.text").asText());
+
+    // the source also clones a shared field before modifying it
+    JsonDocument second = (JsonDocument) original.deepCopy();
+    original.addToField("tags", "e");
+    original.removeNestedJson("body.text");
+    assertEquals(List.of("a", "b"), second.getStringList("tags"));
+    assertEquals("large", second.getNestedJson("body.text").asText());
+
+    // a child shares its fields with the stored child
+    original.addChild(copy);
+    JsonDocument child = (JsonDocument) original.getChildren().get(0);
+    assertSame(copy.data.get("tags"), child.data.get("tags"));
+    child.addToField("tags", "d");
+    assertEquals(List.of("a", "b", "c"), original.getChildren().get(0).getStringList("tags"));
+  }
+
+  @Test
+  public void testModifyingGetJsonResultOfCopy() throws Exception {
+    JsonDocument original = (JsonDocument) createDocumentFromJson(
+        "{\"id\":\"doc\",\"body\":{\"text\":\"large\"},\"tags\":[\"a\",\"b\"]}");
+    JsonDocument copy = (JsonDocument) original.deepCopy();
+
+    // the nodes returned by getJson, getNestedJson and getJsonList can be modified without affecting the other document
+    ((ObjectNode) copy.getJson("body")).put("text", "changed");
+    ((ArrayNode) copy.getJson("tags")).add("c");
+    assertEquals("large", original.getNestedJson("body.text").asText());
+    assertEquals(List.of("a", "b"), original.getStringList("tags"));
+    assertEquals("changed", copy.getNestedJson("body.text").asText());
+    assertEquals(List.of("a", "b", "c"), copy.getStringList("tags"));
+
+    ((ObjectNode) original.getNestedJson("body")).put("text", "original");
+    assertEquals("changed", copy.getNestedJson("body.text").asText());
+
+    // once a document owns a field, getJson returns the same node
+    assertSame(copy.getJson("body"), copy.getJson("body"));
+
+    JsonDocument multi = (JsonDocument) createDocumentFromJson("{\"id\":\"doc\",\"objects\":[{\"a\":1},{\"a\":2}]}");
+    JsonDocument multiCopy = (JsonDocument) multi.deepCopy();
+    ((ObjectNode) multiCopy.getJsonList("objects").get(0)).put("a", 3);
+    assertEquals(1, multi.getJsonList("objects").get(0).get("a").asInt());
+  }
 }
@@ -1,9 +1,12 @@
 package com.kmwllc.lucille.core;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
 import com.kmwllc.lucille.stage.CreateChildrenStage;
 import com.kmwllc.lucille.stage.DropDocument;
+import com.kmwllc.lucille.util.LogUtils;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueFactory;
@@ -261,6 +264,62 @@ public class PipelineTest {
     verify(downstream, never()).processConditional(any());
   }
 
+  @Test
+  public void testFusedStages() throws Exception {
+    Pipeline pipeline = new Pipeline();
+    Config conditional = ConfigFactory.parseString("conditions: [{fields: [\"cond\"]}]");
+    pipeline.addStage(new TracingStage(ConfigFactory.parseString("name: f1")));
+    pipeline.addStage(new TracingStage(ConfigFactory.parseString("name: f2")));
+    pipeline.addStage(new Stage2(ConfigFactory.parseString("name: s2")));
+    pipeline.addStage(new TracingStage(ConfigFactory.parseString("name: f3")));
+    pipeline.addStage(new TracingStage(conditional.withValue("name", ConfigValueFactory.fromAnyRef("f4"))));
+    pipeline.addStage(new TracingStage(ConfigFactory.parseString("name: f5")));
+    pipeline.addStage(new TracingStage(ConfigFactory.parseString("name: f6")));
+
+    // runs of two or more unconditional stages that don't create children are fused
+    List<Stage> plan = Pipeline.fuse(pipeline.getStages());
+    assertEquals(5, plan.size());
+    assertEquals(List.of("f1", "f2"), ((FusedStages) plan.get(0)).getStages().stream().map(Stage::getName).toList());
+    assertEquals("s2", plan.get(1).getName());
+    assertEquals("f3", plan.get(2).getName());
+    assertEquals("f4", plan.get(3).getName());
+    assertEquals(List.of("f5", "f6"), ((FusedStages) plan.get(4)).getStages().stream().map(Stage::getName).toList());
+
+    // the result is the same as applying each stage in turn
+    Document doc = Document.create("doc");
+    List<Document> results = IteratorUtils.toList(pipeline.processDocument(doc));
+    assertEquals(3, results.size());
+    assertEquals("doc-s2c1", results.get(0).getId());
+    assertEquals(List.of("f3", "f5", "f6"), results.get(0).getStringList("trace"));
+    assertEquals("doc-s2c2", results.get(1).getId());
+    assertEquals(List.of("f3", "f5", "f6"), results.get(1).getStringList("trace"));
+    assertEquals(doc, results.get(2));
+    assertEquals(List.of("f1", "f2", "f3", "f5", "f6"), doc.getStringList("trace"));
+    assertEquals("v2", doc.getString("s2"));
+
+    // each fused stage still records its own metrics
+    MetricRegistry metrics = SharedMetricRegistries.getOrCreate(LogUtils.METRICS_REG);
+    assertEquals(1, metrics.timer("default.stage.f1.processDocumentTime").getCount());
+    assertEquals(1, metrics.timer("default.stage.f2.processDocumentTime").getCount());
+    assertEquals(3, metrics.timer("default.stage.f6.processDocumentTime").getCount());
+  }
+
+  @Test
+  public void testDroppedDocumentSkipsDownstreamFusedStages() throws Exception {
+    Pipeline pipeline = new Pipeline();
+    pipeline.addStage(new TracingStage(ConfigFactory.parseString("name: d1")));
+    pipeline.addStage(new DropDocument(ConfigFactory.empty()));
+    pipeline.addStage(new TracingStage(ConfigFactory.parseString("name: d3")));
+    assertEquals(1, Pipeline.fuse(pipeline.getStages()).size());
+
+    Document doc = Document.create("doc");
+    List<Document> results = IteratorUtils.toList(pipeline.processDocument(doc));
+
+    assertEquals(1, results.size());
+    assertTrue(results.get(0).isDropped());
+    assertEquals(List.of("d1"), doc.getStringList("trace"));
+  }
+
   @Test
   public void testDisabledStages() throws Exception {
     Config pipelineConfig = ConfigFactory.load("PipelineTest/some-disabled.conf");
@@ -294,6 +353,28 @@ public class PipelineTest {
     assertTrue(validationErrors.get(1).getMessage().contains("destField"));
   }
 
+  @Test
+  public void testFromConfigWithValidatedStages() throws Exception {
+    Config pipelineConfig = ConfigFactory.load("PipelineTest/some-disabled.conf");
+    List<Stage> instances = new ArrayList<>();
+    assertTrue(Pipeline.validateStages(pipelineConfig, "my-pipeline", instances).isEmpty());
+    assertEquals(3, instances.size());
+
+    Pipeline pipeline = Pipeline.fromConfig(pipelineConfig, "my-pipeline", "validatedStages", instances);
+
+    // the disabled stage's instance is left out
+    assertEquals(2, pipeline.getStages().size());
+    assertSame(instances.get(0), pipeline.getStages().get(0));
+    assertSame(instances.get(2), pipeline.getStages().get(1));
+
+    MetricRegistry metrics = SharedMetricRegistries.getOrCreate(LogUtils.METRICS_REG);
+    assertEquals(1, metrics.timer("validatedStages.stage.PrintEnabled.startTime").getCount());
+    assertEquals(1, metrics.timer("validatedStages.stage.TimestampEnabled.startTime").getCount());
+
+    assertThrows(PipelineException.class,
+        () -> Pipeline.fromConfig(pipelineConfig, "my-pipeline", "validatedStages", instances.subList(0, 2)));
+  }
+
   private static class Stage1 extends Stage {
 
     public static final Spec SPEC = SpecBuilder.stage().build();
@@ -375,6 +456,26 @@ public class PipelineTest {
     }
   }
 
+  private static class TracingStage extends Stage {
+
+    public static final Spec SPEC = SpecBuilder.stage().build();
+
+    public TracingStage(Config conf) {
+      super(conf);
+    }
+
+    @Override
+    public Iterator<Document> processDocument(Document doc) throws StageException {
+      doc.addToField("trace", getName());
+      return null;
+    }
+
+    @Override
+    public boolean createsChildren() {
+      return false;
+    }
+  }
+
   public static class MarkingStage extends Stage {
 
     public static final Spec SPEC = SpecBuilder.stage().build();
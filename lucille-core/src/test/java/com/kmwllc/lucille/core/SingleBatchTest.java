@@ -67,6 +67,29 @@ public class SingleBatchTest {
     assertEquals("doc2", docs.get(0).getId());
   }
 
+  /**
+   * Test that a batch flushes at its new capacity after the capacity is changed.
+   */
+  @Test
+  public void testSetCapacity() {
+    SingleBatch batch = new SingleBatch(3, Long.MAX_VALUE, 1000);
+    batch.add(Document.create("doc1"));
+    batch.add(Document.create("doc2"));
+
+    // shrinking below the number of documents held flushes all of them on the next add
+    batch.setCapacity(1);
+    assertEquals(1, batch.getCapacity());
+    List<Document> docs = batch.add(Document.create("doc3"));
+    assertEquals(2, docs.size());
+
+    batch.setCapacity(2);
+    assertTrue(batch.add(Document.create("doc4")).isEmpty());
+    docs = batch.add(Document.create("doc5"));
+    assertEquals(2, docs.size());
+    assertEquals("doc3", docs.get(0).getId());
+    assertEquals("doc4", docs.get(1).getId());
+  }
+
   /**
    * Test that supplying a null document to the batch causes a NullPointerException.
    */
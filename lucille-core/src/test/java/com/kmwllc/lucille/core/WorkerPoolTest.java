@@ -1,9 +1,15 @@
 package com.kmwllc.lucille.core;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
 import com.kmwllc.lucille.message.TestMessenger;
 import com.kmwllc.lucille.message.WorkerMessengerFactory;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import com.kmwllc.lucille.util.LogUtils;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -13,6 +19,7 @@ import static com.kmwllc.lucille.util.ThreadNameUtils.areLucilleThreadsRunning;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -62,6 +69,59 @@ public class WorkerPoolTest {
     verify(messenger, times(1)).close();
   }
 
+  @Test
+  public void testWorkersCreatedInParallel() throws Exception {
+    TestMessenger messenger = Mockito.spy(new TestMessenger());
+    WorkerMessengerFactory factory = WorkerMessengerFactory.getConstantFactory(messenger);
+    Config config = ConfigFactory.load("WorkerPoolTest/stages.conf")
+        .withValue("worker.threads", ConfigValueFactory.fromAnyRef(4))
+        .withValue("worker.parallelStartup", ConfigValueFactory.fromAnyRef(true));
+    List<Stage> validatedStages = new ArrayList<>();
+    assertTrue(Pipeline.validateStages(config, "pipeline1", validatedStages).isEmpty());
+
+    WorkerPool pool = new WorkerPool(config, "pipeline1", null, factory, "parallelStartup", validatedStages);
+    pool.start();
+    pool.stop();
+    pool.join();
+
+    // every worker started its own stages, with the first one using the instances created during validation
+    MetricRegistry metrics = SharedMetricRegistries.getOrCreate(LogUtils.METRICS_REG);
+    assertEquals(4, metrics.timer("parallelStartup.stage.nop1.startTime").getCount());
+    assertEquals(4, metrics.timer("parallelStartup.stage.nop2.startTime").getCount());
+    verify(messenger, times(4)).close();
+  }
+
+  @Test
+  public void testWorkersClosedWhenOneCannotBeCreated() throws Exception {
+    TestMessenger messenger = Mockito.spy(new TestMessenger());
+    WorkerMessengerFactory factory = WorkerMessengerFactory.getConstantFactory(messenger);
+    Config config = ConfigFactory.load("WorkerPoolTest/stages.conf")
+        .withValue("worker.threads", ConfigValueFactory.fromAnyRef(3));
+    // the first worker is given the wrong number of stages, so it can't be created
+    WorkerPool pool = new WorkerPool(config, "pipeline1", null, factory, "", new ArrayList<>());
+
+    assertThrows(PipelineException.class, pool::start);
+
+    // the two workers that were created are closed without being started, and so is the failed worker's messenger
+    verify(messenger, times(3)).close();
+    assertFalse(areLucilleThreadsRunning());
+  }
+
+  @Test
+  public void testMessengersClosedWhenStageCannotStart() throws Exception {
+    TestMessenger messenger = Mockito.spy(new TestMessenger());
+    WorkerMessengerFactory factory = WorkerMessengerFactory.getConstantFactory(messenger);
+    Config config = ConfigFactory.load("WorkerPoolTest/startError.conf")
+        .withValue("worker.threads", ConfigValueFactory.fromAnyRef(3));
+    WorkerPool pool = new WorkerPool(config, "pipeline1", null, factory, "");
+
+    assertThrows(StageException.class, pool::start);
+
+    // none of the workers could be created, but each of their messengers is still closed
+    verify(messenger, times(3)).close();
+    assertFalse(areLucilleThreadsRunning());
+  }
+
   @Test
   public void testThreadCleanupUponEncounteringConfigProblem() throws Exception {
 
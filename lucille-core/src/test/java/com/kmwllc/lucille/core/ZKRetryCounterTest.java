@@ -2,13 +2,16 @@ package com.kmwllc.lucille.core;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -21,7 +24,10 @@ import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.api.BackgroundVersionable;
 import org.apache.curator.framework.api.DeleteBuilder;
 import org.apache.curator.framework.api.DeleteBuilderMain;
+import org.apache.curator.framework.api.transaction.CuratorMultiTransaction;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.framework.recipes.shared.SharedCount;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.MockedConstruction;
@@ -43,6 +49,8 @@ public class ZKRetryCounterTest {
       when(deleteBuilder.quietly()).thenReturn(deleteBuilderMain);
       CuratorFramework curatorFramework = mock(CuratorFramework.class);
       when(curatorFramework.delete()).thenReturn(deleteBuilder);
+      // the batched delete fails, so the counters are deleted one at a time
+      when(curatorFramework.transactionOp()).thenThrow(IllegalStateException.class);
       curatorStatic.when(() -> CuratorFrameworkFactory.newClient(eq("foo"), any())).thenReturn(curatorFramework);
 
       KafkaDocument kafkaDoc = spy(new KafkaDocument(Document.create("kafkaDoc"), "topic", 1, 2, "key"));
@@ -55,6 +63,8 @@ public class ZKRetryCounterTest {
 
       retry3.remove(doc);
       retry3.remove(kafkaDoc);
+      verify(backgroundVersionable, never()).forPath(any());
+      retry3.flush();
 
       verify(backgroundVersionable, times(2)).forPath(captor.capture());
 
@@ -134,4 +144,138 @@ public class ZKRetryCounterTest {
       assertFalse(retry3.add(kafkaDoc));
     }
   }
+
+  @Test
+  public void testSuspectedOnlyCountsPossibleRedeliveries() throws Exception {
+    Map<SharedCount, List<Object>> arguments = new HashMap<>();
+    try (MockedStatic<CuratorFrameworkFactory> curatorStatic = mockStatic(CuratorFrameworkFactory.class);
+         MockedConstruction<SharedCount> sharedCount = mockConstruction(SharedCount.class, (mock, context) -> {
+          arguments.put(mock, (List<Object>)context.arguments());
+          when(mock.getCount()).thenReturn(1);
+    })) {
+      CuratorFramework curatorFramework = mock(CuratorFramework.class);
+      curatorStatic.when(() -> CuratorFrameworkFactory.newClient(eq("foo"), any())).thenReturn(curatorFramework);
+
+      ZKRetryCounter counter = new ZKRetryCounter(ConfigFactory.load("ZKRetryCounterTest/suspected.conf"));
+
+      // the first record from a partition may be a redelivery after a crash
+      assertFalse(counter.add(kafkaDoc(1, 10)));
+      assertEquals(1, sharedCount.constructed().size());
+
+      // records that directly follow the previous offset were never delivered before
+      assertFalse(counter.add(kafkaDoc(1, 11)));
+      assertFalse(counter.add(kafkaDoc(1, 12)));
+      assertEquals(1, sharedCount.constructed().size());
+
+      // another partition, a gap in offsets, and a repeated offset are all suspected
+      assertFalse(counter.add(kafkaDoc(2, 5)));
+      assertFalse(counter.add(kafkaDoc(1, 20)));
+      assertFalse(counter.add(kafkaDoc(1, 20)));
+      assertEquals(4, sharedCount.constructed().size());
+
+      assertEquals("/LucilleCounters/bar/topic/runId/key___1_10", arguments.get(sharedCount.constructed().get(0)).get(1));
+      assertEquals("/LucilleCounters/bar/topic/runId/key___2_5", arguments.get(sharedCount.constructed().get(1)).get(1));
+      assertEquals("/LucilleCounters/bar/topic/runId/key___1_20", arguments.get(sharedCount.constructed().get(2)).get(1));
+
+      // documents without offsets are always counted
+      counter.add(Document.create("jsonDoc", "runId2"));
+      assertEquals(5, sharedCount.constructed().size());
+    }
+  }
+
+  @Test
+  public void testSuspectedOnlyForgetsRevokedPartitions() throws Exception {
+    try (MockedStatic<CuratorFrameworkFactory> curatorStatic = mockStatic(CuratorFrameworkFactory.class);
+         MockedConstruction<SharedCount> sharedCount = mockConstruction(SharedCount.class)) {
+      CuratorFramework curatorFramework = mock(CuratorFramework.class);
+      curatorStatic.when(() -> CuratorFrameworkFactory.newClient(eq("foo"), any())).thenReturn(curatorFramework);
+
+      ZKRetryCounter counter = new ZKRetryCounter(ConfigFactory.load("ZKRetryCounterTest/suspected.conf"));
+      counter.add(kafkaDoc(1, 10));
+      counter.add(kafkaDoc(2, 10));
+      assertEquals(2, sharedCount.constructed().size());
+
+      // once partition 1 is revoked, its next record is suspected even though its offset follows the last one seen
+      counter.onPartitionsRevoked(List.of(new TopicPartition("topic", 1)));
+      counter.add(kafkaDoc(1, 11));
+      counter.add(kafkaDoc(2, 11));
+      assertEquals(3, sharedCount.constructed().size());
+    }
+  }
+
+  @Test
+  public void testSuspectedOnlyRemovesCountedDocuments() throws Exception {
+    try (MockedStatic<CuratorFrameworkFactory> curatorStatic = mockStatic(CuratorFrameworkFactory.class);
+         MockedConstruction<SharedCount> sharedCount = mockConstruction(SharedCount.class)) {
+      BackgroundVersionable backgroundVersionable = mock(BackgroundVersionable.class);
+      DeleteBuilderMain deleteBuilderMain = mock(DeleteBuilderMain.class);
+      when(deleteBuilderMain.deletingChildrenIfNeeded()).thenReturn(backgroundVersionable);
+      DeleteBuilder deleteBuilder = mock(DeleteBuilder.class);
+      when(deleteBuilder.quietly()).thenReturn(deleteBuilderMain);
+      CuratorFramework curatorFramework = mock(CuratorFramework.class);
+      when(curatorFramework.delete()).thenReturn(deleteBuilder);
+      when(curatorFramework.transactionOp()).thenThrow(IllegalStateException.class);
+      curatorStatic.when(() -> CuratorFrameworkFactory.newClient(eq("foo"), any())).thenReturn(curatorFramework);
+
+      ZKRetryCounter counter = new ZKRetryCounter(ConfigFactory.load("ZKRetryCounterTest/suspected.conf"));
+
+      KafkaDocument first = kafkaDoc(1, 10);
+      KafkaDocument second = kafkaDoc(1, 11);
+      counter.add(first);
+      counter.add(second);
+      counter.remove(first);
+      counter.remove(second);
+      counter.flush();
+
+      verify(backgroundVersionable, times(1)).forPath("/LucilleCounters/bar/topic/runId/key___1_10");
+      verify(backgroundVersionable, never()).forPath("/LucilleCounters/bar/topic/runId/key___1_11");
+    }
+  }
+
+  @Test
+  public void testRemovesAreBatched() throws Exception {
+    try (MockedStatic<CuratorFrameworkFactory> curatorStatic = mockStatic(CuratorFrameworkFactory.class)) {
+      CuratorFramework curatorFramework = mock(CuratorFramework.class, RETURNS_DEEP_STUBS);
+      CuratorMultiTransaction transaction = mock(CuratorMultiTransaction.class);
+      when(curatorFramework.transaction()).thenReturn(transaction);
+      curatorStatic.when(() -> CuratorFrameworkFactory.newClient(eq("foo"), any())).thenReturn(curatorFramework);
+
+      ZKRetryCounter counter = new ZKRetryCounter(ConfigFactory.load("ZKRetryCounterTest/config.conf"));
+      ArgumentCaptor<List<CuratorOp>> ops = ArgumentCaptor.forClass(List.class);
+
+      // a full batch is deleted in one transaction
+      for (int i = 0; i < ZKRetryCounter.DELETE_BATCH_SIZE - 1; i++) {
+        counter.remove(Document.create("doc" + i, "runId"));
+      }
+      verify(transaction, never()).forOperations(any(List.class));
+      counter.remove(Document.create("last", "runId"));
+      verify(transaction, times(1)).forOperations(ops.capture());
+      assertEquals(ZKRetryCounter.DELETE_BATCH_SIZE, ops.getValue().size());
+
+      // the rest are deleted when partitions are revoked or the counter is flushed
+      counter.remove(Document.create("revoked", "runId"));
+      counter.onPartitionsRevoked(List.of(new TopicPartition("topic", 1)));
+      counter.remove(Document.create("flushed", "runId"));
+      counter.flush();
+      counter.flush();
+      verify(transaction, times(3)).forOperations(ops.capture());
+      assertEquals(1, ops.getAllValues().get(2).size());
+      assertEquals(1, ops.getAllValues().get(3).size());
+      verify(curatorFramework, never()).delete();
+    }
+  }
+
+  @Test
+  public void testInvalidRetryTracking() {
+    try (MockedStatic<CuratorFrameworkFactory> curatorStatic = mockStatic(CuratorFrameworkFactory.class)) {
+      assertThrows(IllegalArgumentException.class,
+          () -> new ZKRetryCounter(ConfigFactory.load("ZKRetryCounterTest/invalidTracking.conf")));
+    }
+  }
+
+  private static KafkaDocument kafkaDoc(int partition, long offset) throws Exception {
+    KafkaDocument kafkaDoc = spy(new KafkaDocument(Document.create("kafkaDoc"), "topic", partition, offset, "key"));
+    when(kafkaDoc.getRunId()).thenReturn("runId");
+    return kafkaDoc;
+  }
 }
@@ -20,12 +20,23 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class CSVFileHandlerTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   @Test
   public void testSemicolonSeparator() throws Exception {
     Config config = ConfigFactory.parseMap(Map.of("csv", Map.of("separatorChar",  ";")));
@@ -524,4 +535,86 @@ public class CSVFileHandlerTest {
     assertEquals("doc1", published.get(0).getId());
     assertEquals("doc3", published.get(1).getId());
   }
+
+  @Test
+  public void testParallelParsingMatchesDefault() throws Exception {
+    String filePath = "src/test/resources/FileHandlerTest/CSVFileHandlerTest/defaultsWithEmptiesAndBlanks.csv";
+
+    List<Document> expected = processAll(Map.of(), filePath);
+    // a tiny chunk size forces the file to be split into many chunks
+    List<Document> actual = processAll(Map.of("parserThreads", 3, "chunkSizeBytes", 8), filePath);
+
+    assertEquals(3, expected.size());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testParallelParsingKeepsQuotedLineBreaksAndOrder() throws Exception {
+    File file = tempFolder.newFile("large.csv");
+    try (Writer writer = new FileWriter(file, StandardCharsets.UTF_8)) {
+      writer.write("\uFEFFID,Text,Other\n");
+      for (int i = 0; i < 2000; i++) {
+        if (i % 7 == 0) {
+          writer.write(i + ",\"spans\nmultiple, lines \"\"" + i + "\"\"\",x\r\n");
+        } else {
+          writer.write(i + ",text " + i + ",\u00e9\u4e2d\n");
+        }
+      }
+    }
+
+    Map<String, Object> options = Map.of("idField", "id", "lowercaseFields", true, "ignoreEscapeChar", true);
+    List<Document> expected = processAll(options, file.getPath());
+
+    Map<String, Object> parallelOptions = new HashMap<>(options);
+    parallelOptions.put("parserThreads", 4);
+    parallelOptions.put("chunkSizeBytes", 1000);
+    List<Document> actual = processAll(parallelOptions, file.getPath());
+
+    assertEquals(2000, actual.size());
+    assertEquals("0", actual.get(0).getId());
+    assertEquals("spans\nmultiple, lines \"0\"", actual.get(0).getString("text"));
+    assertEquals("1999", actual.get(1999).getId());
+    assertEquals(2000, actual.get(1999).getInt("csvLineNumber").intValue());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testParallelParsingCarriageReturnLineEndings() throws Exception {
+    File file = tempFolder.newFile("cr.csv");
+    try (Writer writer = new FileWriter(file, StandardCharsets.UTF_8)) {
+      writer.write("id,text\r");
+      for (int i = 0; i < 500; i++) {
+        writer.write(i + ",text " + i + "\r");
+      }
+    }
+
+    // with no line feeds, chunks are cut at carriage returns, and every record still comes out whole and in order
+    List<Document> actual = processAll(Map.of("idField", "id", "parserThreads", 2, "chunkSizeBytes", 64), file.getPath());
+
+    assertEquals(500, actual.size());
+    for (int i = 0; i < 500; i++) {
+      assertEquals(String.valueOf(i), actual.get(i).getId());
+      assertEquals("text " + i, actual.get(i).getString("text"));
+      assertEquals(i + 1, actual.get(i).getInt("csvLineNumber").intValue());
+    }
+  }
+
+  @Test
+  public void testParallelParsingEmptyAndHeaderOnly() throws Exception {
+    Map<String, Object> options = Map.of("parserThreads", 2);
+    assertTrue(processAll(options, "src/test/resources/FileHandlerTest/CSVFileHandlerTest/empty.csv").isEmpty());
+    assertTrue(processAll(options, "src/test/resources/FileHandlerTest/CSVFileHandlerTest/headerOnly.csv").isEmpty());
+  }
+
+  private List<Document> processAll(Map<String, Object> options, String filePath) throws Exception {
+    Config config = ConfigFactory.parseMap(Map.of("csv", options));
+    FileHandler handler = FileHandler.create("csv", config);
+
+    List<Document> docs = new ArrayList<>();
+    Iterator<Document> iterator = handler.processFile(new FileInputStream(filePath), filePath);
+    while (iterator.hasNext()) {
+      docs.add(iterator.next());
+    }
+    return docs;
+  }
 }
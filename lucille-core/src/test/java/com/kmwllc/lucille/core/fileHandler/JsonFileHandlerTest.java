@@ -2,6 +2,8 @@ package com.kmwllc.lucille.core.fileHandler;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -15,13 +17,24 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class JsonFileHandlerTest {
 
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   @Test
   public void testProcessFileUsingPath() throws Exception {
     // testing prefix as well
@@ -390,4 +403,119 @@ public class JsonFileHandlerTest {
     assertEquals("PREFIX-three_3", docs.next().getId());
     assertFalse(docs.hasNext());
   }
+
+  @Test
+  public void testTopLevelArray() throws Exception {
+    Config config = ConfigFactory.parseMap(Map.of("json", Map.of("docIdPrefix", "PREFIX", "blacklist", List.of("field2"))));
+    FileHandler handler = FileHandler.create("json", config);
+
+    String filePath = "src/test/resources/FileHandlerTest/JsonFileHandlerTest/array.json";
+    Iterator<Document> docs = handler.processFile(new FileInputStream(filePath), filePath);
+
+    assertEquals(Document.createFromJson("{\"id\": \"PREFIX1\", \"field1\":\"val1-1\"}"), docs.next());
+    assertEquals(Document.createFromJson("{\"id\": \"PREFIX2\", \"field3\":\"val3\"}"), docs.next());
+    assertEquals(Document.createFromJson("{\"id\": \"PREFIX3\", \"field4\":\"val4\", \"field5\":\"val5\"}"), docs.next());
+    assertFalse(docs.hasNext());
+  }
+
+  @Test
+  public void testParallelJsonlMatchesSequential() throws Exception {
+    File file = tempFolder.newFile("large.jsonl");
+    try (Writer writer = new FileWriter(file, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < 2000; i++) {
+        writer.write("{\"field1\":\"" + i + "\", \"field2\":\"\u00e9\u4e2d " + i + "\", \"nested\":{\"values\":[" + i + ", null]}}\n");
+        if (i % 100 == 0) {
+          writer.write("\n");
+        }
+      }
+    }
+
+    Map<String, Object> options = Map.of("idField", "field1", "docIdPrefix", "doc-");
+    List<Document> expected = processAll(options, file.getPath());
+
+    Map<String, Object> parallelOptions = new HashMap<>(options);
+    parallelOptions.put("jsonl", true);
+    parallelOptions.put("parserThreads", 4);
+    parallelOptions.put("chunkSizeBytes", 1000);
+    List<Document> actual = processAll(parallelOptions, file.getPath());
+
+    assertEquals(2000, actual.size());
+    assertEquals("doc-0", actual.get(0).getId());
+    assertEquals("doc-1999", actual.get(1999).getId());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testMultiLineObjectsAcrossChunkBoundaries() throws Exception {
+    File file = tempFolder.newFile("pretty.json");
+    try (Writer writer = new FileWriter(file, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < 200; i++) {
+        writer.write("{\n  \"field1\": \"" + i + "\",\n  \"nested\": {\n    \"values\": [" + i + ", null]\n  }\n}\n");
+      }
+    }
+
+    // without jsonl, the file is read sequentially however many parser threads are configured
+    Map<String, Object> options = Map.of("idField", "field1", "parserThreads", 4, "chunkSizeBytes", 100);
+    List<Document> docs = processAll(options, file.getPath());
+
+    assertEquals(200, docs.size());
+    for (int i = 0; i < 200; i++) {
+      assertEquals(String.valueOf(i), docs.get(i).getId());
+      assertEquals(i, docs.get(i).getJson("nested").get("values").get(0).asInt());
+    }
+  }
+
+  @Test
+  public void testParallelJsonlReportsFileLineNumbers() throws Exception {
+    File file = tempFolder.newFile("malformed-large.jsonl");
+    try (Writer writer = new FileWriter(file, StandardCharsets.UTF_8)) {
+      for (int i = 1; i <= 500; i++) {
+        writer.write(i == 437 ? "not json\n" : "{\"id\":\"" + i + "\"}\n");
+      }
+    }
+
+    Config config = ConfigFactory.parseMap(Map.of("json", Map.of("jsonl", true, "parserThreads", 4, "chunkSizeBytes", 100)));
+    FileHandler handler = FileHandler.create("json", config);
+    Iterator<Document> docs = handler.processFile(new FileInputStream(file), file.getPath());
+
+    for (int i = 1; i < 437 - 10; i++) {
+      assertEquals(String.valueOf(i), docs.next().getId());
+    }
+    Exception e = assertThrows(RuntimeException.class, () -> {
+      while (docs.hasNext()) {
+        docs.next();
+      }
+    });
+    assertTrue(ExceptionUtils.getThrowableList(e).stream().anyMatch(t -> t.getMessage() != null && t.getMessage().contains("line 437")));
+  }
+
+  @Test
+  public void testMalformedFile() throws Exception {
+    File file = tempFolder.newFile("malformed.jsonl");
+    try (Writer writer = new FileWriter(file, StandardCharsets.UTF_8)) {
+      writer.write("{\"id\":\"1\", \"field1\":\"val1\"}\n");
+      writer.write("not json\n");
+      writer.write("{\"id\":\"3\", \"field1\":\"val3\"}\n");
+    }
+
+    FileHandler handler = FileHandler.create("json", ConfigFactory.parseMap(Map.of("json", Map.of())));
+    Iterator<Document> docs = handler.processFile(new FileInputStream(file), file.getPath());
+
+    assertEquals("1", docs.next().getId());
+    // the error is reported, rather than treated as the end of the file
+    assertThrows(RuntimeException.class, docs::hasNext);
+    assertFalse(docs.hasNext());
+  }
+
+  private List<Document> processAll(Map<String, Object> options, String filePath) throws Exception {
+    Config config = ConfigFactory.parseMap(Map.of("json", options));
+    FileHandler handler = FileHandler.create("json", config);
+
+    List<Document> docs = new ArrayList<>();
+    Iterator<Document> iterator = handler.processFile(new FileInputStream(filePath), filePath);
+    while (iterator.hasNext()) {
+      docs.add(iterator.next());
+    }
+    return docs;
+  }
 }
@@ -17,6 +17,7 @@ import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
 import co.elastic.clients.elasticsearch.core.bulk.IndexOperation;
 import co.elastic.clients.elasticsearch._types.VersionType;
 import co.elastic.clients.elasticsearch.core.bulk.UpdateOperation;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.ElasticsearchTransport;
 import co.elastic.clients.transport.endpoints.BooleanResponse;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -24,9 +25,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.Event;
 import com.kmwllc.lucille.core.Event.Type;
+import com.kmwllc.lucille.core.Indexer;
 import com.kmwllc.lucille.core.IndexerException;
 import com.kmwllc.lucille.core.IndexerRetryableException;
 import com.kmwllc.lucille.core.KafkaDocument;
+import com.kmwllc.lucille.core.StreamedIndexerDoc;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.message.IndexerMessenger;
 import com.kmwllc.lucille.message.TestMessenger;
@@ -40,11 +43,15 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -61,6 +68,9 @@ import static org.mockito.Mockito.when;
 
 public class ElasticsearchIndexerTest {
 
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   private ElasticsearchClient mockClient;
 
   @Before
@@ -235,6 +245,59 @@ public class ElasticsearchIndexerTest {
     assertFalse(children.get(0).containsKey(Document.CHILDREN_FIELD));
   }
 
+  @Test
+  public void testStreamDocuments() throws Exception {
+    Config config = ConfigFactory.load("ElasticsearchIndexerTest/childDocuments.conf")
+        .withValue("indexer.blacklist", ConfigValueFactory.fromIterable(List.of("ignoreField1")));
+
+    Document child = Document.create("child1");
+    child.setField("child_field", "value1");
+    child.setField("ignoreField1", "shouldBeRemoved");
+
+    Document parent = Document.create("parent1");
+    parent.setField("parent_field", "parentValue");
+    parent.setField("ignoreField1", "shouldBeRemoved");
+    parent.setField("number", 3L);
+    parent.setVector("vector", new float[] {0.5f, 1.5f});
+    parent.addChild(child);
+
+    Object mapDoc = indexAndCapture(config, parent.deepCopy());
+    Object streamedDoc = indexAndCapture(
+        config.withValue("elasticsearch.streamDocuments", ConfigValueFactory.fromAnyRef(true)), parent.deepCopy());
+
+    assertTrue(mapDoc instanceof Map);
+    assertTrue(streamedDoc instanceof StreamedIndexerDoc);
+
+    // the streamed document must serialize to the same JSON as the Map sent by default
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode expected = mapper.readTree("{\"id\":\"parent1\",\"parent_field\":\"parentValue\",\"number\":3,"
+        + "\"vector\":[0.5,1.5],\"children\":[{\"id\":\"child1\",\"child_field\":\"value1\"}]}");
+    assertEquals(expected, mapper.readTree(serialize(mapDoc)));
+    assertEquals(expected, mapper.readTree(serialize(streamedDoc)));
+  }
+
+  private Object indexAndCapture(Config config, Document doc) throws Exception {
+    setupElasticsearchClient();
+    TestMessenger messenger = new TestMessenger();
+    ElasticsearchIndexer indexer = new ElasticsearchIndexer(config, messenger, "testing", mockClient);
+    messenger.sendForIndexing(doc);
+    indexer.run(1);
+
+    ArgumentCaptor<BulkRequest> captor = ArgumentCaptor.forClass(BulkRequest.class);
+    verify(mockClient, times(1)).bulk(captor.capture());
+    return captor.getValue().operations().get(0).index().document();
+  }
+
+  // serializes the document the way the client does when writing the bulk request body
+  private static String serialize(Object document) {
+    JacksonJsonpMapper mapper = new JacksonJsonpMapper();
+    StringWriter writer = new StringWriter();
+    try (jakarta.json.stream.JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+      mapper.serialize(document, generator);
+    }
+    return writer.toString();
+  }
+
   @Test
   public void testElasticsearchIndexerUpdate() throws Exception {
     TestMessenger messenger = new TestMessenger();
@@ -1360,6 +1423,99 @@ public class ElasticsearchIndexerTest {
     assertEquals(Event.Type.FAIL, events.get(0).getType());
   }
 
+  @Test
+  public void testAdaptiveBatchSizeHalvesOnRejection() throws Exception {
+    ElasticsearchClient rejectingClient = Mockito.mock(ElasticsearchClient.class);
+    Mockito.when(rejectingClient.ping()).thenReturn(new BooleanResponse(true));
+
+    ErrorResponse errorResponse = ErrorResponse.of(b -> b
+        .status(429)
+        .error(ec -> ec.type("es_rejected_execution_exception").reason("too many requests")));
+    Mockito.when(rejectingClient.bulk(any(BulkRequest.class)))
+        .thenThrow(new ElasticsearchException("es/bulk", errorResponse));
+
+    TestMessenger messenger = new TestMessenger();
+    Config config = ConfigFactory.load("ElasticsearchIndexerTest/config.conf")
+        .withValue("indexer.batchSize", ConfigValueFactory.fromAnyRef(20))
+        .withValue("indexer.adaptiveBatchSize", ConfigValueFactory.fromAnyRef(true))
+        .withValue("indexer.minBatchSize", ConfigValueFactory.fromAnyRef(5));
+    ElasticsearchIndexer indexer = new ElasticsearchIndexer(config, messenger, "testing", rejectingClient);
+    assertEquals(20, indexer.getBatchCapacity());
+
+    for (int i = 0; i < 20; i++) {
+      messenger.sendForIndexing(Document.create("doc" + i, "test_run"));
+    }
+    indexer.run(20);
+
+    verify(rejectingClient, times(1)).bulk(any(BulkRequest.class));
+    assertEquals(10, indexer.getBatchCapacity());
+  }
+
+  @Test
+  public void testChangeDetectionSkipsUnchangedDocs() throws Exception {
+    File hashFile = tempFolder.getRoot().toPath().resolve("hashes").toFile();
+    Config config = ConfigFactory.load("ElasticsearchIndexerTest/config.conf")
+        .withValue("indexer.changeDetectionFile", ConfigValueFactory.fromAnyRef(hashFile.getAbsolutePath()))
+        .withValue("indexer.blacklist", ConfigValueFactory.fromAnyRef(List.of("crawled_at")));
+
+    TestMessenger messenger = new TestMessenger();
+    ElasticsearchIndexer indexer = new ElasticsearchIndexer(config, messenger, "testing", mockClient);
+    for (int i = 1; i <= 3; i++) {
+      Document doc = Document.create("doc" + i, "run1");
+      doc.setField("field", "value" + i);
+      messenger.sendForIndexing(doc);
+    }
+    indexer.run(3);
+    verify(mockClient, times(3)).bulk(any(BulkRequest.class));
+
+    // a later run only sends doc2, whose content changed; the run id and blacklisted fields don't count
+    messenger = new TestMessenger();
+    indexer = new ElasticsearchIndexer(config, messenger, "testing", mockClient);
+    for (int i = 1; i <= 3; i++) {
+      Document doc = Document.create("doc" + i, "run2");
+      doc.setField("field", i == 2 ? "changed" : "value" + i);
+      doc.setField("crawled_at", "today");
+      messenger.sendForIndexing(doc);
+    }
+    indexer.run(3);
+    verify(mockClient, times(4)).bulk(any(BulkRequest.class));
+
+    List<Event> events = messenger.getSentEvents();
+    assertEquals(3, events.size());
+    assertEquals(Type.DROP, events.get(0).getType());
+    assertEquals(Type.FINISH, events.get(1).getType());
+    assertEquals("doc2", events.get(1).getDocumentId());
+    assertEquals(Type.DROP, events.get(2).getType());
+  }
+
+  @Test
+  public void testChangeDetectionSendsFailedDocsAgain() throws Exception {
+    File hashFile = tempFolder.getRoot().toPath().resolve("hashes").toFile();
+    Config config = ConfigFactory.load("ElasticsearchIndexerTest/config.conf")
+        .withValue("indexer.changeDetectionFile", ConfigValueFactory.fromAnyRef(hashFile.getAbsolutePath()));
+
+    TestMessenger messenger = new TestMessenger();
+    Indexer indexer = new ErroringElasticsearchIndexer(config, messenger, "testing", mockClient);
+    messenger.sendForIndexing(Document.create("doc1", "run1"));
+    indexer.run(1);
+    assertEquals(Type.FAIL, messenger.getSentEvents().get(0).getType());
+
+    messenger = new TestMessenger();
+    indexer = new ElasticsearchIndexer(config, messenger, "testing", mockClient);
+    messenger.sendForIndexing(Document.create("doc1", "run2"));
+    indexer.run(1);
+    verify(mockClient, times(1)).bulk(any(BulkRequest.class));
+    assertEquals(Type.FINISH, messenger.getSentEvents().get(0).getType());
+  }
+
+  @Test
+  public void testAdaptiveBatchSizeSettingsRequireAdaptiveBatchSize() {
+    Config config = ConfigFactory.load("ElasticsearchIndexerTest/config.conf")
+        .withValue("indexer.maxBatchSize", ConfigValueFactory.fromAnyRef(500));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ElasticsearchIndexer(config, new TestMessenger(), "testing", mockClient));
+  }
+
   public static class ErroringElasticsearchIndexer extends ElasticsearchIndexer {
 
     public static final Spec SPEC = ElasticsearchIndexer.SPEC;
@@ -0,0 +1,226 @@
+package com.kmwllc.lucille.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.Event;
+import com.kmwllc.lucille.message.TestMessenger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileIndexerTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Config config(Map<String, Object> settings) {
+    return ConfigFactory.parseMap(settings)
+        .withFallback(ConfigFactory.parseMap(Map.of(
+            "indexer.type", "File",
+            "indexer.batchSize", 2,
+            "file.directory", tempFolder.getRoot().getAbsolutePath())));
+  }
+
+  private static Document doc(int i) {
+    Document doc = Document.create("doc" + i, "run1");
+    doc.setField("name", "name" + i);
+    doc.addToField("tags", "a" + i);
+    doc.addToField("tags", "b" + i);
+    return doc;
+  }
+
+  private List<Path> files() throws IOException {
+    try (Stream<Path> files = Files.list(tempFolder.getRoot().toPath())) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static List<String> readLines(Path file, boolean gzip, boolean zstd) throws IOException {
+    InputStream in = Files.newInputStream(file);
+    if (gzip) {
+      in = new GZIPInputStream(in);
+    } else if (zstd) {
+      in = new ZstdCompressorInputStream(in);
+    }
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      return reader.lines().collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testJsonLinesWithGzip() throws Exception {
+    TestMessenger messenger = new TestMessenger();
+    FileIndexer indexer = new FileIndexer(config(Map.of(
+        "file.compression", "gzip",
+        "indexer.blacklist", List.of("run_id"))), messenger, false, "testing", null);
+    assertTrue(indexer.validateConnection());
+
+    for (int i = 1; i <= 3; i++) {
+      messenger.sendForIndexing(doc(i));
+    }
+    indexer.run(3);
+
+    List<Event> events = messenger.getSentEvents();
+    assertEquals(3, events.size());
+    assertTrue(events.stream().allMatch(e -> e.getType() == Event.Type.FINISH));
+
+    List<Path> files = files();
+    assertEquals(1, files.size());
+    String name = files.get(0).getFileName().toString();
+    assertTrue(name, name.matches("documents-\\d{8}T\\d{6}Z-00000\\.jsonl\\.gz"));
+
+    List<String> lines = readLines(files.get(0), true, false);
+    assertEquals(3, lines.size());
+    JsonNode first = MAPPER.readTree(lines.get(0));
+    assertEquals("doc1", first.get("id").asText());
+    assertEquals("name1", first.get("name").asText());
+    assertEquals("b1", first.get("tags").get(1).asText());
+    assertFalse(first.has("run_id"));
+  }
+
+  @Test
+  public void testCsvRollsBySize() throws Exception {
+    TestMessenger messenger = new TestMessenger();
+    FileIndexer indexer = new FileIndexer(config(Map.of(
+        "file.format", "csv",
+        "file.columns", List.of("id", "name", "tags"),
+        "file.filePrefix", "staged",
+        "file.rollSizeBytes", 1)), messenger, false, "testing", null);
+
+    for (int i = 1; i <= 3; i++) {
+      messenger.sendForIndexing(doc(i));
+    }
+    indexer.run(3);
+
+    // the size limit is tiny, so every document is in its own file, each with a header
+    List<Path> files = files();
+    assertEquals(3, files.size());
+    for (int i = 0; i < 3; i++) {
+      assertTrue(files.get(i).getFileName().toString().endsWith(String.format("-%05d.csv", i)));
+      List<String> lines = readLines(files.get(i), false, false);
+      assertEquals(List.of("\"id\",\"name\",\"tags\"",
+          String.format("\"doc%d\",\"name%d\",\"[a%d, b%d]\"", i + 1, i + 1, i + 1, i + 1)), lines);
+    }
+  }
+
+  @Test
+  public void testZstdAndIdOverride() throws Exception {
+    TestMessenger messenger = new TestMessenger();
+    FileIndexer indexer = new FileIndexer(config(Map.of(
+        "file.compression", "zstd",
+        "indexer.idOverrideField", "name")), messenger, false, "testing", null);
+
+    messenger.sendForIndexing(doc(1));
+    messenger.sendForIndexing(doc(2));
+    indexer.run(2);
+
+    List<Path> files = files();
+    assertEquals(1, files.size());
+    assertTrue(files.get(0).toString().endsWith(".jsonl.zst"));
+    List<String> lines = readLines(files.get(0), false, true);
+    assertEquals("name2", MAPPER.readTree(lines.get(1)).get("id").asText());
+  }
+
+  @Test
+  public void testRollsByTime() throws Exception {
+    FileIndexer.FileFormat format = new StreamFileFormat("jsonl", "none", null, true);
+    RollingFileWriter writer = new RollingFileWriter(tempFolder.getRoot().toPath(), "timed", format, 0, 100);
+
+    writer.write(List.of(Map.of("id", "doc1")));
+    // the file is finished by the writer thread while it waits for more records
+    long deadline = System.currentTimeMillis() + 5000;
+    while (files().stream().noneMatch(p -> p.toString().endsWith(".jsonl")) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(1, files().size());
+    assertFalse(files().get(0).toString().endsWith(RollingFileWriter.IN_PROGRESS_SUFFIX));
+
+    writer.write(List.of(Map.of("id", "doc2")));
+    writer.close();
+    assertEquals(2, files().size());
+    assertEquals(List.of("{\"id\":\"doc2\"}"), readLines(files().get(1), false, false));
+  }
+
+  @Test
+  public void testWriteFailureFailsLaterBatches() throws Exception {
+    FileIndexer.FileFormat failing = new FileIndexer.FileFormat() {
+      @Override
+      public String getExtension() {
+        return "bad";
+      }
+
+      @Override
+      public FileIndexer.RecordWriter open(Path path) throws IOException {
+        throw new IOException("disk full");
+      }
+    };
+    RollingFileWriter writer = new RollingFileWriter(tempFolder.getRoot().toPath(), "failing", failing, 0, 0);
+
+    List<Map<String, Object>> records = List.of(Map.of("id", "doc1"));
+    IOException e = assertThrows(IOException.class, () -> {
+      // the failure is reported by the first write after the writer thread has stopped
+      while (true) {
+        writer.write(records);
+      }
+    });
+    assertEquals("disk full", e.getCause().getMessage());
+    assertThrows(IOException.class, writer::close);
+  }
+
+  @Test
+  public void testInvalidSettings() {
+    TestMessenger messenger = new TestMessenger();
+    assertThrows(IllegalArgumentException.class,
+        () -> new FileIndexer(config(Map.of("file.format", "xml")), messenger, false, "testing", null));
+    assertThrows(IllegalArgumentException.class,
+        () -> new FileIndexer(config(Map.of("file.compression", "lz4")), messenger, false, "testing", null));
+    assertThrows(IllegalArgumentException.class,
+        () -> new FileIndexer(config(Map.of("file.format", "csv")), messenger, false, "testing", null));
+  }
+
+  @Test
+  public void testChangeDetectionNotSupported() {
+    Path hashes = tempFolder.getRoot().toPath().resolve("hashes");
+    assertThrows(IllegalArgumentException.class, () -> new FileIndexer(
+        config(Map.of("indexer.changeDetectionFile", hashes.toString())), new TestMessenger(), false, "testing", null));
+    // the file is not created, or left open, for an indexer that rejects it
+    assertFalse(Files.exists(hashes));
+  }
+
+  @Test
+  public void testUnusableDirectory() throws Exception {
+    File notADirectory = tempFolder.newFile("file");
+    FileIndexer indexer = new FileIndexer(config(Map.of("file.directory", notADirectory.getAbsolutePath())),
+        new TestMessenger(), false, "testing", null);
+    assertFalse(indexer.validateConnection());
+  }
+
+  @Test
+  public void testFromFactory() throws Exception {
+    assertTrue(IndexerFactory.fromConfig(config(Map.of()), new TestMessenger(), true, "testing") instanceof FileIndexer);
+  }
+}
@@ -13,6 +13,7 @@ import static org.mockito.Mockito.when;
 import com.kmwllc.lucille.core.IndexerRetryableException;
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
@@ -29,6 +30,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
 import org.opensearch.client.opensearch.OpenSearchClient;
 import org.opensearch.client.opensearch._types.ErrorCause;
 import org.opensearch.client.opensearch._types.FieldValue;
@@ -54,6 +56,7 @@ import com.kmwllc.lucille.core.Event;
 import com.kmwllc.lucille.core.Event.Type;
 import com.kmwllc.lucille.core.IndexerException;
 import com.kmwllc.lucille.core.KafkaDocument;
+import com.kmwllc.lucille.core.StreamedIndexerDoc;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.message.IndexerMessenger;
 import com.kmwllc.lucille.message.TestMessenger;
@@ -242,6 +245,59 @@ public class OpenSearchIndexerTest {
     assertFalse(children.get(0).containsKey(Document.CHILDREN_FIELD));
   }
 
+  @Test
+  public void testStreamDocuments() throws Exception {
+    Config config = ConfigFactory.load("OpenSearchIndexerTest/childDocuments.conf")
+        .withValue("indexer.blacklist", ConfigValueFactory.fromIterable(List.of("ignoreField1")));
+
+    Document child = Document.create("child1");
+    child.setField("child_field", "value1");
+    child.setField("ignoreField1", "shouldBeRemoved");
+
+    Document parent = Document.create("parent1");
+    parent.setField("parent_field", "parentValue");
+    parent.setField("ignoreField1", "shouldBeRemoved");
+    parent.setField("number", 3L);
+    parent.setVector("vector", new float[] {0.5f, 1.5f});
+    parent.addChild(child);
+
+    Object mapDoc = indexAndCapture(config, parent.deepCopy());
+    Object streamedDoc = indexAndCapture(
+        config.withValue("opensearch.streamDocuments", ConfigValueFactory.fromAnyRef(true)), parent.deepCopy());
+
+    assertTrue(mapDoc instanceof Map);
+    assertTrue(streamedDoc instanceof StreamedIndexerDoc);
+
+    // the streamed document must serialize to the same JSON as the Map sent by default
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode expected = mapper.readTree("{\"id\":\"parent1\",\"parent_field\":\"parentValue\",\"number\":3,"
+        + "\"vector\":[0.5,1.5],\"children\":[{\"id\":\"child1\",\"child_field\":\"value1\"}]}");
+    assertEquals(expected, mapper.readTree(serialize(mapDoc)));
+    assertEquals(expected, mapper.readTree(serialize(streamedDoc)));
+  }
+
+  private Object indexAndCapture(Config config, Document doc) throws Exception {
+    setupOpenSearchClient();
+    TestMessenger messenger = new TestMessenger();
+    OpenSearchIndexer indexer = new OpenSearchIndexer(config, messenger, "testing", mockClient);
+    messenger.sendForIndexing(doc);
+    indexer.run(1);
+
+    ArgumentCaptor<BulkRequest> captor = ArgumentCaptor.forClass(BulkRequest.class);
+    verify(mockClient, times(1)).bulk(captor.capture());
+    return captor.getValue().operations().get(0).index().document();
+  }
+
+  // serializes the document the way the client does when writing the bulk request body
+  private static String serialize(Object document) {
+    JacksonJsonpMapper mapper = new JacksonJsonpMapper();
+    StringWriter writer = new StringWriter();
+    try (jakarta.json.stream.JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+      mapper.serialize(document, generator);
+    }
+    return writer.toString();
+  }
+
   @Test
   public void testOpensearchIndexerUpdate() throws Exception {
     TestMessenger messenger = new TestMessenger();
@@ -17,8 +17,13 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.solr.client.solrj.RemoteSolrException;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CloudSolrClient.RouteException;
+import org.apache.solr.client.solrj.impl.LBSolrClient;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
 import org.hamcrest.MatcherAssert;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -197,6 +202,27 @@ public class SolrIndexerTest {
     assertEquals("my_new_id", solrDoc.getFieldValue("myid"));
   }
 
+  @Test
+  public void testVectorField() throws Exception {
+    Config config = ConfigFactory.empty().withValue("indexer.batchSize", ConfigValueFactory.fromAnyRef(1));
+    TestMessenger messenger = new TestMessenger();
+
+    Document doc = Document.create("doc1", "test_run");
+    doc.setVector("vector", new float[] {0.5f, 1.5f});
+
+    SolrClient solrClient = mock(SolrClient.class);
+    Indexer indexer = new SolrIndexer(config, messenger, "", solrClient);
+    messenger.sendForIndexing(doc);
+    indexer.run(1);
+
+    ArgumentCaptor<Collection<SolrInputDocument>> captor = ArgumentCaptor.forClass(Collection.class);
+    verify(solrClient, times(1)).add((captor.capture()));
+
+    // the vector is sent as a multivalued field
+    SolrInputDocument solrDoc = (SolrInputDocument) captor.getAllValues().get(0).toArray()[0];
+    assertEquals(List.of(0.5f, 1.5f), solrDoc.getFieldValues("vector"));
+  }
+
   /**
    * test that children documents would obey blacklist configurations
    */
@@ -1266,6 +1292,157 @@ public class SolrIndexerTest {
     assertEquals(Event.Type.FINISH, events.get(0).getType());
   }
 
+  /**
+   * With routeUpdatesToLeaders, the adds and deletes of a batch are sent in one update request, since Solr processes the
+   * adds of an update request before its deletes.
+   */
+  @Test
+  public void testRouteUpdatesToLeadersCombinesAddsAndDeletes() throws Exception {
+    Config config = routeUpdatesToLeadersConfig(3);
+    TestMessenger messenger = new TestMessenger();
+
+    Document doc1 = Document.create("doc1", "test_run");
+    Document doc2 = Document.create("doc1", "test_run");
+    doc2.setField("is_deleted", "true");
+    Document doc3 = Document.create("doc3", "test_run");
+
+    SolrClient solrClient = mock(SolrClient.class);
+    Indexer indexer = new SolrIndexer(config, messenger, "", solrClient);
+    messenger.sendForIndexing(doc1);
+    messenger.sendForIndexing(doc2);
+    messenger.sendForIndexing(doc3);
+    indexer.run(3);
+
+    ArgumentCaptor<UpdateRequest> captor = ArgumentCaptor.forClass(UpdateRequest.class);
+    verify(solrClient, times(1)).request(captor.capture(), isNull());
+    verify(solrClient, never()).add(any(Collection.class));
+    verify(solrClient, never()).deleteById(any(List.class));
+
+    UpdateRequest request = captor.getValue();
+    assertEquals(List.of("doc1", "doc3"),
+        request.getDocuments().stream().map(d -> d.getFieldValue(Document.ID_FIELD)).toList());
+    assertEquals(List.of("doc1"), request.getDeleteById());
+    assertEquals(3, messenger.getSentEvents().size());
+  }
+
+  /**
+   * An add that follows a delete of the same id can't join the update request holding the delete, or it would be
+   * processed before it.
+   */
+  @Test
+  public void testRouteUpdatesToLeadersAddAfterDelete() throws Exception {
+    Config config = routeUpdatesToLeadersConfig(3);
+    TestMessenger messenger = new TestMessenger();
+
+    Document doc1 = Document.create("doc1", "test_run");
+    doc1.setField("version", 1);
+    Document doc2 = Document.create("doc1", "test_run");
+    doc2.setField("is_deleted", "true");
+    Document doc3 = Document.create("doc1", "test_run");
+    doc3.setField("version", 2);
+
+    SolrClient solrClient = mock(SolrClient.class);
+    Indexer indexer = new SolrIndexer(config, messenger, "", solrClient);
+    messenger.sendForIndexing(doc1);
+    messenger.sendForIndexing(doc2);
+    messenger.sendForIndexing(doc3);
+    indexer.run(3);
+
+    ArgumentCaptor<UpdateRequest> captor = ArgumentCaptor.forClass(UpdateRequest.class);
+    verify(solrClient, times(2)).request(captor.capture(), isNull());
+
+    UpdateRequest first = captor.getAllValues().get(0);
+    assertEquals(1, first.getDocuments().get(0).getFieldValue("version"));
+    assertEquals(List.of("doc1"), first.getDeleteById());
+
+    UpdateRequest second = captor.getAllValues().get(1);
+    assertEquals(2, second.getDocuments().get(0).getFieldValue("version"));
+    assertNull(second.getDeleteById());
+  }
+
+  /**
+   * When the request routed to one shard leader fails, only the documents routed to that shard fail.
+   */
+  @Test
+  public void testRouteUpdatesToLeadersShardFailure() throws Exception {
+    Config config = routeUpdatesToLeadersConfig(2);
+    TestMessenger messenger = new TestMessenger();
+
+    Document doc1 = Document.create("doc1", "test_run");
+    Document doc2 = Document.create("doc2", "test_run");
+
+    SolrClient solrClient = mock(SolrClient.class);
+    when(solrClient.request(any(UpdateRequest.class), isNull())).thenAnswer(invocation -> {
+      UpdateRequest request = invocation.getArgument(0);
+      UpdateRequest shard1 = new UpdateRequest().add(request.getDocuments().get(0));
+      UpdateRequest shard2 = new UpdateRequest().add(request.getDocuments().get(1));
+      NamedList<Throwable> throwables = new NamedList<>();
+      throwables.add("http://shard1", new RemoteSolrException("shard1", 503, "Service Unavailable", null));
+      throw new RouteException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, throwables,
+          Map.of("http://shard1", new LBSolrClient.Req(shard1, List.of()), "http://shard2", new LBSolrClient.Req(shard2, List.of())));
+    });
+
+    SolrIndexer indexer = new SolrIndexer(config, messenger, "", solrClient);
+    Set<Pair<Document, Exception>> failedDocs = indexer.sendToIndex(List.of(doc1, doc2));
+
+    assertEquals(1, failedDocs.size());
+    Pair<Document, Exception> failed = failedDocs.iterator().next();
+    assertEquals("doc1", failed.getLeft().getId());
+    assertEquals(503, ((IndexerRetryableException) failed.getRight()).getStatusCode());
+  }
+
+  /**
+   * With atomicUpdates, every field but the id is sent with a modifier, and the atomic updates can share an update
+   * request with deletes.
+   */
+  @Test
+  public void testAtomicUpdates() throws Exception {
+    Config config = routeUpdatesToLeadersConfig(2)
+        .withValue("solr.atomicUpdates", ConfigValueFactory.fromMap(Map.of("tags", "add-distinct", "views", "inc")));
+    TestMessenger messenger = new TestMessenger();
+
+    Document doc1 = Document.create("doc1", "test_run");
+    doc1.setField("tags", "new");
+    doc1.setField("views", 1);
+    doc1.setField("title", "Title");
+    Document doc2 = Document.create("doc2", "test_run");
+    doc2.setField("is_deleted", "true");
+
+    SolrClient solrClient = mock(SolrClient.class);
+    Indexer indexer = new SolrIndexer(config, messenger, "", solrClient);
+    messenger.sendForIndexing(doc1);
+    messenger.sendForIndexing(doc2);
+    indexer.run(2);
+
+    ArgumentCaptor<UpdateRequest> captor = ArgumentCaptor.forClass(UpdateRequest.class);
+    verify(solrClient, times(1)).request(captor.capture(), isNull());
+    SolrInputDocument solrDoc = captor.getValue().getDocuments().get(0);
+    assertEquals("doc1", solrDoc.getFieldValue(Document.ID_FIELD));
+    assertEquals(Map.of("add-distinct", "new"), solrDoc.getFieldValue("tags"));
+    assertEquals(Map.of("inc", 1), solrDoc.getFieldValue("views"));
+    assertEquals(Map.of("set", "Title"), solrDoc.getFieldValue("title"));
+    assertEquals(List.of("doc2"), captor.getValue().getDeleteById());
+  }
+
+  @Test
+  public void testInvalidAtomicUpdates() {
+    // an unknown modifier, and a modifier for the id
+    for (Map<String, String> atomicUpdates : List.of(Map.of("tags", "append"), Map.of("id", "set"))) {
+      Config config = routeUpdatesToLeadersConfig(1)
+          .withValue("solr.atomicUpdates", ConfigValueFactory.fromMap(atomicUpdates));
+      assertThrows(IllegalArgumentException.class,
+          () -> new SolrIndexer(config, new TestMessenger(), "", mock(SolrClient.class)));
+    }
+  }
+
+  private static Config routeUpdatesToLeadersConfig(int batchSize) {
+    return ConfigFactory.empty()
+        .withValue("indexer.batchSize", ConfigValueFactory.fromAnyRef(batchSize))
+        .withValue("indexer.deletionMarkerField", ConfigValueFactory.fromAnyRef("is_deleted"))
+        .withValue("indexer.deletionMarkerFieldValue", ConfigValueFactory.fromAnyRef("true"))
+        .withValue("solr.routeUpdatesToLeaders", ConfigValueFactory.fromAnyRef(true));
+  }
+
   private static String getCapturedID(ArgumentCaptor<Collection<SolrInputDocument>> captor, int index, int arrIndex) {
     SolrInputDocument document = (SolrInputDocument) captor.getAllValues().get(index).toArray()[arrIndex];
     return (String) document.getFieldValue(Document.ID_FIELD);
@@ -1,11 +1,14 @@
 package com.kmwllc.lucille.message;
 
 import static org.junit.Assert.assertEquals;
+import java.util.List;
 import java.util.concurrent.Future;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.MockedStatic;
@@ -157,4 +160,30 @@ public class KafkaMessengerTest {
       assertEquals(doc.getRunId(), after.getRunId());
     }
   }
+
+  @Test
+  public void testRebalanceListener() throws Exception {
+    Config config = ConfigFactory.load("WorkerPoolTest/config.conf");
+    try (MockedStatic<KafkaUtils> kafkaUtils = Mockito.mockStatic(KafkaUtils.class);
+        MockedStatic<RandomStringUtils> randomUtils = Mockito.mockStatic(RandomStringUtils.class)) {
+      KafkaConsumer<String, KafkaDocument> mockConsumer = (KafkaConsumer<String, KafkaDocument>) Mockito.mock(KafkaConsumer.class);
+      randomUtils.when(() -> RandomStringUtils.randomAlphanumeric(8)).thenReturn("random");
+      kafkaUtils.when(() -> {
+        KafkaUtils.createDocumentConsumer(config, "com.kmwllc.lucille-worker-foo-random");
+      }).thenReturn(mockConsumer);
+      KafkaWorkerMessenger messenger = new KafkaWorkerMessenger(config, "foo");
+
+      ConsumerRebalanceListener listener = Mockito.mock(ConsumerRebalanceListener.class);
+      messenger.addRebalanceListener(listener);
+
+      // a rebalance of the consumer is passed on to the listeners added to the messenger
+      ArgumentCaptor<ConsumerRebalanceListener> captor = ArgumentCaptor.forClass(ConsumerRebalanceListener.class);
+      Mockito.verify(mockConsumer).subscribe(Mockito.anyCollection(), captor.capture());
+      List<TopicPartition> partitions = List.of(new TopicPartition("foo", 0));
+      captor.getValue().onPartitionsRevoked(partitions);
+      captor.getValue().onPartitionsAssigned(partitions);
+      Mockito.verify(listener).onPartitionsRevoked(partitions);
+      Mockito.verify(listener).onPartitionsAssigned(partitions);
+    }
+  }
 }
@@ -0,0 +1,288 @@
+package com.kmwllc.lucille.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.HashMapDocument;
+import com.kmwllc.lucille.core.JsonDocument;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillingDocumentQueueTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static Document doc(int i) {
+    Document doc = Document.create("doc" + i, "run1");
+    doc.setField("field", "value" + i);
+    return doc;
+  }
+
+  @Test
+  public void testSpillsBeyondMemoryLimitAndKeepsOrder() throws Exception {
+    long docBytes = doc(0).getByteSize();
+    SpillingDocumentQueue queue = new SpillingDocumentQueue(100, docBytes * 3, tempFolder.getRoot().toPath());
+
+    for (int i = 0; i < 10; i++) {
+      queue.put(doc(i));
+    }
+    assertEquals(10, queue.size());
+    assertEquals(7, queue.getSpilledCount());
+
+    // iterating doesn't consume anything
+    List<String> ids = new ArrayList<>();
+    queue.iterator().forEachRemaining(doc -> ids.add(doc.getId()));
+    assertEquals(10, ids.size());
+    assertEquals("doc9", ids.get(9));
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(doc(i), queue.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    // memory has room again, but new documents are spilled until the spilled ones have been read
+    queue.put(doc(10));
+    assertEquals(6, queue.getSpilledCount());
+
+    for (int i = 5; i <= 10; i++) {
+      assertEquals("doc" + i, queue.peek().getId());
+      assertEquals(doc(i), queue.poll());
+    }
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    assertEquals(0, queue.getSpilledCount());
+
+    // drained segments are deleted
+    try (Stream<Path> files = Files.list(queue.getDirectory())) {
+      assertEquals(0, files.count());
+    }
+
+    queue.put(doc(11));
+    assertEquals(0, queue.getSpilledCount());
+  }
+
+  @Test
+  public void testSpilledDocumentsKeepTheirContent() throws Exception {
+    SpillingDocumentQueue queue = new SpillingDocumentQueue(10, 0, tempFolder.getRoot().toPath());
+
+    Document parent = Document.create("parent", "run1");
+    parent.setField("bytes", new byte[] {1, 2, 3});
+    parent.setField("number", 42);
+    parent.addToField("list", "a");
+    parent.addToField("list", "b");
+    parent.addChild(doc(1));
+
+    queue.put(doc(0));
+    queue.put(parent);
+    assertEquals(1, queue.getSpilledCount());
+
+    assertEquals(doc(0), queue.take());
+    Document restored = queue.take();
+    assertEquals(parent, restored);
+    assertEquals("run1", restored.getRunId());
+    assertEquals(1, restored.getChildren().size());
+  }
+
+  @Test
+  public void testLargeDocumentGetsItsOwnSegment() throws Exception {
+    SpillingDocumentQueue queue = new SpillingDocumentQueue(10, 0, tempFolder.getRoot().toPath());
+
+    Document large = Document.create("large");
+    large.setField("bytes", new byte[SpillingDocumentQueue.SEGMENT_BYTES + 10]);
+
+    queue.put(doc(0));
+    queue.put(doc(1));
+    queue.put(large);
+    queue.put(doc(2));
+
+    try (Stream<Path> files = Files.list(queue.getDirectory())) {
+      assertEquals(3, files.count());
+    }
+
+    List<Document> drained = new ArrayList<>();
+    assertEquals(4, queue.drainTo(drained));
+    assertEquals(List.of("doc0", "doc1", "large", "doc2"), drained.stream().map(Document::getId).toList());
+    assertEquals(large, drained.get(2));
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    SpillingDocumentQueue queue = new SpillingDocumentQueue(2, 0, tempFolder.getRoot().toPath());
+
+    assertTrue(queue.offer(doc(0)));
+    assertTrue(queue.offer(doc(1)));
+    assertFalse(queue.offer(doc(2)));
+    assertFalse(queue.offer(doc(2), 10, TimeUnit.MILLISECONDS));
+    assertEquals(0, queue.remainingCapacity());
+
+    Thread consumer = new Thread(() -> {
+      try {
+        Thread.sleep(100);
+        queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    consumer.start();
+
+    // blocks until the consumer makes room
+    queue.put(doc(2));
+    consumer.join();
+    assertEquals(2, queue.size());
+    assertEquals(doc(1), queue.poll());
+    assertEquals(doc(2), queue.poll());
+  }
+
+  @Test
+  public void testOtherDocumentTypesStayInMemory() throws Exception {
+    SpillingDocumentQueue queue = new SpillingDocumentQueue(10, 0, tempFolder.getRoot().toPath());
+
+    HashMapDocument hashMapDoc = new HashMapDocument("hashMap", "run1");
+    hashMapDoc.setField("field", 5L);
+    queue.put(doc(0));
+    queue.put(doc(1));
+    queue.put(hashMapDoc);
+    queue.put(doc(2));
+    assertEquals(3, queue.getSpilledCount());
+
+    List<Document> snapshot = new ArrayList<>();
+    queue.iterator().forEachRemaining(snapshot::add);
+    assertSame(hashMapDoc, snapshot.get(2));
+
+    // the HashMapDocument comes back in its place, as the same object, while the others are decoded as JsonDocuments
+    assertEquals(doc(0), queue.poll());
+    assertEquals(doc(1), queue.poll());
+    assertSame(hashMapDoc, queue.peek());
+    assertSame(hashMapDoc, queue.poll());
+    Document last = queue.poll();
+    assertEquals(doc(2), last);
+    assertTrue(last instanceof JsonDocument);
+  }
+
+  @Test
+  public void testCloseDeletesFilesOnceDrained() throws Exception {
+    SpillingDocumentQueue queue = new SpillingDocumentQueue(10, 0, tempFolder.getRoot().toPath());
+    for (int i = 0; i < 3; i++) {
+      queue.put(doc(i));
+    }
+
+    // the spilled documents are kept until they have been read
+    queue.close();
+    assertTrue(Files.exists(queue.getDirectory()));
+    assertEquals(3, queue.size());
+    assertEquals(2, queue.getSpilledCount());
+
+    queue.put(doc(3));
+    for (int i = 0; i < 3; i++) {
+      assertEquals(doc(i), queue.poll());
+    }
+    assertEquals(1, queue.getSpilledCount());
+    assertEquals(doc(3), queue.poll());
+    assertFalse(Files.exists(queue.getDirectory()));
+
+    // the queue can still be used, in memory
+    queue.put(doc(4));
+    queue.put(doc(5));
+    assertEquals(0, queue.getSpilledCount());
+    assertEquals(doc(4), queue.poll());
+    assertEquals(doc(5), queue.poll());
+    assertFalse(Files.exists(queue.getDirectory()));
+  }
+
+  @Test
+  public void testCloseDeletesFilesWhenNothingIsSpilled() throws Exception {
+    SpillingDocumentQueue queue = new SpillingDocumentQueue(10, 0, tempFolder.getRoot().toPath());
+    queue.put(doc(0));
+
+    queue.close();
+    assertFalse(Files.exists(queue.getDirectory()));
+    assertEquals(doc(0), queue.poll());
+  }
+
+  @Test
+  public void testInvalidSettings() {
+    Path root = tempFolder.getRoot().toPath();
+    assertThrows(IllegalArgumentException.class, () -> new SpillingDocumentQueue(0, 100, root));
+    assertThrows(IllegalArgumentException.class, () -> new SpillingDocumentQueue(10, -1, root));
+  }
+
+  @Test
+  public void testLocalMessengerSpillsWhenConfigured() throws Exception {
+    Config config = ConfigFactory.parseMap(Map.of(
+        "publisher.queueCapacity", 10,
+        "publisher.queueMemoryBytes", 0,
+        "publisher.queueSpillDirectory", tempFolder.getRoot().getAbsolutePath()));
+    LocalMessenger messenger = new LocalMessenger(config);
+
+    messenger.sendForProcessing(doc(0));
+    messenger.sendForProcessing(doc(1));
+    messenger.sendForIndexing(doc(2));
+    messenger.sendForIndexing(doc(3));
+
+    // one queue each for documents to process and documents to index
+    try (Stream<Path> dirs = Files.list(tempFolder.getRoot().toPath())) {
+      assertEquals(2, dirs.count());
+    }
+
+    assertEquals(doc(0), messenger.pollDocToProcess());
+    assertEquals(doc(1), messenger.pollDocToProcess());
+    assertNull(messenger.pollDocToProcess());
+    assertEquals(doc(2), messenger.pollDocToIndex());
+    assertEquals(doc(3), messenger.pollDocToIndex());
+    assertNull(messenger.pollDocToIndex());
+
+    messenger.close();
+    try (Stream<Path> dirs = Files.list(tempFolder.getRoot().toPath())) {
+      assertEquals(0, dirs.count());
+    }
+  }
+
+  @Test
+  public void testSpilledDocumentsSurviveFirstClose() throws Exception {
+    Config config = ConfigFactory.parseMap(Map.of(
+        "publisher.queueCapacity", 100,
+        "publisher.queueMemoryBytes", 0,
+        "publisher.queueSpillDirectory", tempFolder.getRoot().getAbsolutePath()));
+    LocalMessenger messenger = new LocalMessenger(config);
+
+    // the publisher sends its documents and closes the shared messenger before the workers have read them
+    for (int i = 0; i < 50; i++) {
+      messenger.sendForProcessing(doc(i));
+    }
+    messenger.close();
+
+    // a worker still reads every document, and sends each one on for indexing
+    for (int i = 0; i < 50; i++) {
+      Document document = messenger.pollDocToProcess();
+      assertEquals(doc(i), document);
+      messenger.sendForIndexing(document);
+    }
+    assertNull(messenger.pollDocToProcess());
+    messenger.close();
+
+    // the indexer reads every document, and closes the messenger last
+    for (int i = 0; i < 50; i++) {
+      assertEquals(doc(i), messenger.pollDocToIndex());
+    }
+    assertNull(messenger.pollDocToIndex());
+    messenger.close();
+
+    try (Stream<Path> dirs = Files.list(tempFolder.getRoot().toPath())) {
+      assertEquals(0, dirs.count());
+    }
+  }
+}
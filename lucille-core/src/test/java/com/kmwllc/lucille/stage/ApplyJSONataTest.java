@@ -46,7 +46,8 @@ public class ApplyJSONataTest {
     validStage.processDocument(doc);
     assertEquals(2, doc.getFieldNames().size());
     assertEquals("abc123", doc.getId());
-    assertEquals(List.of("foo", "id"), doc.getStringList("keys"));
+    // keys are listed in the order the fields were added to the document
+    assertEquals(List.of("id", "foo"), doc.getStringList("keys"));
   }
 
   // Expression: "foo" (which just returns, again, "foo")
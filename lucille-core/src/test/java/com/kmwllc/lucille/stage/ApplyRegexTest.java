@@ -10,6 +10,7 @@ import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 public class ApplyRegexTest {
@@ -64,6 +65,22 @@ public class ApplyRegexTest {
     assertEquals("123", doc.getString("output"));
   }
 
+  @Test
+  public void testAutomatonEngine() throws Exception {
+    Stage stage = factory.get("ApplyRegexTest/automaton.conf");
+
+    Document doc = Document.create("doc");
+    doc.setField("input", "versions 1.2.3 and 10.5, build 7");
+    stage.processDocument(doc);
+    // the longest alternative is taken at each position
+    assertEquals(List.of("1.2.3", "10.5", "7"), doc.getStringList("output"));
+  }
+
+  @Test
+  public void testAutomatonEngineRejectsCapturingGroups() {
+    assertThrows(StageException.class, () -> factory.get("ApplyRegexTest/automatonCapturing.conf"));
+  }
+
   @Test
   public void testIgnoreCase() throws Exception {
     Stage stage = factory.get("ApplyRegexTest/ignoreCase.conf");
@@ -180,7 +197,9 @@ public class ApplyRegexTest {
             "source",
             "dest",
             "dotall",
-            "literal"),
+            "literal",
+            "engine",
+            "matchTimeout"),
         stage.getNonDefaultLegalProperties());
   }
 }
@@ -3,6 +3,9 @@ package com.kmwllc.lucille.stage;
 import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
 import java.util.List;
 import org.junit.Test;
 
@@ -10,6 +13,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 public class ChunkTextTest {
 
@@ -465,6 +469,33 @@ public class ChunkTextTest {
     assertEquals("The breeze is cool. Flowers bloom. A cat sleeps. The clock ticks. The phone rings.", child5.getString("text"));
   }
 
+  @Test
+  public void testTokenChunking() throws StageException {
+    Stage stage = factory.get("ChunkTextTest/testTokenChunk.conf");
+    Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    Document doc = Document.create("id");
+    String sampleText = "The sun is bright. The sky is clear.\n\nBirds are singing. A dog barks. Children play. Trees sway."
+        + " Leaves rustle. A car drives by. Antidisestablishmentarianism is a long word.  ";
+    doc.setField("text", sampleText);
+
+    stage.processDocument(doc);
+    List<Document> childrenDocs = doc.getChildren();
+
+    assertEquals("The sun is bright. The sky is clear.", childrenDocs.get(0).getString("text"));
+
+    StringBuilder rejoined = new StringBuilder();
+    for (Document child : childrenDocs) {
+      String text = child.getString("text");
+      assertTrue(text, encoding.countTokensOrdinary(text) <= 10);
+      assertEquals(text.trim(), text);
+      rejoined.append(text).append(' ');
+    }
+
+    // chunks break only between words, so every word appears once and in order
+    assertEquals(String.join(" ", sampleText.trim().split("\\s+")), rejoined.toString().trim());
+  }
+
   @Test
   public void testInvalidConfigs() {
     assertThrows(StageException.class,
@@ -484,5 +515,11 @@ public class ChunkTextTest {
 
     assertThrows(StageException.class,
         () -> factory.get("ChunkTextTest/tooMuchOverlapPercent.conf"));
+
+    assertThrows(StageException.class,
+        () -> factory.get("ChunkTextTest/tokenNullTokensPerChunk.conf"));
+
+    assertThrows(StageException.class,
+        () -> factory.get("ChunkTextTest/tokenUnknownEncoding.conf"));
   }
 }
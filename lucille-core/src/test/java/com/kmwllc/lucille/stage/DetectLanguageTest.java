@@ -5,9 +5,13 @@ import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 public class DetectLanguageTest {
 
@@ -57,7 +61,88 @@ public class DetectLanguageTest {
             "updateMode",
             "minProbability",
             "source",
-            "maxLength"),
+            "maxLength",
+            "backend",
+            "sampleWindows"),
         stage.getNonDefaultLegalProperties());
   }
+
+  @Test
+  public void testNGramBackend() throws Exception {
+    Stage stage = factory.get("DetectLanguageTest/ngram.conf");
+    Stage langdetect = factory.get("DetectLanguageTest/config.conf");
+
+    List<String> sentences = List.of(
+        "This is a sentence in English!",
+        "Eso oracion esta en espanol. Ojala que podimos verla.",
+        "Ceci est une phrase en français, écrite pour tester la détection.",
+        "Dies ist ein deutscher Satz, der die Spracherkennung prüfen soll.",
+        "Это стандартное предложение на моем языке.",
+        "यह मेरी पसंद की भाषा में एक मानक वाक्य है।",
+        "这是我选择的语言的标准句子。");
+
+    // the ngram backend uses langdetect's profiles, so it agrees with langdetect on clear cases
+    for (String sentence : sentences) {
+      Document doc = Document.create("doc");
+      doc.setField("input2", sentence);
+      stage.processDocument(doc);
+
+      Document expected = Document.create("expected");
+      expected.setField("input2", sentence);
+      langdetect.processDocument(expected);
+
+      assertEquals(sentence, expected.getString("language"), doc.getString("language"));
+      assertTrue(sentence, doc.getDouble("lang_conf") >= 0.85);
+    }
+
+    // values of all source fields are detected together
+    Document doc = Document.create("doc");
+    doc.setField("input1", "Ceci est une phrase");
+    doc.setField("input3", "en français, écrite pour tester la détection.");
+    stage.processDocument(doc);
+    assertEquals("fr", doc.getString("language"));
+
+    // text with no letters gives no result
+    Document empty = Document.create("empty");
+    empty.setField("input1", "12345 ... 67890");
+    stage.processDocument(empty);
+    assertEquals(null, empty.getString("language"));
+  }
+
+  @Test
+  public void testNGramBackendSamplesLongText() throws Exception {
+    String boilerplate = "Copyright notice. All rights reserved. This document is provided for information only. ".repeat(4);
+    String body = "Le chat dort sur le canapé pendant que les enfants jouent dans le jardin avec leurs amis. ".repeat(40);
+    Map<String, Object> config = Map.of(
+        "source", List.of("text"),
+        "languageField", "language",
+        "minLength", 0,
+        "maxLength", 300,
+        "minProbability", 0.5);
+
+    // langdetect reads only the first maxLength characters, which are all boilerplate
+    Stage langdetect = factory.get(config);
+    Document doc = Document.create("doc");
+    doc.setField("text", boilerplate + body);
+    langdetect.processDocument(doc);
+    assertEquals("en", doc.getString("language"));
+
+    // the ngram backend reads windows spread across the whole text, most of which fall in the body
+    Map<String, Object> ngramConfig = new java.util.HashMap<>(config);
+    ngramConfig.put("backend", "ngram");
+    Stage ngram = factory.get(ngramConfig);
+    Document doc2 = Document.create("doc2");
+    doc2.setField("text", boilerplate + body);
+    ngram.processDocument(doc2);
+    assertEquals("fr", doc2.getString("language"));
+    assertTrue(doc2.getDouble("languageConfidence") < 0.9);
+  }
+
+  @Test
+  public void testInvalidBackend() {
+    assertThrows(StageException.class, () -> factory.get(Map.of(
+        "source", List.of("text"),
+        "languageField", "language",
+        "backend", "unknown")));
+  }
 }
@@ -35,7 +35,16 @@ public class ExternalPythonTest {
 
   @Test
   public void testPythonUpdateToDocMultiThreaded() throws Exception {
-    String confPath = "ExternalPythonTest/copy_doc_id.conf";
+    runMultiThreaded("ExternalPythonTest/copy_doc_id.conf");
+  }
+
+  @Test
+  public void testPythonUpdateToDocMultiThreadedPooledAndBatched() throws Exception {
+    // two python processes, up to four documents per call, exchanged as CBOR
+    runMultiThreaded("ExternalPythonTest/copy_doc_id_pooled.conf");
+  }
+
+  private void runMultiThreaded(String confPath) throws Exception {
     int numThreads = 5;
     int numDocsPerThread = 20;
     Thread[] threads = new Thread[numThreads];
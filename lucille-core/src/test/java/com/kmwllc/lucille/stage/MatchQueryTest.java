@@ -3,7 +3,18 @@ package com.kmwllc.lucille.stage;
 import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -18,6 +29,9 @@ public class MatchQueryTest {
 
   private StageFactory factory = StageFactory.of(MatchQuery.class);
 
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   @Test
   public void testMatchQueryStage() throws Exception {
     Stage matchQueryStage = factory.get("MatchQueryTest/config.conf");
@@ -64,7 +78,8 @@ public class MatchQueryTest {
   @Test
   public void testSpec() throws StageException {
     Stage stage = factory.get("MatchQueryTest/config.conf");
-    assertEquals(Set.of("matchedQueriesField", "fields", "queries"), stage.getNonDefaultLegalProperties());
+    assertEquals(Set.of("matchedQueriesField", "fields", "queries", "queriesPath", "indexPath", "presearcher",
+        "presearcherPasses", "batchSize", "s3", "gcp", "azure"), stage.getNonDefaultLegalProperties());
   }
 
   @Test
@@ -78,4 +93,150 @@ public class MatchQueryTest {
     assertThrows(StageException.class,
         () -> factory.get("MatchQueryTest/blank_matched_queries.conf"));
   }
+
+  @Test
+  public void testQueriesFile() throws Exception {
+    Stage stage = factory.get("MatchQueryTest/queries_file.conf");
+
+    try {
+      Document d1 = Document.create("d1");
+      d1.setField("content", "a giraffe and an elephant");
+      stage.processDocument(d1);
+      assertEquals(Set.of("query2", "inline"), Set.copyOf(d1.getStringList("matchfield")));
+
+      // query1 from the file replaces the inline query1
+      Document d2 = Document.create("d2");
+      d2.setField("content", "unused");
+      stage.processDocument(d2);
+      assertFalse(d2.has("matchfield"));
+
+      Document d3 = Document.create("d3");
+      d3.setField("content", "the quick fox");
+      stage.processDocument(d3);
+      assertEquals(List.of("phrase"), d3.getStringList("matchfield"));
+    } finally {
+      stage.stop();
+    }
+  }
+
+  @Test
+  public void testPersistentIndex() throws Exception {
+    File indexDir = tempFolder.newFolder("index");
+    Map<String, Object> config = Map.of(
+        "fields", List.of("content"),
+        "matchedQueriesField", "matchfield",
+        "indexPath", indexDir.getAbsolutePath(),
+        "queries", List.of(Map.of("animal", "content:giraffe OR content:elephant")));
+
+    Stage stage = factory.get(config);
+    File fingerprint = indexDir.listFiles((dir, name) -> name.endsWith(".sha256"))[0];
+    String built = Files.readString(fingerprint.toPath());
+    long builtAt = fingerprint.lastModified();
+    assertEquals(List.of("animal"), match(stage, "an elephant"));
+    stage.stop();
+
+    // the unchanged index is reused rather than rebuilt, and its queries are read back from disk
+    Thread.sleep(20);
+    stage = factory.get(config);
+    assertEquals(builtAt, fingerprint.lastModified());
+    assertEquals(List.of("animal"), match(stage, "a giraffe"));
+    stage.stop();
+
+    // a change to the queries rebuilds the index, dropping queries that are no longer configured
+    Map<String, Object> changed = new HashMap<>(config);
+    changed.put("queries", List.of(Map.of("bird", "content:heron")));
+    stage = factory.get(changed);
+    assertFalse(built.equals(Files.readString(fingerprint.toPath())));
+    assertEquals(List.of(), match(stage, "an elephant"));
+    assertEquals(List.of("bird"), match(stage, "a heron"));
+    stage.stop();
+  }
+
+  @Test
+  public void testIndexInUse() throws Exception {
+    File indexDir = tempFolder.newFolder("index");
+    Map<String, Object> config = Map.of(
+        "fields", List.of("content"),
+        "matchedQueriesField", "matchfield",
+        "indexPath", indexDir.getAbsolutePath(),
+        "queries", List.of(Map.of("animal", "content:giraffe")));
+    Stage stage = factory.get(config);
+
+    try {
+      // the same directory, even when named differently, can't hold a second set of queries
+      Map<String, Object> changed = new HashMap<>(config);
+      changed.put("indexPath", indexDir.getAbsolutePath() + "/../index");
+      changed.put("queries", List.of(Map.of("bird", "content:heron")));
+      assertThrows(StageException.class, () -> factory.get(changed));
+
+      // a different directory is fine, even if a query ID happens to name the directory in use
+      Map<String, Object> other = new HashMap<>(changed);
+      other.put("indexPath", tempFolder.newFolder("other").getAbsolutePath());
+      other.put("queries", List.of(Map.of(indexDir.getAbsolutePath(), "content:heron")));
+      Stage otherStage = factory.get(other);
+      assertEquals(List.of(indexDir.getAbsolutePath()), match(otherStage, "a heron"));
+      otherStage.stop();
+    } finally {
+      stage.stop();
+    }
+  }
+
+  @Test
+  public void testBatchedMultipass() throws Exception {
+    Stage stage1 = factory.get("MatchQueryTest/batched.conf");
+    Stage stage2 = factory.get("MatchQueryTest/batched.conf");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      List<Future<Document>> futures = new ArrayList<>();
+      for (int i = 0; i < 400; i++) {
+        Stage stage = i % 2 == 0 ? stage1 : stage2;
+        Document doc = Document.create("doc" + i);
+        doc.setField("content", i % 3 == 0 ? "test giraffe" : "the quick fox");
+        doc.setField("table", "geotrans");
+        doc.setField("country", "jp");
+        futures.add(executor.submit(() -> {
+          stage.processDocument(doc);
+          return doc;
+        }));
+      }
+
+      for (int i = 0; i < futures.size(); i++) {
+        Document doc = futures.get(i).get();
+        Set<String> expected = i % 3 == 0 ? Set.of("query1", "query2", "japan") : Set.of("phrase", "japan");
+        assertEquals(doc.getId(), expected, Set.copyOf(doc.getStringList("matchfield")));
+      }
+    } finally {
+      executor.shutdown();
+      stage1.stop();
+      stage2.stop();
+    }
+  }
+
+  @Test
+  public void testInvalidSettings() {
+    Map<String, Object> base = Map.of(
+        "fields", List.of("content"),
+        "matchedQueriesField", "matchfield",
+        "queries", List.of(Map.of("q", "content:foo")));
+
+    Map<String, Object> presearcher = new HashMap<>(base);
+    presearcher.put("presearcher", "unknown");
+    assertThrows(StageException.class, () -> factory.get(presearcher));
+
+    Map<String, Object> batchSize = new HashMap<>(base);
+    batchSize.put("batchSize", 0);
+    assertThrows(StageException.class, () -> factory.get(batchSize));
+
+    Map<String, Object> missingFile = new HashMap<>(base);
+    missingFile.put("queriesPath", "classpath:MatchQueryTest/does_not_exist.csv");
+    assertThrows(StageException.class, () -> factory.get(missingFile));
+  }
+
+  private static List<String> match(Stage stage, String content) throws StageException {
+    Document doc = Document.create("doc");
+    doc.setField("content", content);
+    stage.processDocument(doc);
+    return doc.has("matchfield") ? doc.getStringList("matchfield") : List.of();
+  }
 }
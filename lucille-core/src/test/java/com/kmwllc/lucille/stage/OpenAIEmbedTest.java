@@ -168,4 +168,21 @@ public class OpenAIEmbedTest {
     }
   }
 
+  @Test
+  public void testEmbeddingsAppendedToExistingField() throws Exception {
+    OpenAIEmbed stage = (OpenAIEmbed) StageFactory.of(OpenAIEmbed.class).get("OpenAIEmbedTest/embedParentDoc.conf");
+    EmbeddingModel model = mock(EmbeddingModel.class);
+    Embedding embedding = mock(Embedding.class);
+    when(embedding.vector()).thenReturn(new float[] {0.1F, 0.2F});
+    when(model.embedAll(Mockito.any(List.class))).thenReturn(Response.from(List.of(embedding)));
+    stage.setModel(model);
+
+    Document doc = Document.create("doc");
+    doc.setField("text", "This should be embedded");
+    doc.setField("embeddings", 0.5F);
+
+    stage.processDocument(doc);
+
+    assertEquals(List.of(0.5F, 0.1F, 0.2F), doc.getFloatList("embeddings"));
+  }
 }
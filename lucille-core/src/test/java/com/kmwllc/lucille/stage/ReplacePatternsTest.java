@@ -5,6 +5,8 @@ import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -126,6 +128,38 @@ public class ReplacePatternsTest {
     assertNull(docWithNullReplacement.getStringList("output1"));
   }
 
+  @Test
+  public void testAutomatonEngine() throws Exception {
+    Stage stage = factory.get("ReplacePatternsTest/automaton.conf");
+
+    Document doc = Document.create("doc");
+    doc.setField("input1", "SSN 123-45-6789, phone 555-1234, mail Jane.Doe@Example.com, SECRET plan");
+    stage.processDocument(doc);
+    assertEquals("SSN [REDACTED], phone [REDACTED], mail [REDACTED], [REDACTED] plan", doc.getString("output1"));
+  }
+
+  @Test
+  public void testAutomatonEngineRejectsUnsupportedPatterns() {
+    Map<String, Object> config = Map.of("source", List.of("input1"), "dest", List.of("output1"),
+        "regex", List.of("^false"), "replacement", "REPLACED", "engine", "automaton");
+    assertThrows(StageException.class, () -> factory.get(config));
+  }
+
+  @Test
+  public void testMatchTimeout() throws Exception {
+    Stage stage = factory.get("ReplacePatternsTest/match_timeout.conf");
+
+    Document doc = Document.create("doc");
+    doc.setField("input1", "aaab");
+    stage.processDocument(doc);
+    assertEquals("REPLACED", doc.getString("output1"));
+
+    // catastrophic backtracking is cut off by the time budget
+    Document doc2 = Document.create("doc2");
+    doc2.setField("input1", "a".repeat(40));
+    assertThrows(StageException.class, () -> stage.processDocument(doc2));
+  }
+
   @Test
   public void testInvalidConfig() throws Exception {
     // This .conf has no replacement or replacement_field.
@@ -148,7 +182,9 @@ public class ReplacePatternsTest {
             "replacement",
             "replacementField",
             "dotall",
-            "literal"),
+            "literal",
+            "engine",
+            "matchTimeout"),
         stage.getNonDefaultLegalProperties());
   }
 }
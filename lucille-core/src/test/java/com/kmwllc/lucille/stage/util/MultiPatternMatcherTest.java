@@ -0,0 +1,76 @@
+package com.kmwllc.lucille.stage.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.kmwllc.lucille.stage.util.TimeLimitedCharSequence.TimeLimitExceededException;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class MultiPatternMatcherTest {
+
+  @Test
+  public void testLeftmostLongest() {
+    MultiPatternMatcher matcher = MultiPatternMatcher.compile(List.of("ab", "abcd", "cde", "x+"), false, false, false);
+
+    // "abcd" is the longest match at position 0, so "cde" never gets a chance to match
+    assertEquals("[R]e [R] [R]", matcher.replaceAll("abcde xxx ab", "[R]"));
+    assertEquals(List.of("abcd", "xxx", "ab"), matcher.findAll("abcde xxx ab"));
+    assertEquals("no matches", matcher.replaceAll("no matches", "[R]"));
+  }
+
+  @Test
+  public void testMatchStarts() {
+    // many positions begin a partial match that never completes
+    MultiPatternMatcher matcher = MultiPatternMatcher.compile(List.of("abc", "bd", "😀+", "[😀😁]x"), false, false, false);
+    assertEquals(List.of("abc", "bd", "😀😀", "😁x"),
+        matcher.findAll("ab".repeat(1000) + "abc ab bd a😀😀b 😁x"));
+
+    // the reversed search automaton for this pattern is too large to build, so matching falls back to the first characters
+    String regex = "b[a-z]{20}a";
+    String text = "x" + "ba".repeat(20) + "zzz";
+    List<String> expected = Pattern.compile(regex).matcher(text).results().map(r -> r.group()).toList();
+    assertEquals(expected, MultiPatternMatcher.compile(List.of(regex), false, false, false).findAll(text));
+  }
+
+  @Test
+  public void testSyntaxMatchesJava() {
+    String[] regexes = {"\\d{3}-\\d{2}", "[\\w.]+@\\w+\\.com", "a\\sb", "\\S+!", "[^,\\s]+,", "\\Q(*)\\E", "x\\x41\\u0042",
+        "\"quoted\"", "[-a]z", "[]b]y", "colou?r", "(?:na){2,}"};
+    String text = "id 123-45 mail j.doe@example.com a b wow! one, (*) xAB \"quoted\" -z az ]y by color colour nanana";
+
+    for (String regex : regexes) {
+      List<String> expected = Pattern.compile(regex).matcher(text).results().map(r -> r.group()).toList();
+      assertEquals(regex, expected, MultiPatternMatcher.compile(List.of(regex), false, false, false).findAll(text));
+    }
+  }
+
+  @Test
+  public void testFlags() {
+    MultiPatternMatcher caseInsensitive = MultiPatternMatcher.compile(List.of("[a-c]+x"), true, false, false);
+    assertEquals(List.of("ABcX", "abx"), caseInsensitive.findAll("ABcX abx"));
+
+    MultiPatternMatcher dot = MultiPatternMatcher.compile(List.of("a.b"), false, false, false);
+    assertEquals(List.of("a-b"), dot.findAll("a\nb a-b"));
+    MultiPatternMatcher dotall = MultiPatternMatcher.compile(List.of("a.b"), false, true, false);
+    assertEquals(List.of("a\nb", "a-b"), dotall.findAll("a\nb a-b"));
+
+    MultiPatternMatcher literal = MultiPatternMatcher.compile(List.of("a.b", "[x]"), false, false, true);
+    assertEquals(List.of("a.b", "[x]"), literal.findAll("a.b axb [x] x"));
+  }
+
+  @Test
+  public void testUnsupportedPatterns() {
+    for (String regex : List.of("^a", "a$", "\\bword", "(?=a)b", "a*?", "a++", "(a)\\1", "\\p{L}", "[a[b]]", "a*", "(")) {
+      assertThrows(regex, IllegalArgumentException.class, () -> MultiPatternMatcher.compile(List.of(regex), false, false, false));
+    }
+  }
+
+  @Test
+  public void testTimeLimit() {
+    MultiPatternMatcher matcher = MultiPatternMatcher.compile(List.of("a"), false, false, false);
+    CharSequence expired = new TimeLimitedCharSequence("b".repeat(10_000), System.nanoTime() - 1);
+    assertThrows(TimeLimitExceededException.class, () -> matcher.replaceAll(expired, "c"));
+  }
+}
@@ -0,0 +1,76 @@
+package com.kmwllc.lucille.stage.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.kmwllc.lucille.core.StageException;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.junit.Test;
+
+public class PolyglotScriptPoolTest {
+
+  @Test
+  public void testPoolPerInstance() throws StageException {
+    Source script = Source.create("js", "var count = (typeof count === 'undefined') ? 1 : count + 1; count");
+    // pools acquired elsewhere in the same JVM may still be using the engine
+    boolean engineInUse = PolyglotScriptPool.hasEngine("js");
+
+    PolyglotScriptPool pool1 = PolyglotScriptPool.acquire("js", script);
+    PolyglotScriptPool pool2 = PolyglotScriptPool.acquire("js", script);
+    try {
+      // every caller gets a pool of its own, even for the same script
+      assertNotSame(pool1, pool2);
+
+      // an idle context is reused rather than a new one being created, so globals persist within a pool
+      Context context = pool1.borrow();
+      assertEquals(1, context.eval(pool1.getSource()).asInt());
+      pool1.giveBack(context);
+      Context again = pool1.borrow();
+      assertSame(context, again);
+      assertEquals(2, again.eval(pool1.getSource()).asInt());
+      pool1.giveBack(again);
+
+      // globals defined in one pool are not visible in another
+      Context other = pool2.borrow();
+      assertEquals(1, other.eval(pool2.getSource()).asInt());
+      pool2.giveBack(other);
+    } finally {
+      PolyglotScriptPool.release(pool1);
+      PolyglotScriptPool.release(pool2);
+    }
+
+    // once every pool is released, the engine is closed
+    assertEquals(engineInUse, PolyglotScriptPool.hasEngine("js"));
+  }
+
+  @Test
+  public void testReleaseTwice() throws StageException {
+    boolean engineInUse = PolyglotScriptPool.hasEngine("js");
+    PolyglotScriptPool pool1 = PolyglotScriptPool.acquire("js", Source.create("js", "1"));
+    PolyglotScriptPool pool2 = PolyglotScriptPool.acquire("js", Source.create("js", "2"));
+    try {
+      PolyglotScriptPool.release(pool1);
+      PolyglotScriptPool.release(pool1);
+      // a second release of the same pool doesn't close the engine out from under another pool
+      assertTrue(PolyglotScriptPool.hasEngine("js"));
+      Context context = pool2.borrow();
+      assertEquals(2, context.eval(pool2.getSource()).asInt());
+      pool2.giveBack(context);
+    } finally {
+      PolyglotScriptPool.release(pool2);
+    }
+    assertEquals(engineInUse, PolyglotScriptPool.hasEngine("js"));
+  }
+
+  @Test
+  public void testFailedAcquireLeavesNothing() {
+    // no context can be created for a language that isn't installed
+    assertThrows(StageException.class, () -> PolyglotScriptPool.acquire("nonexistent", Source.create("js", "1")));
+    assertFalse(PolyglotScriptPool.hasEngine("nonexistent"));
+  }
+}
@@ -0,0 +1,23 @@
+package com.kmwllc.lucille.stage.util;
+
+import static org.junit.Assert.assertThrows;
+
+import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.StageException;
+import org.junit.Test;
+
+public class Py4JRuntimePoolTest {
+
+  @Test
+  public void testExecFailsWhenNotRunning() throws StageException {
+    for (int batchSize : new int[] {1, 4}) {
+      Py4JRuntimePool pool = new Py4JRuntimePool("python3", "script.py", null, null, 2, batchSize,
+          Py4JRuntimePool.JSON_FORMAT);
+
+      // a call made before start() or after stop() fails at once instead of waiting for a response that never comes
+      assertThrows(StageException.class, () -> pool.exec("process_document", Document.create("before")));
+      pool.stop();
+      assertThrows(StageException.class, () -> pool.exec("process_document", Document.create("after")));
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.kmwllc.lucille.stage.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class TextChunkTest {
+
+  @Test
+  public void testMatchesStringOperations() {
+    Random random = new Random(42);
+    String text = " ab\n c  d\te \r\nfg h ";
+
+    for (int run = 0; run < 2000; run++) {
+      // join a few random ranges of the text, then check a random slice and its trimmed form against String operations
+      List<TextChunk> parts = new ArrayList<>();
+      List<String> strings = new ArrayList<>();
+      for (int i = 0, n = 1 + random.nextInt(4); i < n; i++) {
+        int start = random.nextInt(text.length() + 1);
+        int end = start + random.nextInt(text.length() - start + 1);
+        parts.add(TextChunk.of(text, start, end));
+        strings.add(text.substring(start, end));
+      }
+
+      TextChunk chunk = TextChunk.join(parts);
+      String string = String.join(" ", strings);
+      assertEquals(string, chunk.toString());
+      assertEquals(string.length(), chunk.length());
+      assertEquals(string.trim(), chunk.trim().toString());
+
+      int from = random.nextInt(string.length() + 1);
+      int to = from + random.nextInt(string.length() - from + 1);
+      TextChunk slice = chunk.slice(from, to);
+      assertEquals(string.substring(from, to), slice.toString());
+      assertEquals(to - from, slice.length());
+      assertEquals(string.substring(from, to).trim(), slice.trim().toString());
+
+      // slices keep their place among the ranges, so joining them again behaves like joining the strings
+      assertEquals(string.substring(from, to) + " " + string, TextChunk.join(slice, chunk).toString());
+    }
+  }
+
+  @Test
+  public void testReplaceInto() {
+    String text = "one\n two\r\n\nthree";
+    StringBuilder buffer = new StringBuilder("x");
+
+    TextChunk chunk = TextChunk.join(TextChunk.of(text, 0, 8), TextChunk.of(text, 8, text.length()));
+    TextChunk replaced = chunk.replaceInto(buffer, Pattern.compile("\\s*\\R\\s*").matcher(""), "_");
+
+    assertEquals("one_two _three", replaced.toString());
+    assertEquals("xone_two _three", buffer.toString());
+  }
+
+  @Test
+  public void testJoinRequiresSameText() {
+    TextChunk a = TextChunk.of("abc", 0, 1);
+    TextChunk b = TextChunk.of(new StringBuilder("abc"), 0, 1);
+    assertThrows(IllegalArgumentException.class, () -> TextChunk.join(a, b));
+  }
+}
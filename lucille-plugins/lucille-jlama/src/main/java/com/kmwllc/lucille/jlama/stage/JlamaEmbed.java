@@ -174,8 +174,13 @@ public class JlamaEmbed extends Stage {
     String toEmbed = doc.getString(source);
     try {
       float[] embeddings = model.embed(toEmbed, PoolingType.MODEL);
-      for (float embedding : embeddings) {
-        doc.setOrAdd(dest, embedding);
+      // an existing field is appended to, as before; a new field is stored as a vector
+      if (doc.has(dest)) {
+        for (float embedding : embeddings) {
+          doc.setOrAdd(dest, embedding);
+        }
+      } else {
+        doc.setVector(dest, embeddings);
       }
     } catch (Exception e) {
       throw new StageException("Error embedding document: " + doc.getId(), e);
@@ -1,13 +1,9 @@
 package com.kmwllc.lucille.ocr.stage;
 
-import static org.bytedeco.leptonica.global.leptonica.pixRead;
-
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -20,9 +16,6 @@ import java.util.Objects;
 import java.util.stream.Collectors;
 import javax.imageio.ImageIO;
 import org.apache.commons.io.FilenameUtils;
-import org.bytedeco.javacpp.BytePointer;
-import org.bytedeco.leptonica.PIX;
-import org.bytedeco.tesseract.TessBaseAPI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -50,7 +43,15 @@ import com.typesafe.config.ConfigBeanFactory;
  *  </p>
  * <p>
  * <b>extractAllDest</b> (String, Optional) : If this field is specified, ocr is applied to the entire image
- * and the result is stored in this field. For pdfs, ocr is applied to each page seperately and the field becomes multi-valued
+ * and the result is stored in this field. For pdfs and multi-page tiffs, ocr is applied to each page seperately, in parallel,
+ * and the field becomes multi-valued
+ * </p>
+ * <p>
+ * <b>poolSize</b> (Integer, Optional) : The number of Tesseract instances shared by every ApplyOCR stage in the JVM that uses
+ * the same lang. This bounds how many images are OCR'd at once across all worker threads, and how many pages or regions of
+ * a single document are OCR'd in parallel. The first stage to start for a given lang determines the size of its pool.
+ * Defaults to the number of available processors.
+ * </p>
  * <p>
  * <b>extractionTemplates</b> (List&lt;FormTemplate&gt;, Optional) : A list of form templates defined as such:
  * </p>
@@ -92,6 +93,7 @@ public class ApplyOCR extends Stage {
   public static final Spec SPEC = SpecBuilder.stage()
       .requiredString("lang", "pathField")
       .optionalString("pagesField", "extractAllDest")
+      .optionalNumber("poolSize")
       .optionalList("extractionTemplates", SpecBuilder.withoutDefaults()
           .requiredString("name")
           .requiredList("regions", SpecBuilder.withoutDefaults()
@@ -99,12 +101,12 @@ public class ApplyOCR extends Stage {
               .requiredString("dest").build()).build())
       .optionalParent("pages", new TypeReference<Map<Integer, String>>(){}).build();
 
-  public static final String TEMP_DIR = "lucille-ocr-temp";
   public static final int SOURCE_RESOLUTION = 300;
   private static final Logger log = LoggerFactory.getLogger(ApplyOCR.class);
 
   private final String lang;
-  private transient TessBaseAPI api = null;
+  private final int poolSize;
+  private TesseractPool pool = null;
   private final String pathField;
   private final String pagesField;
   private final Map<Integer, String> pages;
@@ -119,6 +121,7 @@ public class ApplyOCR extends Stage {
     pathField = ConfigUtils.getOrDefault(config, "pathField", null);
     pagesField = ConfigUtils.getOrDefault(config, "pagesField", null);
     extractAllDest = ConfigUtils.getOrDefault(config, "extractAllDest", null);
+    poolSize = ConfigUtils.getOrDefault(config, "poolSize", Runtime.getRuntime().availableProcessors());
 
     if (config.hasPath("extractionTemplates")) {
       extractionTemplates = new LinkedHashMap<>();
@@ -148,71 +151,30 @@ public class ApplyOCR extends Stage {
 
   @Override
   public void start() throws StageException {
-    api = new TessBaseAPI();
-    String tessData = "TesseractOcr";
-    // load the models
-    if (api.Init(tessData, lang) != 0) {
-      throw new StageException(String.format("Unable to load tesseract model: %s", lang));
-    }
+    pool = TesseractPool.acquire(lang, poolSize);
   }
 
-  private String applyOcr(BufferedImage image) {
-    File tempFile = null;
-    try {
-      File dir = new File(TEMP_DIR);
-      dir.mkdir();
-      tempFile = File.createTempFile("tesseract.", ".png", dir);
-      try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-        ImageIO.write(image, "png", fos);
-      }
-      String result = applyOcr(tempFile.getAbsolutePath());
-      return result;
-    } catch (IOException e) {
-      log.warn("IOException encountered while doing extraction: {}", e);
-      return null;
-    } finally {
-      try {
-        if (tempFile != null) {
-          tempFile.delete();
-        }
-      } catch (Exception e) {
-        log.warn("Error deleting temp file: {}", e);
-      }
-    }
+  @Override
+  public void stop() throws StageException {
+    TesseractPool.release(pool);
+    pool = null;
   }
 
-  private String applyOcr(String filename) throws FileNotFoundException {
-    try (PIX image = pixRead(filename)) {
-      if (image == null) {
-        throw new FileNotFoundException(String.format("%s cannot be opened", filename));
-      }
-      api.SetImage(image);
-      // single column of text
-      api.SetPageSegMode(4);
-      // tell tesseract about the resolution of the rendered page so it doesn't have to guess
-      api.SetSourceResolution(SOURCE_RESOLUTION);
-      // Get OCR result
-      try (BytePointer outText = api.GetUTF8Text()) {
-        // Destroy used object and release memory
-        return outText.getString();
-      }
+  private Map<String, List<String>> extractTemplate(BufferedImage page, FormTemplate template) throws StageException {
+    List<BufferedImage> crops = new ArrayList<>();
+    for (Rectangle r : template.getRegions()) {
+      crops.add(FormUtils.cropImage(page, r));
     }
-  }
+    List<String> ocrResults = pool.ocrAll(crops);
 
-  private Map<String, List<String>> extractTemplate(BufferedImage page, FormTemplate template) throws IOException {
     Map<String, List<String>> results = new LinkedHashMap<>();
-    for (Rectangle r : template.getRegions()) {
-      if (!results.containsKey(r.getDest())) {
-        results.put(r.getDest(), new ArrayList<>());
-      }
-      BufferedImage roiCrop = FormUtils.cropImage(page, r);
-      String result = applyOcr(roiCrop);
-      results.get(r.getDest()).add(result);
+    for (int i = 0; i < template.getRegions().size(); i++) {
+      results.computeIfAbsent(template.getRegions().get(i).getDest(), k -> new ArrayList<>()).add(ocrResults.get(i));
     }
     return results;
   }
 
-  private void extractPagesToDoc(Map<Integer, String> pages, ArrayList<BufferedImage> images, Document doc) {
+  private void extractPagesToDoc(Map<Integer, String> pages, List<BufferedImage> images, Document doc) throws StageException {
 
     for (Map.Entry<Integer, String> entry : pages.entrySet()) {
       Map<String, List<String>> extractedText;
@@ -224,9 +186,6 @@ public class ApplyOCR extends Stage {
 
       try {
         extractedText = extractTemplate(images.get(entry.getKey()), template);
-      } catch (IOException e) {
-        log.warn("Skipping template: {}. Error while extracting: {}", template.getName(), e);
-        continue;
       } catch (IndexOutOfBoundsException e) {
         log.warn("Page: {}, does not exist on document with ID: {}. Skipping template.", entry.getKey(), doc.getId());
         continue;
@@ -247,11 +206,14 @@ public class ApplyOCR extends Stage {
     String type = FilenameUtils.getExtension(path);
 
 
-    // doing pdf extraction
-    ArrayList<BufferedImage> images = new ArrayList<>();
+    // pdfs and tiffs may have multiple pages, which are loaded up front and OCR'd in parallel
+    boolean multiPage = type.equals("pdf") || type.equals("tif") || type.equals("tiff");
+    List<BufferedImage> images = new ArrayList<>();
     try {
       if (type.equals("pdf")) {
         images = FormUtils.loadPdf(path);
+      } else if (multiPage) {
+        images = FormUtils.loadTiff(path);
       } else {
         if (pagesField != null || pages != null) {
           images.add(ImageIO.read(Files.newInputStream(Paths.get(path))));
@@ -264,12 +226,12 @@ public class ApplyOCR extends Stage {
 
     // do full extraction
     if (extractAllDest != null) {
-      if (type.equals("pdf")) {
+      if (multiPage) {
         doc.update(extractAllDest, UpdateMode.OVERWRITE,
-            images.stream().map(image -> applyOcr(image)).filter(Objects::nonNull).collect(Collectors.toList()).toArray(new String[0]));
+            pool.ocrAll(images).stream().filter(Objects::nonNull).collect(Collectors.toList()).toArray(new String[0]));
       } else {
         try {
-          doc.update(extractAllDest, UpdateMode.OVERWRITE, applyOcr(path));
+          doc.update(extractAllDest, UpdateMode.OVERWRITE, pool.ocr(path));
         } catch (FileNotFoundException e) {
           log.warn("File not found: {}", e);
         }
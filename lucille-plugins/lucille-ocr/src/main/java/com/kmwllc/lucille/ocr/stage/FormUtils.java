@@ -8,6 +8,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 public class FormUtils {
   // helper method to return a list of rendered pages as images
@@ -25,6 +29,31 @@ public class FormUtils {
     }
   }
 
+  // helper method to return each page of a (possibly multi-page) tiff as an image
+  public static ArrayList<BufferedImage> loadTiff(String filename) throws IOException {
+    ArrayList<BufferedImage> images = new ArrayList<>();
+    try (ImageInputStream stream = ImageIO.createImageInputStream(new File(filename))) {
+      if (stream == null) {
+        throw new IOException(String.format("%s cannot be opened", filename));
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+      if (!readers.hasNext()) {
+        throw new IOException(String.format("No image reader available for %s", filename));
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream);
+        int numPages = reader.getNumImages(true);
+        for (int i = 0; i < numPages; i++) {
+          images.add(reader.read(i));
+        }
+      } finally {
+        reader.dispose();
+      }
+    }
+    return images;
+  }
+
   private static ArrayList<BufferedImage> loadPdf(PDDocument document) throws IOException {
     ArrayList<BufferedImage> images = new ArrayList<>();
     // Instantiating the PDFRenderer class
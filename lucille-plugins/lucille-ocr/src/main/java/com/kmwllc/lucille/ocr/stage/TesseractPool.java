@@ -0,0 +1,240 @@
+package com.kmwllc.lucille.ocr.stage;
+
+import static org.bytedeco.leptonica.global.leptonica.pixRead;
+
+import com.kmwllc.lucille.core.StageException;
+import com.kmwllc.lucille.util.ThreadNameUtils;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.leptonica.PIX;
+import org.bytedeco.tesseract.TessBaseAPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of Tesseract handles for one language, shared by all ApplyOCR instances in the JVM.
+ *
+ * A TessBaseAPI is not thread-safe and loading a model is expensive, so handles are created lazily, up to the pool size,
+ * and lent to one caller at a time. Callers that find every handle in use wait for one to be returned. The pool also owns
+ * an executor with one thread per handle, used to OCR the pages or regions of a single document in parallel.
+ *
+ * Pools are obtained with {@link #acquire(String, int)} in Stage start() and returned with {@link #release(TesseractPool)}
+ * in Stage stop(). The pool is closed, ending every handle, once its last holder releases it. The size of a pool is
+ * fixed by whoever creates it; later requests for a different size share the existing pool and log a warning.
+ */
+public final class TesseractPool {
+
+  private static final Logger log = LoggerFactory.getLogger(TesseractPool.class);
+
+  public static final String TESS_DATA = "TesseractOcr";
+
+  // single column of text
+  private static final int PAGE_SEG_MODE = 4;
+
+  private static final Map<String, TesseractPool> pools = new HashMap<>();
+
+  private final String lang;
+  private final int size;
+  private final BlockingQueue<TessBaseAPI> idle;
+  private final List<TessBaseAPI> all = new ArrayList<>();
+  private final ExecutorService executor;
+  private int refCount = 0;
+
+  private TesseractPool(String lang, int size) {
+    this.lang = lang;
+    this.size = size;
+    this.idle = new ArrayBlockingQueue<>(size);
+
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(size, r -> {
+      Thread t = new Thread(r, ThreadNameUtils.createName("OCR-" + lang + "-" + threadCount.incrementAndGet()));
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Returns the pool for the given language, creating it with the given size if it does not exist yet. Each call must
+   * be paired with a call to {@link #release(TesseractPool)}.
+   */
+  public static synchronized TesseractPool acquire(String lang, int size) throws StageException {
+    if (size < 1) {
+      throw new StageException("Tesseract pool size must be at least 1.");
+    }
+
+    TesseractPool pool = pools.get(lang);
+    if (pool == null) {
+      pool = new TesseractPool(lang, size);
+      // create one handle up front so an unusable model is reported at startup rather than on the first document
+      pool.idle.add(pool.createHandle());
+      pools.put(lang, pool);
+    } else if (pool.size != size) {
+      log.warn("Requested a Tesseract pool for {} with size {}, but the existing pool has size {}. Using the existing pool.",
+          lang, size, pool.size);
+    }
+
+    pool.refCount++;
+    return pool;
+  }
+
+  /**
+   * Releases a pool previously obtained from {@link #acquire(String, int)}.
+   */
+  public static synchronized void release(TesseractPool pool) {
+    if (pool == null || pool.refCount == 0) {
+      return;
+    }
+
+    pool.refCount--;
+    if (pool.refCount == 0) {
+      pools.remove(pool.lang);
+      pool.close();
+    }
+  }
+
+  /**
+   * Applies OCR to the image file at the given path.
+   */
+  public String ocr(String path) throws StageException, FileNotFoundException {
+    try (PIX image = pixRead(path)) {
+      if (image == null) {
+        throw new FileNotFoundException(String.format("%s cannot be opened", path));
+      }
+
+      TessBaseAPI api = borrow();
+      try {
+        api.SetImage(image);
+        return recognize(api);
+      } finally {
+        idle.add(api);
+      }
+    }
+  }
+
+  /**
+   * Applies OCR to the given image. The pixels are handed to Tesseract directly, without encoding the image to a file.
+   */
+  public String ocr(BufferedImage image) throws StageException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    byte[] rgb = toRgbBytes(image);
+
+    TessBaseAPI api = borrow();
+    try {
+      api.SetImage(rgb, width, height, 3, width * 3);
+      return recognize(api);
+    } finally {
+      idle.add(api);
+    }
+  }
+
+  /**
+   * Applies OCR to each of the given images in parallel, using up to one thread per handle in the pool. Results are
+   * returned in the same order as the images. An image that fails is logged and has a null result.
+   */
+  public List<String> ocrAll(List<BufferedImage> images) throws StageException {
+    if (images.size() == 1) {
+      return List.of(ocr(images.get(0)));
+    }
+
+    List<Future<String>> futures = new ArrayList<>(images.size());
+    for (BufferedImage image : images) {
+      futures.add(executor.submit(() -> ocr(image)));
+    }
+
+    List<String> results = new ArrayList<>(images.size());
+    for (Future<String> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        log.warn("Error applying OCR to image.", e.getCause());
+        results.add(null);
+      } catch (InterruptedException e) {
+        futures.forEach(f -> f.cancel(true));
+        Thread.currentThread().interrupt();
+        throw new StageException("Interrupted while waiting for OCR results.", e);
+      }
+    }
+    return results;
+  }
+
+  private String recognize(TessBaseAPI api) {
+    api.SetPageSegMode(PAGE_SEG_MODE);
+    // tell tesseract about the resolution of the rendered page so it doesn't have to guess
+    api.SetSourceResolution(ApplyOCR.SOURCE_RESOLUTION);
+    try (BytePointer outText = api.GetUTF8Text()) {
+      return outText.getString();
+    } finally {
+      api.Clear();
+    }
+  }
+
+  private TessBaseAPI borrow() throws StageException {
+    TessBaseAPI api = idle.poll();
+    if (api != null) {
+      return api;
+    }
+
+    synchronized (this) {
+      if (all.size() < size) {
+        return createHandle();
+      }
+    }
+
+    try {
+      return idle.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StageException("Interrupted while waiting for a Tesseract handle.", e);
+    }
+  }
+
+  private synchronized TessBaseAPI createHandle() throws StageException {
+    TessBaseAPI api = new TessBaseAPI();
+    if (api.Init(TESS_DATA, lang) != 0) {
+      api.close();
+      throw new StageException(String.format("Unable to load tesseract model: %s", lang));
+    }
+    all.add(api);
+    return api;
+  }
+
+  private synchronized void close() {
+    executor.shutdownNow();
+    for (TessBaseAPI api : all) {
+      api.End();
+      api.close();
+    }
+    all.clear();
+    idle.clear();
+  }
+
+  private static byte[] toRgbBytes(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    byte[] rgb = new byte[width * height * 3];
+    int[] row = new int[width];
+    int i = 0;
+    for (int y = 0; y < height; y++) {
+      image.getRGB(0, y, width, 1, row, 0, width);
+      for (int pixel : row) {
+        rgb[i++] = (byte) (pixel >> 16);
+        rgb[i++] = (byte) (pixel >> 8);
+        rgb[i++] = (byte) pixel;
+      }
+    }
+    return rgb;
+  }
+}
@@ -57,6 +57,39 @@ public class ApplyOCRTest {
     assertEquals(List.of("foo\n", "bar\n"), doc.getStringList("dest"));
   }
 
+  @Test
+  public void testExtractAllMultiPageTiff() throws StageException {
+    Stage basicEng = factory.get("ApplyOCRTest/basic_eng.conf");
+    Document doc = Document.create("doc1");
+    doc.setField("path", "src/test/resources/ApplyOCRTest/images/twoPage.tif");
+
+    basicEng.processDocument(doc);
+
+    assertEquals(List.of("foo\n", "bar\n"), doc.getStringList("dest"));
+    basicEng.stop();
+  }
+
+  @Test
+  public void testSharedPool() throws StageException {
+    Stage stage1 = factory.get("ApplyOCRTest/poolSize.conf");
+    Stage stage2 = factory.get("ApplyOCRTest/poolSize.conf");
+
+    Document doc1 = Document.create("doc1");
+    doc1.setField("path", "src/test/resources/ApplyOCRTest/images/twoPage.pdf");
+    stage1.processDocument(doc1);
+    assertEquals(List.of("foo\n", "bar\n"), doc1.getStringList("dest"));
+
+    // the pool stays open for stage2 after stage1 releases it
+    stage1.stop();
+
+    Document doc2 = Document.create("doc2");
+    doc2.setField("path", "src/test/resources/ApplyOCRTest/images/HelloWorld.png");
+    stage2.processDocument(doc2);
+    assertEquals("Hello, World!\n", doc2.getString("dest"));
+
+    stage2.stop();
+  }
+
   @Test
   public void testStaticTemplates() throws StageException {
     Stage stage = factory.get("ApplyOCRTest/staticTemplates.conf");
@@ -0,0 +1,116 @@
+package com.kmwllc.lucille.parquet.indexer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.kmwllc.lucille.core.ConfigUtils;
+import com.kmwllc.lucille.core.spec.Spec;
+import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.indexer.FileIndexer;
+import com.kmwllc.lucille.message.IndexerMessenger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigUtil;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+/**
+ * Writes documents to a series of Parquet files in a directory, for staging data in a data lake. Files are written,
+ * named, and rolled over in the same way as by the {@link FileIndexer}, and use its <code>file</code> config block.
+ * <p>
+ * Each selected field is written as an optional column of the type given in <code>columnTypes</code>. Multivalued
+ * fields and vectors are written to repeated columns, for example <code>float[]</code> for a vector. A value that can't
+ * be converted to its column's type, or a multivalued field whose column is not repeated, stops the indexer from
+ * writing any more documents, as any other write error does.
+ * <p>
+ * Rows are written out as a row group once a row group fills, and also whenever no documents have arrived for a
+ * second, so a slow stream of documents isn't held in memory until the file is finished. Parquet files can't be read
+ * until they are complete, so rows are only visible once a file has been finished and renamed.
+ * <p>
+ * Config Parameters -
+ * <ul>
+ *   <li>directory (String, Required) : Directory to write files to. Created if it does not exist.</li>
+ *   <li>columns (List&lt;String&gt;, Required) : Ordered list of document fields to write as columns. Each must be a valid
+ *   Avro field name.</li>
+ *   <li>columnTypes (Map&lt;String, String&gt;, Optional) : The type of each column, by field name: <code>string</code>,
+ *   <code>int</code>, <code>long</code>, <code>float</code>, <code>double</code>, or <code>boolean</code>, followed by
+ *   <code>[]</code> for a repeated column. Columns that aren't listed are strings.</li>
+ *   <li>compression (String, Optional) : <code>none</code>, <code>snappy</code>, <code>gzip</code>, or <code>zstd</code>.
+ *   Defaults to snappy.</li>
+ *   <li>rowGroupSizeBytes (Long, Optional) : Write out a row group once this many bytes of rows are buffered. Defaults
+ *   to 128 MB.</li>
+ *   <li>filePrefix (String, Optional) : Start of each file's name, which is followed by the time the file was started and
+ *   a sequence number. Defaults to "documents".</li>
+ *   <li>rollSizeBytes (Long, Optional) : Start a new file once the current one holds about this many bytes, after
+ *   encoding and compression. Defaults to no limit.</li>
+ *   <li>rollIntervalSeconds (Long, Optional) : Start a new file once the current one has been open this long. Defaults to
+ *   no limit.</li>
+ * </ul>
+ */
+public class ParquetIndexer extends FileIndexer {
+
+  public static final Spec SPEC = SpecBuilder.indexer()
+      .requiredString("directory")
+      .requiredList("columns", new TypeReference<List<String>>(){})
+      .optionalParent("columnTypes", new TypeReference<Map<String, String>>(){})
+      .optionalString("compression", "filePrefix")
+      .optionalNumber("rowGroupSizeBytes", "rollSizeBytes", "rollIntervalSeconds").build();
+
+  public ParquetIndexer(Config config, IndexerMessenger messenger, boolean bypass, String metricsPrefix, String localRunId) {
+    super(config, messenger, bypass, metricsPrefix, localRunId, new ParquetFileFormat(
+        new ParquetSchema(config.getStringList("file.columns"), columnTypes(config)),
+        ConfigUtils.getOrDefault(config, "file.compression", "snappy"),
+        config.hasPath("file.rowGroupSizeBytes") ? config.getLong("file.rowGroupSizeBytes") : ParquetWriter.DEFAULT_BLOCK_SIZE));
+  }
+
+  private static Map<String, String> columnTypes(Config config) {
+    Map<String, String> types = new HashMap<>();
+    if (config.hasPath("file.columnTypes")) {
+      Config typesConfig = config.getConfig("file.columnTypes");
+      for (String column : typesConfig.root().keySet()) {
+        types.put(column, typesConfig.getString(ConfigUtil.quoteString(column)));
+      }
+    }
+    return types;
+  }
+
+  private static class ParquetFileFormat implements FileFormat {
+
+    private final ParquetSchema schema;
+    private final CompressionCodecName codec;
+    private final long rowGroupSize;
+
+    private ParquetFileFormat(ParquetSchema schema, String compression, long rowGroupSize) {
+      switch (compression) {
+        case "none":
+          this.codec = CompressionCodecName.UNCOMPRESSED;
+          break;
+        case "snappy":
+          this.codec = CompressionCodecName.SNAPPY;
+          break;
+        case "gzip":
+          this.codec = CompressionCodecName.GZIP;
+          break;
+        case "zstd":
+          this.codec = CompressionCodecName.ZSTD;
+          break;
+        default:
+          throw new IllegalArgumentException("file.compression must be none, snappy, gzip, or zstd.");
+      }
+      this.schema = schema;
+      this.rowGroupSize = rowGroupSize;
+    }
+
+    @Override
+    public String getExtension() {
+      return "parquet";
+    }
+
+    @Override
+    public RecordWriter open(Path path) throws IOException {
+      return new ParquetRecordWriter(path, schema, codec, rowGroupSize);
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package com.kmwllc.lucille.parquet.indexer;
+
+import com.kmwllc.lucille.indexer.FileIndexer.RecordWriter;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.avro.AvroWriteSupport;
+import org.apache.parquet.column.ColumnWriteStore;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.conf.ParquetConfiguration;
+import org.apache.parquet.conf.PlainParquetConfiguration;
+import org.apache.parquet.hadoop.CodecFactory;
+import org.apache.parquet.hadoop.ColumnChunkPageWriteStore;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.io.MessageColumnIO;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+
+/**
+ * Writes records to a single Parquet file, one row group at a time.
+ * <p>
+ * Parquet's own ParquetWriter only writes out a row group once it reaches the row group size, so rows written to a
+ * file that fills slowly stay in memory until the file is closed. This writer drives the same file, page, and column
+ * writers directly, so that {@link #flush()} can write out the rows buffered so far as a row group of their own. The
+ * file still can't be read until it is closed and its footer is written.
+ */
+class ParquetRecordWriter implements RecordWriter {
+
+  private final ParquetSchema recordSchema;
+  private final MessageType schema;
+  private final WriteSupport<GenericRecord> writeSupport;
+  private final ParquetProperties properties;
+  private final CodecFactory codecFactory;
+  private final CodecFactory.BytesCompressor compressor;
+  private final FileOutput output;
+  private final ParquetFileWriter fileWriter;
+  private final MessageColumnIO columnIO;
+  private final long rowGroupSize;
+  private final Map<String, String> extraMetadata;
+
+  // the row group being buffered
+  private ColumnChunkPageWriteStore pageStore;
+  private ColumnWriteStore columnStore;
+  private RecordConsumer recordConsumer;
+  private long recordCount = 0;
+  private int rowGroupOrdinal = 0;
+
+  /**
+   * @param path the file to create
+   * @param recordSchema converts records to the file's schema
+   * @param codec the compression codec for column data
+   * @param rowGroupSize the buffered size, in bytes, at which a row group is written out without waiting for a flush
+   */
+  ParquetRecordWriter(Path path, ParquetSchema recordSchema, CompressionCodecName codec, long rowGroupSize)
+      throws IOException {
+    ParquetConfiguration conf = new PlainParquetConfiguration();
+    // write lists in the standard three-level structure that other Parquet readers expect
+    conf.set(AvroWriteSupport.WRITE_OLD_LIST_STRUCTURE, "false");
+
+    Schema avroSchema = recordSchema.getAvroSchema();
+    this.recordSchema = recordSchema;
+    this.schema = new AvroSchemaConverter(conf).convert(avroSchema);
+    this.writeSupport = new AvroWriteSupport<>(schema, avroSchema, GenericData.get());
+    this.extraMetadata = new HashMap<>(writeSupport.init(conf).getExtraMetaData());
+    this.properties = ParquetProperties.builder().build();
+    this.codecFactory = new CodecFactory(conf, properties.getPageSizeThreshold());
+    this.compressor = codecFactory.getCompressor(codec);
+    this.columnIO = new ColumnIOFactory(false).getColumnIO(schema);
+    this.rowGroupSize = rowGroupSize;
+
+    this.output = new FileOutput(path);
+    this.fileWriter = new ParquetFileWriter(output, schema, ParquetFileWriter.Mode.CREATE,
+        rowGroupSize, ParquetWriter.MAX_PADDING_SIZE_DEFAULT);
+    fileWriter.start();
+    startRowGroup();
+  }
+
+  @Override
+  public void write(Map<String, Object> record) throws IOException {
+    writeSupport.write(recordSchema.toRecord(record));
+    recordCount++;
+    if (columnStore.getBufferedSize() >= rowGroupSize) {
+      writeRowGroup();
+    }
+  }
+
+  /**
+   * Writes out the rows buffered since the last row group as a row group of their own, and flushes it to the file.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (recordCount > 0) {
+      writeRowGroup();
+    }
+  }
+
+  @Override
+  public long getBytesWritten() {
+    try {
+      return fileWriter.getPos() + columnStore.getBufferedSize();
+    } catch (IOException e) {
+      return columnStore.getBufferedSize();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+      extraMetadata.putAll(writeSupport.finalizeWrite().getExtraMetaData());
+      fileWriter.end(extraMetadata);
+    } finally {
+      columnStore.close();
+      pageStore.close();
+      codecFactory.release();
+      output.close();
+    }
+  }
+
+  private void startRowGroup() {
+    pageStore = new ColumnChunkPageWriteStore(compressor, schema, properties.getAllocator(),
+        properties.getColumnIndexTruncateLength(), properties.getPageWriteChecksumEnabled(), null, rowGroupOrdinal);
+    columnStore = properties.newColumnWriteStore(schema, pageStore, pageStore);
+    recordConsumer = columnIO.getRecordWriter(columnStore);
+    writeSupport.prepareForWrite(recordConsumer);
+  }
+
+  private void writeRowGroup() throws IOException {
+    recordConsumer.flush();
+    fileWriter.startBlock(recordCount);
+    columnStore.flush();
+    pageStore.flushToFileWriter(fileWriter);
+    fileWriter.endBlock();
+    output.flush();
+    columnStore.close();
+    pageStore.close();
+
+    recordCount = 0;
+    rowGroupOrdinal++;
+    startRowGroup();
+  }
+
+  // a local file whose buffered output can be flushed to disk after each row group
+  private static class FileOutput implements OutputFile {
+
+    private final Path path;
+    private PositionOutputStream stream;
+
+    private FileOutput(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    public PositionOutputStream create(long blockSizeHint) throws IOException {
+      OutputStream out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE_NEW));
+      stream = new PositionOutputStream() {
+        private long position = 0;
+
+        @Override
+        public long getPos() {
+          return position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          position += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+          out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+          out.close();
+        }
+      };
+      return stream;
+    }
+
+    @Override
+    public PositionOutputStream createOrOverwrite(long blockSizeHint) throws IOException {
+      throw new UnsupportedOperationException("Files are never overwritten.");
+    }
+
+    @Override
+    public boolean supportsBlockSize() {
+      return false;
+    }
+
+    @Override
+    public long defaultBlockSize() {
+      return 0;
+    }
+
+    @Override
+    public String getPath() {
+      return path.toString();
+    }
+
+    void flush() throws IOException {
+      stream.flush();
+    }
+
+    // the file writer closes the stream when it finishes the file, so this only matters when finishing it failed
+    void close() throws IOException {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.kmwllc.lucille.parquet.indexer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * The columns of the Parquet files written by the {@link ParquetIndexer}, and the conversion of a document's fields
+ * to a row with those columns.
+ * <p>
+ * Each column has one of the types <code>string</code>, <code>int</code>, <code>long</code>, <code>float</code>,
+ * <code>double</code>, or <code>boolean</code>, or a repeated version of one of them, written with a <code>[]</code>
+ * suffix, for example <code>float[]</code> for a vector. Every column is optional, so a document without the field
+ * gets a null. A single value is written to a repeated column as a list of one.
+ */
+class ParquetSchema {
+
+  static final String REPEATED_SUFFIX = "[]";
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final List<String> columns;
+  private final Map<String, String> types;
+  private final Schema schema;
+
+  /**
+   * @param columns the document fields to write, in column order
+   * @param types the type of each column, by field name. Columns that aren't listed are strings.
+   */
+  ParquetSchema(List<String> columns, Map<String, String> types) {
+    for (String column : types.keySet()) {
+      if (!columns.contains(column)) {
+        throw new IllegalArgumentException("A type is given for '" + column + "', which is not one of the columns.");
+      }
+    }
+
+    List<Schema.Field> fields = new ArrayList<>();
+    for (String column : columns) {
+      String type = types.getOrDefault(column, "string");
+      Schema valueSchema;
+      if (type.endsWith(REPEATED_SUFFIX)) {
+        valueSchema = Schema.createArray(primitive(column, type.substring(0, type.length() - REPEATED_SUFFIX.length())));
+      } else {
+        valueSchema = primitive(column, type);
+      }
+      fields.add(new Schema.Field(column, Schema.createUnion(Schema.create(Schema.Type.NULL), valueSchema), null,
+          Schema.Field.NULL_DEFAULT_VALUE));
+    }
+
+    this.columns = columns;
+    this.types = types;
+    this.schema = Schema.createRecord("Document", null, null, false, fields);
+  }
+
+  Schema getAvroSchema() {
+    return schema;
+  }
+
+  /**
+   * Converts the given fields of a document to a row.
+   *
+   * @throws IOException if a field's value can't be converted to its column's type, or if a field with several values
+   * is written to a column that is not repeated
+   */
+  GenericRecord toRecord(Map<String, Object> fields) throws IOException {
+    GenericRecord row = new GenericData.Record(schema);
+    for (String column : columns) {
+      Object value = fields.get(column);
+      if (value == null) {
+        continue;
+      }
+
+      String type = types.getOrDefault(column, "string");
+      if (type.endsWith(REPEATED_SUFFIX)) {
+        String elementType = type.substring(0, type.length() - REPEATED_SUFFIX.length());
+        List<Object> values = new ArrayList<>();
+        for (Object element : value instanceof List ? (List<?>) value : List.of(value)) {
+          if (element == null) {
+            throw new IOException("Field '" + column + "' has a null value, which can't be written to a repeated column.");
+          }
+          values.add(convert(column, elementType, element));
+        }
+        row.put(column, values);
+      } else if (value instanceof List) {
+        throw new IOException("Field '" + column + "' has several values, but its column is not repeated. Use the type "
+            + type + REPEATED_SUFFIX + " to write all of them.");
+      } else {
+        row.put(column, convert(column, type, value));
+      }
+    }
+    return row;
+  }
+
+  private static Schema primitive(String column, String type) {
+    switch (type) {
+      case "string":
+        return Schema.create(Schema.Type.STRING);
+      case "int":
+        return Schema.create(Schema.Type.INT);
+      case "long":
+        return Schema.create(Schema.Type.LONG);
+      case "float":
+        return Schema.create(Schema.Type.FLOAT);
+      case "double":
+        return Schema.create(Schema.Type.DOUBLE);
+      case "boolean":
+        return Schema.create(Schema.Type.BOOLEAN);
+      default:
+        throw new IllegalArgumentException("Column '" + column + "' has unsupported type '" + type
+            + "'. Types must be string, int, long, float, double, or boolean, optionally followed by [].");
+    }
+  }
+
+  private static Object convert(String column, String type, Object value) throws IOException {
+    try {
+      if (type.equals("string")) {
+        if (value instanceof byte[]) {
+          return Base64.getEncoder().encodeToString((byte[]) value);
+        }
+        return value instanceof Map || value instanceof List ? MAPPER.writeValueAsString(value) : value.toString();
+      } else if (value instanceof Number) {
+        Number number = (Number) value;
+        switch (type) {
+          case "int":
+            return number.intValue();
+          case "long":
+            return number.longValue();
+          case "float":
+            return number.floatValue();
+          case "double":
+            return number.doubleValue();
+          default:
+            break;
+        }
+      } else if (value instanceof Boolean) {
+        if (type.equals("boolean")) {
+          return value;
+        }
+      } else if (value instanceof String) {
+        // a number or boolean may have been read from a text source as a string
+        String string = ((String) value).trim();
+        switch (type) {
+          case "int":
+            return Integer.parseInt(string);
+          case "long":
+            return Long.parseLong(string);
+          case "float":
+            return Float.parseFloat(string);
+          case "double":
+            return Double.parseDouble(string);
+          case "boolean":
+            if (string.equalsIgnoreCase("true") || string.equalsIgnoreCase("false")) {
+              return Boolean.parseBoolean(string);
+            }
+            break;
+          default:
+            break;
+        }
+      }
+    } catch (NumberFormatException | JsonProcessingException e) {
+      // reported below
+    }
+    throw new IOException("Value '" + value + "' of field '" + column + "' can't be written to a " + type + " column.");
+  }
+}
@@ -0,0 +1,189 @@
+package com.kmwllc.lucille.parquet.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.message.TestMessenger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.LocalInputFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParquetIndexerTest {
+
+  private static final List<String> COLUMNS = List.of("id", "name", "price", "count", "inStock", "tags", "vector");
+  private static final Map<String, String> TYPES = Map.of(
+      "price", "double",
+      "count", "long",
+      "inStock", "boolean",
+      "tags", "string[]",
+      "vector", "float[]");
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Config config(Map<String, Object> settings) {
+    return ConfigFactory.parseMap(settings)
+        .withFallback(ConfigFactory.parseMap(Map.of(
+            "indexer.type", "Parquet",
+            "indexer.batchSize", 2,
+            "file.directory", tempFolder.getRoot().getAbsolutePath(),
+            "file.columns", COLUMNS,
+            "file.columnTypes", TYPES)));
+  }
+
+  private List<Path> files() throws IOException {
+    try (Stream<Path> files = Files.list(tempFolder.getRoot().toPath())) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static List<GenericRecord> readRows(Path file) throws IOException {
+    List<GenericRecord> rows = new ArrayList<>();
+    try (ParquetReader<GenericRecord> reader = AvroParquetReader.<GenericRecord>builder(new LocalInputFile(file)).build()) {
+      GenericRecord row;
+      while ((row = reader.read()) != null) {
+        rows.add(row);
+      }
+    }
+    return rows;
+  }
+
+  private static int rowGroups(Path file) throws IOException {
+    try (ParquetFileReader reader = ParquetFileReader.open(new LocalInputFile(file))) {
+      return reader.getRowGroups().size();
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    TestMessenger messenger = new TestMessenger();
+    ParquetIndexer indexer = new ParquetIndexer(config(Map.of()), messenger, false, "testing", null);
+
+    Document doc1 = Document.create("doc1", "run1");
+    doc1.setField("name", "first");
+    doc1.setField("price", 9.5d);
+    doc1.setField("count", 3);
+    doc1.setField("inStock", true);
+    doc1.addToField("tags", "a");
+    doc1.addToField("tags", "b");
+    doc1.setVector("vector", new float[] {0.5f, -1.25f, 3f});
+
+    // values read from a text source as strings, a single value for a repeated column, and missing fields
+    Document doc2 = Document.create("doc2", "run1");
+    doc2.setField("price", "2.25");
+    doc2.setField("count", "7");
+    doc2.setField("inStock", "false");
+    doc2.setField("tags", "only");
+
+    messenger.sendForIndexing(doc1);
+    messenger.sendForIndexing(doc2);
+    indexer.run(2);
+
+    List<Path> files = files();
+    assertEquals(1, files.size());
+    assertTrue(files.get(0).getFileName().toString().endsWith(".parquet"));
+
+    List<GenericRecord> rows = readRows(files.get(0));
+    assertEquals(2, rows.size());
+
+    GenericRecord first = rows.get(0);
+    assertEquals("doc1", first.get("id").toString());
+    assertEquals("first", first.get("name").toString());
+    assertEquals(9.5d, first.get("price"));
+    assertEquals(3L, first.get("count"));
+    assertEquals(true, first.get("inStock"));
+    assertEquals(List.of("a", "b"), toStrings((List<?>) first.get("tags")));
+    assertEquals(List.of(0.5f, -1.25f, 3f), first.get("vector"));
+
+    GenericRecord second = rows.get(1);
+    assertEquals("doc2", second.get("id").toString());
+    assertNull(second.get("name"));
+    assertEquals(2.25d, second.get("price"));
+    assertEquals(7L, second.get("count"));
+    assertEquals(false, second.get("inStock"));
+    assertEquals(List.of("only"), toStrings((List<?>) second.get("tags")));
+    assertNull(second.get("vector"));
+  }
+
+  @Test
+  public void testFlushWritesRowGroup() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("test.parquet");
+    ParquetSchema schema = new ParquetSchema(COLUMNS, TYPES);
+
+    try (ParquetRecordWriter writer = new ParquetRecordWriter(file, schema, CompressionCodecName.SNAPPY, 128 * 1024 * 1024)) {
+      writer.write(Map.of("id", "doc1", "count", 1));
+      writer.write(Map.of("id", "doc2", "count", 2));
+      long buffered = Files.size(file);
+
+      writer.flush();
+      assertTrue(Files.size(file) > buffered);
+
+      // a flush with nothing buffered doesn't write an empty row group
+      writer.flush();
+      writer.write(Map.of("id", "doc3", "count", 3));
+    }
+
+    assertEquals(2, rowGroups(file));
+    List<GenericRecord> rows = readRows(file);
+    assertEquals(3, rows.size());
+    assertEquals(List.of(1L, 2L, 3L), rows.stream().map(row -> row.get("count")).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testRowGroupSize() throws Exception {
+    Path file = tempFolder.getRoot().toPath().resolve("test.parquet");
+    ParquetSchema schema = new ParquetSchema(COLUMNS, TYPES);
+
+    // the row group size is tiny, so every row is written out as a row group of its own
+    try (ParquetRecordWriter writer = new ParquetRecordWriter(file, schema, CompressionCodecName.UNCOMPRESSED, 1)) {
+      for (int i = 0; i < 3; i++) {
+        writer.write(Map.of("id", "doc" + i));
+      }
+    }
+
+    assertEquals(3, rowGroups(file));
+    assertEquals(3, readRows(file).size());
+  }
+
+  @Test
+  public void testInvalidValues() throws Exception {
+    ParquetSchema schema = new ParquetSchema(COLUMNS, TYPES);
+
+    assertThrows(IOException.class, () -> schema.toRecord(Map.of("id", "doc1", "count", "many")));
+    assertThrows(IOException.class, () -> schema.toRecord(Map.of("id", "doc1", "inStock", 1)));
+    // a multivalued field needs a repeated column
+    assertThrows(IOException.class, () -> schema.toRecord(Map.of("id", "doc1", "name", List.of("a", "b"))));
+  }
+
+  @Test
+  public void testInvalidTypes() {
+    assertThrows(IllegalArgumentException.class, () -> new ParquetSchema(COLUMNS, Map.of("count", "integer")));
+    assertThrows(IllegalArgumentException.class, () -> new ParquetSchema(COLUMNS, Map.of("missing", "long")));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ParquetIndexer(config(Map.of("file.compression", "lz4")), new TestMessenger(), false, "testing", null));
+  }
+
+  // Avro reads strings back as Utf8
+  private static List<String> toStrings(List<?> values) {
+    return values.stream().map(Object::toString).collect(Collectors.toList());
+  }
+}
@@ -8,6 +8,7 @@ import com.kmwllc.lucille.pinecone.util.PineconeUtils;
 import io.pinecone.clients.Pinecone;
 import io.pinecone.proto.UpsertResponse;
 import io.pinecone.unsigned_indices_model.VectorWithUnsignedIndices;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -176,7 +177,7 @@ public class PineconeIndexer extends Indexer {
           // should add dropDocument stage with stage conditions in pipeline before indexing
           .map(doc -> buildUpsertVectorWithUnsignedIndices(
               doc.getId(),
-              doc.getFloatList(embeddingField),
+              toFloatList(doc.getVector(embeddingField)),
               null,
               null,
               Struct.newBuilder()
@@ -219,10 +220,11 @@ public class PineconeIndexer extends Indexer {
   private void updateDocuments(List<Document> documents, String embeddingField, String namespace) throws IndexerException {
     try {
       documents.forEach(doc -> {
-        log.debug("Updating docId: {} namespace: {} embedding: {}", doc.getId(), namespace, doc.getFloatList(embeddingField));
+        List<Float> embedding = toFloatList(doc.getVector(embeddingField));
+        log.debug("Updating docId: {} namespace: {} embedding: {}", doc.getId(), namespace, embedding);
         // does not validate the existence of IDs within the index, if no records are affected, a 200 OK status is returned
         // will only throw error if doc.getId() is null
-        index.update(doc.getId(), doc.getFloatList(embeddingField), namespace);
+        index.update(doc.getId(), embedding, namespace);
       });
     } catch (Exception e) {
       throw new IndexerException("Error while updating vectors.", e);
@@ -242,4 +244,23 @@ public class PineconeIndexer extends Indexer {
       index.close();
     }
   }
+
+  // the Pinecone client takes a List<Float>, so the vector is wrapped rather than copied into a list of boxed values
+  private static List<Float> toFloatList(float[] vector) {
+    if (vector == null) {
+      return null;
+    }
+
+    return new AbstractList<>() {
+      @Override
+      public Float get(int index) {
+        return vector[index];
+      }
+
+      @Override
+      public int size() {
+        return vector.length;
+      }
+    };
+  }
 }
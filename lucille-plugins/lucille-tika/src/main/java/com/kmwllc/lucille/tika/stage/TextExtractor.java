@@ -8,21 +8,30 @@ import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.tika.util.TextChunkWriter;
+import com.kmwllc.lucille.tika.util.TikaParserManager;
 import com.kmwllc.lucille.util.FieldFilter;
 import com.kmwllc.lucille.util.FileContentFetcher;
 import com.typesafe.config.Config;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.tika.config.TikaConfig;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.fork.ForkParser;
@@ -33,6 +42,7 @@ import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.ContentHandler;
@@ -49,8 +59,27 @@ import org.xml.sax.SAXException;
  * byteArrayField (String, Optional) : name of field from which byte array data can be extracted
  * tikaConfigPath (String, Optional) : path to tika config, if not provided will default to empty AutoDetectParser
  * metadataPrefix (String, Optional) : prefix to be appended to fields for metadata information extracted after parsing
- * textContentLimit (Integer, Optional) : limits how large the content of the returned text can be
- * parseTimeout (Long, Optional) : timeout for parsing in milliseconds.
+ * textContentLimit (Integer, Optional) : limits how many characters of text are extracted. Parsing stops once the limit
+ * is reached, and the text up to the limit is kept. This also bounds the memory used for a document's text.
+ * textChunkSize (Integer, Optional) : when set, extracted text is cut into pieces of at most this many characters, and
+ * each piece is emitted as a child document as soon as the parse has produced it. The parse runs on the shared thread
+ * pool and hands pieces over through a small bounded queue, so only a few pieces are held at once however large the
+ * text is. Each child has the id "parentId-n", a "parent_id" field, a "chunk_number" field counting from 1, and the
+ * piece in textField. The parent document does not get textField; it gets the extracted metadata once the parse has
+ * finished, and is emitted after its children. If the parse times out, or the input turns out to exceed maxInputBytes,
+ * the pieces already emitted are kept and the parent gets no metadata. A parse whose pieces are not read for
+ * 10 minutes is stopped, so an abandoned document does not hold a pool thread. When not set, textField receives the
+ * full text as one value.
+ * parseTimeout (Long, Optional) : timeout for parsing in milliseconds. With textChunkSize, time the parse spends waiting
+ * for its pieces to be read does not count. A parse that times out is interrupted and can't write any more text. Its partial results are dropped: textField is set to an empty string and no extracted metadata
+ * is added. Timed parses run on a thread pool shared by all TextExtractor instances, with two threads for each instance,
+ * so a parse that does not respond to interruption does not hold up the next document.
+ * maxInputBytes (Long, Optional) : guards memory by refusing inputs larger than this many bytes. Byte arrays over the
+ * limit are not parsed at all; file streams fail once the limit has been read. Either way a warning is logged, and the
+ * document is left without text or extracted metadata. Not set by default.
+ * sharedParser (Boolean, Optional) : whether TextExtractor instances in different worker threads, configured with the same
+ * tikaConfigPath and fork settings, should share a single parser. When forking is enabled, this means they share one pool
+ * of fork.poolSize child JVMs instead of each starting its own. Defaults to false.
  * whitelist (List&lt;String&gt;, Optional) : list of metadata names that are to be included in document
  * blacklist (List&lt;String&gt;, Optional) : list of metadata names that are not to be included in document
  * fieldNamesField (String, Optional) : if set, each extracted metadata field's prefixed name is added as a separate value to this
@@ -100,7 +129,8 @@ public class TextExtractor extends Stage {
       .optionalString("textField", "filePathField", "byteArrayField", "tikaConfigPath", "metadataPrefix", "fieldNamesField")
       .optionalList("whitelist", new TypeReference<List<String>>() {})
       .optionalList("blacklist", new TypeReference<List<String>>() {})
-      .optionalNumber("textContentLimit", "parseTimeout")
+      .optionalNumber("textContentLimit", "textChunkSize", "parseTimeout", "maxInputBytes")
+      .optionalBoolean("sharedParser")
       .optionalParent(FORK_SPEC, FileConnector.S3_PARENT_SPEC, FileConnector.GCP_PARENT_SPEC, FileConnector.AZURE_PARENT_SPEC)
       .optionalParent("metadataFields", new TypeReference<Map<String, Object>>() {})
       .include(FileContentFetcher.SPEC).build();
@@ -108,6 +138,15 @@ public class TextExtractor extends Stage {
   private static final List<String> DEFAULT_FORK_JVM_ARGS =
       Arrays.asList("java", "-Djava.awt.headless=true");
 
+  // the number of pieces of text a streaming parse may produce ahead of the reader
+  private static final int CHUNKS_IN_FLIGHT = 4;
+
+  // how long a streaming parse waits for a full queue to be read before assuming the reader has gone away
+  private static final long STALLED_READER_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+  // how often a reader waiting for text checks that the parse is still running
+  private static final long LIVENESS_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   private static final Logger log = LoggerFactory.getLogger(TextExtractor.class);
   private String textField;
   private String filePathField;
@@ -116,7 +155,11 @@ public class TextExtractor extends Stage {
   private String metadataPrefix;
   private String fieldNamesField;
   private Integer textContentLimit;
+  private Integer textChunkSize;
   private Long parseTimeout;
+  private Long maxInputBytes;
+  private boolean sharedParser;
+  private String sharedParserKey;
   private boolean forkEnabled;
   private int forkPoolSize;
   private List<String> forkJvmArgs;
@@ -138,7 +181,10 @@ public class TextExtractor extends Stage {
     metadataPrefix = config.hasPath("metadataPrefix") ? config.getString("metadataPrefix") : "tika";
     tikaConfigPath = config.hasPath("tikaConfigPath") ? config.getString("tikaConfigPath") : null;
     textContentLimit = config.hasPath("textContentLimit") ? config.getInt("textContentLimit") : Integer.MAX_VALUE;
+    textChunkSize = config.hasPath("textChunkSize") ? config.getInt("textChunkSize") : null;
     parseTimeout = config.hasPath("parseTimeout") ? config.getLong("parseTimeout") : null;
+    maxInputBytes = config.hasPath("maxInputBytes") ? config.getLong("maxInputBytes") : null;
+    sharedParser = ConfigUtils.getOrDefault(config, "sharedParser", false);
     fieldNamesField = config.hasPath("fieldNamesField") ? config.getString("fieldNamesField") : null;
     metadataFields = config.hasPath("metadataFields") ? config.getConfig("metadataFields").root().unwrapped() : null;
 
@@ -163,6 +209,9 @@ public class TextExtractor extends Stage {
     if (filePathField == null && byteArrayField == null) {
       throw new StageException("Provided neither a filePathField nor byteArrayField to the TextExtractor stage");
     }
+    if (textChunkSize != null && textChunkSize < 2) {
+      throw new StageException("textChunkSize must be at least 2.");
+    }
     parseCtx = new ParseContext();
 
     this.fileFetcher = FileContentFetcher.create(config);
@@ -179,6 +228,29 @@ public class TextExtractor extends Stage {
       }
     }
 
+    if (sharedParser) {
+      sharedParserKey = tikaConfigPath + "|fork=" + forkEnabled +
+          (forkEnabled ? "|" + forkPoolSize + "|" + forkJvmArgs + "|" + forkServerPulseMillis + "|" + parseTimeout : "");
+      parser = TikaParserManager.getInstance().acquireParser(sharedParserKey, this::createParser);
+    } else {
+      parser = createParser();
+    }
+
+    if (forkEnabled) {
+      if (!sharedParser) {
+        forkParser = (ForkParser) parser;
+      }
+    } else {
+      parseCtx.set(Parser.class, parser);
+    }
+
+    // streamed text is always parsed on the executor, so it can be read while the parse runs
+    if (textChunkSize != null || (!forkEnabled && parseTimeout != null)) {
+      executorService = TikaParserManager.getInstance().acquireExecutor();
+    }
+  }
+
+  private Parser createParser() throws StageException {
     // we use an auto detect parser whether we are forking or not
     AutoDetectParser autoParser;
     if (this.tikaConfigPath == null) {
@@ -193,24 +265,18 @@ public class TextExtractor extends Stage {
       }
     }
 
-    if (forkEnabled) {
-      forkParser = new ForkParser(TextExtractor.class.getClassLoader(), autoParser);
-      forkParser.setPoolSize(forkPoolSize);
-      forkParser.setJavaCommand(forkJvmArgs);
-      forkParser.setServerPulseMillis(forkServerPulseMillis);
-      if (parseTimeout != null) {
-        forkParser.setServerParseTimeoutMillis(parseTimeout);
-      }
-      parser = forkParser;
-    } else {
-      parser = autoParser;
-      parseCtx.set(Parser.class, parser);
-      if (parseTimeout != null) {
-        // each worker is running in a single thread so we only need to run the extraction with a
-        // single thread executor rather than using a thread pool.
-        executorService = Executors.newSingleThreadExecutor();
-      }
+    if (!forkEnabled) {
+      return autoParser;
     }
+
+    ForkParser newForkParser = new ForkParser(TextExtractor.class.getClassLoader(), autoParser);
+    newForkParser.setPoolSize(forkPoolSize);
+    newForkParser.setJavaCommand(forkJvmArgs);
+    newForkParser.setServerPulseMillis(forkServerPulseMillis);
+    if (parseTimeout != null) {
+      newForkParser.setServerParseTimeoutMillis(parseTimeout);
+    }
+    return newForkParser;
   }
 
   @Override
@@ -219,14 +285,13 @@ public class TextExtractor extends Stage {
     fileFetcher.shutdown();
 
     if (executorService != null) {
-      executorService.shutdownNow();
-      try {
-        if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
-          log.warn("ExecutorService did not terminate in time");
-        }
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-      }
+      TikaParserManager.getInstance().releaseExecutor();
+      executorService = null;
+    }
+
+    if (sharedParserKey != null) {
+      TikaParserManager.getInstance().releaseParser(sharedParserKey);
+      sharedParserKey = null;
     }
 
     if (forkParser != null) {
@@ -240,10 +305,21 @@ public class TextExtractor extends Stage {
 
     Metadata metadata = createMetadataInput(doc);
 
+    if (textChunkSize != null) {
+      InputStream inputStream = openInput(doc, metadata);
+      return inputStream == null ? null : new ChunkIterator(doc, metadata, inputStream);
+    }
+
     if (doc.has(byteArrayField)) {
 
       byte[] byteArray = doc.getBytes(byteArrayField);
 
+      if (maxInputBytes != null && byteArray.length > maxInputBytes) {
+        log.warn("Skipping text extraction for document {}: {} bytes exceeds maxInputBytes of {}.", doc.getId(),
+            byteArray.length, maxInputBytes);
+        return null;
+      }
+
       // wrap in a TikaInputStream so container-aware detectors (which need to spool the content to a file) can run;
       // a plain InputStream would limit detection to Mime-Magic on the leading bytes.
       try (TikaInputStream tikaStream = TikaInputStream.get(byteArray, metadata)) {
@@ -258,7 +334,8 @@ public class TextExtractor extends Stage {
 
       // wrap in a TikaInputStream so container-aware detectors (which need to spool the content to a file) can run;
       // a plain InputStream would limit detection to Mime-Magic on the leading bytes.
-      try (InputStream fetchedStream = fileFetcher.getInputStream(filePath); TikaInputStream tikaStream = TikaInputStream.get(fetchedStream)) {
+      try (InputStream fetchedStream = fileFetcher.getInputStream(filePath);
+          TikaInputStream tikaStream = TikaInputStream.get(limitInput(fetchedStream))) {
         parseInputStream(metadata, doc, tikaStream);
       } catch (IOException e) {
         log.warn("Error processing file {}", filePath, e);
@@ -267,6 +344,33 @@ public class TextExtractor extends Stage {
     return null;
   }
 
+  /**
+   * Opens the document's byte array or file for parsing, returning null if it has neither, the byte array is over
+   * maxInputBytes, or the file can't be opened.
+   */
+  private InputStream openInput(Document doc, Metadata metadata) {
+    if (doc.has(byteArrayField)) {
+      byte[] byteArray = doc.getBytes(byteArrayField);
+      if (maxInputBytes != null && byteArray.length > maxInputBytes) {
+        log.warn("Skipping text extraction for document {}: {} bytes exceeds maxInputBytes of {}.", doc.getId(),
+            byteArray.length, maxInputBytes);
+        return null;
+      }
+      return TikaInputStream.get(byteArray, metadata);
+    }
+
+    if (doc.has(filePathField)) {
+      String filePath = doc.getString(filePathField);
+      try {
+        // closing the TikaInputStream closes the fetched stream
+        return TikaInputStream.get(limitInput(fileFetcher.getInputStream(filePath)));
+      } catch (IOException e) {
+        log.warn("Error processing file {}", filePath, e);
+      }
+    }
+    return null;
+  }
+
   /**
    * Builds the input {@link Metadata} handed to Tika before parsing, copying values from the given document into the
    * metadata according to the configured {@code metadataFields} mapping.
@@ -294,6 +398,10 @@ public class TextExtractor extends Stage {
     return metadata;
   }
 
+  private InputStream limitInput(InputStream in) {
+    return maxInputBytes == null ? in : new MaxBytesInputStream(in, maxInputBytes);
+  }
+
   /**
    * Cleans the name of metadata field names to be in line with general standards for documents
    */
@@ -313,15 +421,19 @@ public class TextExtractor extends Stage {
    * @param inputStream The {@code InputStream} containing the content to be parsed.
    */
   public void parseInputStream(Metadata metadata, Document doc, InputStream inputStream) throws StageException {
-    ContentHandler bch = new BodyContentHandler(textContentLimit);
+    // text is written straight into chunk-sized pieces rather than being buffered whole by the handler
+    TextChunkWriter textWriter =
+        new TextChunkWriter(textChunkSize != null ? textChunkSize : Integer.MAX_VALUE, textContentLimit);
+    ContentHandler bch = new BodyContentHandler(new WriteOutContentHandler(textWriter));
+    AtomicBoolean inputTooLarge = new AtomicBoolean(false);
     if (forkEnabled || parseTimeout == null) {
       // fork path: StageException propagates on child failure; ForkParser's serverParseTimeoutMillis handles hangs.
       // non-fork path with no timeout: parse inline.
-      parse(doc, inputStream, metadata, bch);
+      inputTooLarge.set(parse(doc, inputStream, metadata, bch));
     } else {
       Future<?> future = executorService.submit(() -> {
         try {
-          parse(doc, inputStream, metadata, bch);
+          inputTooLarge.set(parse(doc, inputStream, metadata, bch));
         } catch (StageException e) {
           log.warn("Tika Exception: {}", e.getMessage());
         }
@@ -329,15 +441,45 @@ public class TextExtractor extends Stage {
 
       try {
         future.get(parseTimeout, TimeUnit.MILLISECONDS);
-      } catch (TimeoutException e) {
+      } catch (TimeoutException | InterruptedException e) {
+        // the parse may still be running, so stop it and drop what it has produced rather than reading its output
+        // while it is being written
         future.cancel(true);
-        log.warn("Tika parsing timed out after {} ms", parseTimeout);
-      } catch (Exception e) {
+        textWriter.close();
+        if (e instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+          log.warn("Interrupted while waiting for Tika to parse document {}.", doc.getId());
+        } else {
+          log.warn("Tika parsing timed out after {} ms for document {}.", parseTimeout, doc.getId());
+        }
+        doc.setOrAdd(textField, "");
+        return;
+      } catch (ExecutionException e) {
         log.warn("Error during async Tika parsing: {}", e.getMessage());
       }
     }
 
-    doc.setOrAdd(textField, bch.toString());
+    if (inputTooLarge.get()) {
+      log.warn("Skipping text extraction for document {}: input exceeds maxInputBytes of {}.", doc.getId(),
+          maxInputBytes);
+      return;
+    }
+
+    List<String> chunks = textWriter.getChunks();
+    if (chunks.isEmpty()) {
+      doc.setOrAdd(textField, "");
+    }
+    for (String chunk : chunks) {
+      doc.setOrAdd(textField, chunk);
+    }
+    addMetadata(doc, metadata);
+  }
+
+  /**
+   * Adds the metadata extracted by a parse to the document, under metadataPrefix and subject to the whitelist and
+   * blacklist.
+   */
+  private void addMetadata(Document doc, Metadata metadata) {
     String newMetadataPrefix = metadataPrefix.isEmpty() ? "" : metadataPrefix + "_";
     for (String name : metadata.names()) {
       // clean the field name first.
@@ -354,14 +496,226 @@ public class TextExtractor extends Stage {
     }
   }
 
-  private void parse(Document doc, InputStream inputStream, Metadata metadata, ContentHandler bch) throws StageException {
+  /**
+   * Parses the given input stream, returning true if it failed because the input exceeds maxInputBytes.
+   */
+  private boolean parse(Document doc, InputStream inputStream, Metadata metadata, ContentHandler bch)
+      throws StageException {
     try {
       parser.parse(inputStream, bch, metadata, parseCtx);
     } catch (IOException | SAXException | TikaException e) {
+      if (ExceptionUtils.indexOfThrowable(e, InputTooLargeException.class) != -1) {
+        return true;
+      }
       if (forkEnabled) {
         throw new StageException("Forked Tika process failed for document: " + doc.getId(), e);
       }
       log.warn("Tika Exception: {}", e.getMessage());
     }
+    return false;
+  }
+
+  /**
+   * Emits the text of a parse running on the executor as child documents, one for each piece of at most textChunkSize
+   * characters, as soon as the parse hands the piece over. Once the parse has finished, its metadata is added to the
+   * parent document, which the pipeline emits after the children.
+   */
+  private class ChunkIterator implements Iterator<Document> {
+
+    private final Document doc;
+    private final Metadata metadata;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(CHUNKS_IN_FLIGHT);
+    private final TextChunkWriter textWriter;
+    private final AtomicBoolean inputTooLarge = new AtomicBoolean(false);
+    private final Future<?> future;
+    private final long startNanos = System.nanoTime();
+    private String nextChunk;
+    private int chunkNumber = 0;
+    private boolean done = false;
+
+    ChunkIterator(Document doc, Metadata metadata, InputStream inputStream) {
+      this.doc = doc;
+      this.metadata = metadata;
+      this.textWriter = new TextChunkWriter(textChunkSize, textContentLimit, queue, STALLED_READER_TIMEOUT_MS);
+      ContentHandler bch = new BodyContentHandler(new WriteOutContentHandler(textWriter));
+
+      this.future = executorService.submit(() -> {
+        try {
+          inputTooLarge.set(parse(doc, inputStream, metadata, bch));
+          return null;
+        } finally {
+          IOUtils.closeQuietly(inputStream);
+          try {
+            textWriter.finish();
+          } catch (IOException e) {
+            log.warn("Error handing over the end of the text for document {}: {}", doc.getId(), e.getMessage());
+          }
+        }
+      });
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (nextChunk != null) {
+        return true;
+      }
+      if (done) {
+        return false;
+      }
+
+      String chunk;
+      try {
+        chunk = poll();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stopParse();
+        log.warn("Interrupted while waiting for Tika to parse document {}.", doc.getId());
+        return false;
+      }
+
+      if (chunk == null) {
+        stopParse();
+        log.warn("Tika parsing timed out after {} ms for document {}.", parseTimeout, doc.getId());
+        return false;
+      }
+
+      if (chunk == TextChunkWriter.END) {
+        done = true;
+        finishParent();
+        return false;
+      }
+
+      nextChunk = chunk;
+      return true;
+    }
+
+    @Override
+    public Document next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      chunkNumber++;
+      String parentId = doc.getId();
+      Document child = Document.create(parentId + "-" + chunkNumber);
+      child.setField("parent_id", parentId);
+      child.setField("chunk_number", chunkNumber);
+      child.setField(textField, nextChunk);
+      nextChunk = null;
+      return child;
+    }
+
+    /**
+     * Returns the next piece of text, {@link TextChunkWriter#END} once the parse has ended, or null if the parse has
+     * timed out. Time the parse spent waiting for room in the queue does not count towards the timeout.
+     */
+    private String poll() throws InterruptedException {
+      while (true) {
+        long waitNanos = LIVENESS_CHECK_NANOS;
+        if (!forkEnabled && parseTimeout != null) {
+          long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(parseTimeout) + textWriter.getBlockedNanos();
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return null;
+          }
+          waitNanos = Math.min(waitNanos, remaining);
+        }
+
+        String chunk = queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+        if (chunk != null) {
+          return chunk;
+        }
+        if (future.isDone() && queue.isEmpty()) {
+          // the parse ended without handing over the end of the text, e.g. because it was interrupted
+          return TextChunkWriter.END;
+        }
+      }
+    }
+
+    private void finishParent() {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.warn("Interrupted while waiting for Tika to parse document {}.", doc.getId());
+        return;
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof StageException) {
+          // fails the document, as the StageException would have outside of a streaming parse
+          throw new RuntimeException(e.getCause());
+        }
+        log.warn("Error during async Tika parsing: {}", e.getMessage());
+        return;
+      }
+
+      if (inputTooLarge.get()) {
+        log.warn("Input for document {} exceeds maxInputBytes of {}; its remaining text was not extracted.", doc.getId(),
+            maxInputBytes);
+        return;
+      }
+      addMetadata(doc, metadata);
+    }
+
+    private void stopParse() {
+      done = true;
+      future.cancel(true);
+      // the parse may ignore interruption, closing the writer makes its next write fail
+      textWriter.close();
+      queue.clear();
+    }
+  }
+
+  /**
+   * Fails with an IOException once more than maxBytes have been read, so a parser cannot pull an oversized input into
+   * memory.
+   */
+  private static class MaxBytesInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+    private long count = 0;
+
+    MaxBytesInputStream(InputStream in, long maxBytes) {
+      super(in);
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        checkCount(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        checkCount(n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      checkCount(skipped);
+      return skipped;
+    }
+
+    private void checkCount(long n) throws IOException {
+      count += n;
+      if (count > maxBytes) {
+        throw new InputTooLargeException("Input exceeds maxInputBytes of " + maxBytes + ".");
+      }
+    }
+  }
+
+  private static class InputTooLargeException extends IOException {
+
+    InputTooLargeException(String message) {
+      super(message);
+    }
   }
 }
@@ -0,0 +1,179 @@
+package com.kmwllc.lucille.tika.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Writer that receives extracted text as Tika produces it and cuts it into pieces of at most chunkSize characters.
+ * A single buffer is reused for every piece, so the extracted text is never held as one contiguous String and the
+ * buffer never grows beyond chunkSize. The writer stops accepting text once maxChars characters have been written: the
+ * write that reaches the limit keeps what fits and throws an IOException, which ends the parse.
+ *
+ * By default the pieces are kept until the parse finishes and then read with {@link #getChunks()}. A writer created
+ * with a queue instead hands each piece to the queue as soon as it is cut, waiting while the queue is full, so a reader
+ * can consume the pieces while the parse is still running and at most the queue's capacity is held at once. The parse
+ * must call {@link #finish()} when it ends, which hands over the last partial piece followed by {@link #END}. If the
+ * queue stays full for longer than stallTimeoutMs, the reader is assumed to have gone away and the write fails.
+ *
+ * A piece never ends between the two halves of a surrogate pair, so a piece may be one character shorter than
+ * chunkSize.
+ *
+ * Once the writer has been closed, every write throws an IOException. Closing it stops a parse that has timed out
+ * from producing more text, even if the parse ignores interruption.
+ */
+public class TextChunkWriter extends Writer {
+
+  /**
+   * Added to the queue after the last piece. Compare by identity.
+   */
+  public static final String END = new String("");
+
+  private final int chunkSize;
+  private final int maxChars;
+  private final List<String> chunks = new ArrayList<>();
+  private final BlockingQueue<String> queue;
+  private final long stallTimeoutMs;
+  private final StringBuilder current = new StringBuilder();
+  private long written = 0;
+  private volatile long blockedNanos = 0;
+  private volatile boolean closed = false;
+
+  /**
+   * @param chunkSize the maximum number of characters in each piece. Must be at least 2.
+   * @param maxChars the maximum number of characters kept across all pieces.
+   */
+  public TextChunkWriter(int chunkSize, int maxChars) {
+    if (chunkSize < 2) {
+      throw new IllegalArgumentException("chunkSize must be at least 2.");
+    }
+    this.chunkSize = chunkSize;
+    this.maxChars = maxChars;
+    this.queue = null;
+    this.stallTimeoutMs = 0;
+  }
+
+  /**
+   * @param chunkSize the maximum number of characters in each piece. Must be at least 2.
+   * @param maxChars the maximum number of characters written across all pieces.
+   * @param queue the queue each piece is handed to as soon as it is cut.
+   * @param stallTimeoutMs how long to wait for room in the queue before failing the write.
+   */
+  public TextChunkWriter(int chunkSize, int maxChars, BlockingQueue<String> queue, long stallTimeoutMs) {
+    if (chunkSize < 2) {
+      throw new IllegalArgumentException("chunkSize must be at least 2.");
+    }
+    this.chunkSize = chunkSize;
+    this.maxChars = maxChars;
+    this.queue = queue;
+    this.stallTimeoutMs = stallTimeoutMs;
+  }
+
+  @Override
+  public synchronized void write(char[] cbuf, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("The text writer has been closed.");
+    }
+
+    boolean limitReached = written + len > maxChars;
+    if (limitReached) {
+      len = (int) (maxChars - written);
+    }
+    written += len;
+
+    int end = off + len;
+    while (off < end) {
+      int n = Math.min(chunkSize - current.length(), end - off);
+      current.append(cbuf, off, n);
+      off += n;
+
+      if (current.length() == chunkSize) {
+        cut();
+      }
+    }
+
+    if (limitReached) {
+      throw new IOException("Extracted text exceeds the limit of " + maxChars + " characters.");
+    }
+  }
+
+  private void cut() throws IOException {
+    char last = current.charAt(current.length() - 1);
+    if (Character.isHighSurrogate(last)) {
+      // keep the high surrogate with its low surrogate at the start of the next piece
+      add(current.substring(0, current.length() - 1));
+      current.setLength(0);
+      current.append(last);
+    } else {
+      add(current.toString());
+      current.setLength(0);
+    }
+  }
+
+  private void add(String piece) throws IOException {
+    if (queue == null) {
+      chunks.add(piece);
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      if (!queue.offer(piece, stallTimeoutMs, TimeUnit.MILLISECONDS)) {
+        throw new IOException("No text has been read for " + stallTimeoutMs + " ms.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to hand over extracted text.", e);
+    } finally {
+      blockedNanos += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Hands the last partial piece, if any, and then {@link #END} to the queue. Must be called once by the parse when it
+   * ends, whether or not it succeeded, and only on a writer created with a queue. Does nothing once the writer has been
+   * closed.
+   */
+  public synchronized void finish() throws IOException {
+    if (closed) {
+      return;
+    }
+    if (current.length() > 0) {
+      add(current.toString());
+      current.setLength(0);
+    }
+    add(END);
+  }
+
+  /**
+   * Returns the total time, in nanoseconds, that writes have spent waiting for room in the queue. A reader can leave
+   * this time out when deciding whether the parse has taken too long.
+   */
+  public long getBlockedNanos() {
+    return blockedNanos;
+  }
+
+  /**
+   * Returns the pieces written so far, including any partial piece at the end, in the order they were written. Must
+   * only be called once the parse writing to this writer has finished.
+   */
+  public synchronized List<String> getChunks() {
+    List<String> result = new ArrayList<>(chunks);
+    if (current.length() > 0) {
+      result.add(current.toString());
+    }
+    return result;
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+}
@@ -0,0 +1,161 @@
+package com.kmwllc.lucille.tika.util;
+
+import com.kmwllc.lucille.core.StageException;
+import com.kmwllc.lucille.util.ThreadNameUtils;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.tika.parser.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides a way for TextExtractor instances running in different worker threads to share Tika resources.
+ *
+ * Two kinds of resources are managed:
+ * <ul>
+ *   <li>Parsers, keyed by a String that identifies their configuration (tika config path, fork settings, etc.).
+ *   An AutoDetectParser is thread-safe, and a ForkParser is itself a pool of child JVMs, so a single instance of either
+ *   can serve every worker thread. The first request for a key builds the parser; subsequent requests return the same
+ *   instance. When the last holder of a key releases it, the parser is closed (if it is a ForkParser) and discarded.</li>
+ *   <li>A single executor used to run time-bounded parses. It has {@value #THREADS_PER_HOLDER} threads for each holder,
+ *   so a parse that ignores interruption after timing out does not block the holder's next document, as it would with
+ *   a single-threaded executor per stage instance. Because the pool is bounded, parses that never stop can't pile up
+ *   threads without limit; once every thread is stuck, new parses wait in the queue and time out.</li>
+ * </ul>
+ *
+ * Both acquire and release are synchronized. They are only called from Stage start() and stop(), so contention is
+ * not a concern.
+ */
+public final class TikaParserManager {
+
+  private static final Logger log = LoggerFactory.getLogger(TikaParserManager.class);
+
+  private static final TikaParserManager instance = new TikaParserManager();
+
+  private final Map<String, Parser> parsers = new HashMap<>();
+  private final Map<String, Integer> parserRefCounts = new HashMap<>();
+
+  // each holder runs one parse at a time, and may have one more that timed out but has not stopped yet
+  private static final int THREADS_PER_HOLDER = 2;
+
+  private ThreadPoolExecutor executor;
+  private int executorRefCount = 0;
+
+  private TikaParserManager() {
+  }
+
+  public static TikaParserManager getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the parser registered under the given key, building it with the given factory if no such parser exists.
+   * Each call must be paired with a call to {@link #releaseParser(String)}.
+   */
+  public synchronized Parser acquireParser(String key, Callable<Parser> factory) throws StageException {
+    Parser parser = parsers.get(key);
+    if (parser == null) {
+      try {
+        parser = factory.call();
+      } catch (Exception e) {
+        throw new StageException("Error creating shared Tika parser.", e);
+      }
+      log.debug("Created shared Tika parser for key {}", key);
+      parsers.put(key, parser);
+    }
+
+    parserRefCounts.merge(key, 1, Integer::sum);
+    return parser;
+  }
+
+  /**
+   * Releases a parser previously obtained from {@link #acquireParser(String, Callable)}. The parser is closed once
+   * it has no remaining holders.
+   */
+  public synchronized void releaseParser(String key) {
+    Integer refCount = parserRefCounts.get(key);
+    if (refCount == null) {
+      return;
+    }
+
+    if (refCount > 1) {
+      parserRefCounts.put(key, refCount - 1);
+      return;
+    }
+
+    parserRefCounts.remove(key);
+    Parser parser = parsers.remove(key);
+    if (parser instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) parser).close();
+      } catch (Exception e) {
+        log.warn("Error closing shared Tika parser for key {}", key, e);
+      }
+    }
+  }
+
+  /**
+   * Returns the shared executor used for time-bounded parsing. Each call must be paired with a call to
+   * {@link #releaseExecutor()}.
+   */
+  public synchronized ExecutorService acquireExecutor() {
+    if (executor == null) {
+      AtomicInteger threadCount = new AtomicInteger();
+      executor = new ThreadPoolExecutor(THREADS_PER_HOLDER, THREADS_PER_HOLDER, 60L, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, ThreadNameUtils.createName("TikaParse-" + threadCount.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+          });
+      executor.allowCoreThreadTimeOut(true);
+    }
+
+    executorRefCount++;
+    resizeExecutor();
+    return executor;
+  }
+
+  /**
+   * Releases the shared executor. It is shut down, interrupting any parses still in flight, once it has no remaining
+   * holders.
+   */
+  public synchronized void releaseExecutor() {
+    if (executor == null) {
+      return;
+    }
+
+    executorRefCount = Math.max(0, executorRefCount - 1);
+    if (executorRefCount > 0) {
+      resizeExecutor();
+    } else {
+      executor.shutdownNow();
+      try {
+        if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+          log.warn("Tika parse executor did not terminate in time");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        executor = null;
+      }
+    }
+  }
+
+  private void resizeExecutor() {
+    int size = THREADS_PER_HOLDER * executorRefCount;
+    // the core size can never exceed the maximum size, so the order of the two calls depends on the direction
+    if (size > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(size);
+      executor.setCorePoolSize(size);
+    } else {
+      executor.setCorePoolSize(size);
+      executor.setMaximumPoolSize(size);
+    }
+  }
+}
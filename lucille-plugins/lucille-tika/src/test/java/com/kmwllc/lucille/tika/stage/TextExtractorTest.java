@@ -4,6 +4,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -20,6 +21,8 @@ import com.kmwllc.lucille.core.Document;
 import com.kmwllc.lucille.core.Stage;
 import com.kmwllc.lucille.core.StageException;
 import com.kmwllc.lucille.stage.StageFactory;
+import com.kmwllc.lucille.tika.util.TextChunkWriter;
+import com.kmwllc.lucille.tika.util.TikaParserManager;
 import com.kmwllc.lucille.util.DefaultFileContentFetcher;
 import com.kmwllc.lucille.util.FileContentFetcher;
 import com.typesafe.config.Config;
@@ -34,9 +37,13 @@ import java.util.ArrayList;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import org.apache.tika.exception.TikaException;
@@ -46,6 +53,7 @@ import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.AbstractParser;
 import org.apache.tika.parser.DefaultParser;
 import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.XHTMLContentHandler;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -263,6 +271,139 @@ public class TextExtractorTest {
     assertEquals("Hi ", doc.getString("text"));
   }
 
+  @Test
+  public void testTextChunkSize() throws StageException, IOException {
+    Stage stage = factory.get("TextExtractorTest/textchunks.conf");
+    Document doc = Document.create("doc1");
+    doc.setField("byte_array", Files.readAllBytes(Paths.get("src/test/resources/TextExtractorTest/tika.txt")));
+    Iterator<Document> children = stage.processDocument(doc);
+
+    List<Document> chunks = new ArrayList<>();
+    children.forEachRemaining(chunks::add);
+
+    assertEquals(List.of("doc1-1", "doc1-2", "doc1-3"), chunks.stream().map(Document::getId).collect(Collectors.toList()));
+    assertEquals(List.of("Hi T", "here", "!\n"), chunks.stream().map(d -> d.getString("text")).collect(Collectors.toList()));
+    assertEquals("doc1", chunks.get(2).getString("parent_id"));
+    assertEquals(Integer.valueOf(3), chunks.get(2).getInt("chunk_number"));
+    // the parent gets the metadata, not the text
+    assertFalse(doc.has("text"));
+    assertEquals("text/plain; charset=ISO-8859-1", doc.getString("tika_content_type"));
+    stage.stop();
+  }
+
+  public static class StreamingParser extends AbstractParser {
+
+    private static volatile CountDownLatch firstChunkRead = new CountDownLatch(1);
+
+    @Override
+    public Set<MediaType> getSupportedTypes(ParseContext context) {
+      return Collections.singleton(MediaType.TEXT_PLAIN);
+    }
+
+    @Override
+    public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+        throws TikaException, IOException, SAXException {
+      XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+      xhtml.startDocument();
+      xhtml.characters("abcd");
+      try {
+        // the rest of the text is only produced once the first piece has been read
+        if (!firstChunkRead.await(5, TimeUnit.SECONDS)) {
+          throw new TikaException("The first piece of text was not read while the parse was running.");
+        }
+      } catch (InterruptedException e) {
+        throw new TikaException("Interrupted.", e);
+      }
+      xhtml.characters("efgh");
+      xhtml.endDocument();
+    }
+  }
+
+  @Test
+  public void testTextChunksAreEmittedDuringParse() throws Exception {
+    StreamingParser.firstChunkRead = new CountDownLatch(1);
+    Stage stage = factory.get("TextExtractorTest/textchunks-streaming.conf");
+    Document doc = Document.create("doc1");
+    doc.setField("byte_array", "ignored".getBytes());
+    Iterator<Document> children = stage.processDocument(doc);
+
+    assertTrue(children.hasNext());
+    assertEquals("abcd", children.next().getString("text"));
+    StreamingParser.firstChunkRead.countDown();
+
+    assertTrue(children.hasNext());
+    assertEquals("efgh", children.next().getString("text"));
+    assertFalse(children.hasNext());
+    stage.stop();
+  }
+
+  @Test
+  public void testTextChunkWriterKeepsSurrogatePairsTogether() throws IOException {
+    TextChunkWriter writer = new TextChunkWriter(3, Integer.MAX_VALUE);
+    // "ab" followed by a single code point outside the BMP, encoded as a surrogate pair
+    writer.write("ab\uD83D\uDE00c".toCharArray(), 0, 5);
+    assertEquals(List.of("ab", "\uD83D\uDE00c"), writer.getChunks());
+  }
+
+  @Test
+  public void testTextChunkWriterLimit() throws IOException {
+    TextChunkWriter writer = new TextChunkWriter(2, 5);
+    writer.write("abc".toCharArray(), 0, 3);
+    // the write that reaches the limit keeps what fits, then fails so the parse stops
+    assertThrows(IOException.class, () -> writer.write("defg".toCharArray(), 0, 4));
+    assertEquals(List.of("ab", "cd", "e"), writer.getChunks());
+
+    TextChunkWriter closed = new TextChunkWriter(2, 5);
+    closed.close();
+    assertThrows(IOException.class, () -> closed.write("a".toCharArray(), 0, 1));
+  }
+
+  @Test
+  public void testMaxInputBytes() throws StageException, IOException {
+    Stage stage = factory.get("TextExtractorTest/maxinputbytes.conf");
+    Document doc = Document.create("doc1");
+    doc.setField("byte_array", Files.readAllBytes(Paths.get("src/test/resources/TextExtractorTest/tika.txt")));
+    stage.processDocument(doc);
+    assertFalse(doc.has("text"));
+
+    Document smallDoc = Document.create("doc2");
+    smallDoc.setField("byte_array", "Hi".getBytes());
+    stage.processDocument(smallDoc);
+    assertEquals("Hi\n", smallDoc.getString("text"));
+  }
+
+  @Test
+  public void testMaxInputBytesFilePath() throws StageException {
+    Stage stage = factory.get("TextExtractorTest/maxinputbytes-filepath.conf");
+    Document doc = Document.create("doc1");
+    doc.setField("path", Paths.get("src/test/resources/TextExtractorTest/tika.txt").toAbsolutePath().toString());
+    stage.processDocument(doc);
+    // the stream is cut off before the parser sees the whole input, so the document is left without text
+    assertFalse(doc.has("text"));
+  }
+
+  @Test
+  public void testSharedParser() throws StageException {
+    Stage stage1 = factory.get("TextExtractorTest/sharedparser.conf");
+    Stage stage2 = factory.get("TextExtractorTest/sharedparser.conf");
+    String path = Paths.get("src/test/resources/TextExtractorTest/tika.txt").toAbsolutePath().toString();
+
+    Document doc1 = Document.create("doc1");
+    doc1.setField("path", path);
+    stage1.processDocument(doc1);
+    assertEquals("Hi There!\n", doc1.getString("text"));
+
+    // the shared parser and executor must stay usable by stage2 after stage1 releases them
+    stage1.stop();
+
+    Document doc2 = Document.create("doc2");
+    doc2.setField("path", path);
+    stage2.processDocument(doc2);
+    assertEquals("Hi There!\n", doc2.getString("text"));
+
+    stage2.stop();
+  }
+
   /**
    * Tests the TextExtractor closes inputStream after Document is processed
    *
@@ -506,6 +647,23 @@ public class TextExtractorTest {
     stage.stop();
   }
 
+  @Test
+  public void testSharedExecutorIsBounded() {
+    TikaParserManager manager = TikaParserManager.getInstance();
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) manager.acquireExecutor();
+    try {
+      assertEquals(2, executor.getMaximumPoolSize());
+      assertSame(executor, manager.acquireExecutor());
+      assertEquals(4, executor.getMaximumPoolSize());
+      manager.releaseExecutor();
+      assertEquals(2, executor.getMaximumPoolSize());
+      assertEquals(2, executor.getCorePoolSize());
+    } finally {
+      manager.releaseExecutor();
+    }
+    assertTrue(executor.isShutdown());
+  }
+
   public static class InterruptTrackingParser extends DefaultParser {
 
     private static AtomicBoolean interrupted = new AtomicBoolean(false);
@@ -552,6 +710,8 @@ public class TextExtractorTest {
     assertTrue("Parser should have been interrupted", InterruptTrackingParser.interrupted.get());
     // Document should not have text (or at least not from the parser)
     assertEquals("Document should have empty text.", "", doc.getString("text"));
+    // the partial results of the parse are dropped, including the content type that detection had already set
+    assertFalse(doc.has("tika_content_type"));
 
     stage.stop();
 
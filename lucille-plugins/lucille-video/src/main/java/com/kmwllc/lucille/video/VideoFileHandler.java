@@ -5,13 +5,24 @@ import com.kmwllc.lucille.core.fileHandler.BaseFileHandler;
 import com.kmwllc.lucille.core.fileHandler.FileHandlerException;
 import com.kmwllc.lucille.core.spec.Spec;
 import com.kmwllc.lucille.core.spec.SpecBuilder;
+import com.kmwllc.lucille.util.ThreadNameUtils;
 import com.typesafe.config.Config;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.imageio.ImageIO;
 import org.apache.commons.io.FilenameUtils;
 import org.bytedeco.javacv.FFmpegFrameGrabber.Exception;
@@ -32,7 +43,25 @@ import org.bytedeco.javacv.Java2DFrameConverter;
  *   <li>docIdPrefix (String, Optional) : Prefix prepended to all generated document ids.</li>
  *   <li>docIdFormat (String, Optional) : The pattern applied to the filename stem when composing the
  *   parent id (a single %s placeholder).</li>
- *   <li>frameStride (Int, Optional) : Emit every Nth video frame; defaults to 1.</li>
+ *   <li>samplingMode (String, Optional) : How frames are chosen; defaults to "stride".
+ *   <ul>
+ *     <li>"stride" decodes every frame and emits every frameStride-th one.</li>
+ *     <li>"interval" emits one frame every frameIntervalMs by seeking straight to each sample time. Only the frames between
+ *     the preceding keyframe and the sample time are decoded, rather than every frame in between samples.</li>
+ *     <li>"keyframes" emits keyframes only. Other frames are never decoded. If frameIntervalMs is set, keyframes less than
+ *     frameIntervalMs after the previously emitted one are skipped.</li>
+ *   </ul>
+ *   In "interval" and "keyframes" modes, the frame index is the frame number derived from the frame's timestamp. When
+ *   frameIntervalMs is shorter than a frame, samples that land on a frame that was already emitted are skipped, so each
+ *   frame is emitted at most once.</li>
+ *   <li>frameStride (Int, Optional) : Emit every Nth video frame in "stride" mode; defaults to 1.</li>
+ *   <li>frameIntervalMs (Long, Optional) : Milliseconds between sampled frames. Required for "interval" mode, optional for
+ *   "keyframes" mode.</li>
+ *   <li>segmentThreads (Int, Optional) : In "interval" and "keyframes" modes, splits a local video file into this many
+ *   contiguous time segments and decodes them in parallel, each with its own grabber. Documents are still emitted in video
+ *   order. Videos that are not local files, or whose length is unknown, are decoded sequentially. An error in any segment
+ *   is thrown by the iterator once the documents before it have been returned. In "keyframes" mode with frameIntervalMs,
+ *   the spacing of samples restarts at each segment boundary. Defaults to 1.</li>
  *   <li>sourceField (String, Optional) : Field used to store the original file path; defaults to "source".</li>
  *   <li>fileNameField (String, Optional) : Field used to store the leaf filename; defaults to "file_name".</li>
  *   <li>frameIndexField (String, Optional) : Field used to store the zero-based frame index; defaults to "frame_index".</li>
@@ -45,14 +74,26 @@ import org.bytedeco.javacv.Java2DFrameConverter;
  */
 public class VideoFileHandler extends BaseFileHandler {
   public static final Spec SPEC = SpecBuilder.fileHandler()
-      .optionalString("docIdPrefix", "docIdFormat", "sourceField", "fileNameField", "frameIndexField", "frameTimeMsField", "frameTimecodeField", "imageWidthField", "imageHeightField", "frameImageField")
-      .optionalNumber("frameStride")
+      .optionalString("docIdPrefix", "docIdFormat", "sourceField", "fileNameField", "frameIndexField", "frameTimeMsField", "frameTimecodeField", "imageWidthField", "imageHeightField", "frameImageField", "samplingMode")
+      .optionalNumber("frameStride", "frameIntervalMs", "segmentThreads")
       .build();
 
   private static final Logger log = LoggerFactory.getLogger(VideoFileHandler.class);
 
+  // the number of documents a segment may decode ahead of the consumer
+  private static final int SEGMENT_QUEUE_CAPACITY = 16;
+
+  // how far before its start a segment begins reading in "keyframes" mode, so that seeking doesn't skip past a keyframe
+  // at the start of the segment
+  private static final long KEYFRAME_SEEK_MARGIN_US = 1_000_000L;
+
+  private enum SamplingMode { STRIDE, INTERVAL, KEYFRAMES }
+
   private final String docIdFormat;
+  private final SamplingMode samplingMode;
   private final int frameStride;
+  private final long frameIntervalUs;
+  private final int segmentThreads;
   private final String sourceField;
   private final String fileNameField;
   private final String frameIndexField;
@@ -66,7 +107,16 @@ public class VideoFileHandler extends BaseFileHandler {
     super(config);
 
     this.docIdFormat = config.hasPath("docIdFormat") ? config.getString("docIdFormat") : null;
+    this.samplingMode = config.hasPath("samplingMode")
+        ? SamplingMode.valueOf(config.getString("samplingMode").toUpperCase(Locale.ROOT))
+        : SamplingMode.STRIDE;
     this.frameStride = Math.max(1, config.hasPath("frameStride") ? config.getInt("frameStride") : 1);
+    this.frameIntervalUs = config.hasPath("frameIntervalMs") ? config.getLong("frameIntervalMs") * 1000L : 0L;
+    this.segmentThreads = Math.max(1, config.hasPath("segmentThreads") ? config.getInt("segmentThreads") : 1);
+
+    if (samplingMode == SamplingMode.INTERVAL && frameIntervalUs <= 0) {
+      throw new IllegalArgumentException("frameIntervalMs must be a positive number when samplingMode is \"interval\".");
+    }
     this.sourceField = config.hasPath("sourceField") ? config.getString("sourceField") : "source";
     this.fileNameField = config.hasPath("fileNameField") ? config.getString("fileNameField") : "file_name";
     this.frameIndexField = config.hasPath("frameIndexField") ? config.getString("frameIndexField") : "frame_index";
@@ -82,97 +132,210 @@ public class VideoFileHandler extends BaseFileHandler {
     String parentId = buildParentId(pathStr);
     String fileName = FilenameUtils.getName(pathStr);
 
+    if (segmentThreads > 1 && samplingMode != SamplingMode.STRIDE) {
+      File file = new File(pathStr);
+      if (file.isFile()) {
+        // each segment opens the file on its own, so the stream we were given isn't needed
+        try {
+          inputStream.close();
+        } catch (IOException e) {
+          log.warn("Error closing input stream for {}", pathStr, e);
+        }
+        return new SegmentedFrameIterator(file, pathStr, parentId, fileName);
+      }
+      log.debug("{} is not a local file, decoding it sequentially.", pathStr);
+    }
+
     return getDocumentIterator(inputStream, pathStr, parentId, fileName);
   }
 
+  // opens a grabber for a local file; segmented decoding opens one per segment, plus one to read the video's length
+  FFmpegFrameGrabber createGrabber(File file) {
+    return new FFmpegFrameGrabber(file);
+  }
+
   private Iterator<Document> getDocumentIterator(InputStream inputStream, String pathStr,
       String parentId, String fileName) {
     FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputStream);
     grabber.setCloseInputStream(true);
 
-    Java2DFrameConverter converter = new Java2DFrameConverter();
-
-    return new FrameDocumentIterator(
-        grabber,
-        converter,
-        pathStr,
-        parentId,
-        fileName,
-        frameStride,
-        sourceField,
-        fileNameField,
-        frameIndexField,
-        frameTimeMsField,
-        frameTimecodeField,
-        imageWidthField,
-        imageHeightField,
-        frameImageField);
+    return new FrameDocumentIterator(new FrameSampler(grabber, pathStr, parentId, fileName, 0L, Long.MAX_VALUE));
   }
 
-  private static class FrameDocumentIterator implements Iterator<Document> {
+  /**
+   * Pulls sampled frames from a single grabber, between startUs (inclusive) and endUs (exclusive), according to the
+   * handler's sampling mode, and turns each one into a Document. The grabber is started lazily by the first call to
+   * {@link #next()} and stopped by {@link #close()}.
+   */
+  private class FrameSampler {
 
     private final FFmpegFrameGrabber grabber;
-    private final Java2DFrameConverter converter;
+    private final Java2DFrameConverter converter = new Java2DFrameConverter();
     private final String pathStr;
     private final String parentId;
     private final String fileName;
-    private final int frameStride;
-    private final String sourceField;
-    private final String fileNameField;
-    private final String frameIndexField;
-    private final String frameTimeMsField;
-    private final String frameTimecodeField;
-    private final String imageWidthField;
-    private final String imageHeightField;
-    private final String frameImageField;
+    private final long startUs;
+    private final long endUs;
 
-    private boolean closed = false;
     private boolean started = false;
-    private Document nextDoc = null;
     private int videoFrameIndex = 0;
+    private int lastIndex = -1;
+    private long nextSampleUs;
 
-    FrameDocumentIterator(FFmpegFrameGrabber grabber,
-        Java2DFrameConverter converter,
-        String pathStr,
-        String parentId,
-        String fileName,
-        int frameStride,
-        String sourceField,
-        String fileNameField,
-        String frameIndexField,
-        String frameTimeMsField,
-        String frameTimecodeField,
-        String imageWidthField,
-        String imageHeightField,
-        String frameImageField) {
+    FrameSampler(FFmpegFrameGrabber grabber, String pathStr, String parentId, String fileName, long startUs, long endUs) {
       this.grabber = grabber;
-      this.converter = converter;
       this.pathStr = pathStr;
       this.parentId = parentId;
       this.fileName = fileName;
-      this.frameStride = frameStride;
-      this.sourceField = sourceField;
-      this.fileNameField = fileNameField;
-      this.frameIndexField = frameIndexField;
-      this.frameTimeMsField = frameTimeMsField;
-      this.frameTimecodeField = frameTimecodeField;
-      this.imageWidthField = imageWidthField;
-      this.imageHeightField = imageHeightField;
-      this.frameImageField = frameImageField;
+      this.startUs = startUs;
+      this.endUs = endUs;
+
+      // the first sample time at or after the start of this range
+      this.nextSampleUs = (samplingMode == SamplingMode.INTERVAL)
+          ? ((startUs + frameIntervalUs - 1) / frameIntervalUs) * frameIntervalUs
+          : startUs;
     }
 
-    private void closeAll() {
-      if (closed) {
-        return;
+    void start() throws Exception {
+      grabber.start();
+      started = true;
+      if (startUs > 0 && samplingMode == SamplingMode.KEYFRAMES) {
+        // start reading a little early, and skip the keyframes before startUs below
+        grabber.setVideoTimestamp(Math.max(0L, startUs - KEYFRAME_SEEK_MARGIN_US));
       }
-      closed = true;
+    }
 
+    /**
+     * Returns a Document for the next sampled frame, or null when there are no more frames in range.
+     */
+    Document next() throws Exception {
+      if (!started) {
+        start();
+      }
+
+      while (true) {
+        Frame frame;
+        int index;
+
+        switch (samplingMode) {
+          case INTERVAL -> {
+            // the length is 0 when it isn't known, in which case the samples run until the frames do
+            long lengthUs = grabber.getLengthInTime();
+            if (nextSampleUs >= endUs || (lengthUs > 0 && nextSampleUs >= lengthUs)) {
+              return null;
+            }
+            // seeking decodes forward from the preceding keyframe only, rather than from the previous sample
+            grabber.setVideoTimestamp(nextSampleUs);
+            frame = grabber.grabImage();
+            nextSampleUs += frameIntervalUs;
+            index = grabber.getFrameNumber();
+          }
+          case KEYFRAMES -> {
+            // non-key packets are read but never decoded
+            frame = grabber.grabKeyFrame();
+            index = grabber.getFrameNumber();
+          }
+          default -> {
+            frame = grabber.grabImage();
+            index = videoFrameIndex++;
+          }
+        }
+
+        if (frame == null) {
+          return null;
+        }
+
+        long timeUs = grabber.getTimestamp();
+        // a sample belongs to the segment its sample time falls in, even if the frame it lands on is past the end of
+        // the segment. Keyframes belong to the segment their own time falls in.
+        if (samplingMode != SamplingMode.INTERVAL && timeUs >= endUs) {
+          return null;
+        }
+        if (samplingMode == SamplingMode.KEYFRAMES && timeUs < startUs) {
+          continue;
+        }
+
+        // samples closer together than a frame land on the same frame more than once
+        if (index <= lastIndex) {
+          continue;
+        }
+
+        if (samplingMode == SamplingMode.STRIDE && frameStride > 1 && (index % frameStride) != 0) {
+          continue;
+        }
+
+        if (samplingMode == SamplingMode.KEYFRAMES && frameIntervalUs > 0) {
+          if (timeUs < nextSampleUs) {
+            continue;
+          }
+          nextSampleUs = timeUs + frameIntervalUs;
+        }
+
+        BufferedImage image = converter.convert(frame);
+        if (image == null) {
+          continue;
+        }
+
+        lastIndex = index;
+        return createFrameDocument(image, index, timeUs / 1000L);
+      }
+    }
+
+    private Document createFrameDocument(BufferedImage image, int index, long timeMs) {
+      byte[] pngBytes = null;
+      try (ByteArrayOutputStream stream = new ByteArrayOutputStream()) {
+        ImageIO.write(image, "png", stream);
+        stream.flush();
+        pngBytes = stream.toByteArray();
+      } catch (IOException e) {
+        log.warn("PNG encoding failed for {} frame {}: {}", pathStr, index, e.toString());
+      }
+
+      String frameId = parentId + "-f" + index;
+      Document doc = Document.create(frameId);
+      doc.setField(sourceField, pathStr);
+      doc.setField(fileNameField, fileName);
+      doc.setField(frameIndexField, index);
+      doc.setField(frameTimeMsField, timeMs);
+      doc.setField(frameTimecodeField, formatTimecode(timeMs));
+      doc.setField(imageWidthField, image.getWidth());
+      doc.setField(imageHeightField, image.getHeight());
+      doc.setField(frameImageField, pngBytes);
+      return doc;
+    }
+
+    void close() {
       try {
         grabber.stop();
       } catch (Exception e) {
         log.warn("Error while stopping FFmpegFrameGrabber for {}", pathStr, e);
       }
     }
+  }
+
+  private static class FrameDocumentIterator implements Iterator<Document>, AutoCloseable {
+
+    private final FrameSampler sampler;
+
+    private boolean closed = false;
+    private Document nextDoc = null;
+
+    FrameDocumentIterator(FrameSampler sampler) {
+      this.sampler = sampler;
+    }
+
+    @Override
+    public void close() {
+      closeAll();
+    }
+
+    private void closeAll() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      sampler.close();
+    }
 
     @Override
     public boolean hasNext() {
@@ -180,66 +343,172 @@ public class VideoFileHandler extends BaseFileHandler {
         return nextDoc != null;
       }
 
-      if (!started) {
+      if (!sampler.started) {
         try {
-          grabber.start();
-          started = true;
+          sampler.start();
         } catch (Exception e) {
           closeAll();
-          throw new RuntimeException("Unable to start FFmpegFrameGrabber for: " + pathStr, e);
+          throw new RuntimeException("Unable to start FFmpegFrameGrabber for: " + sampler.pathStr, e);
         }
       }
 
       try {
-        while (true) {
-          Frame frame = grabber.grabImage();
+        nextDoc = sampler.next();
+      } catch (Exception e) {
+        closeAll();
+        log.error("Error while grabbing frames for {}", sampler.pathStr, e);
+        return false;
+      }
 
-          if (frame == null) {
-            closeAll();
-            return false;
-          }
+      if (nextDoc == null) {
+        closeAll();
+        return false;
+      }
+      return true;
+    }
 
-          int index = videoFrameIndex++;
-          if (frameStride > 1 && (index % frameStride) != 0) {
-            continue;
-          }
+    @Override
+    public Document next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Document out = nextDoc;
+      nextDoc = null;
+      return out;
+    }
+  }
 
-          BufferedImage image = converter.convert(frame);
-          if (image == null) {
-            continue;
-          }
+  /**
+   * Splits a local video into segmentThreads contiguous time ranges, each decoded by its own grabber on its own thread.
+   * Documents are returned in the order of the video: every document from the first segment, then the second, and so on.
+   * Each segment hands its documents over through a bounded queue, so a segment that gets ahead of the consumer blocks
+   * instead of holding an unbounded number of frames in memory. {@link #close()} stops the segments that are still
+   * running, for a caller that stops iterating early.
+   */
+  private class SegmentedFrameIterator implements Iterator<Document>, AutoCloseable {
 
-          long timeUs = grabber.getTimestamp();
-          long timeMs = timeUs / 1000L;
+    // marks the end of a segment's documents in its queue
+    private final Document endOfSegment = Document.create("end-of-segment");
 
-          byte[] pngBytes = null;
-          try (ByteArrayOutputStream stream = new ByteArrayOutputStream()) {
-            ImageIO.write(image, "png", stream);
-            stream.flush();
-            pngBytes = stream.toByteArray();
-          } catch (IOException e) {
-            log.warn("PNG encoding failed for {} frame {}: {}", pathStr, index, e.toString());
-          }
+    private final File file;
+    private final String pathStr;
+    private final String parentId;
+    private final String fileName;
+
+    private List<Segment> segments;
+    private ExecutorService executor;
+    private int currentSegment = 0;
+    private int lastIndex = -1;
+    private Document nextDoc = null;
+    private boolean closed = false;
+
+    SegmentedFrameIterator(File file, String pathStr, String parentId, String fileName) {
+      this.file = file;
+      this.pathStr = pathStr;
+      this.parentId = parentId;
+      this.fileName = fileName;
+    }
+
+    private void startSegments() {
+      long lengthUs;
+      FFmpegFrameGrabber probe = createGrabber(file);
+      try {
+        probe.start();
+        lengthUs = probe.getLengthInTime();
+      } catch (Exception e) {
+        throw new RuntimeException("Unable to start FFmpegFrameGrabber for: " + pathStr, e);
+      } finally {
+        try {
+          probe.stop();
+        } catch (Exception e) {
+          log.warn("Error while stopping FFmpegFrameGrabber for {}", pathStr, e);
+        }
+      }
+
+      // without a length the video can't be split, so it is decoded as a single segment
+      int segmentCount = segmentThreads;
+      if (lengthUs <= 0) {
+        log.debug("The length of {} is unknown, decoding it sequentially.", pathStr);
+        segmentCount = 1;
+      }
+
+      long segmentUs = Math.max(1L, (lengthUs + segmentCount - 1) / segmentCount);
+      AtomicInteger threadCount = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(segmentCount, r -> {
+        Thread t = new Thread(r, ThreadNameUtils.createName("VideoSegment-" + threadCount.incrementAndGet()));
+        t.setDaemon(true);
+        return t;
+      });
+
+      segments = new ArrayList<>(segmentCount);
+      for (int i = 0; i < segmentCount; i++) {
+        long startUs = i * segmentUs;
+        // the last segment runs to the end of the stream, whatever its reported length
+        long endUs = (i == segmentCount - 1) ? Long.MAX_VALUE : startUs + segmentUs;
+        Segment segment = new Segment(startUs, new FrameSampler(createGrabber(file), pathStr, parentId, fileName, startUs, endUs));
+        segments.add(segment);
+        executor.submit(segment);
+      }
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      nextDoc = null;
+      if (executor != null) {
+        // interrupts segments blocked on a full queue; each one closes its own grabber
+        executor.shutdownNow();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (closed || nextDoc != null) {
+        return nextDoc != null;
+      }
+
+      if (segments == null) {
+        try {
+          startSegments();
+        } catch (RuntimeException e) {
+          close();
+          throw e;
+        }
+      }
 
-          String frameId = parentId + "-f" + index;
-          Document doc = Document.create(frameId);
-          doc.setField(sourceField, pathStr);
-          doc.setField(fileNameField, fileName);
-          doc.setField(frameIndexField, index);
-          doc.setField(frameTimeMsField, timeMs);
-          doc.setField(frameTimecodeField, formatTimecode(timeMs));
-          doc.setField(imageWidthField, image.getWidth());
-          doc.setField(imageHeightField, image.getHeight());
-          doc.setField(frameImageField, pngBytes);
+      try {
+        while (currentSegment < segments.size()) {
+          Segment segment = segments.get(currentSegment);
+          Document doc = segment.queue.take();
+          if (doc == endOfSegment) {
+            if (segment.failure != null) {
+              close();
+              throw new RuntimeException("Error while grabbing frames for " + pathStr + " from " + segment.startUs + " us",
+                  segment.failure);
+            }
+            currentSegment++;
+            continue;
+          }
 
+          // a sample just before a segment boundary can land on the frame the next segment starts with
+          int index = doc.getInt(frameIndexField);
+          if (index <= lastIndex) {
+            continue;
+          }
+          lastIndex = index;
           nextDoc = doc;
           return true;
         }
-      } catch (Exception e) {
-        closeAll();
-        log.error("Error while grabbing frames for {}", pathStr, e);
-        return false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.error("Interrupted while waiting for frames from {}", pathStr, e);
       }
+
+      close();
+      return false;
     }
 
     @Override
@@ -251,6 +520,47 @@ public class VideoFileHandler extends BaseFileHandler {
       nextDoc = null;
       return out;
     }
+
+    /**
+     * Decodes one time range of the video into its queue, followed by the end marker. An error ends the segment early
+     * and is kept, so the consumer can throw it when it reaches the end marker.
+     */
+    private class Segment implements Callable<Void> {
+
+      private final long startUs;
+      private final FrameSampler sampler;
+      private final BlockingQueue<Document> queue = new ArrayBlockingQueue<>(SEGMENT_QUEUE_CAPACITY);
+      private volatile Throwable failure;
+
+      Segment(long startUs, FrameSampler sampler) {
+        this.startUs = startUs;
+        this.sampler = sampler;
+      }
+
+      @Override
+      public Void call() {
+        try {
+          Document doc;
+          while ((doc = sampler.next()) != null) {
+            queue.put(doc);
+          }
+        } catch (InterruptedException e) {
+          // the iterator was closed, so nobody is waiting for the end marker
+          return null;
+        } catch (Throwable t) {
+          failure = t;
+        } finally {
+          sampler.close();
+        }
+
+        try {
+          queue.put(endOfSegment);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return null;
+      }
+    }
   }
 
   private String buildParentId(String pathStr) {
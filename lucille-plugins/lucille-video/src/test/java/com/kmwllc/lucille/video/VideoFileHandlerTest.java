@@ -1,11 +1,16 @@
 package com.kmwllc.lucille.video;
 
 import com.kmwllc.lucille.core.Document;
+import com.kmwllc.lucille.core.Publisher;
+import com.kmwllc.lucille.core.fileHandler.FileHandlerException;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.FilenameUtils;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.junit.Test;
 
 import java.io.File;
@@ -14,6 +19,12 @@ import java.util.Iterator;
 import java.util.Map;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 
 public class VideoFileHandlerTest {
 
@@ -128,6 +139,206 @@ public class VideoFileHandlerTest {
     }
   }
 
+  private List<Document> processAll(VideoFileHandler handler, String filePath) throws Exception {
+    List<Document> docs = new ArrayList<>();
+    try (FileInputStream fis = new FileInputStream(filePath)) {
+      Iterator<Document> it = handler.processFile(fis, filePath);
+      while (it.hasNext()) {
+        docs.add(it.next());
+      }
+    }
+    return docs;
+  }
+
+  @Test
+  public void testIntervalSampling() throws Exception {
+    String filePath = "src/test/resources/VideoFileHandlerTest/sample.mp4";
+    List<Document> allFrames = processAll(new VideoFileHandler(ConfigFactory.empty()), filePath);
+
+    VideoFileHandler handler = new VideoFileHandler(ConfigFactory.parseMap(Map.of(
+        "samplingMode", "interval",
+        "frameIntervalMs", 500)));
+    List<Document> sampled = processAll(handler, filePath);
+
+    assertTrue(sampled.size() > 1);
+    assertTrue(sampled.size() < allFrames.size());
+
+    long previousMs = -1;
+    for (Document doc : sampled) {
+      long timeMs = doc.getLong("frame_time_ms");
+      assertTrue(timeMs > previousMs);
+      previousMs = timeMs;
+      assertNotNull(doc.getBytes("frame_image"));
+    }
+
+    // consecutive samples are about one interval apart
+    long gap = sampled.get(1).getLong("frame_time_ms") - sampled.get(0).getLong("frame_time_ms");
+    assertTrue("gap was " + gap, gap >= 400 && gap <= 600);
+  }
+
+  @Test
+  public void testKeyframeSampling() throws Exception {
+    String filePath = "src/test/resources/VideoFileHandlerTest/sample.mp4";
+    List<Document> allFrames = processAll(new VideoFileHandler(ConfigFactory.empty()), filePath);
+
+    VideoFileHandler handler = new VideoFileHandler(ConfigFactory.parseMap(Map.of("samplingMode", "keyframes")));
+    List<Document> keyframes = processAll(handler, filePath);
+
+    assertFalse(keyframes.isEmpty());
+    assertTrue(keyframes.size() < allFrames.size());
+    assertEquals(keyframes.size(), keyframes.stream().map(Document::getId).distinct().count());
+  }
+
+  @Test
+  public void testSegmentedSamplingMatchesSequential() throws Exception {
+    String filePath = "src/test/resources/VideoFileHandlerTest/sample.mp4";
+
+    VideoFileHandler sequential = new VideoFileHandler(ConfigFactory.parseMap(Map.of(
+        "samplingMode", "interval",
+        "frameIntervalMs", 250)));
+    VideoFileHandler segmented = new VideoFileHandler(ConfigFactory.parseMap(Map.of(
+        "samplingMode", "interval",
+        "frameIntervalMs", 250,
+        "segmentThreads", 3)));
+
+    List<String> sequentialIds = processAll(sequential, filePath).stream().map(Document::getId).toList();
+    List<String> segmentedIds = processAll(segmented, filePath).stream().map(Document::getId).toList();
+
+    assertTrue(sequentialIds.size() > 3);
+    assertEquals(sequentialIds, segmentedIds);
+  }
+
+  @Test
+  public void testSegmentBoundaries() throws Exception {
+    String filePath = "src/test/resources/VideoFileHandlerTest/sample.mp4";
+
+    // samples and keyframes at or near a segment boundary are emitted exactly once, whatever the number of segments
+    for (Map<String, Object> sampling : List.<Map<String, Object>>of(
+        Map.of("samplingMode", "interval", "frameIntervalMs", 100),
+        Map.of("samplingMode", "interval", "frameIntervalMs", 333),
+        Map.of("samplingMode", "keyframes"))) {
+      List<String> sequentialIds = processAll(new VideoFileHandler(ConfigFactory.parseMap(sampling)), filePath).stream()
+          .map(Document::getId).toList();
+
+      for (int threads = 2; threads <= 4; threads++) {
+        Map<String, Object> segmentedConfig = new HashMap<>(sampling);
+        segmentedConfig.put("segmentThreads", threads);
+        List<String> segmentedIds = processAll(new VideoFileHandler(ConfigFactory.parseMap(segmentedConfig)), filePath)
+            .stream().map(Document::getId).toList();
+        assertEquals(sampling + " with " + threads + " segments", sequentialIds, segmentedIds);
+      }
+    }
+  }
+
+  @Test
+  public void testIntervalShorterThanFrame() throws Exception {
+    String filePath = "src/test/resources/VideoFileHandlerTest/sample.mp4";
+
+    // frames are about 33 ms apart, so most samples land on a frame that was already emitted
+    List<Document> sequential = processAll(new VideoFileHandler(ConfigFactory.parseMap(Map.of(
+        "samplingMode", "interval",
+        "frameIntervalMs", 10))), filePath);
+    List<Document> segmented = processAll(new VideoFileHandler(ConfigFactory.parseMap(Map.of(
+        "samplingMode", "interval",
+        "frameIntervalMs", 10,
+        "segmentThreads", 3))), filePath);
+
+    List<String> ids = sequential.stream().map(Document::getId).toList();
+    assertEquals(ids.size(), ids.stream().distinct().count());
+    assertEquals(ids, segmented.stream().map(Document::getId).toList());
+  }
+
+  @Test
+  public void testSegmentedFallsBackWhenLengthUnknown() throws Exception {
+    String filePath = "src/test/resources/VideoFileHandlerTest/sample.mp4";
+    Map<String, Object> sampling = Map.of("samplingMode", "interval", "frameIntervalMs", 250);
+    List<String> sequentialIds = processAll(new VideoFileHandler(ConfigFactory.parseMap(sampling)), filePath).stream()
+        .map(Document::getId).toList();
+
+    Map<String, Object> segmentedConfig = new HashMap<>(sampling);
+    segmentedConfig.put("segmentThreads", 3);
+    VideoFileHandler handler = spy(new VideoFileHandler(ConfigFactory.parseMap(segmentedConfig)));
+    List<File> opened = new ArrayList<>();
+    doAnswer(invocation -> {
+      File file = invocation.getArgument(0);
+      opened.add(file);
+      FFmpegFrameGrabber grabber = spy(new FFmpegFrameGrabber(file));
+      doReturn(0L).when(grabber).getLengthInTime();
+      return grabber;
+    }).when(handler).createGrabber(any());
+
+    List<String> segmentedIds = processAll(handler, filePath).stream().map(Document::getId).toList();
+
+    assertEquals(sequentialIds, segmentedIds);
+    // one grabber to read the length, and one for the only segment
+    assertEquals(2, opened.size());
+  }
+
+  @Test
+  public void testSegmentFailureIsThrown() throws Exception {
+    String filePath = "src/test/resources/VideoFileHandlerTest/sample.mp4";
+    VideoFileHandler handler = spy(new VideoFileHandler(ConfigFactory.parseMap(Map.of(
+        "samplingMode", "interval",
+        "frameIntervalMs", 250,
+        "segmentThreads", 3))));
+    AtomicInteger grabbers = new AtomicInteger();
+    doAnswer(invocation -> {
+      FFmpegFrameGrabber grabber = spy(new FFmpegFrameGrabber((File) invocation.getArgument(0)));
+      // the length probe is the first grabber, so this breaks the second segment
+      if (grabbers.incrementAndGet() == 3) {
+        doThrow(new FFmpegFrameGrabber.Exception("broken segment")).when(grabber).grabImage();
+      }
+      return grabber;
+    }).when(handler).createGrabber(any());
+
+    List<Document> docs = new ArrayList<>();
+    try (FileInputStream fis = new FileInputStream(filePath)) {
+      Iterator<Document> it = handler.processFile(fis, filePath);
+      RuntimeException e = assertThrows(RuntimeException.class, () -> {
+        while (it.hasNext()) {
+          docs.add(it.next());
+        }
+      });
+      assertTrue(e.getCause().getMessage().startsWith("broken segment"));
+      assertFalse(it.hasNext());
+    }
+
+    // the documents of the first segment were returned before the failure
+    assertFalse(docs.isEmpty());
+  }
+
+  @Test
+  public void testStoppingEarlyStopsSegments() throws Exception {
+    String filePath = "src/test/resources/VideoFileHandlerTest/sample.mp4";
+    VideoFileHandler handler = new VideoFileHandler(ConfigFactory.parseMap(Map.of(
+        "samplingMode", "interval",
+        "frameIntervalMs", 10,
+        "segmentThreads", 3)));
+
+    // the publisher fails on the first document, while the segments are blocked on their full queues
+    Publisher publisher = mock(Publisher.class);
+    doThrow(new Exception("publish failed")).when(publisher).publish(any());
+    try (FileInputStream fis = new FileInputStream(filePath)) {
+      assertThrows(FileHandlerException.class, () -> handler.processFileAndPublish(publisher, fis, filePath));
+    }
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (segmentThreadsRunning() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertFalse(segmentThreadsRunning());
+  }
+
+  private static boolean segmentThreadsRunning() {
+    return Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().contains("VideoSegment") && t.isAlive());
+  }
+
+  @Test
+  public void testIntervalSamplingRequiresInterval() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new VideoFileHandler(ConfigFactory.parseMap(Map.of("samplingMode", "interval"))));
+  }
+
   @Test
   public void testConfigurableFieldNames() throws Exception {
     // Use non-default field names for every configurable field
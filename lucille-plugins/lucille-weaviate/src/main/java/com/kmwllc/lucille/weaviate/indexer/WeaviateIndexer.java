@@ -143,7 +143,7 @@ public class WeaviateIndexer extends Indexer {
 
         // if vector field is specified set it and remove it from the docMap
         if (vectorField != null && doc.has(vectorField)) {
-          objectBuilder.vector(floatsToArray(doc.getFloatList(vectorField)));
+          objectBuilder.vector(toBoxedArray(doc.getVector(vectorField)));
           docMap.remove(vectorField);
         }
 
@@ -185,14 +185,13 @@ public class WeaviateIndexer extends Indexer {
     return UUID.nameUUIDFromBytes(document.getId().getBytes()).toString();
   }
 
-  private static Float[] floatsToArray(List<Float> list) {
-    if (list == null) {
+  private static Float[] toBoxedArray(float[] vector) {
+    if (vector == null) {
       throw new IllegalArgumentException("expecting a non empty list of floats");
     }
-    int size = list.size();
-    Float[] array = new Float[size];
-    for (int i = 0; i < size; i++) {
-      array[i] = list.get(i);
+    Float[] array = new Float[vector.length];
+    for (int i = 0; i < vector.length; i++) {
+      array[i] = vector[i];
     }
     return array;
   }